@@ -0,0 +1,63 @@
+package at.hcw.alcatraz.dao;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of answering GET /players/all.
+ *
+ * copyAndSerialize: what the endpoint did before, copy the names and encode them with Jackson.
+ * cached: the pre-encoded PlayerList, shared between reads.
+ * cachedWithWrites: cached reads while one thread keeps changing the lobby, so reads re-encode.
+ *
+ * Run with -prof gc to compare allocation per read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerListBenchmark {
+
+	private static final String LOBBY = "lobby";
+
+	PlayerRegistry registry;
+	ObjectMapper mapper;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		registry = new PlayerRegistry();
+		mapper = new ObjectMapper();
+		registry.add(LOBBY, "alice", "http://alice");
+		registry.add(LOBBY, "bob", "http://bob");
+		registry.add(LOBBY, "carol", "http://carol");
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] copyAndSerialize() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(registry.list(LOBBY));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] cached() {
+		return registry.playerList(LOBBY).json();
+	}
+
+	@Benchmark
+	@Group("cachedWithWrites")
+	@GroupThreads(3)
+	public byte[] cachedRead() {
+		return registry.playerList(LOBBY).json();
+	}
+
+	@Benchmark
+	@Group("cachedWithWrites")
+	@GroupThreads(1)
+	public boolean cachedWrite() {
+		registry.add(LOBBY, "dave", "http://dave");
+		return registry.remove(LOBBY, "dave");
+	}
+}
@@ -0,0 +1,71 @@
+package at.hcw.alcatraz.dao;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PlayerRegistry writes and snapshots under contention.
+ *
+ * lobbies=1: all writer threads share one lobby and its lock.
+ * lobbies=64: writers are spread over independent lobbies.
+ *
+ * The registry is pre-filled with 1000 lobbies so snapshots copy a realistic amount of state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerRegistryBenchmark {
+
+	@Param({"1", "64"})
+	int lobbies;
+
+	PlayerRegistry registry;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		registry = new PlayerRegistry();
+		for (int i = 0; i < 1_000; i++) {
+			registry.add("idle-" + i, "alice", "http://alice-" + i);
+			registry.add("idle-" + i, "bob", "http://bob-" + i);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Player {
+		String lobby;
+		String name;
+		String callback;
+
+		@Setup(Level.Trial)
+		public void setUp(PlayerRegistryBenchmark benchmark, ThreadParams thread) {
+			int index = thread.getThreadIndex();
+			lobby = "lobby-" + (index % benchmark.lobbies);
+			name = "player-" + index;
+			callback = "http://player-" + index;
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean addRemove(Player player) {
+		registry.add(player.lobby, player.name, player.callback);
+		return registry.remove(player.lobby, player.name);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public boolean mixedAddRemove(Player player) {
+		registry.add(player.lobby, player.name, player.callback);
+		return registry.remove(player.lobby, player.name);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public RegistrySnapshot mixedSnapshot() {
+		return registry.snapshot();
+	}
+}
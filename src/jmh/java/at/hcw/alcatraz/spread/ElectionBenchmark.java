@@ -0,0 +1,67 @@
+package at.hcw.alcatraz.spread;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Master state reads from many request threads while the membership thread
+ * applies elections.
+ *
+ * evaluate() logs every election; stdout is discarded during the run so
+ * the benchmark measures the state update, not the console.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ElectionBenchmark {
+
+	private static final List<String> ALL = List.of("node1", "node2", "node3");
+	private static final List<String> WITHOUT_FIRST = List.of("node2", "node3");
+
+	ElectionService election;
+	PrintStream stdout;
+	boolean flip;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(ALL, "node2");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	@Group("readWrite")
+	@GroupThreads(1)
+	public void evaluate() {
+		flip = !flip;
+		election.evaluate(flip ? WITHOUT_FIRST : ALL, "node2");
+	}
+
+	@Benchmark
+	@Group("readWrite")
+	@GroupThreads(7)
+	public void read(Blackhole bh) {
+		bh.consume(election.isMaster());
+		bh.consume(election.getCurrentMasterId());
+	}
+
+	@Benchmark
+	@Group("readOnly")
+	@GroupThreads(8)
+	public void readOnly(Blackhole bh) {
+		bh.consume(election.isMaster());
+		bh.consume(election.getCurrentMasterId());
+	}
+}
@@ -0,0 +1,38 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.transport.MembershipView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node id extraction and sorting done by SpreadManager.onMembership on every view change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MembershipBenchmark {
+
+	@Param({"3", "16"})
+	int members;
+
+	MembershipView view;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		List<String> names = new ArrayList<>(members);
+		for (int i = 1; i <= members; i++)
+			names.add("#node" + i + "#host-" + i);
+		Collections.shuffle(names, new Random(42));
+		view = new MembershipView(List.copyOf(names), MembershipView.Cause.JOIN, names.get(0));
+	}
+
+	@Benchmark
+	public List<String> memberIds() {
+		return SpreadManager.memberIds(view);
+	}
+}
@@ -0,0 +1,52 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame encoding and decoding through SpreadConnectionService, i.e. the
+ * path every replicated delta takes on the master and on each backup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketCodecBenchmark {
+
+	@Param({"binary", "json"})
+	String codec;
+
+	@Param({"1", "64"})
+	int packets;
+
+	SpreadConnectionService spread;
+	List<SpreadPacket> frame;
+	byte[] encoded;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		spread = new SpreadConnectionService(null, "node1", codec, 0, "block", new SimpleMeterRegistry());
+		frame = new ArrayList<>(packets);
+		for (int i = 0; i < packets; i++) {
+			frame.add(new SpreadPacket(SpreadMsgType.ADD, 1_000_000L + i, "lobby-" + i,
+					Map.of("player-" + i, "http://10.0.0." + (i % 250) + ":9000/callback")));
+		}
+		encoded = spread.encode(frame);
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return spread.encode(frame);
+	}
+
+	@Benchmark
+	public List<SpreadPacket> decode() throws IOException {
+		return spread.decode(encoded);
+	}
+}
@@ -1,13 +1,106 @@
 package at.hcw.alcatraz;
 
+import at.hcw.alcatraz.spread.NodeDirectory;
+import org.springframework.boot.Banner;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @SpringBootApplication
 public class AlcatrazApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(AlcatrazApplication.class, args);
+        start(args);
+    }
+
+    /**
+     * Starts this node.
+     *
+     * With cluster.shards=N &gt; 1 the node hosts every shard: it runs one
+     * application context per shard in this JVM, so it holds a replica of
+     * every shard and can take over any of them. The context of shard s
+     * - serves HTTP on server.port + s (and announces cluster.advertised-port + s)
+     * - joins the group "{spread.group}-{s}", see TransportConfig
+     * - persists to "{persistence.dir}/shard-{s}"
+     * - tags its metrics with shard=s
+     * Only the context of shard 0 runs the flight recorder; its recording
+     * holds the events of all contexts of the JVM.
+     *
+     * @param args command line arguments
+     * @return the running contexts, index = shard
+     */
+    public static List<ConfigurableApplicationContext> start(String... args) {
+        int shards;
+        List<Map<String, Object>> overrides = new ArrayList<>();
+        // Reads the configuration the way the node will, without starting anything.
+        try (ConfigurableApplicationContext probe = new SpringApplicationBuilder(Probe.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .run(args)) {
+            Environment env = probe.getEnvironment();
+            shards = env.getProperty("cluster.shards", Integer.class, 1);
+            if (shards > 1) {
+                for (int shard = 0; shard < shards; shard++)
+                    overrides.add(shardProperties(env, shard));
+            }
+        }
+
+        if (shards <= 1)
+            return List.of(SpringApplication.run(AlcatrazApplication.class, args));
+
+        List<ConfigurableApplicationContext> contexts = new ArrayList<>(shards);
+        try {
+            for (Map<String, Object> properties : overrides) {
+                contexts.add(new SpringApplicationBuilder(AlcatrazApplication.class)
+                        .initializers(context -> context.getEnvironment().getPropertySources()
+                                .addFirst(new MapPropertySource("shard", properties)))
+                        .run(args));
+            }
+        } catch (RuntimeException e) {
+            contexts.forEach(ConfigurableApplicationContext::close);
+            throw e;
+        }
+        return contexts;
     }
 
+    /**
+     * @return properties that differ between the shard contexts of one node
+     */
+    private static Map<String, Object> shardProperties(Environment env, int shard) {
+        int port = env.getProperty("server.port", Integer.class, 8080);
+        if (port <= 0)
+            throw new IllegalArgumentException("server.port must be fixed with cluster.shards > 1");
+        int advertisedPort = env.getProperty("cluster.advertised-port", Integer.class, port);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("cluster.shard", shard);
+        properties.put("server.port", port + shard);
+        properties.put("cluster.advertised-port", advertisedPort + shard);
+        properties.put("cluster.nodes", NodeDirectory.shiftPorts(env.getProperty("cluster.nodes", ""), shard));
+        properties.put("persistence.dir",
+                Path.of(env.getProperty("persistence.dir", "data")).resolve("shard-" + shard).toString());
+        properties.put("management.metrics.tags.shard", shard);
+        if (shard > 0) {
+            properties.put("flight.enabled", false);
+            properties.put("spring.main.banner-mode", "off");
+        }
+        return properties;
+    }
+
+    /**
+     * Empty context that only loads the configuration.
+     */
+    static class Probe {
+    }
 }
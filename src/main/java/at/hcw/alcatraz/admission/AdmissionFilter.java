@@ -0,0 +1,229 @@
+package at.hcw.alcatraz.admission;
+
+import at.hcw.alcatraz.routing.RoutingHeaders;
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.spread.NodeDirectory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control for the master's write path.
+ *
+ * Every write (register, unregister, start, finish, matchmaking) runs on a
+ * Tomcat thread that serializes on the registry and waits for Spread and
+ * for callbacks. Without a limit a registration storm takes all threads
+ * and reads and health checks time out along with the writes. This filter
+ * lets a bounded number of writes in and turns the rest away at once, with
+ * a Retry-After header, while there is still a thread to say so.
+ *
+ * Checks, in order (only on the master; backups forward, and the master
+ * decides):
+ * - Per client token bucket (admission.client.rate-per-second, off by
+ *   default): 429 with Retry-After until the client's next token.
+ * - Global concurrency limit (admission.write.max-concurrent): a write that
+ *   finds all permits taken queues for one.
+ * - Queue bounds: 503 with Retry-After if admission.write.max-queue writes
+ *   are already waiting, or if no permit frees up within the queue-time
+ *   budget admission.write.queue-budget-ms.
+ *
+ * The client of a request forwarded by a backup is the address the backup
+ * appended to X-Forwarded-For, otherwise the remote address. Forwarding
+ * headers count only if the request comes from a cluster node (every node
+ * is a member of every shard's group) or from admission.trusted-forwarders,
+ * so a client cannot pick a new bucket for each write by making them up.
+ *
+ * Reads, health and streams never pass through the limits. Keep
+ * max-concurrent + max-queue well below server.tomcat.threads.max so they
+ * always find a thread.
+ *
+ * Metrics:
+ * - alcatraz.admission.active: writes holding a permit
+ * - alcatraz.admission.queued: writes waiting for a permit
+ * - alcatraz.admission.queue.wait: time writes waited for a permit
+ * - alcatraz.admission.rejected: rejected writes, tagged reason=rate|queue-full|queue-time
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 5)
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private final ElectionService election;
+    private final boolean enabled;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long queueBudgetMs;
+    private final long retryAfterSeconds;
+
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /** Null if per client rate limiting is off. */
+    private final TokenBuckets buckets;
+
+    /** Nodes whose forwarding headers name the client. */
+    private final TrustedForwarders forwarders;
+
+    private final Timer queueWait;
+    private final Counter rejectedRate;
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedQueueTime;
+
+    /**
+     * @param maxConcurrent     writes processed at the same time
+     * @param maxQueue          writes waiting for a permit at most
+     * @param queueBudgetMs     how long a write waits for a permit
+     * @param clientRate        writes per second and client, 0 disables the token buckets
+     * @param clientBurst       writes a client may send at once after being idle
+     * @param maxClients        clients with a bucket of their own
+     * @param retryAfterSeconds Retry-After of 503 answers
+     * @param trustedForwarders further hosts that forward requests, "10.0.1.1,10.0.1.2", may be empty
+     */
+    public AdmissionFilter(ElectionService election,
+                           NodeDirectory directory,
+                           @Value("${admission.enabled:true}") boolean enabled,
+                           @Value("${admission.write.max-concurrent:32}") int maxConcurrent,
+                           @Value("${admission.write.max-queue:64}") int maxQueue,
+                           @Value("${admission.write.queue-budget-ms:200}") long queueBudgetMs,
+                           @Value("${admission.client.rate-per-second:0}") double clientRate,
+                           @Value("${admission.client.burst:20}") int clientBurst,
+                           @Value("${admission.client.max-tracked:10000}") int maxClients,
+                           @Value("${admission.retry-after-s:1}") long retryAfterSeconds,
+                           @Value("${admission.trusted-forwarders:}") String trustedForwarders,
+                           MeterRegistry meters) {
+        this.election = election;
+        this.enabled = enabled;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.queueBudgetMs = Math.max(0, queueBudgetMs);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        this.permits = new Semaphore(this.maxConcurrent, true);
+        this.buckets = clientRate > 0 ? new TokenBuckets(clientRate, clientBurst, maxClients) : null;
+        this.forwarders = new TrustedForwarders(directory, Arrays.stream(trustedForwarders.split(","))
+                .map(String::trim).filter(s -> !s.isEmpty()).toList());
+
+        Gauge.builder("alcatraz.admission.active", permits, p -> this.maxConcurrent - p.availablePermits())
+                .description("Writes holding an admission permit")
+                .register(meters);
+        Gauge.builder("alcatraz.admission.queued", queued, AtomicInteger::get)
+                .description("Writes waiting for an admission permit")
+                .register(meters);
+        this.queueWait = Timer.builder("alcatraz.admission.queue.wait")
+                .description("Time writes waited for an admission permit")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meters);
+        this.rejectedRate = rejectedCounter(meters, "rate");
+        this.rejectedQueueFull = rejectedCounter(meters, "queue-full");
+        this.rejectedQueueTime = rejectedCounter(meters, "queue-time");
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meters, String reason) {
+        return Counter.builder("alcatraz.admission.rejected")
+                .description("Writes rejected by admission control")
+                .tag("reason", reason)
+                .register(meters);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled)
+            return true;
+        String method = request.getMethod();
+        if (method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS"))
+            return true;
+        String path = request.getRequestURI();
+        return !(path.startsWith("/players/") || path.startsWith("/lobbies/") || path.startsWith("/matchmaking/"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        if (!election.isMaster()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (buckets != null) {
+            long waitNanos = buckets.take(client(request));
+            if (waitNanos > 0) {
+                rejectedRate.increment();
+                long seconds = Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000);
+                reject(response, HttpStatus.TOO_MANY_REQUESTS.value(), seconds, "Client rate limit exceeded");
+                return;
+            }
+        }
+
+        if (!permits.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueue) {
+                queued.decrementAndGet();
+                rejectedQueueFull.increment();
+                reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, retryAfterSeconds, "Too many writes queued");
+                return;
+            }
+            long started = System.nanoTime();
+            boolean admitted;
+            try {
+                admitted = permits.tryAcquire(queueBudgetMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServletException(e);
+            } finally {
+                queued.decrementAndGet();
+                queueWait.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+            if (!admitted) {
+                rejectedQueueTime.increment();
+                reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, retryAfterSeconds, "Write queue-time budget exceeded");
+                return;
+            }
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void reject(HttpServletResponse response, int status, long retryAfterSeconds, String message)
+            throws IOException {
+        response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+        response.sendError(status, message);
+    }
+
+    /**
+     * @return address of the client; for a request forwarded by a trusted node the one it appended last
+     */
+    private String client(HttpServletRequest request) {
+        if (request.getHeader(RoutingHeaders.FORWARDED_BY) != null && forwarders.contains(request.getRemoteAddr())) {
+            List<String> forwardedFor = Collections.list(request.getHeaders("X-Forwarded-For"));
+            if (!forwardedFor.isEmpty()) {
+                String last = forwardedFor.get(forwardedFor.size() - 1);
+                return last.substring(last.lastIndexOf(',') + 1).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+}
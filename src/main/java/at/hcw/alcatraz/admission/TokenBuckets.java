@@ -0,0 +1,98 @@
+package at.hcw.alcatraz.admission;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * One token bucket per client.
+ *
+ * A bucket holds at most burst tokens and refills at ratePerSecond. Buckets
+ * are created on first use. Once maxClients buckets exist, full buckets
+ * (clients idle for at least burst / rate seconds) are dropped; if all are
+ * in use, further clients share one overflow bucket, so a flood of client
+ * addresses cannot grow the map without bound.
+ */
+final class TokenBuckets {
+
+    /** Key of the bucket shared by clients beyond maxClients. */
+    static final String OVERFLOW = "*";
+
+    private static final class Bucket {
+        double tokens;
+        long refilledAt;
+
+        Bucket(double tokens, long refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+    }
+
+    private final double tokensPerNano;
+    private final double burst;
+    private final int maxClients;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    TokenBuckets(double ratePerSecond, int burst, int maxClients) {
+        this(ratePerSecond, burst, maxClients, System::nanoTime);
+    }
+
+    TokenBuckets(double ratePerSecond, int burst, int maxClients, LongSupplier clock) {
+        if (ratePerSecond <= 0)
+            throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.maxClients = Math.max(1, maxClients);
+        this.clock = clock;
+    }
+
+    /**
+     * Takes one token from the client's bucket.
+     *
+     * @return 0 if a token was taken, else nanoseconds until the next one is available
+     */
+    long take(String client) {
+        long now = clock.getAsLong();
+        Bucket bucket = buckets.get(client);
+        if (bucket == null) {
+            if (buckets.size() >= maxClients)
+                evictIdle(now);
+            if (buckets.size() >= maxClients)
+                client = OVERFLOW;
+            bucket = buckets.computeIfAbsent(client, c -> new Bucket(burst, now));
+        }
+        synchronized (bucket) {
+            refill(bucket, now);
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - bucket.tokens) / tokensPerNano);
+        }
+    }
+
+    /**
+     * @return buckets, at most maxClients plus the overflow bucket
+     */
+    int size() {
+        return buckets.size();
+    }
+
+    private void evictIdle(long now) {
+        buckets.values().removeIf(bucket -> {
+            synchronized (bucket) {
+                refill(bucket, now);
+                return bucket.tokens >= burst;
+            }
+        });
+    }
+
+    private void refill(Bucket bucket, long now) {
+        long elapsed = now - bucket.refilledAt;
+        if (elapsed <= 0)
+            return;
+        bucket.tokens = Math.min(burst, bucket.tokens + elapsed * tokensPerNano);
+        bucket.refilledAt = now;
+    }
+}
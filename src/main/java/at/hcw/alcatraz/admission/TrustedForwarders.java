@@ -0,0 +1,100 @@
+package at.hcw.alcatraz.admission;
+
+import at.hcw.alcatraz.spread.NodeDirectory;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Addresses whose X-Alcatraz-Forwarded-By and X-Forwarded-For headers are
+ * believed: the hosts of the cluster's nodes as the NodeDirectory knows them,
+ * plus extra hosts.
+ *
+ * Host names are resolved on first use and again after RESOLVE_TTL_NANOS,
+ * so a node that moves is picked up without a restart and a request never
+ * waits for DNS more than once per host and interval.
+ */
+final class TrustedForwarders {
+
+    private static final long RESOLVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private record Resolved(Set<InetAddress> addresses, long resolvedAt) {
+    }
+
+    private final NodeDirectory directory;
+    private final List<String> extraHosts;
+
+    /** Host → its addresses, empty if it could not be resolved. */
+    private final ConcurrentHashMap<String, Resolved> resolved = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory  nodes of the cluster, may be null
+     * @param extraHosts further trusted host names or addresses
+     */
+    TrustedForwarders(NodeDirectory directory, Collection<String> extraHosts) {
+        this.directory = directory;
+        this.extraHosts = List.copyOf(extraHosts);
+    }
+
+    /**
+     * @param remoteAddr address the request came from, an IP literal
+     * @return true if a node with that address may vouch for the client of the request
+     */
+    boolean contains(String remoteAddr) {
+        InetAddress remote;
+        try {
+            remote = InetAddress.getByName(remoteAddr);
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        for (String host : extraHosts) {
+            if (resolve(host).contains(remote))
+                return true;
+        }
+        if (directory != null) {
+            for (NodeDirectory.NodeInfo node : directory.nodes()) {
+                String host = host(node.endpoint());
+                if (host != null && resolve(host).contains(remote))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<InetAddress> resolve(String host) {
+        long now = System.nanoTime();
+        Resolved current = resolved.get(host);
+        if (current != null && now - current.resolvedAt() < RESOLVE_TTL_NANOS)
+            return current.addresses();
+        Set<InetAddress> addresses;
+        try {
+            addresses = Set.copyOf(Arrays.asList(InetAddress.getAllByName(host)));
+        } catch (UnknownHostException e) {
+            System.err.println("[Admission] Cannot resolve forwarding node " + host + ": " + e.getMessage());
+            addresses = Set.of();
+        }
+        resolved.put(host, new Resolved(addresses, now));
+        return addresses;
+    }
+
+    /**
+     * @return host of a base URL without IPv6 brackets, or null if it has none
+     */
+    private static String host(String endpoint) {
+        try {
+            String host = URI.create(endpoint).getHost();
+            if (host != null && host.startsWith("[") && host.endsWith("]"))
+                host = host.substring(1, host.length() - 1);
+            return host;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package at.hcw.alcatraz.callback;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Shared HTTP client for calls to player callback URLs.
+ *
+ * One client keeps a pool of keep-alive connections per callback host and
+ * performs requests asynchronously, so notifying many players neither opens
+ * a new connection per call nor blocks a thread per request.
+ */
+@Configuration
+public class CallbackClientConfig {
+
+    @Bean
+    public HttpClient callbackHttpClient(@Value("${callback.connect-timeout-ms:1000}") long connectTimeoutMs) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+}
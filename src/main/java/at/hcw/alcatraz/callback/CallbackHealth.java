@@ -0,0 +1,360 @@
+package at.hcw.alcatraz.callback;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistryListener;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks whether the callback URLs of registered players are reachable.
+ *
+ * Responsibilities:
+ * - Follow the registry: a callback is tracked from the player's
+ *   registration until the player is removed or the lobby is reset, so
+ *   probing stops with the unregistration.
+ * - Probe every tracked callback in the background with HEAD {callbackUrl},
+ *   at most {@code concurrency} probes in flight. Any HTTP answer counts as
+ *   reachable, only connection errors and timeouts count as failures.
+ * - Keep the latest latency and outcome per callback. A callback is DOWN
+ *   after {@code down-after} failures in a row, UP after any answer.
+ * - Take the outcome of real /start calls into account as well.
+ *
+ * Every node probes on its own, so a new master already knows which clients
+ * are down, and every node can show health next to its player list.
+ *
+ * StartDispatcher asks isFailFast() and firstDown() before notifying a
+ * lobby, so a start with a known-down player fails without waiting for the
+ * callback deadline.
+ *
+ * Metrics:
+ * - alcatraz.callback.health.probes: probes, tagged outcome=up|down
+ * - alcatraz.callback.health.latency: round-trip of successful probes
+ * - alcatraz.callback.health.tracked: callbacks currently tracked
+ * - alcatraz.callback.health.down: tracked callbacks that are DOWN
+ */
+@Component
+@DependsOn("registryPersistence")
+public class CallbackHealth implements RegistryListener {
+
+    public enum Status {
+        UNKNOWN, UP, DOWN
+    }
+
+    /**
+     * Latest knowledge about one callback URL.
+     *
+     * @param status    current status
+     * @param latencyMs round-trip of the last successful probe or call, -1 if none
+     * @param checkedAt System.currentTimeMillis() of the last probe or call, 0 if none
+     * @param failures  failures in a row since the last success
+     */
+    public record Health(Status status, long latencyMs, long checkedAt, int failures) {
+
+        public static final Health UNKNOWN = new Health(Status.UNKNOWN, -1, 0, 0);
+    }
+
+    /**
+     * One tracked callback URL, shared by all players using it.
+     */
+    private static final class Target {
+        final String url;
+
+        /** Players using this URL. Guarded by the targets map entry. */
+        int refs;
+
+        volatile Health health = Health.UNKNOWN;
+        final AtomicBoolean probing = new AtomicBoolean();
+
+        Target(String url) {
+            this.url = url;
+        }
+    }
+
+    private final PlayerRegistry registry;
+    private final HttpClient http;
+    private final boolean enabled;
+    private final long intervalMs;
+    private final Duration timeout;
+    private final int downAfter;
+    private final boolean failFast;
+    private final Semaphore permits;
+
+    /** Callback URL → target. */
+    private final ConcurrentHashMap<String, Target> targets = new ConcurrentHashMap<>();
+
+    /** Lobby id → (player name → callback URL). Only written by registry callbacks. */
+    private final Map<String, Map<String, String>> players = new HashMap<>();
+
+    private ScheduledExecutorService prober;
+
+    private final Counter probesUp;
+    private final Counter probesDown;
+    private final Timer latency;
+
+    /**
+     * @param intervalMs  pause between two probe rounds
+     * @param timeoutMs   timeout of a single probe
+     * @param concurrency probes in flight at most
+     * @param downAfter   failures in a row after which a callback is DOWN
+     * @param startPolicy reject: starts with a DOWN player fail at once; warn: they are only logged
+     */
+    public CallbackHealth(PlayerRegistry registry,
+                          @Qualifier("callbackHttpClient") HttpClient http,
+                          @Value("${callback.health.enabled:true}") boolean enabled,
+                          @Value("${callback.health.interval-ms:5000}") long intervalMs,
+                          @Value("${callback.health.timeout-ms:1000}") long timeoutMs,
+                          @Value("${callback.health.concurrency:64}") int concurrency,
+                          @Value("${callback.health.down-after:2}") int downAfter,
+                          @Value("${callback.health.start-policy:reject}") String startPolicy,
+                          MeterRegistry meters) {
+        this.registry = registry;
+        this.http = http;
+        this.enabled = enabled;
+        this.intervalMs = Math.max(1, intervalMs);
+        this.timeout = Duration.ofMillis(Math.max(1, timeoutMs));
+        this.downAfter = Math.max(1, downAfter);
+        this.permits = new Semaphore(Math.max(1, concurrency));
+        this.failFast = switch (startPolicy.toLowerCase()) {
+            case "reject" -> true;
+            case "warn" -> false;
+            default -> throw new IllegalArgumentException("callback.health.start-policy must be reject or warn: " + startPolicy);
+        };
+
+        this.probesUp = probeCounter(meters, "up");
+        this.probesDown = probeCounter(meters, "down");
+        this.latency = Timer.builder("alcatraz.callback.health.latency")
+                .description("Round-trip of successful callback probes")
+                .register(meters);
+        Gauge.builder("alcatraz.callback.health.tracked", targets, Map::size)
+                .description("Callback URLs currently tracked")
+                .register(meters);
+        Gauge.builder("alcatraz.callback.health.down", this, CallbackHealth::downCount)
+                .description("Tracked callback URLs that are down")
+                .register(meters);
+    }
+
+    private static Counter probeCounter(MeterRegistry meters, String outcome) {
+        return Counter.builder("alcatraz.callback.health.probes")
+                .description("Health probes of player callbacks")
+                .tag("outcome", outcome)
+                .register(meters);
+    }
+
+    @PostConstruct
+    public void start() {
+        // Not under the players lock: snapshot() takes lobby monitors, listeners run inside them.
+        onSnapshot(registry.snapshot());
+        registry.addListener(this);
+        if (!enabled)
+            return;
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "callback-health");
+            t.setDaemon(true);
+            return t;
+        });
+        prober.scheduleWithFixedDelay(this::probeAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (prober != null)
+            prober.shutdownNow();
+    }
+
+    // ================= REGISTRY =================
+
+    @Override
+    public void onChange(RegistryChange change, boolean local) {
+        synchronized (players) {
+            switch (change.kind()) {
+                case ADD -> {
+                    String previous = players.computeIfAbsent(change.lobby(), l -> new HashMap<>())
+                            .put(change.player(), change.callback());
+                    track(change.callback());
+                    if (previous != null)
+                        untrack(previous);
+                }
+                case REMOVE -> {
+                    Map<String, String> lobby = players.get(change.lobby());
+                    String url = lobby != null ? lobby.remove(change.player()) : null;
+                    if (url != null)
+                        untrack(url);
+                    if (lobby != null && lobby.isEmpty())
+                        players.remove(change.lobby());
+                }
+                case RESET -> {
+                    Map<String, String> lobby = players.remove(change.lobby());
+                    if (lobby != null)
+                        lobby.values().forEach(this::untrack);
+                }
+                case START -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the tracked callbacks. Callbacks kept by the snapshot keep their health.
+     */
+    @Override
+    public void onSnapshot(RegistrySnapshot snapshot) {
+        synchronized (players) {
+            List<String> previous = new ArrayList<>();
+            players.values().forEach(lobby -> previous.addAll(lobby.values()));
+            players.clear();
+            for (RegistrySnapshot.LobbyState state : snapshot.lobbies()) {
+                if (state.players().isEmpty())
+                    continue;
+                players.put(state.id(), new HashMap<>(state.players()));
+                state.players().values().forEach(this::track);
+            }
+            previous.forEach(this::untrack);
+        }
+    }
+
+    private void track(String url) {
+        targets.compute(url, (u, target) -> {
+            if (target == null)
+                target = new Target(u);
+            target.refs++;
+            return target;
+        });
+    }
+
+    private void untrack(String url) {
+        targets.computeIfPresent(url, (u, target) -> --target.refs == 0 ? null : target);
+    }
+
+    // ================= QUERIES =================
+
+    /**
+     * @param url callback URL
+     * @return latest health, UNKNOWN if the URL is not tracked or not probed yet
+     */
+    public Health health(String url) {
+        Target target = targets.get(url);
+        return target != null ? target.health : Health.UNKNOWN;
+    }
+
+    /**
+     * @param players playerName → callbackUrl
+     * @return first player whose callback is DOWN, or null
+     */
+    public String firstDown(Map<String, String> players) {
+        for (Map.Entry<String, String> player : players.entrySet()) {
+            if (health(player.getValue()).status() == Status.DOWN)
+                return player.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * @return true if starts with a DOWN player are rejected instead of attempted
+     */
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    private int downCount() {
+        int down = 0;
+        for (Target target : targets.values()) {
+            if (target.health.status() == Status.DOWN)
+                down++;
+        }
+        return down;
+    }
+
+    // ================= PROBING =================
+
+    /**
+     * Records the outcome of a call to a callback, made by a probe or by StartDispatcher.
+     *
+     * @param url       callback URL
+     * @param reachable true if the client answered, whatever the status code
+     * @param nanos     round-trip time
+     */
+    public void record(String url, boolean reachable, long nanos) {
+        Target target = targets.get(url);
+        if (target != null)
+            update(target, reachable, nanos);
+    }
+
+    private void update(Target target, boolean reachable, long nanos) {
+        long now = System.currentTimeMillis();
+        Health previous = target.health;
+        Health next;
+        if (reachable) {
+            next = new Health(Status.UP, TimeUnit.NANOSECONDS.toMillis(nanos), now, 0);
+        } else {
+            int failures = previous.failures() + 1;
+            Status status = failures >= downAfter ? Status.DOWN : previous.status();
+            next = new Health(status, previous.latencyMs(), now, failures);
+        }
+        target.health = next;
+        if (previous.status() != next.status() && next.status() != Status.UNKNOWN)
+            System.out.println("[Health] " + target.url + " is " + next.status());
+    }
+
+    private void probeAll() {
+        try {
+            for (Target target : targets.values()) {
+                if (!target.probing.compareAndSet(false, true))
+                    continue;
+                permits.acquire();
+                probe(target);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("[Health] Probe round failed: " + e);
+        }
+    }
+
+    private void probe(Target target) {
+        long started = System.nanoTime();
+        CompletableFuture<HttpResponse<Void>> call;
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(target.url))
+                    .timeout(timeout)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build();
+            call = http.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        } catch (IllegalArgumentException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((response, ex) -> {
+            try {
+                long nanos = System.nanoTime() - started;
+                update(target, ex == null, nanos);
+                if (ex == null) {
+                    probesUp.increment();
+                    latency.record(nanos, TimeUnit.NANOSECONDS);
+                } else {
+                    probesDown.increment();
+                }
+            } finally {
+                target.probing.set(false);
+                permits.release();
+            }
+        });
+    }
+}
@@ -0,0 +1,261 @@
+package at.hcw.alcatraz.callback;
+
+import at.hcw.alcatraz.dto.PlayerInfo;
+import at.hcw.alcatraz.flight.CallbackEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Notifies all players of a lobby that their game starts.
+ *
+ * Flow:
+ * - POST {callbackUrl}/start is sent to every player at the same time, each
+ *   with the list of the other players.
+ * - All calls share one overall deadline.
+ * - The start succeeds only if every player answered with 2xx in time.
+ * - Otherwise POST {callbackUrl}/cancel is sent to every notified player,
+ *   the failing one included, so nobody keeps playing a game that never
+ *   started. Cancelling the local future does not abort a /start already on
+ *   the wire, so a player that timed out may still answer it late.
+ *
+ * Start latency is therefore bounded by the slowest client (or the deadline),
+ * not by the sum of all round-trips.
+ *
+ * Fail-fast: if CallbackHealth already knows a player's callback is DOWN,
+ * the start fails at once without calling anybody (policy reject) or is
+ * attempted with a warning (policy warn). Every /start outcome is reported
+ * back to CallbackHealth.
+ *
+ * Metrics:
+ * - alcatraz.callback.start: latency of each /start call, tagged outcome=success|failure
+ * - alcatraz.callback.start.failures: failed /start calls, tagged reason=timeout|http|error|down,
+ *   where down counts starts rejected because a callback was known to be down
+ *
+ * Callback URLs are not used as tags to keep the number of series bounded.
+ * They are part of the CallbackEvent recorded for every /start call.
+ */
+@Component
+public class StartDispatcher {
+
+    private final HttpClient http;
+    private final ObjectMapper mapper;
+    private final CallbackHealth health;
+    private final Duration deadline;
+
+    private final Timer startSuccess;
+    private final Timer startFailure;
+    private final Counter timeouts;
+    private final Counter httpErrors;
+    private final Counter otherErrors;
+    private final Counter knownDown;
+
+    public StartDispatcher(@Qualifier("callbackHttpClient") HttpClient http,
+                           ObjectMapper mapper,
+                           CallbackHealth health,
+                           @Value("${callback.start.deadline-ms:3000}") long deadlineMs,
+                           MeterRegistry meters) {
+        this.http = http;
+        this.mapper = mapper;
+        this.health = health;
+        this.deadline = Duration.ofMillis(deadlineMs);
+        this.startSuccess = startTimer(meters, "success");
+        this.startFailure = startTimer(meters, "failure");
+        this.timeouts = failureCounter(meters, "timeout");
+        this.httpErrors = failureCounter(meters, "http");
+        this.otherErrors = failureCounter(meters, "error");
+        this.knownDown = failureCounter(meters, "down");
+    }
+
+    private static Timer startTimer(MeterRegistry meters, String outcome) {
+        return Timer.builder("alcatraz.callback.start")
+                .description("Latency of /start calls to player callbacks")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meters);
+    }
+
+    private static Counter failureCounter(MeterRegistry meters, String reason) {
+        return Counter.builder("alcatraz.callback.start.failures")
+                .description("Failed /start calls to player callbacks")
+                .tag("reason", reason)
+                .register(meters);
+    }
+
+    /**
+     * Result of a start fan-out.
+     *
+     * @param success      true if every player acknowledged the start
+     * @param failedPlayer first player that failed, or null
+     * @param reason       failure description, or null
+     */
+    public record Outcome(boolean success, String failedPlayer, String reason) {
+
+        static Outcome ok() {
+            return new Outcome(true, null, null);
+        }
+    }
+
+    /**
+     * Notifies all players and waits for all answers or the deadline.
+     *
+     * @param players playerName → callbackUrl of the lobby
+     * @return outcome of the fan-out
+     */
+    public Outcome notifyStart(Map<String, String> players) {
+        String down = health.firstDown(players);
+        if (down != null) {
+            if (health.isFailFast()) {
+                knownDown.increment();
+                System.err.println("Not starting, callback of " + down + " is down");
+                return new Outcome(false, down, "callback known to be down");
+            }
+            System.err.println("Starting although the callback of " + down + " is down");
+        }
+
+        long deadlineNanos = System.nanoTime() + deadline.toNanos();
+
+        Map<String, CompletableFuture<Void>> calls = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : players.entrySet()) {
+            String playerName = entry.getKey();
+            try {
+                CallbackEvent event = new CallbackEvent();
+                event.begin();
+                long started = System.nanoTime();
+                calls.put(playerName, post(entry.getValue() + "/start", body(playerName, players))
+                        .whenComplete((ignored, ex) ->
+                                recordStart(started, ex, event, playerName, entry.getValue())));
+            } catch (IllegalArgumentException | JsonProcessingException ex) {
+                otherErrors.increment();
+                calls.put(playerName, CompletableFuture.failedFuture(ex));
+            }
+        }
+
+        String failedPlayer = null;
+        String reason = null;
+        for (Map.Entry<String, CompletableFuture<Void>> call : calls.entrySet()) {
+            long remaining = deadlineNanos - System.nanoTime();
+            try {
+                call.getValue().get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                failedPlayer = call.getKey();
+                reason = "no answer within " + deadline.toMillis() + " ms";
+                break;
+            } catch (ExecutionException ex) {
+                failedPlayer = call.getKey();
+                reason = String.valueOf(ex.getCause().getMessage());
+                break;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failedPlayer = call.getKey();
+                reason = "interrupted";
+                break;
+            }
+        }
+
+        if (failedPlayer == null)
+            return Outcome.ok();
+
+        System.err.println("Failed to notify " + failedPlayer + ": " + reason);
+        calls.values().forEach(f -> f.cancel(true));
+        cancelAll(players);
+        return new Outcome(false, failedPlayer, reason);
+    }
+
+    private void recordStart(long startedNanos, Throwable ex, CallbackEvent event, String player, String url) {
+        long nanos = System.nanoTime() - startedNanos;
+        String outcome;
+        // An HTTP error status still proves the client is reachable.
+        health.record(url, ex == null || unwrap(ex) instanceof IllegalStateException, nanos);
+        if (ex == null) {
+            startSuccess.record(nanos, TimeUnit.NANOSECONDS);
+            outcome = "success";
+        } else {
+            startFailure.record(nanos, TimeUnit.NANOSECONDS);
+            Throwable cause = unwrap(ex);
+            if (cause instanceof HttpTimeoutException || cause instanceof CancellationException) {
+                timeouts.increment();
+                outcome = "timeout";
+            } else if (cause instanceof IllegalStateException) {
+                httpErrors.increment();
+                outcome = "http";
+            } else {
+                otherErrors.increment();
+                outcome = "error";
+            }
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.player = player;
+            event.url = url;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    /**
+     * Sends /cancel to every player, including the one that failed: its
+     * /start may still be delivered after the deadline. Best effort, does
+     * not wait for the answers.
+     */
+    private void cancelAll(Map<String, String> players) {
+        for (Map.Entry<String, String> entry : players.entrySet()) {
+            try {
+                post(entry.getValue() + "/cancel", "[]").exceptionally(ex -> {
+                    System.err.println("Failed to cancel start for " + entry.getKey() + ": " + ex.getMessage());
+                    return null;
+                });
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Failed to cancel start for " + entry.getKey() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private String body(String playerName, Map<String, String> players) throws JsonProcessingException {
+        List<PlayerInfo> others = new ArrayList<>(players.size() - 1);
+        for (Map.Entry<String, String> e : players.entrySet()) {
+            if (!e.getKey().equals(playerName)) {
+                others.add(new PlayerInfo(e.getKey(), e.getValue()));
+            }
+        }
+        return mapper.writeValueAsString(others);
+    }
+
+    private CompletableFuture<Void> post(String url, String json) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(deadline)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(response -> {
+                    if (response.statusCode() / 100 != 2)
+                        throw new IllegalStateException("HTTP " + response.statusCode() + " from " + url);
+                    return null;
+                });
+    }
+}
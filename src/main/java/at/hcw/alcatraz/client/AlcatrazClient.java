@@ -0,0 +1,397 @@
+package at.hcw.alcatraz.client;
+
+import at.hcw.alcatraz.dto.ClusterMember;
+import at.hcw.alcatraz.dto.ClusterTopology;
+import at.hcw.alcatraz.dto.PlayerInfo;
+import at.hcw.alcatraz.routing.RoutingHeaders;
+import at.hcw.alcatraz.routing.ShardMap;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Java client for the lobby API that sends writes straight to the master.
+ *
+ * Routing:
+ * - The master is taken once from GET /cluster/topology of the first seed
+ *   that answers, afterwards from the X-Master-* headers every node adds to
+ *   its responses. Only a higher epoch replaces the cached master, so a
+ *   lagging backup cannot point the client back to a deposed one.
+ * - Writes go to the cached master. A 307 (the node is no longer master)
+ *   is retried once, at the master named by its headers or, if they name
+ *   no newer one, at the master of a fresh topology.
+ * - A node that cannot be connected to triggers a topology refresh and one
+ *   retry. A write that fails after it was sent is not retried, as the
+ *   master may already have applied it.
+ * - Reads go round-robin to the members of the last topology, weighted by
+ *   their announced capacity, and carry X-Min-Version of the client's last
+ *   write, so they see its own writes.
+ * - A response whose X-Topology differs from the one of the last topology
+ *   means members joined or left; the next read fetches the topology first,
+ *   so new nodes take load without a change on the client.
+ *
+ * A client that is up to date therefore needs no extra round trip; the
+ * topology is only fetched again after a mismatch.
+ *
+ * Sharding (cluster.shards &gt; 1):
+ * - The seeds' topology names their shard and the number of shards. Reads
+ *   go to the members of that shard, the home shard.
+ * - Every answer names the shard its X-Master-* headers belong to
+ *   (X-Shard), so the client keeps one master per shard. A write to a lobby
+ *   of a shard whose master is not known yet goes to the home master, which
+ *   forwards it; its answer carries the other shard's master, so the next
+ *   write to that shard goes there directly. Reads of such a lobby go to
+ *   that master as well.
+ * - Registry versions are per shard, so is the version of the last write.
+ *
+ * Thread-safe; one instance can be shared by all threads of an application.
+ */
+public class AlcatrazClient {
+
+    /**
+     * Cached master.
+     *
+     * @param id       logical node id
+     * @param endpoint base URL
+     * @param epoch    election epoch it was elected in
+     */
+    public record Master(String id, String endpoint, long epoch) {
+    }
+
+    /** Read share of a single member at most, so one large capacity cannot bloat the read list. */
+    private static final int MAX_WEIGHT = 16;
+
+    private final List<String> seeds;
+    private final Duration timeout;
+    private final HttpClient http;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /** Shard → cached master. Without sharding only shard 0. */
+    private final Map<Integer, Master> masters = new ConcurrentHashMap<>();
+
+    /** Shard of the seeds' topology, -1 until the first refresh, and the number of shards. */
+    private volatile int home = -1;
+    private volatile int shards = 1;
+
+    /** Read targets from the last topology of the home shard, each member once per unit of capacity. */
+    private volatile List<String> members = List.of();
+    private final AtomicInteger nextRead = new AtomicInteger();
+
+    /** X-Topology of the last topology of the home shard, and whether a later response reported another one. */
+    private volatile String topology;
+    private volatile boolean stale;
+
+    /** Shard → registry version of the newest write answered so far. */
+    private final Map<Integer, AtomicLong> lastWrite = new ConcurrentHashMap<>();
+
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong redirects = new AtomicLong();
+
+    /**
+     * @param seeds   base URLs of some nodes, e.g. "http://10.0.0.1:8080"; any one of them is enough
+     * @param timeout timeout of a single request
+     */
+    public AlcatrazClient(List<String> seeds, Duration timeout) {
+        if (seeds.isEmpty())
+            throw new IllegalArgumentException("At least one seed is needed");
+        this.seeds = List.copyOf(seeds);
+        this.timeout = timeout;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    // ================= LOBBY API =================
+
+    public HttpResponse<String> register(String lobby, String playerName, String callbackUrl)
+            throws IOException, InterruptedException {
+        String body = mapper.writeValueAsString(new PlayerInfo(playerName, callbackUrl));
+        return write("POST", lobbyPath(lobby) + "/register", body);
+    }
+
+    public HttpResponse<String> unregister(String lobby, String playerName) throws IOException, InterruptedException {
+        return write("DELETE", lobbyPath(lobby) + "/unregister/" + encode(playerName), null);
+    }
+
+    public HttpResponse<String> start(String lobby) throws IOException, InterruptedException {
+        return write("POST", lobbyPath(lobby) + "/game/start", null);
+    }
+
+    public HttpResponse<String> finish(String lobby) throws IOException, InterruptedException {
+        return write("POST", lobbyPath(lobby) + "/game/finish", null);
+    }
+
+    /**
+     * @return players of the lobby, including the client's own earlier writes
+     */
+    public List<PlayerInfo> players(String lobby) throws IOException, InterruptedException {
+        HttpResponse<String> response = read(lobbyPath(lobby) + "/all");
+        if (response.statusCode() != 200)
+            throw new IOException("Listing " + lobby + " failed: " + response.statusCode());
+        return mapper.readValue(response.body(), new TypeReference<>() {
+        });
+    }
+
+    private static String lobbyPath(String lobby) {
+        return "/lobbies/" + encode(lobby) + "/players";
+    }
+
+    private static String encode(String segment) {
+        return URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    // ================= ROUTING =================
+
+    /**
+     * Sends a write to the master of the lobby's shard.
+     *
+     * @param method HTTP method
+     * @param path   path including query, e.g. "/lobbies/x/players/register"
+     * @param body   JSON body, null for none
+     * @return the master's answer; a 307 only if the master moved twice
+     */
+    public HttpResponse<String> write(String method, String path, String body)
+            throws IOException, InterruptedException {
+        master();
+        int shard = shardOf(path);
+        Master target = target(shard);
+        for (int attempt = 0; ; attempt++) {
+            HttpResponse<String> response;
+            try {
+                response = send(target.endpoint(), method, path, body, 0);
+            } catch (IOException e) {
+                if (attempt > 0 || !connectFailed(e))
+                    throw e;
+                masters.remove(shard, target);
+                refresh();
+                target = target(shard);
+                continue;
+            }
+            int answered = observe(response);
+            if (response.statusCode() != 307 || attempt > 0) {
+                String version = response.headers().firstValue(RoutingHeaders.REGISTRY_VERSION).orElse(null);
+                if (version != null && response.statusCode() / 100 == 2)
+                    lastWrite(answered).accumulateAndGet(Long.parseLong(version), Math::max);
+                return response;
+            }
+            redirects.incrementAndGet();
+            Master next = target(shard);
+            if (next.equals(target)) {
+                refresh();
+                next = target(shard);
+            }
+            target = next;
+        }
+    }
+
+    /**
+     * Sends a read to the next member, or to the master of the lobby's shard
+     * if that is not the home shard. It reflects at least the client's last
+     * write to that shard.
+     *
+     * @param path path including query, e.g. "/lobbies/x/players/all"
+     */
+    public HttpResponse<String> read(String path) throws IOException, InterruptedException {
+        if (members.isEmpty() || stale)
+            refresh();
+        int shard = shardOf(path);
+        Master owner = shard != home ? masters.get(shard) : null;
+        List<String> nodes = members;
+        String endpoint = owner != null
+                ? owner.endpoint()
+                : nodes.get(Math.floorMod(nextRead.getAndIncrement(), nodes.size()));
+        HttpResponse<String> response;
+        try {
+            response = send(endpoint, "GET", path, null, lastWrite(shard).get());
+        } catch (IOException e) {
+            if (owner != null)
+                masters.remove(shard, owner);
+            response = send(refresh().endpoint(), "GET", path, null, lastWrite(shard).get());
+        }
+        observe(response);
+        return response;
+    }
+
+    /**
+     * @return the cached master of the home shard, fetched from the seeds if there is none yet
+     */
+    public Master master() throws IOException, InterruptedException {
+        int shard = home;
+        Master cached = shard >= 0 ? masters.get(shard) : null;
+        return cached != null ? cached : refresh();
+    }
+
+    /**
+     * @param shard shard, 0 without sharding
+     * @return the cached master of that shard, or null if none has been seen yet
+     */
+    public Master master(int shard) {
+        return masters.get(shard);
+    }
+
+    /**
+     * Asks the seeds, then the last known members, for the topology. The
+     * first answer naming a master replaces the cached master of its shard,
+     * whatever its epoch, so a cluster restarted from scratch is found
+     * again. That shard becomes the home shard.
+     *
+     * @return the new master
+     * @throws IOException if no node could be reached or none knows a master
+     */
+    public Master refresh() throws IOException, InterruptedException {
+        return refresh(-1);
+    }
+
+    /**
+     * Like refresh(), but only an answer from the given shard counts. The
+     * masters of other shards answering on the way are cached as well.
+     *
+     * @param shard shard to find the master of, -1 for any
+     * @return the new master of that shard
+     * @throws IOException if no node of that shard could be reached or none knows a master
+     */
+    public Master refresh(int shard) throws IOException, InterruptedException {
+        refreshes.incrementAndGet();
+        Set<String> candidates = new LinkedHashSet<>(seeds);
+        candidates.addAll(members);
+        masters.values().forEach(m -> candidates.add(m.endpoint()));
+        IOException failure = null;
+        for (String node : candidates) {
+            try {
+                HttpResponse<String> response = send(node, "GET", "/cluster/topology", null, 0);
+                if (response.statusCode() != 200)
+                    continue;
+                ClusterTopology topology = mapper.readValue(response.body(), ClusterTopology.class);
+                if (topology.getMaster() == null || topology.getMasterEndpoint() == null)
+                    continue;
+                Master found = new Master(topology.getMaster(), topology.getMasterEndpoint(), topology.getEpoch());
+                masters.put(topology.getShard(), found);
+                shards = Math.max(1, topology.getShards());
+                if (shard >= 0 && topology.getShard() != shard)
+                    continue;
+                if (shard >= 0 && topology.getShard() != home)
+                    return found;
+
+                List<String> endpoints = new ArrayList<>();
+                for (ClusterMember member : topology.getMembers()) {
+                    if (member.getEndpoint() == null)
+                        continue;
+                    for (int i = 0; i < Math.min(Math.max(1, member.getCapacity()), MAX_WEIGHT); i++)
+                        endpoints.add(member.getEndpoint());
+                }
+                members = endpoints.isEmpty() ? List.of(topology.getMasterEndpoint()) : List.copyOf(endpoints);
+                this.topology = response.headers().firstValue(RoutingHeaders.TOPOLOGY).orElse(null);
+                stale = false;
+                home = topology.getShard();
+                return found;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw new IOException("No master" + (shard >= 0 ? " of shard " + shard : "")
+                + " known to any of " + candidates, failure);
+    }
+
+    /**
+     * Takes the master from the X-Master-* headers if it is newer than the
+     * cached one of the shard named by X-Shard, and notes a changed
+     * X-Topology of the home shard for the next read.
+     *
+     * @return shard the answer came from, 0 without sharding
+     */
+    public int observe(HttpResponse<?> response) {
+        int shard = response.headers().firstValue(RoutingHeaders.SHARD).map(Integer::parseInt).orElse(0);
+        String tag = response.headers().firstValue(RoutingHeaders.TOPOLOGY).orElse(null);
+        if (shard == home && tag != null && topology != null && !tag.equals(topology))
+            stale = true;
+
+        String id = response.headers().firstValue(RoutingHeaders.MASTER_NODE).orElse(null);
+        String endpoint = response.headers().firstValue(RoutingHeaders.MASTER_ENDPOINT).orElse(null);
+        String epoch = response.headers().firstValue(RoutingHeaders.MASTER_EPOCH).orElse(null);
+        if (id == null || endpoint == null || epoch == null)
+            return shard;
+        Master seen = new Master(id, endpoint, Long.parseLong(epoch));
+        masters.merge(shard, seen, (current, s) -> s.epoch() > current.epoch() ? s : current);
+        return shard;
+    }
+
+    /**
+     * @return shard of the lobby the path operates on, the home shard for other paths
+     */
+    private int shardOf(String path) {
+        int query = path.indexOf('?');
+        String lobby = ShardMap.lobbyOf(query < 0 ? path : path.substring(0, query));
+        return lobby != null ? ShardMap.shardOf(lobby, shards) : Math.max(0, home);
+    }
+
+    /** @return true if e means the request never left this client */
+    private static boolean connectFailed(IOException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof HttpConnectTimeoutException)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return master of the shard, or the home master, which forwards, if that one is not known yet
+     */
+    private Master target(int shard) throws IOException, InterruptedException {
+        Master cached = masters.get(shard);
+        return cached != null ? cached : master();
+    }
+
+    private AtomicLong lastWrite(int shard) {
+        return lastWrite.computeIfAbsent(shard, s -> new AtomicLong());
+    }
+
+    private HttpResponse<String> send(String endpoint, String method, String path, String body, long minVersion)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(endpoint + path))
+                .timeout(timeout)
+                .method(method, body != null
+                        ? HttpRequest.BodyPublishers.ofString(body)
+                        : HttpRequest.BodyPublishers.noBody());
+        if (body != null)
+            request.header("Content-Type", "application/json");
+        if (minVersion > 0)
+            request.header(RoutingHeaders.MIN_VERSION, Long.toString(minVersion));
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // ================= STATISTICS =================
+
+    /**
+     * @return topology fetches so far, including the first one
+     */
+    public long refreshes() {
+        return refreshes.get();
+    }
+
+    /**
+     * @return 307 answers received from a node that was no longer master
+     */
+    public long redirects() {
+        return redirects.get();
+    }
+}
@@ -0,0 +1,75 @@
+package at.hcw.alcatraz.controller;
+
+import at.hcw.alcatraz.dto.ClusterMember;
+import at.hcw.alcatraz.dto.ClusterTopology;
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.spread.NodeDirectory;
+import at.hcw.alcatraz.spread.SpreadManager;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cluster HTTP API.
+ *
+ * Answered by every node from its own view of the group, without
+ * forwarding. Clients use it to find the master once instead of following
+ * a 307 on every write.
+ *
+ * In a sharded cluster the answer describes the shard whose port was asked.
+ */
+@Tag(name = "Cluster")
+@RestController
+@RequestMapping("/cluster")
+public class ClusterController {
+
+    private final SpreadManager spread;
+    private final ShardMap shards;
+
+    public ClusterController(SpreadManager spread, ShardMap shards) {
+        this.spread = spread;
+        this.shards = shards;
+    }
+
+    @Operation(summary = "Current members, master and election epoch",
+            description = "The ETag changes with the epoch, the membership and the members' endpoints; send it as If-None-Match "
+                    + "to get 304 while the topology is unchanged.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Topology"),
+            @ApiResponse(responseCode = "304", description = "Not modified")
+    })
+    @GetMapping("/topology")
+    public ResponseEntity<ClusterTopology> topology() {
+        // Membership and master are updated one after the other; a reader may see the new view with the old master.
+        List<String> ids = spread.members();
+        ElectionService.MasterState state = spread.masterState();
+
+        List<ClusterMember> members = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            NodeDirectory.NodeInfo node = spread.getNode(id);
+            members.add(new ClusterMember(id, node != null ? node.endpoint() : null,
+                    id.equals(state.masterId()), node != null ? node.capacity() : 1));
+        }
+        String endpoint = state.masterId() != null ? spread.getEndpoint(state.masterId()) : null;
+        ClusterTopology topology = new ClusterTopology(
+                spread.getNodeId(), state.masterId(), endpoint, state.epoch(), members,
+                shards.shard(), shards.shards());
+
+        // Same topology, same tag on every node, so revalidation also works behind a load balancer.
+        String etag = "\"" + state.epoch() + "-" + spread.topologyTag() + "\"";
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .eTag(etag)
+                .body(topology);
+    }
+}
@@ -0,0 +1,81 @@
+package at.hcw.alcatraz.controller;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dto.LobbyChanges;
+import at.hcw.alcatraz.stream.LobbyStream;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Lobby change stream, an alternative to polling /players/all.
+ *
+ * Served by every node from its local replica, see LobbyStream. Like the
+ * player API, every route exists for the default lobby and per lobby:
+ * - /players/events, /lobbies/{lobbyId}/players/events   → Server-Sent Events
+ * - /players/changes, /lobbies/{lobbyId}/players/changes → long poll
+ */
+@Tag(name = "Players")
+@RestController
+@RequestMapping({"/players", "/lobbies/{lobbyId}/players"})
+public class LobbyEventsController {
+
+    private final LobbyStream stream;
+
+    public LobbyEventsController(LobbyStream stream) {
+        this.stream = stream;
+    }
+
+    // -------- lobby helper --------
+    private static String lobby(String lobbyId) {
+        if (PlayerRegistry.MATCHMAKING_QUEUE.equals(lobbyId))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown lobby");
+        return lobbyId != null ? lobbyId : PlayerRegistry.DEFAULT_LOBBY;
+    }
+
+    // -------- server-sent events --------
+    @Operation(summary = "Stream lobby changes",
+            description = "Sends ADD, REMOVE, START and RESET events as they are applied on this node. "
+                    + "The event id is the registry version; on reconnect the browser sends it as "
+                    + "Last-Event-ID and the stream resumes after it, on any node. Without a "
+                    + "version, or if it is too old, the stream starts with a SNAPSHOT event.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Event stream")
+    })
+    @Parameter(
+            name = "since",
+            description = "Resume after this version, used if Last-Event-ID is not sent",
+            in = ParameterIn.QUERY
+    )
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(@PathVariable(required = false) String lobbyId,
+                             @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                             @RequestParam(required = false) Long since) {
+        return stream.subscribe(lobby(lobbyId), lastEventId != null ? lastEventId : since);
+    }
+
+    // -------- long poll --------
+    @Operation(summary = "Wait for lobby changes",
+            description = "Answers with the events after since as soon as there are any, "
+                    + "or with no events after wait-ms. Pass the returned version as since "
+                    + "with the next poll. Without since, or if it is too old, the answer is "
+                    + "a SNAPSHOT event.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Changes")
+    })
+    @GetMapping("/changes")
+    public DeferredResult<LobbyChanges> changes(@PathVariable(required = false) String lobbyId,
+                                                @RequestParam(required = false) Long since,
+                                                @RequestParam(name = "wait-ms", defaultValue = "30000") long waitMs) {
+        return stream.poll(lobby(lobbyId), since, waitMs);
+    }
+}
@@ -0,0 +1,119 @@
+package at.hcw.alcatraz.controller;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dto.PlayerInfo;
+import at.hcw.alcatraz.matchmaking.Matchmaker;
+import at.hcw.alcatraz.persistence.RegistryPersistence;
+import at.hcw.alcatraz.routing.MasterRedirect;
+import at.hcw.alcatraz.routing.RoutingHeaders;
+import at.hcw.alcatraz.spread.SpreadManager;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Matchmaking HTTP API.
+ *
+ * Players join a queue instead of a lobby. The master groups them into
+ * games of 2 to 4 players and starts each game through the usual /start
+ * callback, see Matchmaker.
+ */
+@Tag(name = "Matchmaking")
+@RestController
+@RequestMapping("/matchmaking")
+public class MatchmakingController {
+
+    private final Matchmaker matchmaker;
+    private final PlayerRegistry registry;
+    private final SpreadManager spread;
+    private final RegistryPersistence persistence;
+    private final MasterRedirect redirect;
+
+    public MatchmakingController(Matchmaker matchmaker, PlayerRegistry registry, SpreadManager spread,
+                                 RegistryPersistence persistence, MasterRedirect redirect) {
+        this.matchmaker = matchmaker;
+        this.registry = registry;
+        this.spread = spread;
+        this.persistence = persistence;
+        this.redirect = redirect;
+    }
+
+    // -------- replication helper --------
+    private ResponseEntity<?> replicated(HttpStatus status, String body) {
+        long version = registry.version();
+        if (!spread.awaitReplication())
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Replication not confirmed");
+        if (!persistence.awaitDurable(version))
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Write not durable");
+        return ResponseEntity.status(status)
+                .header(RoutingHeaders.REGISTRY_VERSION, Long.toString(version))
+                .body(body);
+    }
+
+    // -------- join --------
+    @Operation(summary = "Join the matchmaking queue",
+            description = "The player's callback receives /start once a game was formed.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "202", description = "Queued"),
+            @ApiResponse(responseCode = "302", description = "Redirect"),
+            @ApiResponse(responseCode = "409", description = "Name or callback URL already queued")
+    })
+    @PostMapping("/queue")
+    public ResponseEntity<?> join(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Player data",
+                    required = true) @RequestBody PlayerInfo req,
+            HttpServletRequest request) {
+        if (!spread.isMaster())
+            return redirect.toMaster(request);
+
+        if (!matchmaker.enqueue(req.getPlayerName(), req.getCallbackUrl()))
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Already queued");
+
+        return replicated(HttpStatus.ACCEPTED, "Queued");
+    }
+
+    // -------- leave --------
+    @Operation(summary = "Leave the matchmaking queue")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Removed"),
+            @ApiResponse(responseCode = "302", description = "Redirect"),
+            @ApiResponse(responseCode = "404", description = "Not queued")
+    })
+    @Parameter(
+            name = "name",
+            description = "Player name",
+            required = true,
+            in = ParameterIn.PATH
+    )
+    @DeleteMapping("/queue/{name}")
+    public ResponseEntity<?> leave(@PathVariable String name, HttpServletRequest request) {
+        if (!spread.isMaster())
+            return redirect.toMaster(request);
+
+        if (!matchmaker.leave(name))
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Not queued");
+
+        return replicated(HttpStatus.OK, "Removed");
+    }
+
+    // -------- size --------
+    @Operation(summary = "Number of queued players",
+            description = "Served by every node from its local replica.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Queue size")
+    })
+    @GetMapping("/queue")
+    public ResponseEntity<Integer> size() {
+        return ResponseEntity.ok()
+                .header(RoutingHeaders.REGISTRY_VERSION, Long.toString(registry.version()))
+                .body(registry.size(PlayerRegistry.MATCHMAKING_QUEUE));
+    }
+}
@@ -1,7 +1,18 @@
 package at.hcw.alcatraz.controller;
 
+import at.hcw.alcatraz.callback.CallbackHealth;
+import at.hcw.alcatraz.callback.StartDispatcher;
+import at.hcw.alcatraz.dao.PlayerList;
 import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dto.BatchEntry;
+import at.hcw.alcatraz.dto.BatchResult;
+import at.hcw.alcatraz.dto.PlayerHealth;
 import at.hcw.alcatraz.dto.PlayerInfo;
+import at.hcw.alcatraz.flight.GameStartEvent;
+import at.hcw.alcatraz.persistence.RegistryPersistence;
+import at.hcw.alcatraz.routing.MasterRedirect;
+import at.hcw.alcatraz.routing.RoutingHeaders;
+import at.hcw.alcatraz.routing.ShardMap;
 import at.hcw.alcatraz.spread.SpreadManager;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -9,39 +20,75 @@ import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.net.URI;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lobby HTTP API.
+ *
+ * Every route exists twice:
+ * - /players/...                    → operates on the default lobby
+ * - /lobbies/{lobbyId}/players/...  → operates on the given lobby
+ */
 @Tag(name = "Players")
 @RestController
-@RequestMapping("/players")
+@RequestMapping({"/players", "/lobbies/{lobbyId}/players"})
 public class PlayerController {
 
 
     private final PlayerRegistry registry;
     private final SpreadManager spread;
-
-    public PlayerController(PlayerRegistry registry, SpreadManager spread) {
+    private final RegistryPersistence persistence;
+    private final StartDispatcher dispatcher;
+    private final CallbackHealth health;
+    private final MasterRedirect redirect;
+    private final ShardMap shards;
+    private final int maxBatchSize;
+
+    /** Lobbies whose start fan-out is currently running. */
+    private final Set<String> startsInProgress = ConcurrentHashMap.newKeySet();
+
+    public PlayerController(PlayerRegistry registry, SpreadManager spread, RegistryPersistence persistence,
+                            StartDispatcher dispatcher, CallbackHealth health, MasterRedirect redirect,
+                            ShardMap shards, @Value("${players.batch.max-size:1000}") int maxBatchSize) {
         this.registry = registry;
         this.spread = spread;
+        this.persistence = persistence;
+        this.dispatcher = dispatcher;
+        this.health = health;
+        this.redirect = redirect;
+        this.shards = shards;
+        this.maxBatchSize = maxBatchSize;
     }
 
-    // -------- redirect helper --------
-    private ResponseEntity<Void> redirectToMaster(String path) {
-        String master = spread.getCurrentMasterId();
-        int port = spread.getMasterPort();
+    // -------- lobby helper --------
+    private static String lobby(String lobbyId) {
+        if (PlayerRegistry.MATCHMAKING_QUEUE.equals(lobbyId))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown lobby");
+        return lobbyId != null ? lobbyId : PlayerRegistry.DEFAULT_LOBBY;
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.add("X-Master-Node", master);
-        headers.setLocation(URI.create("http://localhost:" + port + path));
-        System.out.println("Redirecting to master " + master + " -> http://localhost:" + port + path);
-        return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
-                .headers(headers)
-                .build();
+    // -------- replication helper --------
+    private ResponseEntity<?> replicated(HttpStatus status, Object body) {
+        long version = registry.version();
+        if (!spread.awaitReplication())
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Replication not confirmed");
+        if (!persistence.awaitDurable(version))
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Write not durable");
+        return ResponseEntity.status(status)
+                .header(RoutingHeaders.REGISTRY_VERSION, Long.toString(version))
+                .body(body);
+    }
+
+    // -------- redirect helper --------
+    private ResponseEntity<Void> redirectToMaster(HttpServletRequest request) {
+        return redirect.toMaster(request);
     }
 
     // -------- register --------
@@ -53,22 +100,144 @@ public class PlayerController {
     })
     @PostMapping("/register")
     public ResponseEntity<?> register(
+            @PathVariable(required = false) String lobbyId,
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "Player data",
-                    required = true) @RequestBody PlayerInfo req) {
+                    required = true) @RequestBody PlayerInfo req,
+            HttpServletRequest request) {
 
         if (!spread.isMaster())
-            return redirectToMaster("/players/register");
+            return redirectToMaster(request);
 
+        String lobby = lobby(lobbyId);
         String name = req.getPlayerName();
         String callback = req.getCallbackUrl();
 
-        if (!registry.add(name, callback)) {
+        if (!registry.add(lobby, name, callback)) {
             return ResponseEntity.status(HttpStatus.CONFLICT).body("Registration failed");
         }
 
-        spread.replicate();
-        return ResponseEntity.status(HttpStatus.CREATED).body("Registered");
+        return replicated(HttpStatus.CREATED, "Registered");
+    }
+
+    // -------- batch helpers --------
+    private ResponseEntity<?> checkBatch(List<BatchEntry> entries, boolean register) {
+        if (entries == null || entries.isEmpty())
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Empty batch");
+        if (entries.size() > maxBatchSize)
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body("At most " + maxBatchSize + " entries per batch");
+        for (BatchEntry e : entries) {
+            if (e == null || e.getPlayerName() == null || (register && e.getCallbackUrl() == null))
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(register ? "Every entry needs playerName and callbackUrl" : "Every entry needs playerName");
+        }
+        return null;
+    }
+
+    private static List<PlayerRegistry.BatchOp> toRegistry(String lobbyId, List<BatchEntry> entries) {
+        List<PlayerRegistry.BatchOp> out = new ArrayList<>(entries.size());
+        for (BatchEntry e : entries) {
+            String lobby = lobby(e.getLobbyId() != null ? e.getLobbyId() : lobbyId);
+            out.add(new PlayerRegistry.BatchOp(lobby, e.getPlayerName(), e.getCallbackUrl()));
+        }
+        return out;
+    }
+
+    /**
+     * ShardForwardingFilter routes a batch by its URL only, so entries naming
+     * a lobby of another shard reach this master. Such a batch is refused:
+     * applying it here would create those lobbies outside their shard.
+     */
+    private ResponseEntity<?> checkShards(List<PlayerRegistry.BatchOp> entries) {
+        for (PlayerRegistry.BatchOp e : entries) {
+            if (!shards.isLocal(e.lobby()))
+                return ResponseEntity.status(421)
+                        .body("Lobby " + e.lobby() + " belongs to shard " + ShardMap.shardOf(e.lobby(), shards.shards())
+                                + ", this is shard " + shards.shard() + "; send its entries to that shard");
+        }
+        return null;
+    }
+
+    private ResponseEntity<?> batchResult(List<PlayerRegistry.BatchOp> entries,
+                                          List<PlayerRegistry.BatchStatus> statuses,
+                                          HttpStatus success) {
+        boolean applied = statuses.stream().allMatch(st -> st == PlayerRegistry.BatchStatus.OK);
+        List<BatchResult.EntryResult> results = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            PlayerRegistry.BatchOp e = entries.get(i);
+            results.add(new BatchResult.EntryResult(e.player(), e.lobby(), statuses.get(i).name()));
+        }
+        BatchResult body = new BatchResult(applied, results);
+        if (!applied)
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(body);
+        return replicated(success, body);
+    }
+
+    // -------- batch register --------
+    @Operation(summary = "Register many players at once",
+            description = "All entries are applied or none. Entries without lobbyId go to the lobby of the route. "
+                    + "The batch is replicated as one message.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "201", description = "All registered"),
+            @ApiResponse(responseCode = "302", description = "Redirect"),
+            @ApiResponse(responseCode = "400", description = "Empty batch"),
+            @ApiResponse(responseCode = "409", description = "Nothing registered, see the status per entry"),
+            @ApiResponse(responseCode = "413", description = "Too many entries"),
+            @ApiResponse(responseCode = "421", description = "An entry names a lobby of another shard")
+    })
+    @PostMapping("/register/batch")
+    public ResponseEntity<?> registerBatch(
+            @PathVariable(required = false) String lobbyId,
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Players to register",
+                    required = true) @RequestBody List<BatchEntry> req,
+            HttpServletRequest request) {
+        if (!spread.isMaster())
+            return redirectToMaster(request);
+
+        ResponseEntity<?> invalid = checkBatch(req, true);
+        if (invalid != null)
+            return invalid;
+
+        List<PlayerRegistry.BatchOp> entries = toRegistry(lobbyId, req);
+        ResponseEntity<?> misdirected = checkShards(entries);
+        if (misdirected != null)
+            return misdirected;
+        return batchResult(entries, registry.addAll(entries), HttpStatus.CREATED);
+    }
+
+    // -------- batch unregister --------
+    @Operation(summary = "Unregister many players at once",
+            description = "All entries are removed or none. callbackUrl is ignored. "
+                    + "The batch is replicated as one message.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "All removed"),
+            @ApiResponse(responseCode = "302", description = "Redirect"),
+            @ApiResponse(responseCode = "400", description = "Empty batch"),
+            @ApiResponse(responseCode = "409", description = "Nothing removed, see the status per entry"),
+            @ApiResponse(responseCode = "413", description = "Too many entries"),
+            @ApiResponse(responseCode = "421", description = "An entry names a lobby of another shard")
+    })
+    @DeleteMapping("/unregister/batch")
+    public ResponseEntity<?> unregisterBatch(
+            @PathVariable(required = false) String lobbyId,
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Players to remove",
+                    required = true) @RequestBody List<BatchEntry> req,
+            HttpServletRequest request) {
+        if (!spread.isMaster())
+            return redirectToMaster(request);
+
+        ResponseEntity<?> invalid = checkBatch(req, false);
+        if (invalid != null)
+            return invalid;
+
+        List<PlayerRegistry.BatchOp> entries = toRegistry(lobbyId, req);
+        ResponseEntity<?> misdirected = checkShards(entries);
+        if (misdirected != null)
+            return misdirected;
+        return batchResult(entries, registry.removeAll(entries), HttpStatus.OK);
     }
 
     // -------- unregister --------
@@ -85,30 +254,60 @@ public class PlayerController {
             in = ParameterIn.PATH
     )
     @DeleteMapping("/unregister/{name}")
-    public ResponseEntity<?> unregister(@PathVariable String name) {
+    public ResponseEntity<?> unregister(@PathVariable(required = false) String lobbyId,
+                                        @PathVariable String name,
+                                        HttpServletRequest request) {
         if (!spread.isMaster())
-            return redirectToMaster("/players/unregister/" + name);
+            return redirectToMaster(request);
 
-        if (!registry.remove(name))
+        String lobby = lobby(lobbyId);
+        if (!registry.remove(lobby, name))
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Not found");
 
-        spread.replicate();
-        return ResponseEntity.ok("Removed");
+        return replicated(HttpStatus.OK, "Removed");
     }
 
     // -------- list --------
-    @Operation(summary = "List players")
+    @Operation(summary = "List players",
+            description = "Served by every node from its local replica. "
+                    + "Send X-Min-Version to read at least that registry version. "
+                    + "The ETag is the lobby version; send it as If-None-Match to get 304 while nothing changed.")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "List"),
-            @ApiResponse(responseCode = "302", description = "Redirect")
+            @ApiResponse(responseCode = "304", description = "Not modified")
     })
-    @GetMapping("/all")
-    public ResponseEntity<?> list() {
-
-        if (!spread.isMaster())
-            return redirectToMaster("/players/all");
+    @GetMapping(value = "/all", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> list(@PathVariable(required = false) String lobbyId) {
+        long version = registry.version();
+        PlayerList players = registry.playerList(lobby(lobbyId));
+        // Spring answers If-None-Match with 304 from the ETag; the bytes are shared, not encoded per request.
+        return ResponseEntity.ok()
+                .header(RoutingHeaders.REGISTRY_VERSION, Long.toString(version))
+                .eTag(players.etag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(players.json());
+    }
 
-        return ResponseEntity.ok(registry.list());
+    // -------- health --------
+    @Operation(summary = "Callback health of the players",
+            description = "Served by every node from its own background probes of the callback URLs.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Health per player")
+    })
+    @GetMapping("/health")
+    public ResponseEntity<List<PlayerHealth>> health(@PathVariable(required = false) String lobbyId) {
+        Map<String, String> players = new TreeMap<>(registry.snapshot(lobby(lobbyId)));
+        List<PlayerHealth> result = new ArrayList<>(players.size());
+        for (Map.Entry<String, String> player : players.entrySet()) {
+            CallbackHealth.Health h = health.health(player.getValue());
+            result.add(new PlayerHealth(player.getKey(), h.status().name(),
+                    h.latencyMs() >= 0 ? h.latencyMs() : null,
+                    h.checkedAt() > 0 ? h.checkedAt() : null,
+                    h.failures()));
+        }
+        return ResponseEntity.ok()
+                .header(RoutingHeaders.REGISTRY_VERSION, Long.toString(registry.version()))
+                .body(result);
     }
 
     // -------- start --------
@@ -117,51 +316,50 @@ public class PlayerController {
             @ApiResponse(responseCode = "200", description = "Started"),
             @ApiResponse(responseCode = "302", description = "Redirect"),
             @ApiResponse(responseCode = "400", description = "Not enough players"),
-            @ApiResponse(responseCode = "409", description = "Already running"),
-            @ApiResponse(responseCode = "503", description = "Client unreachable")
+            @ApiResponse(responseCode = "409", description = "Start already in progress"),
+            @ApiResponse(responseCode = "503", description = "Client unreachable or known to be down")
     })
     @PostMapping("/game/start")
-    public ResponseEntity<?> start() {
+    public ResponseEntity<?> start(@PathVariable(required = false) String lobbyId,
+                                   HttpServletRequest request) {
 
 
         if (!spread.isMaster())
-            return redirectToMaster("/players/game/start");
-
-        if (!registry.tryStart())
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body("Game cannot be started. Either Game has been already started or not enough players.");
-
-        Map<String, String> allPlayers = registry.snapshot();
-        RestTemplate restTemplate = new RestTemplate();
-
-        for (Map.Entry<String, String> entry : allPlayers.entrySet()) {
-            String playerName = entry.getKey();
-            String callbackUrl = entry.getValue();
-
-            List<PlayerInfo> others = new ArrayList<>();
-            for (Map.Entry<String, String> e : allPlayers.entrySet()) {
-                if (!e.getKey().equals(playerName)) {
-                    others.add(new PlayerInfo(e.getKey(), e.getValue()));
-                }
+            return redirectToMaster(request);
+
+        String lobby = lobby(lobbyId);
+        if (!startsInProgress.add(lobby))
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Game start already in progress");
+
+        try {
+            if (!registry.tryStart(lobby))
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body("Game cannot be started. Either Game has been already started or not enough players.");
+
+            Map<String, String> players = registry.snapshot(lobby);
+            GameStartEvent event = new GameStartEvent();
+            event.begin();
+            StartDispatcher.Outcome outcome = dispatcher.notifyStart(players);
+            event.end();
+            if (event.shouldCommit()) {
+                event.node = spread.getNodeId();
+                event.lobby = lobby;
+                event.players = players.size();
+                event.success = outcome.success();
+                event.failedPlayer = outcome.failedPlayer();
+                event.reason = outcome.reason();
+                event.commit();
             }
-
-            try {
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_JSON);
-                HttpEntity<List<PlayerInfo>> entity = new HttpEntity<>(others, headers);
-
-                restTemplate.postForEntity(callbackUrl + "/start", entity, Void.class);
-
-            } catch (Exception ex) {
-                System.err.println("Failed to notify " + playerName + ": " + ex.getMessage());
+            if (!outcome.success()) {
                 return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
-                        .body("Game start aborted. Client '" + playerName + "' is unreachable.");
+                        .body("Game start aborted. Client '" + outcome.failedPlayer() + "' is unreachable.");
             }
+            registry.markStarted(lobby);
+        } finally {
+            startsInProgress.remove(lobby);
         }
-        registry.markStarted();
-        spread.broadcastStart();
 
-        return ResponseEntity.ok("Game started. All clients notified.");
+        return replicated(HttpStatus.OK, "Game started. All clients notified.");
     }
 
     // -------- finish --------
@@ -172,18 +370,19 @@ public class PlayerController {
             @ApiResponse(responseCode = "400", description = "No active game")
     })
     @PostMapping("/game/finish")
-    public ResponseEntity<?> finishGame() {
+    public ResponseEntity<?> finishGame(@PathVariable(required = false) String lobbyId,
+                                        HttpServletRequest request) {
 
 
         if (!spread.isMaster())
-            return redirectToMaster("/players/game/finish");
+            return redirectToMaster(request);
 
-        if (!registry.isStarted())
+        String lobby = lobby(lobbyId);
+        if (!registry.isStarted(lobby))
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("No active game");
 
-        registry.reset();
-        spread.broadcastReset();
+        registry.reset(lobby);
 
-        return ResponseEntity.ok("Lobby reset");
+        return replicated(HttpStatus.OK, "Lobby reset");
     }
 }
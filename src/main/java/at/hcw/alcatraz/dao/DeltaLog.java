@@ -0,0 +1,117 @@
+package at.hcw.alcatraz.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the most recent registry changes, indexed by version.
+ *
+ * Holds a contiguous range of versions ending at the newest applied
+ * change. A jump in versions (installed snapshot) empties the log, because
+ * the changes before the jump are no longer known individually.
+ *
+ * Used by the master to answer catch-up requests and by every node to let
+ * change stream subscribers resume from a version.
+ *
+ * Each change can carry its origin, the master and epoch it was written
+ * under, so the master can tell whether a node at the same version holds
+ * the same history. null stands for an unknown origin.
+ */
+public final class DeltaLog {
+
+    private final RegistryChange[] ring;
+    private final String[] origins;
+
+    /** Newest version covered by the log. */
+    private long last;
+
+    /** Origin of the change at last, or of the state the log was reset to. */
+    private String lastOrigin;
+
+    /** Number of changes held, ending at last. */
+    private int size;
+
+    public DeltaLog(int capacity) {
+        this.ring = new RegistryChange[Math.max(0, capacity)];
+        this.origins = new String[ring.length];
+    }
+
+    public void append(RegistryChange change) {
+        append(change, null);
+    }
+
+    /**
+     * @param origin master and epoch the change was written under, null if unknown
+     */
+    public synchronized void append(RegistryChange change, String origin) {
+        if (change.version() != last + 1)
+            size = 0;
+        last = change.version();
+        lastOrigin = origin;
+        if (ring.length == 0)
+            return;
+        ring[slot(change.version())] = change;
+        origins[slot(change.version())] = origin;
+        size = Math.min(size + 1, ring.length);
+    }
+
+    public void reset(long version) {
+        reset(version, null);
+    }
+
+    /**
+     * Forgets all changes, the log continues after the given version.
+     *
+     * @param origin origin of the state at that version, null if unknown
+     */
+    public synchronized void reset(long version, String origin) {
+        last = version;
+        lastOrigin = origin;
+        size = 0;
+    }
+
+    /**
+     * @return newest version covered by the log
+     */
+    public synchronized long lastVersion() {
+        return last;
+    }
+
+    /**
+     * @return origin of the change at that version, null if unknown or no longer held
+     */
+    public synchronized String originAt(long version) {
+        if (version == last)
+            return lastOrigin;
+        if (version > last || version <= last - size)
+            return null;
+        return origins[slot(version)];
+    }
+
+    /**
+     * @param version version the caller already has
+     * @return true if the log holds every change after that version
+     */
+    public synchronized boolean covers(long version) {
+        return version >= last || version + 1 >= last - size + 1;
+    }
+
+    /**
+     * @param version version the caller already has
+     * @return all changes after that version in order, or null if some of them are no longer held
+     */
+    public synchronized List<RegistryChange> since(long version) {
+        if (version >= last)
+            return List.of();
+        if (!covers(version))
+            return null;
+        List<RegistryChange> out = new ArrayList<>((int) (last - version));
+        for (long v = version + 1; v <= last; v++)
+            out.add(ring[slot(v)]);
+        return out;
+    }
+
+    private int slot(long version) {
+        return (int) (version % ring.length);
+    }
+}
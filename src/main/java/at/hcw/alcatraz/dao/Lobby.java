@@ -0,0 +1,190 @@
+package at.hcw.alcatraz.dao;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * State of a single lobby: its players and the game-started flag.
+ *
+ * Instances are not thread-safe on their own. PlayerRegistry guards every
+ * access with the lobby's own monitor, so operations on different lobbies
+ * never contend.
+ *
+ * A lobby that became empty and is not started is retired and removed from
+ * the registry. A retired instance must not be modified anymore; callers
+ * that still hold a reference look the lobby up again.
+ *
+ * Players are kept in registration order. The matchmaking queue is a lobby
+ * without the player limit, so name and callback checks are constant time.
+ */
+final class Lobby {
+
+    /** Maximum number of players allowed. */
+    static final int MAX_PLAYERS = 4;
+
+    /** Minimum number of players required to start. */
+    static final int MIN_PLAYERS = 2;
+
+    private final String id;
+    private final int maxPlayers;
+
+    /** Map playerName → callbackUrl, in registration order. */
+    private final Map<String, String> players;
+
+    /** Callback URLs of all players, for the uniqueness check. */
+    private final Set<String> callbacks;
+
+    /** Indicates whether the game has been started. */
+    private boolean gameStarted = false;
+
+    /** Set once the lobby was removed from the registry. */
+    private boolean retired = false;
+
+    /** Registry version of the last change applied to this lobby. */
+    private long version = 0;
+
+    /**
+     * Encoded player names, null after a change until the next read. Written
+     * under the lobby's monitor, read without it.
+     */
+    private volatile PlayerList names;
+
+    Lobby(String id) {
+        this(id, MAX_PLAYERS);
+    }
+
+    Lobby(String id, int maxPlayers) {
+        this.id = id;
+        this.maxPlayers = maxPlayers;
+        int initial = Math.min(maxPlayers, MAX_PLAYERS) * 2;
+        this.players = new LinkedHashMap<>(initial);
+        this.callbacks = new HashSet<>(initial);
+    }
+
+    String id() {
+        return id;
+    }
+
+    boolean add(String name, String callback) {
+        if (gameStarted) return false;
+        if (players.size() >= maxPlayers) return false;
+        if (players.containsKey(name)) return false;
+        if (callbacks.contains(callback)) return false;
+
+        players.put(name, callback);
+        callbacks.add(callback);
+        names = null;
+        return true;
+    }
+
+    boolean isFull() {
+        return players.size() >= maxPlayers;
+    }
+
+    boolean hasPlayer(String name) {
+        return players.containsKey(name);
+    }
+
+    boolean hasCallback(String callback) {
+        return callbacks.contains(callback);
+    }
+
+    /**
+     * @return callback URL of the removed player, or null if absent
+     */
+    String remove(String name) {
+        String callback = players.remove(name);
+        if (callback != null) {
+            callbacks.remove(callback);
+            names = null;
+        }
+        return callback;
+    }
+
+    /**
+     * Adds a player without validation. Used when replaying master changes.
+     */
+    void put(String name, String callback) {
+        String previous = players.put(name, callback);
+        if (previous != null)
+            callbacks.remove(previous);
+        callbacks.add(callback);
+        names = null;
+    }
+
+    void replaceAll(Map<String, String> newPlayers) {
+        players.clear();
+        players.putAll(newPlayers);
+        callbacks.clear();
+        callbacks.addAll(newPlayers.values());
+        names = null;
+    }
+
+    /**
+     * @return encoded player names, or null if they changed since the last encoding
+     */
+    PlayerList cachedNames() {
+        return names;
+    }
+
+    /**
+     * Encodes the player names if they changed. Caller holds the lobby's monitor.
+     */
+    PlayerList names() {
+        PlayerList current = names;
+        if (current == null) {
+            current = PlayerList.of(version, players.keySet());
+            names = current;
+        }
+        return current;
+    }
+
+    Map<String, String> players() {
+        return players;
+    }
+
+    boolean canStart() {
+        return !gameStarted && players.size() >= MIN_PLAYERS;
+    }
+
+    void markStarted() {
+        gameStarted = true;
+    }
+
+    boolean isStarted() {
+        return gameStarted;
+    }
+
+    void reset() {
+        players.clear();
+        callbacks.clear();
+        gameStarted = false;
+        names = null;
+    }
+
+    /**
+     * @return true if the lobby holds no state worth keeping
+     */
+    boolean isIdle() {
+        return players.isEmpty() && !gameStarted;
+    }
+
+    void retire() {
+        retired = true;
+        names = null;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    long version() {
+        return version;
+    }
+
+    void version(long version) {
+        this.version = version;
+    }
+}
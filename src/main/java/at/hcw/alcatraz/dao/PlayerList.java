@@ -0,0 +1,84 @@
+package at.hcw.alcatraz.dao;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Player names of one lobby, encoded once as a JSON array.
+ *
+ * A lobby is read far more often than it changes, so the list is encoded
+ * on the first read after a change and then shared by all readers until
+ * the next change. The ETag is the lobby version the list was built at:
+ * equal versions of a lobby always have equal contents, on every node.
+ * This includes the order of the names: snapshots, codecs and the snapshot
+ * store all keep the registration order (see RegistrySnapshot).
+ *
+ * Instances are immutable. The array returned by json() is shared and must
+ * not be modified.
+ */
+public final class PlayerList {
+
+    /** List of a lobby that does not exist. */
+    static final PlayerList EMPTY = of(0, List.of());
+
+    private final long version;
+    private final int size;
+    private final byte[] json;
+    private final String etag;
+
+    private PlayerList(long version, int size, byte[] json) {
+        this.version = version;
+        this.size = size;
+        this.json = json;
+        this.etag = "\"" + version + "\"";
+    }
+
+    /**
+     * @param version lobby version the names belong to
+     * @param names   player names, in the order they are encoded
+     */
+    static PlayerList of(long version, Collection<String> names) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 + names.size() * 16);
+        out.write('[');
+        boolean first = true;
+        for (String name : names) {
+            if (!first)
+                out.write(',');
+            out.write('"');
+            out.writeBytes(encoder.quoteAsUTF8(name));
+            out.write('"');
+            first = false;
+        }
+        out.write(']');
+        return new PlayerList(version, names.size(), out.toByteArray());
+    }
+
+    /**
+     * @return registry version of the last change to the names
+     */
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return UTF-8 encoded JSON array of the names, shared, do not modify
+     */
+    public byte[] json() {
+        return json;
+    }
+
+    /**
+     * @return quoted strong entity tag derived from the version
+     */
+    public String etag() {
+        return etag;
+    }
+}
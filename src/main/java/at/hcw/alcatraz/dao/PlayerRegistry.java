@@ -3,126 +3,757 @@ package at.hcw.alcatraz.dao;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
- * Maintains local player state for this node.
+ * Maintains local lobby state for this node.
  *
- * Tracks player identifiers and callback URLs.
- * Enforces:
+ * Hosts any number of lobbies side by side. Each lobby tracks player
+ * identifiers and callback URLs and enforces:
  *  - maximum 4 players
  *  - minimum 2 players to start a game
  *  - no duplicate player names
  *  - no duplicate callback URLs
  *  - no modifications after the game has entered the started state
  *
- * All operations are synchronized to keep the registry consistent inside the JVM.
+ * Concurrency model:
+ *  - Lobbies live in a ConcurrentHashMap keyed by lobby id.
+ *  - Every lobby operation runs under that lobby's own monitor, so
+ *    register, unregister and start on different lobbies never contend.
+ *  - Lobbies are created on first write and removed again once they are
+ *    empty and not started.
+ *
+ * The matchmaking queue is the lobby MATCHMAKING_QUEUE without the player
+ * limit, so it is versioned, replicated and persisted like every lobby.
+ *
+ * Versioning:
+ *  - Every mutation gets the next registry version and is published to the
+ *    registered listeners as a RegistryChange, in version order.
+ *  - The version is assigned under a small ordering lock that is taken while
+ *    the lobby monitor is held (lock order: lobby → ordering lock). The lock
+ *    only covers version assignment and queueing the change for delivery.
+ *  - Listeners run after the writer released the lobby monitor, one change
+ *    at a time in version order, under a delivery lock. Whoever holds it
+ *    delivers the queued changes of all writers, so a slow listener delays
+ *    the return of concurrent writes but never the mutation of other
+ *    lobbies. A write returns once its change was delivered.
+ *  - version() advances only after delivery: a reader that sees a version
+ *    also sees the listeners' effects of every change up to it.
+ *  - Backups apply replicated changes with apply() and detect duplicates and
+ *    gaps from the version.
  */
 @Component
 public class PlayerRegistry {
 
-    /** Map playerName → callbackUrl. */
-    private final Map<String, String> players = new HashMap<>();
+    /** Lobby used by the legacy, non lobby-scoped routes. */
+    public static final String DEFAULT_LOBBY = "default";
+
+    /**
+     * Lobby holding the players waiting for matchmaking. It has no player
+     * limit and is never started; it is replicated like any other lobby.
+     */
+    public static final String MATCHMAKING_QUEUE = "_matchmaking";
+
+    /** Map lobbyId → lobby state. */
+    private final ConcurrentHashMap<String, Lobby> lobbies = new ConcurrentHashMap<>();
+
+    /** Guards version assignment and the delivery queue. */
+    private final Object journalLock = new Object();
+
+    /** Version of the last change passed to the listeners. Written under journalLock. */
+    private volatile long version = 0;
+
+    /** Version of the last change applied to a lobby. Written under journalLock. */
+    private volatile long assigned = 0;
+
+    /** Changes applied but not yet passed to the listeners, in version order. Guarded by journalLock. */
+    private final ArrayDeque<Delivery> pending = new ArrayDeque<>();
+
+    /** Held while listeners run, so they see one change at a time. Never taken under a lobby monitor. */
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+
+    /**
+     * Changes waiting for delivery.
+     *
+     * @param batch true if they were applied as one batch and go to onChanges()
+     */
+    private record Delivery(List<RegistryChange> changes, boolean batch, boolean local) {
+        long last() {
+            return changes.get(changes.size() - 1).version();
+        }
+    }
+
+    private final List<RegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Outcome of applying a replicated change.
+     */
+    public enum ApplyResult {
+        /** Change was the next expected one and has been applied. */
+        APPLIED,
+        /** Change was already applied before and has been ignored. */
+        DUPLICATE,
+        /** One or more earlier changes are missing; nothing was applied. */
+        GAP
+    }
+
+    /**
+     * One entry of a batch registration or removal.
+     *
+     * @param lobby    lobby id
+     * @param player   player name
+     * @param callback callback URL, ignored for removals
+     */
+    public record BatchOp(String lobby, String player, String callback) {
+    }
 
-    /** Indicates whether the game has been started. */
-    private boolean gameStarted = false;
+    /**
+     * Outcome of one batch entry.
+     */
+    public enum BatchStatus {
+        OK,
+        GAME_STARTED,
+        LOBBY_FULL,
+        DUPLICATE_NAME,
+        DUPLICATE_CALLBACK,
+        NOT_FOUND
+    }
 
-    /** Maximum number of players allowed. */
-    private static final int MAX_PLAYERS = 4;
+    /**
+     * Registers a listener for registry changes.
+     *
+     * @param listener listener to add
+     */
+    public void addListener(RegistryListener listener) {
+        listeners.add(listener);
+    }
 
-    /** Minimum number of players required to start. */
-    private static final int MIN_PLAYERS = 2;
+    /**
+     * @return version of the last applied change whose listeners have run
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Waits until the registry has applied at least the given version.
+     *
+     * @param minVersion version to wait for
+     * @param timeoutMs  maximum wait time
+     * @return true if the version was reached
+     */
+    public boolean awaitVersion(long minVersion, long timeoutMs) throws InterruptedException {
+        if (version >= minVersion)
+            return true;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (journalLock) {
+            while (version < minVersion) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                journalLock.wait(remaining);
+            }
+            return true;
+        }
+    }
 
     /**
-     * Adds a player if the registry allows modifications.
+     * Adds a player if the lobby allows modifications.
      *
      * Conditions:
      *  - game not started
-     *  - size <= MAX_PLAYERS
+     *  - size < MAX_PLAYERS
      *  - unique name
      *  - unique callback URL
      *
+     * @param lobbyId lobby id
      * @param name player name
      * @param callback callback URL
      * @return true if the player was added
      */
-    public synchronized boolean add(String name, String callback) {
-        if (gameStarted) return false;
-        if (players.size() >= MAX_PLAYERS) return false;
-        if (players.containsKey(name)) return false;
-        if (players.containsValue(callback)) return false;
-
-        players.put(name, callback);
-        return true;
+    public boolean add(String lobbyId, String name, String callback) {
+        return write(lobbyId, lobby -> {
+            if (!lobby.add(name, callback))
+                return false;
+            journal(lobby, RegistryChange.Kind.ADD, name, callback);
+            return true;
+        });
     }
 
     /**
      * Removes a player.
      *
+     * @param lobbyId lobby id
      * @param name player name
      * @return true if a player was removed
      */
-    public synchronized boolean remove(String name) {
-        return players.remove(name) != null;
+    public boolean remove(String lobbyId, String name) {
+        return Boolean.TRUE.equals(writeExisting(lobbyId, lobby -> {
+            String callback = lobby.remove(name);
+            if (callback == null)
+                return false;
+            journal(lobby, RegistryChange.Kind.REMOVE, name, callback);
+            return true;
+        }));
+    }
+
+    /**
+     * Adds all players or none.
+     *
+     * Every entry is checked with the rules of add(), against the lobby state
+     * including the earlier entries of the batch. If all entries pass, they
+     * are applied under all affected lobby monitors at once and published as
+     * one batch with contiguous versions; otherwise nothing changes.
+     *
+     * @param entries players to add, possibly in different lobbies
+     * @return status per entry, in entry order
+     */
+    public List<BatchStatus> addAll(List<BatchOp> entries) {
+        return writeAll(entries, locked -> {
+            List<BatchStatus> results = new ArrayList<>(entries.size());
+            List<BatchOp> added = new ArrayList<>(entries.size());
+            for (BatchOp entry : entries) {
+                Lobby lobby = locked.get(entry.lobby());
+                BatchStatus status = admission(lobby, entry);
+                results.add(status);
+                if (status == BatchStatus.OK) {
+                    lobby.add(entry.player(), entry.callback());
+                    added.add(entry);
+                }
+            }
+            if (added.size() < entries.size()) {
+                for (BatchOp entry : added)
+                    locked.get(entry.lobby()).remove(entry.player());
+                return results;
+            }
+            journalAll(locked, entries, RegistryChange.Kind.ADD);
+            return results;
+        });
     }
 
     /**
-     * Replaces local state with a new player map.
+     * Removes all players or none.
      *
-     * @param newPlayers playerName → callbackUrl mapping
+     * @param entries players to remove, possibly in different lobbies
+     * @return status per entry, in entry order; NOT_FOUND for players that are
+     *         not registered or named twice
      */
-    public synchronized void replaceAll(Map<String, String> newPlayers) {
-        players.clear();
-        players.putAll(newPlayers);
+    public List<BatchStatus> removeAll(List<BatchOp> entries) {
+        return writeAll(entries, locked -> {
+            List<BatchStatus> results = new ArrayList<>(entries.size());
+            List<BatchOp> removed = new ArrayList<>(entries.size());
+            for (BatchOp entry : entries) {
+                String callback = locked.get(entry.lobby()).remove(entry.player());
+                results.add(callback != null ? BatchStatus.OK : BatchStatus.NOT_FOUND);
+                if (callback != null)
+                    removed.add(new BatchOp(entry.lobby(), entry.player(), callback));
+            }
+            if (removed.size() < entries.size()) {
+                for (BatchOp entry : removed)
+                    locked.get(entry.lobby()).put(entry.player(), entry.callback());
+                return results;
+            }
+            journalAll(locked, removed, RegistryChange.Kind.REMOVE);
+            return results;
+        });
+    }
+
+    /**
+     * Moves players from one lobby to another, all or none.
+     *
+     * The removals and additions are published as one batch, so a replica
+     * either sees all players moved or none of them: a failover cannot leave
+     * a player in neither lobby.
+     *
+     * @param from    lobby the players are in
+     * @param to      lobby to move them to, checked with the rules of add()
+     * @param players names of the players to move
+     * @return status per player, in order; NOT_FOUND for players that are not
+     *         in from or named twice, otherwise the outcome of adding them to to
+     */
+    public List<BatchStatus> moveAll(String from, String to, List<String> players) {
+        List<BatchOp> lobbyIds = List.of(new BatchOp(from, null, null), new BatchOp(to, null, null));
+        return writeAll(lobbyIds, locked -> {
+            Lobby source = locked.get(from);
+            Lobby target = locked.get(to);
+            List<BatchStatus> results = new ArrayList<>(players.size());
+            List<BatchOp> moved = new ArrayList<>(players.size());
+            for (String player : players) {
+                String callback = source.remove(player);
+                BatchStatus status = callback == null
+                        ? BatchStatus.NOT_FOUND
+                        : admission(target, new BatchOp(to, player, callback));
+                results.add(status);
+                if (status == BatchStatus.OK) {
+                    target.add(player, callback);
+                    moved.add(new BatchOp(to, player, callback));
+                } else if (callback != null) {
+                    source.put(player, callback);
+                }
+            }
+            if (moved.size() < players.size()) {
+                for (BatchOp entry : moved) {
+                    target.remove(entry.player());
+                    source.put(entry.player(), entry.callback());
+                }
+                return results;
+            }
+
+            List<Mutation> mutations = new ArrayList<>(moved.size() * 2);
+            for (BatchOp entry : moved)
+                mutations.add(new Mutation(RegistryChange.Kind.REMOVE, new BatchOp(from, entry.player(), entry.callback())));
+            for (BatchOp entry : moved)
+                mutations.add(new Mutation(RegistryChange.Kind.ADD, entry));
+            journalAll(locked, mutations);
+            return results;
+        });
+    }
+
+    private static BatchStatus admission(Lobby lobby, BatchOp entry) {
+        if (lobby.isStarted())
+            return BatchStatus.GAME_STARTED;
+        if (lobby.hasPlayer(entry.player()))
+            return BatchStatus.DUPLICATE_NAME;
+        if (lobby.hasCallback(entry.callback()))
+            return BatchStatus.DUPLICATE_CALLBACK;
+        if (lobby.isFull())
+            return BatchStatus.LOBBY_FULL;
+        return BatchStatus.OK;
     }
 
     /**
-     * Returns a defensive copy of the registry.
+     * Returns a defensive copy of one lobby.
      *
-     * @return map copy
+     * @param lobbyId lobby id
+     * @return map copy, empty if the lobby does not exist
      */
-    public synchronized Map<String, String> snapshot() {
-        return new HashMap<>(players);
+    public Map<String, String> snapshot(String lobbyId) {
+        return read(lobbyId, lobby -> new HashMap<>(lobby.players()), new HashMap<>());
     }
 
     /**
-     * Returns all player names.
+     * Returns all player names of one lobby.
      *
+     * @param lobbyId lobby id
      * @return immutable set of names
      */
-    public synchronized Set<String> list() {
-        return Set.copyOf(players.keySet());
+    public Set<String> list(String lobbyId) {
+        return read(lobbyId, lobby -> Set.copyOf(lobby.players().keySet()), Set.of());
     }
 
+    /**
+     * Returns the encoded player names of one lobby. Repeated reads between
+     * two changes of the lobby return the same instance without locking.
+     *
+     * @param lobbyId lobby id
+     * @return names in registration order, empty with version 0 if the lobby does not exist
+     */
+    public PlayerList playerList(String lobbyId) {
+        Lobby lobby = lobbies.get(lobbyId);
+        if (lobby == null)
+            return PlayerList.EMPTY;
+        PlayerList cached = lobby.cachedNames();
+        if (cached != null)
+            return cached;
+        synchronized (lobby) {
+            return lobby.isRetired() ? PlayerList.EMPTY : lobby.names();
+        }
+    }
+
+    /**
+     * @param lobbyId lobby id
+     * @return number of players in the lobby
+     */
+    public int size(String lobbyId) {
+        return read(lobbyId, lobby -> lobby.players().size(), 0);
+    }
+
+    /**
+     * @return ids of all lobbies that currently hold state
+     */
+    public Set<String> lobbyIds() {
+        return Set.copyOf(lobbies.keySet());
+    }
+
+    /**
+     * @return number of lobbies that currently hold state
+     */
+    public int lobbyCount() {
+        return lobbies.size();
+    }
+
+    /**
+     * Counts players over all lobbies. Locks one lobby at a time, meant for
+     * monitoring rather than request handling.
+     *
+     * @return number of registered players
+     */
+    public int playerCount() {
+        int count = 0;
+        for (Lobby lobby : lobbies.values()) {
+            synchronized (lobby) {
+                if (!lobby.isRetired())
+                    count += lobby.players().size();
+            }
+        }
+        return count;
+    }
 
     /**
+     * @param lobbyId lobby id
      * @return true if the game was not marked as started and minimum two players are registered
      */
-    public synchronized boolean tryStart() {
-        if (gameStarted) return false;
-        return players.size() >= MIN_PLAYERS;
+    public boolean tryStart(String lobbyId) {
+        return read(lobbyId, Lobby::canStart, false);
     }
 
     /**
      * For callers that want to force the state change after validation
      * outside this class.
+     *
+     * @param lobbyId lobby id
      */
-    public synchronized void markStarted() {
-        gameStarted = true;
+    public void markStarted(String lobbyId) {
+        write(lobbyId, lobby -> {
+            if (!lobby.isStarted()) {
+                lobby.markStarted();
+                journal(lobby, RegistryChange.Kind.START, null, null);
+            }
+            return null;
+        });
     }
 
     /**
-     * Resets registry and game state.
+     * Resets players and game state of one lobby.
+     *
+     * @param lobbyId lobby id
      */
-    public synchronized void reset() {
-        players.clear();
-        gameStarted = false;
+    public void reset(String lobbyId) {
+        writeExisting(lobbyId, lobby -> {
+            lobby.reset();
+            journal(lobby, RegistryChange.Kind.RESET, null, null);
+            return null;
+        });
     }
 
     /**
+     * @param lobbyId lobby id
      * @return true if the game is marked as started
      */
-    public synchronized boolean isStarted() {
-        return gameStarted;
+    public boolean isStarted(String lobbyId) {
+        return read(lobbyId, Lobby::isStarted, false);
+    }
+
+    // ================= REPLICATION =================
+
+    /**
+     * Applies a change replicated from the master.
+     *
+     * Changes must arrive in version order. Already applied versions are
+     * ignored; a version further ahead than the next expected one is
+     * reported as a gap and the caller has to fetch a snapshot.
+     *
+     * Must be called from a single thread.
+     *
+     * @param change replicated change
+     * @return outcome
+     */
+    public ApplyResult apply(RegistryChange change) {
+        long current = assigned;
+        if (change.version() <= current)
+            return ApplyResult.DUPLICATE;
+        if (change.version() != current + 1)
+            return ApplyResult.GAP;
+
+        write(change.lobby(), lobby -> {
+            // A snapshot may already contain this change for the lobby.
+            if (change.version() > lobby.version()) {
+                switch (change.kind()) {
+                    case ADD -> lobby.put(change.player(), change.callback());
+                    case REMOVE -> lobby.remove(change.player());
+                    case START -> lobby.markStarted();
+                    case RESET -> lobby.reset();
+                }
+            }
+            publish(lobby, change, false);
+            return null;
+        });
+        return ApplyResult.APPLIED;
+    }
+
+    /**
+     * Copies all lobbies without blocking writers for longer than one lobby copy.
+     *
+     * @return snapshot of the registry
+     */
+    public RegistrySnapshot snapshot() {
+        long at = version;
+        List<RegistrySnapshot.LobbyState> states = new ArrayList<>(lobbies.size());
+        for (Lobby lobby : lobbies.values()) {
+            synchronized (lobby) {
+                if (lobby.isRetired())
+                    continue;
+                states.add(new RegistrySnapshot.LobbyState(
+                        lobby.id(), lobby.version(), lobby.isStarted(),
+                        Collections.unmodifiableMap(new LinkedHashMap<>(lobby.players()))));
+            }
+        }
+        return new RegistrySnapshot(at, states);
+    }
+
+    /**
+     * Replaces the complete local state with a snapshot from the master.
+     *
+     * Must be called from the same thread as apply().
+     *
+     * @param snapshot snapshot to install
+     */
+    public void install(RegistrySnapshot snapshot) {
+        deliveryLock.lock();
+        try {
+            deliverQueued(Long.MAX_VALUE);
+            replaceLobbies(snapshot);
+            for (RegistryListener listener : listeners)
+                listener.onSnapshot(snapshot);
+            synchronized (journalLock) {
+                assigned = snapshot.version();
+                version = snapshot.version();
+                journalLock.notifyAll();
+            }
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    private void replaceLobbies(RegistrySnapshot snapshot) {
+        for (Lobby lobby : lobbies.values()) {
+            synchronized (lobby) {
+                lobby.retire();
+                lobbies.remove(lobby.id(), lobby);
+            }
+        }
+        for (RegistrySnapshot.LobbyState state : snapshot.lobbies()) {
+            Lobby lobby = newLobby(state.id());
+            lobby.replaceAll(state.players());
+            if (state.started())
+                lobby.markStarted();
+            lobby.version(state.version());
+            lobbies.put(state.id(), lobby);
+        }
+    }
+
+    /**
+     * Assigns the next version to a local mutation and queues it for the listeners.
+     * Must be called while holding the lobby's monitor.
+     */
+    private void journal(Lobby lobby, RegistryChange.Kind kind, String player, String callback) {
+        synchronized (journalLock) {
+            long next = assigned + 1;
+            publish(lobby, new RegistryChange(kind, next, lobby.id(), player, callback), true);
+        }
+    }
+
+    /**
+     * Assigns contiguous versions to a batch of local mutations and queues
+     * them as one batch. Must be called while holding all affected lobby monitors.
+     */
+    private void journalAll(Map<String, Lobby> locked, List<BatchOp> entries, RegistryChange.Kind kind) {
+        List<Mutation> mutations = new ArrayList<>(entries.size());
+        for (BatchOp entry : entries)
+            mutations.add(new Mutation(kind, entry));
+        journalAll(locked, mutations);
+    }
+
+    /** One change of a batch that mixes kinds, e.g. a move. */
+    private record Mutation(RegistryChange.Kind kind, BatchOp entry) {
+    }
+
+    private void journalAll(Map<String, Lobby> locked, List<Mutation> mutations) {
+        synchronized (journalLock) {
+            long next = assigned;
+            List<RegistryChange> changes = new ArrayList<>(mutations.size());
+            for (Mutation m : mutations) {
+                BatchOp entry = m.entry();
+                RegistryChange change = new RegistryChange(m.kind(), ++next, entry.lobby(), entry.player(), entry.callback());
+                locked.get(entry.lobby()).version(change.version());
+                changes.add(change);
+            }
+            pending.add(new Delivery(changes, true, true));
+            assigned = next;
+        }
+    }
+
+    /**
+     * Records a change as applied and queues it for the listeners.
+     * Must be called while holding the lobby's monitor.
+     */
+    private void publish(Lobby lobby, RegistryChange change, boolean local) {
+        synchronized (journalLock) {
+            if (change.version() > lobby.version())
+                lobby.version(change.version());
+            pending.add(new Delivery(List.of(change), false, local));
+            assigned = change.version();
+        }
+    }
+
+    // ================= DELIVERY =================
+
+    /**
+     * Passes queued changes to the listeners until every change applied
+     * before the call has been delivered. Must not be called while holding a
+     * lobby monitor.
+     */
+    private void deliver() {
+        long target = assigned;
+        if (version >= target)
+            return;
+        deliveryLock.lock();
+        try {
+            // Changes up to target are queued, or were delivered by the previous holder.
+            deliverQueued(target);
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    /**
+     * Delivers queued changes in version order up to target, or until the
+     * queue is empty. Must be called while holding deliveryLock.
+     */
+    private void deliverQueued(long target) {
+        while (version < target) {
+            Delivery next;
+            synchronized (journalLock) {
+                next = pending.poll();
+            }
+            if (next == null)
+                return;
+            for (RegistryListener listener : listeners) {
+                try {
+                    if (next.batch())
+                        listener.onChanges(next.changes(), next.local());
+                    else
+                        listener.onChange(next.changes().get(0), next.local());
+                } catch (RuntimeException e) {
+                    // One broken listener must not stop the others or the versions behind this one.
+                    System.err.println("[Registry] Listener " + listener.getClass().getSimpleName()
+                            + " failed on version " + next.last() + ": " + e);
+                }
+            }
+            // Published last: a reader that sees this version also sees the listeners' effects.
+            synchronized (journalLock) {
+                version = next.last();
+                journalLock.notifyAll();
+            }
+        }
+    }
+
+    // ================= LOBBY ACCESS =================
+
+    /**
+     * Runs a mutation on a lobby, creating the lobby if needed.
+     *
+     * A lobby fetched from the map may have been retired by a concurrent
+     * writer before its monitor was acquired. In that case the lookup is
+     * repeated so the write lands in the live instance.
+     */
+    private <T> T write(String lobbyId, Function<Lobby, T> action) {
+        while (true) {
+            Lobby lobby = lobbies.computeIfAbsent(lobbyId, PlayerRegistry::newLobby);
+            T result;
+            synchronized (lobby) {
+                if (lobby.isRetired())
+                    continue;
+                result = action.apply(lobby);
+                retireIfIdle(lobby);
+            }
+            deliver();
+            return result;
+        }
+    }
+
+    /** Returned by lockAll() when a lobby was retired before its monitor was acquired. */
+    private static final Object RETRY = new Object();
+
+    /**
+     * Runs a mutation while holding the monitors of all lobbies named by the
+     * entries, creating lobbies as needed. Monitors are acquired in lobby id
+     * order, so concurrent batches cannot deadlock; single-lobby writes hold
+     * only one monitor and cannot take part in a cycle.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T writeAll(List<BatchOp> entries, Function<Map<String, Lobby>, T> action) {
+        SortedSet<String> ids = new TreeSet<>();
+        for (BatchOp entry : entries)
+            ids.add(entry.lobby());
+        while (true) {
+            Object result = lockAll(ids.iterator(), new HashMap<>(), action);
+            if (result != RETRY) {
+                deliver();
+                return (T) result;
+            }
+        }
+    }
+
+    private Object lockAll(Iterator<String> ids, Map<String, Lobby> locked, Function<Map<String, Lobby>, ?> action) {
+        if (!ids.hasNext()) {
+            Object result = action.apply(locked);
+            locked.values().forEach(this::retireIfIdle);
+            return result;
+        }
+        Lobby lobby = lobbies.computeIfAbsent(ids.next(), PlayerRegistry::newLobby);
+        synchronized (lobby) {
+            if (lobby.isRetired())
+                return RETRY;
+            locked.put(lobby.id(), lobby);
+            return lockAll(ids, locked, action);
+        }
+    }
+
+    /**
+     * Runs a mutation on an existing lobby. Returns null if the lobby does not exist.
+     */
+    private <T> T writeExisting(String lobbyId, Function<Lobby, T> action) {
+        Lobby lobby = lobbies.get(lobbyId);
+        if (lobby == null)
+            return null;
+        T result;
+        synchronized (lobby) {
+            // A retired lobby is empty, so there is nothing left to modify.
+            if (lobby.isRetired())
+                return null;
+            result = action.apply(lobby);
+            retireIfIdle(lobby);
+        }
+        deliver();
+        return result;
+    }
+
+    private static Lobby newLobby(String lobbyId) {
+        return MATCHMAKING_QUEUE.equals(lobbyId) ? new Lobby(lobbyId, Integer.MAX_VALUE) : new Lobby(lobbyId);
+    }
+
+    private <T> T read(String lobbyId, Function<Lobby, T> action, T absent) {
+        Lobby lobby = lobbies.get(lobbyId);
+        if (lobby == null)
+            return absent;
+        synchronized (lobby) {
+            return action.apply(lobby);
+        }
+    }
+
+    /**
+     * Drops a lobby from the map once it has no players and no running game.
+     * Must be called while holding the lobby's monitor.
+     */
+    private void retireIfIdle(Lobby lobby) {
+        if (lobby.isIdle()) {
+            lobby.retire();
+            lobbies.remove(lobby.id(), lobby);
+        }
     }
 
 }
@@ -0,0 +1,23 @@
+package at.hcw.alcatraz.dao;
+
+/**
+ * A single versioned mutation of the registry.
+ *
+ * Versions are assigned by the master in the order the mutations were
+ * applied. Backups apply changes strictly in that order.
+ *
+ * @param kind     mutation type
+ * @param version  registry version after this change
+ * @param lobby    affected lobby
+ * @param player   affected player (ADD, REMOVE), otherwise null
+ * @param callback callback URL of the affected player (ADD, REMOVE), otherwise null
+ */
+public record RegistryChange(Kind kind, long version, String lobby, String player, String callback) {
+
+    public enum Kind {
+        ADD,
+        REMOVE,
+        START,
+        RESET
+    }
+}
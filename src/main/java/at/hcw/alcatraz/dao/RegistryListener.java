@@ -0,0 +1,40 @@
+package at.hcw.alcatraz.dao;
+
+import java.util.List;
+
+/**
+ * Receives registry changes in version order.
+ *
+ * Callbacks run one at a time under the registry's delivery lock, on the
+ * thread of a writer, after the lobby monitors were released. A write
+ * returns only once its change was delivered, so implementations must be
+ * short and must not call back into the registry.
+ */
+public interface RegistryListener {
+
+    /**
+     * @param change applied change
+     * @param local  true if the change originated on this node, false if it was replicated
+     */
+    void onChange(RegistryChange change, boolean local);
+
+    /**
+     * Called instead of onChange() for changes applied atomically as one
+     * batch, with contiguous versions.
+     *
+     * @param changes applied changes in version order
+     * @param local   true if the changes originated on this node
+     */
+    default void onChanges(List<RegistryChange> changes, boolean local) {
+        for (RegistryChange change : changes)
+            onChange(change, local);
+    }
+
+    /**
+     * Called after a full snapshot replaced the local state.
+     *
+     * @param snapshot installed snapshot
+     */
+    default void onSnapshot(RegistrySnapshot snapshot) {
+    }
+}
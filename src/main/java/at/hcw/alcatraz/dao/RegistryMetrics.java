@@ -0,0 +1,39 @@
+package at.hcw.alcatraz.dao;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the size of the local PlayerRegistry.
+ *
+ * Metrics:
+ * - alcatraz.registry.lobbies: lobbies holding state
+ * - alcatraz.registry.players: registered players over all lobbies
+ * - alcatraz.registry.version: last applied registry version
+ *
+ * Gauges are computed when scraped, writes pay nothing.
+ */
+@Component
+public class RegistryMetrics implements MeterBinder {
+
+    private final PlayerRegistry registry;
+
+    public RegistryMetrics(PlayerRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meters) {
+        Gauge.builder("alcatraz.registry.lobbies", registry, PlayerRegistry::lobbyCount)
+                .description("Lobbies holding state")
+                .register(meters);
+        Gauge.builder("alcatraz.registry.players", registry, PlayerRegistry::playerCount)
+                .description("Registered players over all lobbies")
+                .register(meters);
+        Gauge.builder("alcatraz.registry.version", registry, PlayerRegistry::version)
+                .description("Last applied registry version")
+                .register(meters);
+    }
+}
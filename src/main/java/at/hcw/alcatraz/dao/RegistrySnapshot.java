@@ -0,0 +1,27 @@
+package at.hcw.alcatraz.dao;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of all lobbies.
+ *
+ * The copy is taken lobby by lobby without stopping writers. {@code version}
+ * is the registry version read before copying, so every change up to it is
+ * contained. Later changes may already be contained as well; each lobby
+ * carries the version of its last change so they are not applied twice.
+ *
+ * @param version registry version every lobby is at least at
+ * @param lobbies lobby states
+ */
+public record RegistrySnapshot(long version, List<LobbyState> lobbies) {
+
+    /**
+     * @param id      lobby id
+     * @param version version of the last change applied to this lobby
+     * @param started game-started flag
+     * @param players playerName → callbackUrl, in registration order
+     */
+    public record LobbyState(String id, long version, boolean started, Map<String, String> players) {
+    }
+}
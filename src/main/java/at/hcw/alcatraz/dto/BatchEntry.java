@@ -0,0 +1,23 @@
+package at.hcw.alcatraz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Schema(name = "BatchEntry")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchEntry {
+
+    @Schema(description = "Player name. It should be unique per lobby", example = "Alice")
+    private String playerName;
+
+    @Schema(description = "Callback URL, only needed to register. It should be unique per lobby",
+            example = "http://localhost:9001")
+    private String callbackUrl;
+
+    @Schema(description = "Lobby of this entry. Defaults to the lobby of the route", example = "table-7")
+    private String lobbyId;
+}
@@ -0,0 +1,35 @@
+package at.hcw.alcatraz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Schema(name = "BatchResult")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchResult {
+
+    @Schema(description = "True if all entries were applied, false if none was")
+    private boolean applied;
+
+    @Schema(description = "Outcome per entry, in request order")
+    private List<EntryResult> results;
+
+    @Schema(name = "BatchEntryResult")
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class EntryResult {
+
+        private String playerName;
+
+        private String lobbyId;
+
+        @Schema(description = "OK, GAME_STARTED, LOBBY_FULL, DUPLICATE_NAME, DUPLICATE_CALLBACK or NOT_FOUND")
+        private String status;
+    }
+}
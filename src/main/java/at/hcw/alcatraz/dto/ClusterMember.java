@@ -0,0 +1,25 @@
+package at.hcw.alcatraz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Schema(name = "ClusterMember")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ClusterMember {
+
+    @Schema(description = "Logical node id", example = "node2")
+    private String id;
+
+    @Schema(description = "Base URL of the node's HTTP API as announced by the node, null if unknown", example = "http://10.0.0.2:8081")
+    private String endpoint;
+
+    @Schema(description = "True for the current master", example = "false")
+    private boolean master;
+
+    @Schema(description = "Relative share of read and stream load the node wants, 1 if it did not announce one", example = "1")
+    private int capacity;
+}
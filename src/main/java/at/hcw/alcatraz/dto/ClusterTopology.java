@@ -0,0 +1,36 @@
+package at.hcw.alcatraz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Schema(name = "ClusterTopology")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ClusterTopology {
+
+    @Schema(description = "Id of the node that answered", example = "node2")
+    private String self;
+
+    @Schema(description = "Id of the current master, null while none is elected", example = "node1")
+    private String master;
+
+    @Schema(description = "Base URL of the current master, null if unknown", example = "http://10.0.0.1:8080")
+    private String masterEndpoint;
+
+    @Schema(description = "Election epoch; grows with every change of master", example = "3")
+    private long epoch;
+
+    @Schema(description = "Members of the current group view, sorted by id")
+    private List<ClusterMember> members;
+
+    @Schema(description = "Shard whose port answered; master and members are those of this shard", example = "0")
+    private int shard;
+
+    @Schema(description = "Number of shards, 1 if the cluster is not sharded", example = "1")
+    private int shards;
+}
@@ -0,0 +1,21 @@
+package at.hcw.alcatraz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Schema(name = "LobbyChanges")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LobbyChanges {
+
+    @Schema(description = "Cursor to pass as since with the next poll", example = "42")
+    private long version;
+
+    @Schema(description = "Events after the requested version, empty if the wait timed out")
+    private List<LobbyEvent> events;
+}
@@ -0,0 +1,35 @@
+package at.hcw.alcatraz.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+
+@Schema(name = "LobbyEvent")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class LobbyEvent {
+
+    @Schema(description = "Registry version of this event. Resume from it with Last-Event-ID or since", example = "42")
+    private long version;
+
+    @Schema(description = "Lobby the event belongs to", example = "default")
+    private String lobbyId;
+
+    @Schema(description = "ADD, REMOVE, START, RESET, or SNAPSHOT for the full lobby state", example = "ADD")
+    private String type;
+
+    @Schema(description = "Affected player (ADD, REMOVE)", example = "Alice")
+    private String playerName;
+
+    @Schema(description = "All players of the lobby (SNAPSHOT)")
+    private Set<String> players;
+
+    @Schema(description = "Game-started flag of the lobby (SNAPSHOT)")
+    private Boolean started;
+}
@@ -0,0 +1,30 @@
+package at.hcw.alcatraz.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Schema(name = "PlayerHealth")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PlayerHealth {
+
+    @Schema(description = "Player name", example = "Alice")
+    private String playerName;
+
+    @Schema(description = "UNKNOWN until the first probe, UP, or DOWN after repeated failures", example = "UP")
+    private String status;
+
+    @Schema(description = "Round-trip of the last successful probe in ms", example = "3")
+    private Long latencyMs;
+
+    @Schema(description = "Time of the last probe, epoch milliseconds", example = "1760000000000")
+    private Long checkedAt;
+
+    @Schema(description = "Failed probes in a row", example = "0")
+    private int failures;
+}
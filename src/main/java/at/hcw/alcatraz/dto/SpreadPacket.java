@@ -4,5 +4,23 @@ import at.hcw.alcatraz.spread.SpreadMsgType;
 
 import java.util.Map;
 
-public record SpreadPacket(SpreadMsgType type, Map<String, String> data) {
+/**
+ * Application message exchanged over Spread.
+ *
+ * Several packets travel together in one Spread message (a frame).
+ *
+ * @param type    message type
+ * @param version registry version the packet refers to
+ * @param lobby   lobby the message applies to
+ * @param data    payload, e.g. playerName → callbackUrl for ADD
+ * @param epoch   master epoch of the sender, see ElectionService
+ */
+public record SpreadPacket(SpreadMsgType type, long version, String lobby, Map<String, String> data, long epoch) {
+
+    /**
+     * Packet without epoch, e.g. for tests and codecs of older nodes.
+     */
+    public SpreadPacket(SpreadMsgType type, long version, String lobby, Map<String, String> data) {
+        this(type, version, lobby, data, 0);
+    }
 }
@@ -0,0 +1,24 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.*;
+
+/**
+ * One /start notification of a player. Nested in time inside a GameStartEvent
+ * of the same node.
+ */
+@Name("alcatraz.Callback")
+@Label("Start Callback")
+@Category({"Alcatraz", "Callbacks"})
+@StackTrace(false)
+public class CallbackEvent extends Event {
+
+    @Label("Player")
+    public String player;
+
+    @Label("URL")
+    public String url;
+
+    @Label("Outcome")
+    @Description("success, timeout, http or error")
+    public String outcome;
+}
@@ -0,0 +1,99 @@
+package at.hcw.alcatraz.flight;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Always-on flight recording of the cluster events of this node.
+ *
+ * Responsibilities:
+ * - Start a JFR recording named "alcatraz" that contains only the events of
+ *   this package, kept on disk for flight.max-age / flight.max-size.
+ * - Dump it to {flight.dir}/{node}.jfr when the node shuts down. While the
+ *   node runs, "jcmd <pid> JFR.dump name=alcatraz filename=..." dumps it.
+ *
+ * The dumps of all nodes are merged into one timeline by FlightTimeline.
+ *
+ * Disabled by default (flight.enabled=false). The events are then still
+ * recorded by any recording started with -XX:StartFlightRecording; without
+ * a recording they cost one shouldCommit() check each.
+ */
+@Component
+public class ClusterFlightRecorder {
+
+    /** All events written by the application. */
+    static final List<Class<? extends Event>> EVENTS = List.of(
+            MembershipEvent.class,
+            ElectionEvent.class,
+            ReplicationSendEvent.class,
+            ReplicationApplyEvent.class,
+            RedirectEvent.class,
+            GameStartEvent.class,
+            CallbackEvent.class);
+
+    private final boolean enabled;
+    private final Path dir;
+    private final String nodeId;
+    private final Duration maxAge;
+    private final long maxSize;
+
+    private Recording recording;
+
+    public ClusterFlightRecorder(@Value("${flight.enabled:false}") boolean enabled,
+                                 @Value("${flight.dir:data/flight}") String dir,
+                                 @Value("${spread.node-id:node}") String nodeId,
+                                 @Value("${flight.max-age:30m}") Duration maxAge,
+                                 @Value("${flight.max-size:64MB}") DataSize maxSize) {
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.nodeId = nodeId;
+        this.maxAge = maxAge;
+        this.maxSize = maxSize.toBytes();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled)
+            return;
+        recording = new Recording();
+        recording.setName("alcatraz");
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.setMaxSize(maxSize);
+        for (Class<? extends Event> event : EVENTS)
+            recording.enable(event).withoutStackTrace();
+        recording.start();
+        System.out.println("[Flight] Recording cluster events, max-age=" + maxAge);
+    }
+
+    /**
+     * Dumps the recording and stops it.
+     */
+    @PreDestroy
+    public void stop() {
+        if (recording == null)
+            return;
+        Path file = dir.resolve(nodeId + ".jfr");
+        try {
+            Files.createDirectories(dir);
+            recording.dump(file);
+            System.out.println("[Flight] Recording written to " + file);
+        } catch (IOException e) {
+            System.err.println("[Flight] Could not write " + file + ": " + e);
+        } finally {
+            recording.close();
+            recording = null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.*;
+
+/**
+ * Outcome of one master election.
+ */
+@Name("alcatraz.Election")
+@Label("Election")
+@Category({"Alcatraz", "Cluster"})
+@StackTrace(false)
+public class ElectionEvent extends Event {
+
+    @Label("Node")
+    public String node;
+
+    @Label("Master")
+    public String master;
+
+    @Label("Is Master")
+    public boolean self;
+
+    @Label("Epoch")
+    public long epoch;
+
+    @Label("Members")
+    public String members;
+}
@@ -0,0 +1,127 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Merges the flight recordings of several nodes into one timeline.
+ *
+ * Usage:
+ *   java -cp target/classes at.hcw.alcatraz.flight.FlightTimeline node1.jfr node2.jfr node3.jfr
+ *
+ * Prints one line per cluster event, ordered by start time:
+ *   time, node, event, duration (timed events only), fields.
+ *
+ * Events are attributed by their node field. Events without one (callbacks)
+ * get the node that recorded most events of the same file, or the file name.
+ * Times are wall-clock times of each node, so ordering across nodes is only
+ * as good as their clock synchronization.
+ */
+public final class FlightTimeline {
+
+    private static final String PREFIX = "alcatraz.";
+
+    /** Fields printed in their own column or not at all. */
+    private static final Set<String> SKIPPED = Set.of("startTime", "duration", "eventThread", "stackTrace", "node");
+
+    /**
+     * One event of the merged timeline.
+     *
+     * @param event  event name without the "alcatraz." prefix
+     * @param fields remaining fields as name=value pairs
+     */
+    public record Entry(Instant start, Duration duration, String node, String event, String fields) {
+
+        @Override
+        public String toString() {
+            String took = duration.isZero() ? "" : String.format("%.3fms", duration.toNanos() / 1e6);
+            return String.format("%s  %-8s %-18s %10s  %s", start, node, event, took, fields);
+        }
+    }
+
+    private FlightTimeline() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: FlightTimeline <recording.jfr>...");
+            System.exit(2);
+        }
+        List<Path> files = Arrays.stream(args).map(Path::of).toList();
+        print(merge(files), System.out);
+    }
+
+    /**
+     * Reads the cluster events of all recordings.
+     *
+     * @param files JFR recordings, typically one per node
+     * @return events of all files ordered by start time
+     */
+    public static List<Entry> merge(List<Path> files) throws IOException {
+        List<Entry> timeline = new ArrayList<>();
+        for (Path file : files)
+            timeline.addAll(read(file));
+        timeline.sort(Comparator.comparing(Entry::start).thenComparing(Entry::node));
+        return timeline;
+    }
+
+    public static void print(List<Entry> timeline, PrintStream out) {
+        for (Entry entry : timeline)
+            out.println(entry);
+    }
+
+    private static List<Entry> read(Path file) throws IOException {
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().startsWith(PREFIX))
+                events.add(event);
+        }
+
+        String fallback = events.stream()
+                .map(FlightTimeline::node)
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()))
+                .entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .orElseGet(() -> file.getFileName().toString().replaceFirst("\\.jfr$", ""));
+
+        List<Entry> entries = new ArrayList<>(events.size());
+        for (RecordedEvent event : events) {
+            String node = node(event);
+            entries.add(new Entry(
+                    event.getStartTime(),
+                    event.getDuration(),
+                    node != null ? node : fallback,
+                    event.getEventType().getName().substring(PREFIX.length()),
+                    fields(event)));
+        }
+        return entries;
+    }
+
+    private static String node(RecordedEvent event) {
+        return event.hasField("node") ? event.getString("node") : null;
+    }
+
+    private static String fields(RecordedEvent event) {
+        StringJoiner out = new StringJoiner(" ");
+        for (ValueDescriptor field : event.getFields()) {
+            if (SKIPPED.contains(field.getName()))
+                continue;
+            Object value = event.getValue(field.getName());
+            if (value != null)
+                out.add(field.getName() + "=" + value);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.*;
+
+/**
+ * A game start on the master, from the first callback until all answered.
+ */
+@Name("alcatraz.GameStart")
+@Label("Game Start")
+@Category({"Alcatraz", "Callbacks"})
+@StackTrace(false)
+public class GameStartEvent extends Event {
+
+    @Label("Node")
+    public String node;
+
+    @Label("Lobby")
+    public String lobby;
+
+    @Label("Players")
+    public int players;
+
+    @Label("Success")
+    public boolean success;
+
+    @Label("Failed Player")
+    public String failedPlayer;
+
+    @Label("Reason")
+    public String reason;
+}
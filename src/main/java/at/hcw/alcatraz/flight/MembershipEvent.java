@@ -0,0 +1,28 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.*;
+
+/**
+ * Membership view received from the group transport.
+ */
+@Name("alcatraz.Membership")
+@Label("Membership Change")
+@Category({"Alcatraz", "Cluster"})
+@StackTrace(false)
+public class MembershipEvent extends Event {
+
+    @Label("Node")
+    public String node;
+
+    @Label("Cause")
+    public String cause;
+
+    @Label("Changed Member")
+    public String changed;
+
+    @Label("Members")
+    public String members;
+
+    @Label("Member Count")
+    public int memberCount;
+}
@@ -0,0 +1,34 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.*;
+
+/**
+ * A request sent on to the master, as 307 redirect or proxied by the backup,
+ * or proxied to the master of another shard.
+ */
+@Name("alcatraz.Redirect")
+@Label("Redirect")
+@Category({"Alcatraz", "Routing"})
+@StackTrace(false)
+public class RedirectEvent extends Event {
+
+    @Label("Node")
+    public String node;
+
+    @Label("Mode")
+    @Description("redirect (307 to the client), forward (proxied) or shard (proxied to another shard)")
+    public String mode;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Master")
+    public String master;
+
+    @Label("Status")
+    @Description("Status returned to the client, 0 if the master was not reachable")
+    public int status;
+}
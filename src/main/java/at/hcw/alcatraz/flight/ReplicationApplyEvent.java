@@ -0,0 +1,39 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.*;
+
+/**
+ * One received frame, decoded and applied. The duration covers both.
+ */
+@Name("alcatraz.ReplicationApply")
+@Label("Replication Apply")
+@Category({"Alcatraz", "Replication"})
+@StackTrace(false)
+public class ReplicationApplyEvent extends Event {
+
+    @Label("Node")
+    public String node;
+
+    @Label("Sender")
+    public String sender;
+
+    @Label("Type")
+    @Description("Type of the first packet")
+    public String type;
+
+    @Label("Packets")
+    public int packets;
+
+    @Label("Size")
+    @DataAmount
+    public int bytes;
+
+    @Label("First Version")
+    public long firstVersion;
+
+    @Label("Last Version")
+    public long lastVersion;
+
+    @Label("Epoch")
+    public long epoch;
+}
@@ -0,0 +1,40 @@
+package at.hcw.alcatraz.flight;
+
+import jdk.jfr.*;
+
+/**
+ * One frame handed to the group transport. The duration is the send call.
+ */
+@Name("alcatraz.ReplicationSend")
+@Label("Replication Send")
+@Category({"Alcatraz", "Replication"})
+@StackTrace(false)
+public class ReplicationSendEvent extends Event {
+
+    @Label("Node")
+    public String node;
+
+    @Label("Recipients")
+    @Description("\"group\" for a multicast, otherwise the addressed members")
+    public String recipients;
+
+    @Label("Type")
+    @Description("Type of the first packet")
+    public String type;
+
+    @Label("Packets")
+    public int packets;
+
+    @Label("Size")
+    @DataAmount
+    public int bytes;
+
+    @Label("First Version")
+    public long firstVersion;
+
+    @Label("Last Version")
+    public long lastVersion;
+
+    @Label("Epoch")
+    public long epoch;
+}
@@ -0,0 +1,447 @@
+package at.hcw.alcatraz.matchmaking;
+
+import at.hcw.alcatraz.callback.StartDispatcher;
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistryListener;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import at.hcw.alcatraz.flight.GameStartEvent;
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.spread.ElectionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forms games out of the players waiting in the matchmaking queue.
+ *
+ * The queue is the registry lobby PlayerRegistry.MATCHMAKING_QUEUE. Joining
+ * and leaving it are ordinary ADD and REMOVE changes, so the queue is
+ * replicated, caught up and persisted like every lobby and survives a
+ * failover.
+ *
+ * Fill-or-timeout policy (only the master forms games):
+ * - As soon as 4 players wait, the 4 who waited longest form a game.
+ * - Fewer players (at least 2) form a game once the oldest of them has
+ *   waited matchmaking.max-wait-ms.
+ * - A single player keeps waiting.
+ *
+ * Forming a game moves the players from the queue into a new lobby
+ * "match-{uuid}", pinned to the queue's shard in a sharded cluster
+ * ("match-{uuid}@{shard}"), so it stays with the queue. The move is one
+ * registry batch, so a failover never leaves a player in neither lobby. If
+ * the move is refused, players that left the queue are dropped, the others
+ * that caused the refusal go to the back of the queue, and the matcher
+ * backs off before the next try. The game is then started on a separate
+ * pool through StartDispatcher, the same /start contract as a manual
+ * start. If a player cannot be notified, the other players are moved back
+ * to the queue and the lobby is reset.
+ *
+ * Every node keeps the queue order and the arrival times in memory, fed by
+ * the registry changes it applies, so a new master continues with the wait
+ * times as its backup saw them. A new master also takes over the match
+ * lobbies its predecessor formed but did not start: it starts them again,
+ * or queues their players again if too few are left.
+ *
+ * Metrics:
+ * - alcatraz.matchmaking.queue: players waiting
+ * - alcatraz.matchmaking.wait: time from joining the queue until a game was formed
+ * - alcatraz.matchmaking.games: games formed, tagged trigger=full|timeout
+ * - alcatraz.matchmaking.starts: game starts, tagged outcome=success|failure
+ */
+@Component
+@DependsOn("registryPersistence")
+public class Matchmaker implements RegistryListener {
+
+    /** Same bounds as a lobby. */
+    static final int MIN_GROUP = 2;
+    static final int MAX_GROUP = 4;
+
+    /** Upper bound for one wait of the matcher thread, so a new master starts matching quickly. */
+    private static final long IDLE_WAIT_MS = 100;
+
+    /** Longest pause after refused moves in a row; each refusal doubles the pause up to this. */
+    private static final long MAX_BACKOFF_MS = 5_000;
+
+    private static final String QUEUE = PlayerRegistry.MATCHMAKING_QUEUE;
+
+    private static final String MATCH_PREFIX = "match-";
+
+    /**
+     * A queued player.
+     *
+     * @param since System.nanoTime() when this node applied the player's ADD
+     */
+    record Waiting(String name, String callback, long since) {
+    }
+
+    private final PlayerRegistry registry;
+    private final ElectionService election;
+    private final StartDispatcher dispatcher;
+    private final ShardMap shards;
+    private final long maxWaitNanos;
+    private final int startConcurrency;
+
+    /** Player name → entry, oldest first. Guarded by itself. */
+    private final LinkedHashMap<String, Waiting> waiting = new LinkedHashMap<>();
+
+    /** Match lobbies this node is starting. */
+    private final Set<String> starting = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running = false;
+    /** Mastership seen by the last iteration of the matcher thread. Only used by that thread. */
+    private boolean wasMaster = false;
+    /** Pause after the last refused move, 0 after a success. Only used by the matcher thread. */
+    private long backoffMs = 0;
+    private Thread matcher;
+    private ExecutorService starter;
+
+    private final Timer waitTimer;
+    private final Counter fullGames;
+    private final Counter timeoutGames;
+    private final Counter startSuccess;
+    private final Counter startFailure;
+
+    /**
+     * @param maxWaitMs        wait after which fewer than 4 players form a game
+     * @param startConcurrency game starts notified in parallel
+     */
+    public Matchmaker(PlayerRegistry registry,
+                      ElectionService election,
+                      StartDispatcher dispatcher,
+                      ShardMap shards,
+                      @Value("${matchmaking.max-wait-ms:2000}") long maxWaitMs,
+                      @Value("${matchmaking.start-concurrency:32}") int startConcurrency,
+                      MeterRegistry meters) {
+        this.registry = registry;
+        this.election = election;
+        this.dispatcher = dispatcher;
+        this.shards = shards;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.startConcurrency = Math.max(1, startConcurrency);
+
+        Gauge.builder("alcatraz.matchmaking.queue", this, Matchmaker::queued)
+                .description("Players waiting for a game")
+                .register(meters);
+        this.waitTimer = Timer.builder("alcatraz.matchmaking.wait")
+                .description("Time from joining the queue until a game was formed")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(meters);
+        this.fullGames = gameCounter(meters, "full");
+        this.timeoutGames = gameCounter(meters, "timeout");
+        this.startSuccess = startCounter(meters, "success");
+        this.startFailure = startCounter(meters, "failure");
+    }
+
+    private static Counter gameCounter(MeterRegistry meters, String trigger) {
+        return Counter.builder("alcatraz.matchmaking.games")
+                .description("Games formed from the queue")
+                .tag("trigger", trigger)
+                .register(meters);
+    }
+
+    private static Counter startCounter(MeterRegistry meters, String outcome) {
+        return Counter.builder("alcatraz.matchmaking.starts")
+                .description("Starts of matched games")
+                .tag("outcome", outcome)
+                .register(meters);
+    }
+
+    /**
+     * Loads the queue the registry already holds (recovered from disk) and
+     * starts the matcher thread.
+     */
+    @PostConstruct
+    public void start() {
+        registry.addListener(this);
+        Map<String, String> recovered = registry.snapshot(QUEUE);
+        long now = System.nanoTime();
+        synchronized (waiting) {
+            recovered.forEach((name, callback) -> waiting.putIfAbsent(name, new Waiting(name, callback, now)));
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        starter = Executors.newFixedThreadPool(startConcurrency, r -> {
+            Thread t = new Thread(r, "match-start-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        running = true;
+        matcher = new Thread(this::matchLoop, "matchmaker");
+        matcher.setDaemon(true);
+        matcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        matcher.interrupt();
+        matcher.join(1_000);
+        starter.shutdownNow();
+    }
+
+    // ================= QUEUE =================
+
+    /**
+     * Adds a player to the queue. Must be called on the master.
+     *
+     * @return false if the name or the callback URL is already queued
+     */
+    public boolean enqueue(String name, String callback) {
+        return registry.add(QUEUE, name, callback);
+    }
+
+    /**
+     * Removes a player from the queue. Must be called on the master.
+     *
+     * @return false if the player was not queued
+     */
+    public boolean leave(String name) {
+        return registry.remove(QUEUE, name);
+    }
+
+    /**
+     * @return number of players waiting
+     */
+    public int queued() {
+        synchronized (waiting) {
+            return waiting.size();
+        }
+    }
+
+    @Override
+    public void onChange(RegistryChange change, boolean local) {
+        if (!QUEUE.equals(change.lobby()))
+            return;
+        synchronized (waiting) {
+            switch (change.kind()) {
+                case ADD -> {
+                    waiting.put(change.player(), new Waiting(change.player(), change.callback(), System.nanoTime()));
+                    if (waiting.size() == MIN_GROUP || waiting.size() >= MAX_GROUP)
+                        waiting.notify();
+                }
+                case REMOVE -> waiting.remove(change.player());
+                case RESET -> waiting.clear();
+                case START -> {
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onSnapshot(RegistrySnapshot snapshot) {
+        long now = System.nanoTime();
+        synchronized (waiting) {
+            Map<String, Waiting> before = new HashMap<>(waiting);
+            waiting.clear();
+            for (RegistrySnapshot.LobbyState lobby : snapshot.lobbies()) {
+                if (!QUEUE.equals(lobby.id()))
+                    continue;
+                lobby.players().forEach((name, callback) -> {
+                    Waiting known = before.get(name);
+                    waiting.put(name, new Waiting(name, callback, known != null ? known.since() : now));
+                });
+            }
+            waiting.notify();
+        }
+    }
+
+    // ================= MATCHING =================
+
+    private void matchLoop() {
+        while (running) {
+            try {
+                boolean master = election.isMaster();
+                if (master && !wasMaster)
+                    resumeMatches();
+                wasMaster = master;
+
+                List<Waiting> group = nextGroup();
+                if (group != null && !form(group))
+                    Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("[Matchmaking] Forming a game failed: " + e);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Waits until a group is due on the master.
+     *
+     * @return players of the next game, oldest first, or null to check again
+     */
+    private List<Waiting> nextGroup() throws InterruptedException {
+        synchronized (waiting) {
+            if (!election.isMaster()) {
+                waiting.wait(IDLE_WAIT_MS);
+                return null;
+            }
+            if (waiting.size() >= MAX_GROUP)
+                return oldest(MAX_GROUP);
+            if (waiting.size() >= MIN_GROUP) {
+                long due = waiting.values().iterator().next().since() + maxWaitNanos;
+                long remaining = due - System.nanoTime();
+                if (remaining <= 0)
+                    return oldest(waiting.size());
+                TimeUnit.NANOSECONDS.timedWait(waiting, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MS)));
+                return null;
+            }
+            waiting.wait(IDLE_WAIT_MS);
+            return null;
+        }
+    }
+
+    /** Must be called while holding waiting. */
+    private List<Waiting> oldest(int count) {
+        List<Waiting> group = new ArrayList<>(count);
+        Iterator<Waiting> it = waiting.values().iterator();
+        while (group.size() < count)
+            group.add(it.next());
+        return group;
+    }
+
+    /**
+     * Moves the players from the queue into a new lobby and schedules the start.
+     *
+     * @return false if the move was refused for another reason than players
+     *         that left the queue; the caller then waits backoffMs
+     */
+    private boolean form(List<Waiting> group) {
+        String lobby = shards.pin(MATCH_PREFIX + UUID.randomUUID());
+        long now = System.nanoTime();
+
+        List<String> names = group.stream().map(Waiting::name).toList();
+        List<PlayerRegistry.BatchStatus> moved = registry.moveAll(QUEUE, lobby, names);
+        if (!moved.stream().allMatch(status -> status == PlayerRegistry.BatchStatus.OK)) {
+            List<String> refused = new ArrayList<>();
+            synchronized (waiting) {
+                for (int i = 0; i < group.size(); i++) {
+                    Waiting player = group.get(i);
+                    PlayerRegistry.BatchStatus status = moved.get(i);
+                    if (status == PlayerRegistry.BatchStatus.OK)
+                        continue;
+                    // Left the queue in the meantime, or a stale entry from startup: forget it.
+                    if (status == PlayerRegistry.BatchStatus.NOT_FOUND) {
+                        waiting.remove(player.name(), player);
+                        continue;
+                    }
+                    // Any other refusal: to the back of the queue, so the next round tries other players first.
+                    if (waiting.remove(player.name(), player))
+                        waiting.put(player.name(), player);
+                    refused.add(player.name() + "=" + status);
+                }
+            }
+            if (refused.isEmpty())
+                return true;
+            backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(IDLE_WAIT_MS, backoffMs * 2));
+            System.err.println("[Matchmaking] Moving players to " + lobby + " refused: " + refused
+                    + ", next try in " + backoffMs + " ms");
+            return false;
+        }
+
+        backoffMs = 0;
+        for (Waiting player : group)
+            waitTimer.record(now - player.since(), TimeUnit.NANOSECONDS);
+        (group.size() == MAX_GROUP ? fullGames : timeoutGames).increment();
+        starting.add(lobby);
+        starter.execute(() -> startGame(lobby));
+        return true;
+    }
+
+    /**
+     * Takes over the match lobbies a previous master formed but did not
+     * start. Runs once each time this node becomes master.
+     */
+    private void resumeMatches() {
+        for (String lobby : registry.lobbyIds()) {
+            if (!lobby.startsWith(MATCH_PREFIX) || registry.isStarted(lobby) || starting.contains(lobby))
+                continue;
+            Map<String, String> players = registry.snapshot(lobby);
+            if (players.size() < MIN_GROUP) {
+                requeue(lobby, players.keySet());
+                registry.reset(lobby);
+                System.out.println("[Matchmaking] Dissolved unstarted " + lobby + ", players queued again");
+                continue;
+            }
+            System.out.println("[Matchmaking] Resuming start of " + lobby + " formed by the previous master");
+            starting.add(lobby);
+            starter.execute(() -> startGame(lobby));
+        }
+    }
+
+    private void startGame(String lobby) {
+        try {
+            notifyStart(lobby);
+        } finally {
+            starting.remove(lobby);
+        }
+    }
+
+    private void notifyStart(String lobby) {
+        Map<String, String> players = registry.snapshot(lobby);
+        GameStartEvent event = new GameStartEvent();
+        event.begin();
+        StartDispatcher.Outcome outcome = dispatcher.notifyStart(players);
+        event.end();
+        if (event.shouldCommit()) {
+            event.lobby = lobby;
+            event.players = players.size();
+            event.success = outcome.success();
+            event.failedPlayer = outcome.failedPlayer();
+            event.reason = outcome.reason();
+            event.commit();
+        }
+
+        if (!election.isMaster()) {
+            System.err.println("[Matchmaking] Lost mastership while starting " + lobby + ", leaving it to the new master");
+            return;
+        }
+        if (outcome.success()) {
+            registry.markStarted(lobby);
+            startSuccess.increment();
+            return;
+        }
+
+        startFailure.increment();
+        Set<String> others = new LinkedHashSet<>(players.keySet());
+        others.remove(outcome.failedPlayer());
+        requeue(lobby, others);
+        registry.reset(lobby);
+        System.err.println("[Matchmaking] Start of " + lobby + " failed, " + others.size()
+                + " player(s) queued again");
+    }
+
+    /**
+     * Moves players of a match lobby back to the queue in one batch. If that
+     * is refused, e.g. because a player joined the queue again meanwhile,
+     * they are moved one by one and those that cannot be moved stay behind.
+     */
+    private void requeue(String lobby, Collection<String> names) {
+        List<String> players = List.copyOf(names);
+        if (registry.moveAll(lobby, QUEUE, players).stream().allMatch(s -> s == PlayerRegistry.BatchStatus.OK))
+            return;
+        for (String name : players)
+            registry.moveAll(lobby, QUEUE, List.of(name));
+    }
+}
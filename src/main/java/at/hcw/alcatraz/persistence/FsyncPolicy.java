@@ -0,0 +1,20 @@
+package at.hcw.alcatraz.persistence;
+
+/**
+ * When WAL records are forced to disk.
+ */
+public enum FsyncPolicy {
+
+    /** Force after every record. Nothing acknowledged is lost, every write pays one fsync. */
+    ALWAYS,
+
+    /** Force from a background thread every persistence.fsync-interval-ms. Loses at most one interval. */
+    INTERVAL,
+
+    /** Never force explicitly, the OS writes pages back on its own. Survives process crashes, not power loss. */
+    NONE;
+
+    public static FsyncPolicy from(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
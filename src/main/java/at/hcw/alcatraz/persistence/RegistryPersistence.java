@@ -0,0 +1,377 @@
+package at.hcw.alcatraz.persistence;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistryListener;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the local PlayerRegistry on disk so a full cluster restart does not lose lobbies.
+ *
+ * Responsibilities:
+ * - Append every applied change (local or replicated) to the WriteAheadLog.
+ * - Take a compact snapshot every persistence.snapshot-every changes and
+ *   delete the WAL segments it covers.
+ * - Store snapshots installed from the master right away, since the version
+ *   sequence jumps there.
+ * - On startup, rebuild the registry from the newest snapshot plus the WAL
+ *   tail. SpreadManager depends on this bean, so recovery completes before
+ *   the node joins the group.
+ *
+ * Disabled by default (persistence.enabled=false); the registry then lives
+ * on the heap only, as before.
+ *
+ * With fsync=always the WAL is forced by group commit: changes are appended
+ * under the registry's delivery lock without waiting for the disk, and the
+ * worker thread forces everything appended so far in one go. Writers wait
+ * for their version with awaitDurable() after the registry released its
+ * locks, so one fsync covers all writes that arrived while the previous one
+ * ran.
+ *
+ * Metrics:
+ * - alcatraz.persistence.recovery: time to rebuild the registry on startup
+ * - alcatraz.persistence.fsync: time of background WAL forces (fsync=interval|always)
+ */
+@Component
+public class RegistryPersistence implements RegistryListener {
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final PlayerRegistry registry;
+    private final boolean enabled;
+    private final Path dir;
+    private final FsyncPolicy fsync;
+    private final long fsyncIntervalMs;
+    private final int segmentSize;
+    private final long snapshotEvery;
+    private final long awaitTimeoutMs;
+    private final Timer recoveryTimer;
+    private final Timer fsyncTimer;
+
+    private WriteAheadLog wal;
+    private SnapshotStore snapshots;
+
+    /** Changes appended since the last snapshot. */
+    private final AtomicLong sinceSnapshot = new AtomicLong();
+
+    // Group commit (fsync=always)
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition appended = commitLock.newCondition();
+    /** Highest version appended to the WAL. Guarded by commitLock. */
+    private long appendedVersion = 0;
+    /** Highest version forced to disk. Guarded by commitLock. */
+    private long durableVersion = 0;
+    /** Version → future of writers waiting for it. Guarded by commitLock. */
+    private final NavigableMap<Long, CompletableFuture<Void>> waiters = new TreeMap<>();
+
+    private volatile boolean running = false;
+    private Thread worker;
+
+    public RegistryPersistence(PlayerRegistry registry,
+                               @Value("${persistence.enabled:false}") boolean enabled,
+                               @Value("${persistence.dir:data/${spread.node-id:node}}") String dir,
+                               @Value("${persistence.fsync:interval}") String fsync,
+                               @Value("${persistence.fsync-interval-ms:100}") long fsyncIntervalMs,
+                               @Value("${persistence.segment-size:64MB}") DataSize segmentSize,
+                               @Value("${persistence.snapshot-every:10000}") long snapshotEvery,
+                               @Value("${persistence.await-timeout-ms:5000}") long awaitTimeoutMs,
+                               MeterRegistry meters) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.fsync = FsyncPolicy.from(fsync);
+        this.fsyncIntervalMs = Math.max(1, fsyncIntervalMs);
+        this.segmentSize = (int) Math.min(Integer.MAX_VALUE, segmentSize.toBytes());
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.awaitTimeoutMs = Math.max(0, awaitTimeoutMs);
+        this.recoveryTimer = Timer.builder("alcatraz.persistence.recovery")
+                .description("Time to rebuild the registry from snapshot and WAL")
+                .register(meters);
+        this.fsyncTimer = Timer.builder("alcatraz.persistence.fsync")
+                .description("Time of background WAL forces")
+                .register(meters);
+    }
+
+    /**
+     * Recovers the registry and starts logging.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled)
+            return;
+        snapshots = new SnapshotStore(dir);
+        recover();
+        wal = new WriteAheadLog(dir, segmentSize, registry.version() + 1);
+        appendedVersion = durableVersion = registry.version();
+        registry.addListener(this);
+
+        running = true;
+        worker = new Thread(this::backgroundLoop, "persistence-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the background thread and forces the WAL.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        worker.interrupt();
+        worker.join(1_000);
+        wal.close();
+        commitLock.lock();
+        try {
+            completeThrough(appendedVersion);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Installs the newest snapshot and replays the WAL records after it.
+     * Replay stops at the first missing version.
+     *
+     * @return recovery time in milliseconds
+     */
+    long recover() throws IOException {
+        long start = System.nanoTime();
+
+        Optional<RegistrySnapshot> snapshot = snapshots.latest();
+        snapshot.ifPresent(registry::install);
+
+        boolean[] gap = {false};
+        long replayed = WriteAheadLog.replay(dir, registry.version(), change -> {
+            if (!gap[0] && registry.apply(change) == PlayerRegistry.ApplyResult.GAP) {
+                gap[0] = true;
+                System.err.println("[Persistence] WAL is missing version " + (registry.version() + 1)
+                        + ", later records are ignored");
+            }
+        });
+
+        long nanos = System.nanoTime() - start;
+        recoveryTimer.record(nanos, TimeUnit.NANOSECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        System.out.println("[Persistence] Recovered version " + registry.version()
+                + " (snapshot " + snapshot.map(RegistrySnapshot::version).orElse(0L)
+                + " + " + replayed + " WAL records) in " + millis + " ms");
+        return millis;
+    }
+
+    // ================= REGISTRY LISTENER =================
+
+    /**
+     * Appends the change to the WAL. Runs under the registry's delivery lock,
+     * so records are written in version order.
+     */
+    @Override
+    public void onChange(RegistryChange change, boolean local) {
+        wal.append(change);
+        if (fsync == FsyncPolicy.ALWAYS) {
+            commitLock.lock();
+            try {
+                appendedVersion = change.version();
+                appended.signal();
+            } finally {
+                commitLock.unlock();
+            }
+        }
+        sinceSnapshot.incrementAndGet();
+    }
+
+    /**
+     * A snapshot from the master replaced the registry. It is stored before
+     * the next change is logged, because the WAL cannot bridge the jump in versions.
+     *
+     * If storing fails, recovery stops at the jump and the node relies on the
+     * master's snapshot after it rejoins.
+     */
+    @Override
+    public void onSnapshot(RegistrySnapshot snapshot) {
+        boolean stored = false;
+        try {
+            snapshots.write(snapshot);
+            sinceSnapshot.set(0);
+            stored = true;
+        } catch (IOException e) {
+            System.err.println("[Persistence] Storing installed snapshot failed: " + e);
+        }
+        try {
+            wal.restartAt(snapshot.version() + 1);
+            if (stored)
+                wal.truncateThrough(snapshot.version());
+        } catch (IOException e) {
+            System.err.println("[Persistence] Restarting WAL failed: " + e);
+        }
+        commitLock.lock();
+        try {
+            // restartAt() forced everything before the jump.
+            appendedVersion = snapshot.version();
+            durableVersion = snapshot.version();
+            completeThrough(snapshot.version());
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    // ================= DURABILITY =================
+
+    /**
+     * @param version registry version produced by a local write
+     * @return future completed once the WAL record of that version is on disk,
+     *         failed if forcing it failed; completed at once unless fsync=always
+     */
+    public CompletableFuture<Void> whenDurable(long version) {
+        if (!enabled || fsync != FsyncPolicy.ALWAYS)
+            return DONE;
+        commitLock.lock();
+        try {
+            if (version <= durableVersion || !running)
+                return DONE;
+            return waiters.computeIfAbsent(version, v -> new CompletableFuture<>());
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the given version is on disk. Must not be called under a
+     * registry lock.
+     *
+     * @return false if forcing failed or did not complete within persistence.await-timeout-ms
+     */
+    public boolean awaitDurable(long version) {
+        try {
+            whenDurable(version).get(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("[Persistence] Version " + version + " not durable: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Forces everything appended so far and completes the writers waiting
+     * for it. Waits up to fsyncIntervalMs for something to force.
+     */
+    private void commitAppended() throws InterruptedException {
+        long target;
+        commitLock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+            while (appendedVersion <= durableVersion) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return;
+                appended.awaitNanos(remaining);
+            }
+            target = appendedVersion;
+        } finally {
+            commitLock.unlock();
+        }
+
+        RuntimeException failure = null;
+        long start = System.nanoTime();
+        try {
+            wal.force();
+        } catch (RuntimeException e) {
+            failure = e;
+            System.err.println("[Persistence] Forcing WAL through version " + target + " failed: " + e);
+        }
+        fsyncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        commitLock.lock();
+        try {
+            if (failure == null) {
+                durableVersion = Math.max(durableVersion, target);
+                completeThrough(target);
+            } else {
+                Map<Long, CompletableFuture<Void>> failed = waiters.headMap(target, true);
+                for (CompletableFuture<Void> future : failed.values())
+                    future.completeExceptionally(failure);
+                failed.clear();
+            }
+        } finally {
+            commitLock.unlock();
+        }
+        if (failure != null)
+            Thread.sleep(fsyncIntervalMs);
+    }
+
+    /** Must be called while holding commitLock. */
+    private void completeThrough(long version) {
+        Map<Long, CompletableFuture<Void>> done = waiters.headMap(version, true);
+        for (CompletableFuture<Void> future : done.values())
+            future.complete(null);
+        done.clear();
+    }
+
+    // ================= BACKGROUND =================
+
+    private void backgroundLoop() {
+        while (running) {
+            try {
+                if (fsync == FsyncPolicy.ALWAYS)
+                    commitAppended();
+                else
+                    Thread.sleep(fsyncIntervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (fsync == FsyncPolicy.INTERVAL) {
+                long start = System.nanoTime();
+                wal.force();
+                fsyncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+
+            if (sinceSnapshot.get() >= snapshotEvery) {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    System.err.println("[Persistence] Snapshot failed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current registry and drops the WAL segments it covers.
+     */
+    void snapshot() throws IOException {
+        sinceSnapshot.set(0);
+        RegistrySnapshot snapshot = registry.snapshot();
+        // WAL records after the snapshot's version must be on disk before older segments go.
+        wal.force();
+        snapshots.write(snapshot);
+        int deleted = wal.truncateThrough(snapshot.version());
+        System.out.println("[Persistence] Snapshot at version " + snapshot.version()
+                + " written, " + deleted + " WAL segments removed");
+    }
+}
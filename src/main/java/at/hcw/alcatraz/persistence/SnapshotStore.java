@@ -0,0 +1,151 @@
+package at.hcw.alcatraz.persistence;
+
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact registry snapshots on disk.
+ *
+ * A snapshot is written to a temporary file, forced to disk and then renamed
+ * to snapshot-{version}.snap, so a crash never leaves a half-written snapshot
+ * under the final name. The file ends with a CRC32 of its content; files that
+ * fail the check are skipped on recovery.
+ *
+ * The newest KEEP snapshots are retained, older ones are deleted.
+ */
+class SnapshotStore {
+
+    private static final int MAGIC = 0x414C4353; // "ALCS"
+    private static final byte FORMAT_VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int KEEP = 2;
+
+    private final Path dir;
+
+    SnapshotStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Writes a snapshot durably and removes older ones.
+     *
+     * @param snapshot snapshot to store
+     */
+    synchronized void write(RegistrySnapshot snapshot) throws IOException {
+        Path tmp = dir.resolve(PREFIX + String.format("%020d", snapshot.version()) + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(snapshot.version());
+            out.writeInt(snapshot.lobbies().size());
+            for (RegistrySnapshot.LobbyState lobby : snapshot.lobbies()) {
+                out.writeUTF(lobby.id());
+                out.writeLong(lobby.version());
+                out.writeBoolean(lobby.started());
+                out.writeInt(lobby.players().size());
+                for (Map.Entry<String, String> p : lobby.players().entrySet()) {
+                    out.writeUTF(p.getKey());
+                    out.writeUTF(p.getValue());
+                }
+            }
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(tmp, path(snapshot.version()), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        List<Path> all = list();
+        for (int i = 0; i < all.size() - KEEP; i++)
+            Files.deleteIfExists(all.get(i));
+    }
+
+    /**
+     * @return newest readable snapshot, or empty if there is none
+     */
+    Optional<RegistrySnapshot> latest() throws IOException {
+        List<Path> all = list();
+        for (int i = all.size() - 1; i >= 0; i--) {
+            try {
+                return Optional.of(read(all.get(i)));
+            } catch (IOException e) {
+                System.err.println("[Persistence] Skipping unreadable snapshot " + all.get(i).getFileName() + ": " + e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static RegistrySnapshot read(Path path) throws IOException {
+        byte[] data = Files.readAllBytes(path);
+        if (data.length < 4)
+            throw new IOException("Truncated snapshot");
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        int stored = ((data[data.length - 4] & 0xFF) << 24) | ((data[data.length - 3] & 0xFF) << 16)
+                | ((data[data.length - 2] & 0xFF) << 8) | (data[data.length - 1] & 0xFF);
+        if ((int) crc.getValue() != stored)
+            throw new IOException("Checksum mismatch");
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a snapshot file");
+            int format = in.readByte();
+            if (format != FORMAT_VERSION)
+                throw new IOException("Unsupported snapshot format " + format);
+            long version = in.readLong();
+            int count = in.readInt();
+            List<RegistrySnapshot.LobbyState> lobbies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                long lobbyVersion = in.readLong();
+                boolean started = in.readBoolean();
+                int players = in.readInt();
+                Map<String, String> map = new LinkedHashMap<>(players * 2);
+                for (int p = 0; p < players; p++)
+                    map.put(in.readUTF(), in.readUTF());
+                lobbies.add(new RegistrySnapshot.LobbyState(id, lobbyVersion, started, map));
+            }
+            return new RegistrySnapshot(version, lobbies);
+        }
+    }
+
+    private Path path(long version) {
+        return dir.resolve(PREFIX + String.format("%020d", version) + SUFFIX);
+    }
+
+    /**
+     * @return snapshot files ordered by version, oldest first
+     */
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> {
+                        String n = p.getFileName().toString();
+                        return n.startsWith(PREFIX) && n.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Makes the rename durable. Not supported on every platform, best effort.
+     */
+    private void syncDirectory() {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException | UnsupportedOperationException ignored) {
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package at.hcw.alcatraz.persistence;
+
+import at.hcw.alcatraz.dao.RegistryChange;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of registry changes in memory-mapped segment files.
+ *
+ * Each segment is a preallocated file named after the version of its first
+ * record, e.g. wal-00000000000000000042.log. Records are written straight
+ * into the mapping:
+ * <pre>
+ * record  := length(int) crc32(int) payload
+ * payload := kind(byte) version(long) lobby player? callback?
+ * string? := length(int, -1 = null) utf8
+ * </pre>
+ * A length of 0 marks the end of the written part (the file is zero-filled),
+ * a CRC mismatch marks a torn write. Reading stops at either.
+ *
+ * Appends are synchronized; force() may run concurrently from another thread.
+ */
+class WriteAheadLog implements AutoCloseable {
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER = 8;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+
+    /** Payload scratch buffer, reused for every record. Guarded by this. */
+    private byte[] scratch = new byte[256];
+
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private long records;
+
+    /**
+     * Opens the log for appending. A new segment is started at firstVersion.
+     * Segments at or after firstVersion are unreachable leftovers of a torn
+     * tail and are deleted.
+     *
+     * @param dir          directory holding the segments
+     * @param segmentSize  bytes per segment file
+     * @param firstVersion version of the next record
+     */
+    WriteAheadLog(Path dir, int segmentSize, long firstVersion) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+        for (Segment s : segments(dir)) {
+            if (s.firstVersion() >= firstVersion)
+                Files.deleteIfExists(s.path());
+        }
+        roll(firstVersion);
+    }
+
+    /**
+     * Appends one change.
+     *
+     * @return true if a new segment had to be started for this record
+     */
+    synchronized boolean append(RegistryChange change) {
+        int length = encode(change);
+        if (HEADER + length + 4 > segmentSize)
+            throw new IllegalArgumentException("Record of " + length + " bytes does not fit into a segment");
+        boolean rolled = false;
+        if (segment.remaining() < HEADER + length + 4) {
+            segment.force();
+            try {
+                roll(change.version());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rolled = true;
+        }
+        crc.reset();
+        crc.update(scratch, 0, length);
+        segment.putInt(length);
+        segment.putInt((int) crc.getValue());
+        segment.put(scratch, 0, length);
+        records++;
+        return rolled;
+    }
+
+    /**
+     * Starts a new segment with the given first version, e.g. after a snapshot
+     * was installed and the version sequence jumps.
+     */
+    synchronized void restartAt(long firstVersion) throws IOException {
+        segment.force();
+        roll(firstVersion);
+    }
+
+    /**
+     * Forces the current segment to disk.
+     */
+    void force() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            current = segment;
+        }
+        current.force();
+    }
+
+    /**
+     * @return records appended since the log was opened
+     */
+    synchronized long records() {
+        return records;
+    }
+
+    /**
+     * Deletes segments whose records are all covered by a snapshot.
+     *
+     * @param snapshotVersion version of a durable snapshot
+     * @return number of deleted segments
+     */
+    synchronized int truncateThrough(long snapshotVersion) {
+        List<Segment> all;
+        try {
+            all = segments(dir);
+        } catch (IOException e) {
+            System.err.println("[Persistence] Listing WAL segments failed: " + e);
+            return 0;
+        }
+        int deleted = 0;
+        for (int i = 0; i + 1 < all.size(); i++) {
+            Segment s = all.get(i);
+            if (s.path().equals(segmentPath) || all.get(i + 1).firstVersion() > snapshotVersion + 1)
+                break;
+            try {
+                Files.deleteIfExists(s.path());
+                deleted++;
+            } catch (IOException e) {
+                // Still mapped on some platforms; retried after the next snapshot.
+                System.err.println("[Persistence] Could not delete " + s.path().getFileName() + ": " + e);
+                break;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized void close() {
+        segment.force();
+    }
+
+    // ================= READING =================
+
+    /**
+     * Replays all readable records with a version above afterVersion, in order.
+     *
+     * @param dir          directory holding the segments
+     * @param afterVersion records up to this version are skipped
+     * @param consumer     receives the records
+     * @return number of records passed to the consumer
+     */
+    static long replay(Path dir, long afterVersion, Consumer<RegistryChange> consumer) throws IOException {
+        if (!Files.isDirectory(dir))
+            return 0;
+        long count = 0;
+        for (Segment s : segments(dir)) {
+            try (FileChannel ch = FileChannel.open(s.path(), StandardOpenOption.READ)) {
+                ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                CRC32 crc = new CRC32();
+                byte[] payload = new byte[256];
+                while (buf.remaining() >= HEADER) {
+                    int length = buf.getInt();
+                    int checksum = buf.getInt();
+                    if (length <= 0 || length > buf.remaining())
+                        break;
+                    if (payload.length < length)
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    buf.get(payload, 0, length);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        System.err.println("[Persistence] Torn record in " + s.path().getFileName() + ", stopping there");
+                        break;
+                    }
+                    RegistryChange change = decode(ByteBuffer.wrap(payload, 0, length));
+                    if (change.version() > afterVersion) {
+                        consumer.accept(change);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // ================= INTERNALS =================
+
+    private void roll(long firstVersion) throws IOException {
+        segmentPath = dir.resolve(name(firstVersion));
+        try (FileChannel ch = FileChannel.open(segmentPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            segment = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private int encode(RegistryChange change) {
+        int max = 1 + 8 + 3 * 4 + 3 * maxUtf8(change.lobby(), change.player(), change.callback());
+        if (scratch.length < max)
+            scratch = new byte[Math.max(max, scratch.length * 2)];
+        ByteBuffer buf = ByteBuffer.wrap(scratch);
+        buf.put((byte) change.kind().ordinal());
+        buf.putLong(change.version());
+        putString(buf, change.lobby());
+        putString(buf, change.player());
+        putString(buf, change.callback());
+        return buf.position();
+    }
+
+    private static int maxUtf8(String... values) {
+        int chars = 0;
+        for (String v : values)
+            chars += v == null ? 0 : v.length();
+        return chars;
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        if (s == null) {
+            buf.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+    }
+
+    private static RegistryChange decode(ByteBuffer buf) {
+        RegistryChange.Kind kind = RegistryChange.Kind.values()[buf.get()];
+        long version = buf.getLong();
+        return new RegistryChange(kind, version, getString(buf), getString(buf), getString(buf));
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0)
+            return null;
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    private static String name(long firstVersion) {
+        return PREFIX + String.format("%020d", firstVersion) + SUFFIX;
+    }
+
+    record Segment(Path path, long firstVersion) {
+    }
+
+    /**
+     * @return all segments in the directory, ordered by first version
+     */
+    static List<Segment> segments(Path dir) throws IOException {
+        List<Segment> out = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String n = p.getFileName().toString();
+                if (n.startsWith(PREFIX) && n.endsWith(SUFFIX))
+                    out.add(new Segment(p, Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length()))));
+            }
+        }
+        out.sort(Comparator.comparingLong(Segment::firstVersion));
+        return out;
+    }
+}
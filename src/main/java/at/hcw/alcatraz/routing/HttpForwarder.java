@@ -0,0 +1,129 @@
+package at.hcw.alcatraz.routing;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sends a received request on to another node and streams the answer back.
+ *
+ * Used by MasterForwardingFilter (to the master of its own shard) and
+ * ShardForwardingFilter (to the master of another shard). Requests go over
+ * a pooled keep-alive connection, carry X-Alcatraz-Forwarded-By and are
+ * never redirected by the client. X-Forwarded-For names the address this
+ * node received the request from; a copy sent by the client is dropped,
+ * so the target never sees an address the client made up.
+ *
+ * A write that failed after it was sent, e.g. on a read timeout, may still
+ * have been applied by the target, so it must not be sent again: see
+ * {@link #retryable}.
+ */
+final class HttpForwarder {
+
+    /** Headers that describe a single connection and must not be copied. */
+    private static final Set<String> HOP_BY_HOP = Set.of(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te",
+            "trailer", "transfer-encoding", "upgrade", "host", "content-length", "expect");
+
+    /** Headers this node sets itself; inbound copies are not passed on. */
+    private static final Set<String> REPLACED = Set.of(
+            RoutingHeaders.FORWARDED_BY.toLowerCase(), "x-forwarded-for");
+
+    private final String nodeId;
+    private final Duration timeout;
+    private final HttpClient http;
+
+    /**
+     * @param nodeId    id of this node, sent as X-Alcatraz-Forwarded-By
+     * @param timeoutMs timeout of a forwarded request
+     */
+    HttpForwarder(String nodeId, long timeoutMs) {
+        this.nodeId = nodeId;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(Math.min(timeoutMs, 1_000)))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * @param body     request body, already read
+     * @param endpoint base URL of the target node
+     * @return the target's answer, body not yet read
+     */
+    HttpResponse<InputStream> forward(HttpServletRequest request, byte[] body, String endpoint)
+            throws IOException, InterruptedException {
+        String query = request.getQueryString();
+        URI target = URI.create(endpoint + request.getRequestURI() + (query != null ? "?" + query : ""));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(target)
+                .timeout(timeout)
+                .method(request.getMethod(), HttpRequest.BodyPublishers.ofByteArray(body));
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (HOP_BY_HOP.contains(name.toLowerCase()) || REPLACED.contains(name.toLowerCase()))
+                continue;
+            for (String value : Collections.list(request.getHeaders(name)))
+                builder.header(name, value);
+        }
+        builder.header(RoutingHeaders.FORWARDED_BY, nodeId);
+        builder.header("X-Forwarded-For", request.getRemoteAddr());
+
+        return http.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /**
+     * @return true if the request may be sent again after it failed with e:
+     *         it is a read, or the connection to the target was never
+     *         established, so the target cannot have applied it
+     */
+    static boolean retryable(HttpServletRequest request, IOException e) {
+        if (isRead(request))
+            return true;
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof HttpConnectTimeoutException)
+                return true;
+        }
+        return false;
+    }
+
+    static boolean isRead(HttpServletRequest request) {
+        String method = request.getMethod();
+        return method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS");
+    }
+
+    /**
+     * Writes the answer to the response. Its topology headers replace the
+     * ones this node may already have set: the target's view is the
+     * authoritative one.
+     */
+    static void copy(HttpResponse<InputStream> answer, HttpServletResponse response) throws IOException {
+        response.setStatus(answer.statusCode());
+        for (Map.Entry<String, List<String>> header : answer.headers().map().entrySet()) {
+            if (header.getKey().startsWith(":") || HOP_BY_HOP.contains(header.getKey().toLowerCase()))
+                continue;
+            if (TopologyHeaderFilter.HEADERS.contains(header.getKey().toLowerCase())) {
+                response.setHeader(header.getKey(), header.getValue().get(0));
+                continue;
+            }
+            for (String value : header.getValue())
+                response.addHeader(header.getKey(), value);
+        }
+        try (InputStream in = answer.body()) {
+            in.transferTo(response.getOutputStream());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.flight.RedirectEvent;
+import at.hcw.alcatraz.spread.SpreadManager;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+
+/**
+ * Proxies write requests, and reads a backup cannot serve yet, to the current master.
+ *
+ * Clients can send writes to any node: a backup forwards the request over a
+ * pooled keep-alive connection and streams the master's answer back, so the
+ * client needs a single round trip instead of following a 307.
+ *
+ * Reads are served from the backup's local registry. A read carrying
+ * X-Min-Version waits briefly until the backup has applied that version
+ * and is forwarded to the master if it is still behind afterwards.
+ *
+ * Failover:
+ * - If the master cannot be connected to, or answers 307 because it is no
+ *   longer master, the filter waits for ElectionService to report a
+ *   different master and retries once.
+ * - If this node became master in the meantime, the request is handled locally.
+ * - A write that fails after it was sent (e.g. no answer within
+ *   routing.forward.timeout-ms) is not retried, as the master may already
+ *   have applied it; the client gets 504 and has to check. The timeout is
+ *   therefore set above the master's own worst case: awaiting replication
+ *   plus the /start fan-out.
+ *
+ * Forwarded requests are marked with X-Alcatraz-Forwarded-By and are never
+ * forwarded a second time; a receiving node that is not master answers with
+ * the controller's 307 instead.
+ *
+ * The X-Master-* headers of a forwarded answer replace the backup's own:
+ * the master's view of the topology is the authoritative one.
+ */
+@Component
+public class MasterForwardingFilter extends OncePerRequestFilter {
+
+    private final SpreadManager spread;
+    private final PlayerRegistry registry;
+    private final boolean enabled;
+    private final long failoverWaitMs;
+    private final long readWaitMs;
+    private final String nodeId;
+    private final HttpForwarder forwarder;
+    private final RoutingMetrics metrics;
+
+    public MasterForwardingFilter(SpreadManager spread,
+                                  PlayerRegistry registry,
+                                  RoutingMetrics metrics,
+                                  @Value("${routing.forward.enabled:true}") boolean enabled,
+                                  @Value("${routing.forward.timeout-ms:10000}") long timeoutMs,
+                                  @Value("${routing.forward.failover-wait-ms:3000}") long failoverWaitMs,
+                                  @Value("${routing.read.max-wait-ms:200}") long readWaitMs,
+                                  @Value("${spread.node-id}") String nodeId) {
+        this.spread = spread;
+        this.registry = registry;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.failoverWaitMs = failoverWaitMs;
+        this.readWaitMs = readWaitMs;
+        this.nodeId = nodeId;
+        this.forwarder = new HttpForwarder(nodeId, timeoutMs);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled)
+            return true;
+        if (request.getHeader(RoutingHeaders.FORWARDED_BY) != null)
+            return true;
+        String path = request.getRequestURI();
+        return !(path.startsWith("/players/") || path.startsWith("/lobbies/") || path.startsWith("/matchmaking/"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        if (spread.isMaster() || (HttpForwarder.isRead(request) && readableLocally(request))) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        byte[] body = request.getInputStream().readAllBytes();
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (spread.isMaster()) {
+                chain.doFilter(new CachedBodyRequest(request, body), response);
+                return;
+            }
+
+            String master = spread.getCurrentMasterId();
+            String endpoint = spread.getMasterEndpoint();
+            if (endpoint != null) {
+                RedirectEvent event = new RedirectEvent();
+                event.begin();
+                try {
+                    metrics.forwarded(request.getRequestURI());
+                    HttpResponse<InputStream> answer = forwarder.forward(request, body, endpoint);
+                    recordForward(event, request, master, answer.statusCode());
+                    if (answer.statusCode() != HttpServletResponse.SC_TEMPORARY_REDIRECT || attempt == 1) {
+                        HttpForwarder.copy(answer, response);
+                        return;
+                    }
+                    answer.body().close();
+                    System.out.println("[Routing] " + master + " is no longer master, waiting for election");
+                } catch (IOException e) {
+                    recordForward(event, request, master, 0);
+                    metrics.forwardFailed(request.getRequestURI());
+                    System.err.println("[Routing] Forward to " + master + " failed: " + e);
+                    if (!HttpForwarder.retryable(request, e)) {
+                        response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                                "No answer from master " + master + ", the request may have been applied");
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            if (attempt == 0) {
+                try {
+                    spread.awaitMasterChange(master, failoverWaitMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No master reachable");
+    }
+
+    private void recordForward(RedirectEvent event, HttpServletRequest request, String master, int status) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.node = nodeId;
+            event.mode = "forward";
+            event.method = request.getMethod();
+            event.path = request.getRequestURI();
+            event.master = master;
+            event.status = status;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return true if the local registry reflects the version the client asked for,
+     *         possibly after waiting up to routing.read.max-wait-ms
+     */
+    private boolean readableLocally(HttpServletRequest request) throws ServletException {
+        String header = request.getHeader(RoutingHeaders.MIN_VERSION);
+        if (header == null)
+            return true;
+
+        long minVersion;
+        try {
+            minVersion = Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return true;
+        }
+
+        try {
+            return registry.awaitVersion(minVersion, readWaitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.flight.RedirectEvent;
+import at.hcw.alcatraz.spread.SpreadManager;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+
+/**
+ * Builds the 307 answer that sends a client to the current master.
+ *
+ * Used by the controllers for requests that reached a backup without being
+ * proxied by MasterForwardingFilter (forwarding disabled, or the request
+ * was already forwarded once).
+ *
+ * The X-Master-* headers naming the target are added to every response by
+ * TopologyHeaderFilter.
+ */
+@Component
+public class MasterRedirect {
+
+    private final SpreadManager spread;
+    private final RoutingMetrics routingMetrics;
+
+    public MasterRedirect(SpreadManager spread, RoutingMetrics routingMetrics) {
+        this.spread = spread;
+        this.routingMetrics = routingMetrics;
+    }
+
+    /**
+     * @return 307 to the same path on the master, or 503 if no master is known
+     */
+    public ResponseEntity<Void> toMaster(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        String master = spread.getCurrentMasterId();
+        String endpoint = spread.getMasterEndpoint();
+
+        if (endpoint == null)
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+
+        routingMetrics.redirected(path);
+        RedirectEvent event = new RedirectEvent();
+        if (event.shouldCommit()) {
+            event.node = spread.getNodeId();
+            event.mode = "redirect";
+            event.method = request.getMethod();
+            event.path = path;
+            event.master = master;
+            event.status = HttpStatus.TEMPORARY_REDIRECT.value();
+            event.commit();
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(URI.create(endpoint + path));
+        System.out.println("Redirecting to master " + master + " -> " + endpoint + path);
+        return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                .headers(headers)
+                .build();
+    }
+}
@@ -0,0 +1,34 @@
+package at.hcw.alcatraz.routing;
+
+/**
+ * HTTP headers used between clients and nodes, and between nodes.
+ */
+public final class RoutingHeaders {
+
+    /** Set on forwarded requests; value is the id of the forwarding node. */
+    public static final String FORWARDED_BY = "X-Alcatraz-Forwarded-By";
+
+    /** Registry version the response reflects. */
+    public static final String REGISTRY_VERSION = "X-Registry-Version";
+
+    /** Minimum registry version a read must reflect (read-your-writes). */
+    public static final String MIN_VERSION = "X-Min-Version";
+
+    /** Id of the master as seen by the answering node. Set on every response. */
+    public static final String MASTER_NODE = "X-Master-Node";
+
+    /** Base URL of that master. */
+    public static final String MASTER_ENDPOINT = "X-Master-Endpoint";
+
+    /** Election epoch of that master; a higher epoch replaces a cached master. */
+    public static final String MASTER_EPOCH = "X-Master-Epoch";
+
+    /** Tag of the members and their endpoints as seen by the answering node, see SpreadManager.topologyTag(). */
+    public static final String TOPOLOGY = "X-Topology";
+
+    /** Shard of the answering context, only set with cluster.shards &gt; 1. The X-Master-* headers describe that shard. */
+    public static final String SHARD = "X-Shard";
+
+    private RoutingHeaders() {
+    }
+}
@@ -0,0 +1,87 @@
+package at.hcw.alcatraz.routing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts requests that were sent on to the master, per API endpoint.
+ *
+ * Metrics (tag endpoint = register, unregister, list, start, finish, matchmaking, other):
+ * - alcatraz.routing.forwards: requests proxied by MasterForwardingFilter
+ * - alcatraz.routing.forward.failures: proxy attempts that got no answer from the master
+ * - alcatraz.routing.redirects: 307 answers sent by the controller
+ * - alcatraz.routing.shard.forwards: requests proxied to another shard by ShardForwardingFilter
+ *
+ * All counters are registered up front; recording only classifies the path
+ * and increments, without allocating.
+ */
+@Component
+public class RoutingMetrics {
+
+    enum Endpoint {
+        REGISTER, UNREGISTER, LIST, START, FINISH, MATCHMAKING, OTHER
+    }
+
+    private final Counter[] forwards = new Counter[Endpoint.values().length];
+    private final Counter[] forwardFailures = new Counter[Endpoint.values().length];
+    private final Counter[] redirects = new Counter[Endpoint.values().length];
+    private final Counter[] shardForwards = new Counter[Endpoint.values().length];
+
+    public RoutingMetrics(MeterRegistry meters) {
+        for (Endpoint endpoint : Endpoint.values()) {
+            String tag = endpoint.name().toLowerCase();
+            forwards[endpoint.ordinal()] = Counter.builder("alcatraz.routing.forwards")
+                    .description("Requests proxied to the master")
+                    .tag("endpoint", tag)
+                    .register(meters);
+            forwardFailures[endpoint.ordinal()] = Counter.builder("alcatraz.routing.forward.failures")
+                    .description("Proxy attempts without an answer from the master")
+                    .tag("endpoint", tag)
+                    .register(meters);
+            redirects[endpoint.ordinal()] = Counter.builder("alcatraz.routing.redirects")
+                    .description("Requests answered with 307 to the master")
+                    .tag("endpoint", tag)
+                    .register(meters);
+            shardForwards[endpoint.ordinal()] = Counter.builder("alcatraz.routing.shard.forwards")
+                    .description("Requests proxied to the master of another shard")
+                    .tag("endpoint", tag)
+                    .register(meters);
+        }
+    }
+
+    public void forwarded(String path) {
+        forwards[endpoint(path).ordinal()].increment();
+    }
+
+    public void forwardFailed(String path) {
+        forwardFailures[endpoint(path).ordinal()].increment();
+    }
+
+    public void redirected(String path) {
+        redirects[endpoint(path).ordinal()].increment();
+    }
+
+    public void shardForwarded(String path) {
+        shardForwards[endpoint(path).ordinal()].increment();
+    }
+
+    /**
+     * Maps both route styles (/players/... and /lobbies/{id}/players/...) to an endpoint.
+     */
+    static Endpoint endpoint(String path) {
+        if (path.startsWith("/matchmaking/"))
+            return Endpoint.MATCHMAKING;
+        if (path.endsWith("/register") || path.endsWith("/register/batch"))
+            return Endpoint.REGISTER;
+        if (path.contains("/unregister/"))
+            return Endpoint.UNREGISTER;
+        if (path.endsWith("/all"))
+            return Endpoint.LIST;
+        if (path.endsWith("/game/start"))
+            return Endpoint.START;
+        if (path.endsWith("/game/finish"))
+            return Endpoint.FINISH;
+        return Endpoint.OTHER;
+    }
+}
@@ -0,0 +1,166 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.client.AlcatrazClient;
+import at.hcw.alcatraz.flight.RedirectEvent;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends requests for lobbies of another shard to that shard's master.
+ *
+ * Only active with cluster.shards &gt; 1. Every node runs one application
+ * context per shard, each on its own port; this filter runs in all of them.
+ * A request whose lobby belongs to the shard of the port it reached passes
+ * on to MasterForwardingFilter and the controllers as usual. Any other
+ * lobby-scoped request, read or write, is proxied to the master of the
+ * lobby's shard, so clients can keep sending everything to any port of any
+ * node. The answer carries that shard's X-Shard and X-Master-* headers,
+ * from which AlcatrazClient learns to go there directly next time.
+ *
+ * The masters of the other shards are looked up at the sibling contexts of
+ * this node, http://localhost:{server.port - shard + other shard}, and then
+ * followed from the headers of their answers like any AlcatrazClient does.
+ * A master that cannot be connected to or answers 307 is looked up again
+ * and the request is retried once. A write that fails after it was sent is
+ * answered with 504 instead, as that master may already have applied it.
+ *
+ * Streams (/events, /changes) are not proxied: they are answered with a 307
+ * to the other shard's master.
+ *
+ * A request that was already forwarded by another node and still reached
+ * the wrong shard is answered with 421, so requests cannot loop between
+ * shards.
+ *
+ * Runs before MasterForwardingFilter, which only knows its own shard.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 10)
+public class ShardForwardingFilter extends OncePerRequestFilter {
+
+    private final ShardMap shards;
+    private final RoutingMetrics metrics;
+    private final String nodeId;
+    private final HttpForwarder forwarder;
+
+    /** Masters of the other shards; null without sharding. */
+    private final AlcatrazClient others;
+
+    /**
+     * @param port HTTP port of this shard's context; the other shards of this node listen next to it
+     */
+    public ShardForwardingFilter(ShardMap shards,
+                                 RoutingMetrics metrics,
+                                 @Value("${server.port:8080}") int port,
+                                 @Value("${routing.forward.timeout-ms:10000}") long timeoutMs,
+                                 @Value("${spread.node-id}") String nodeId) {
+        this.shards = shards;
+        this.metrics = metrics;
+        this.nodeId = nodeId;
+        this.forwarder = new HttpForwarder(nodeId, timeoutMs);
+        List<String> siblings = new ArrayList<>();
+        for (int shard = 0; shard < shards.shards(); shard++) {
+            if (shard != shards.shard())
+                siblings.add("http://localhost:" + (port - shards.shard() + shard));
+        }
+        this.others = shards.isSharded() ? new AlcatrazClient(siblings, Duration.ofMillis(timeoutMs)) : null;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!shards.isSharded())
+            return true;
+        String lobby = ShardMap.lobbyOf(request.getRequestURI());
+        return lobby == null || shards.isLocal(lobby);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        String path = request.getRequestURI();
+        int shard = ShardMap.shardOf(ShardMap.lobbyOf(path), shards.shards());
+
+        if (request.getHeader(RoutingHeaders.FORWARDED_BY) != null) {
+            response.sendError(421, "Lobby belongs to shard " + shard + ", this is shard " + shards.shard());
+            return;
+        }
+
+        byte[] body = request.getInputStream().readAllBytes();
+        AlcatrazClient.Master master = others.master(shard);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            RedirectEvent event = new RedirectEvent();
+            event.begin();
+            boolean sent = false;
+            try {
+                if (master == null)
+                    master = others.refresh(shard);
+
+                if (isStream(path)) {
+                    String query = request.getQueryString();
+                    response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+                    response.setHeader("Location", master.endpoint() + path + (query != null ? "?" + query : ""));
+                    return;
+                }
+
+                metrics.shardForwarded(path);
+                sent = true;
+                HttpResponse<InputStream> answer = forwarder.forward(request, body, master.endpoint());
+                others.observe(answer);
+                record(event, request, master.id(), answer.statusCode());
+                if (answer.statusCode() != HttpServletResponse.SC_TEMPORARY_REDIRECT || attempt == 1) {
+                    HttpForwarder.copy(answer, response);
+                    return;
+                }
+                answer.body().close();
+                AlcatrazClient.Master next = others.master(shard);
+                master = master.equals(next) ? null : next;
+            } catch (IOException e) {
+                record(event, request, master != null ? master.id() : null, 0);
+                metrics.forwardFailed(path);
+                System.err.println("[Routing] Forward to shard " + shard + " failed: " + e);
+                if (sent && !HttpForwarder.retryable(request, e)) {
+                    response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                            "No answer from the master of shard " + shard + ", the request may have been applied");
+                    return;
+                }
+                master = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No master of shard " + shard + " reachable");
+    }
+
+    private static boolean isStream(String path) {
+        return path.endsWith("/events") || path.endsWith("/changes");
+    }
+
+    private void record(RedirectEvent event, HttpServletRequest request, String master, int status) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.node = nodeId;
+            event.mode = "shard";
+            event.method = request.getMethod();
+            event.path = request.getRequestURI();
+            event.master = master;
+            event.status = status;
+            event.commit();
+        }
+    }
+}
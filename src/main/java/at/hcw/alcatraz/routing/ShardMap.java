@@ -0,0 +1,180 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Assigns lobbies to shards and shards to leaders.
+ *
+ * With cluster.shards=N the lobbies are split into N shards. Every node
+ * hosts every shard: it runs one application context per shard (see
+ * AlcatrazApplication.start), which joins the group "{spread.group}-{shard}"
+ * and replicates, catches up and persists only the lobbies of that shard.
+ * Each shard has a master of its own, so writes to different shards run in
+ * parallel on different nodes.
+ *
+ * Assignment of lobbies:
+ * - A lobby id ending in "@{n}" with 0 &lt;= n &lt; N is pinned to shard n.
+ *   The matchmaker pins the lobbies it creates to its own shard.
+ * - Any other lobby goes to a shard by hash of its id. String.hashCode is
+ *   specified, so every node and client computes the same shard.
+ * - The matchmaking queue exists in every shard; /matchmaking requests are
+ *   served by the shard whose port they reach.
+ *
+ * Assignment of leaders (rank()):
+ * - The members of a shard's group are ranked by rendezvous hashing of
+ *   shard and node id; the first becomes master. Every node computes the
+ *   same ranking from the same view, and the shards spread evenly over the
+ *   members.
+ * - When a node leaves, only the shards it led move, each to the next
+ *   member of its ranking; the other shards keep their master.
+ * - A node ranks last in the view it joined with, so it takes over the
+ *   shards it ranks first for only from the next membership change on,
+ *   after it had the chance to catch up. Taking over at once would make
+ *   the empty newcomer reset the replicas of those shards.
+ * - Without sharding the members are ranked by id, the smallest id leads.
+ *
+ * The shard count is fixed for the lifetime of the data: changing it moves
+ * lobbies between shards and needs the nodes to start empty.
+ */
+@Component
+public class ShardMap {
+
+    private final int shard;
+    private final int shards;
+
+    /**
+     * @param shard  shard served by this application context, 0 to shards - 1
+     * @param shards number of shards, 1 disables sharding
+     */
+    public ShardMap(@Value("${cluster.shard:0}") int shard, @Value("${cluster.shards:1}") int shards) {
+        if (shards < 1 || shard < 0 || shard >= shards)
+            throw new IllegalArgumentException("cluster.shard must be in 0.." + (shards - 1) + ": " + shard);
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    /**
+     * @return map of an unsharded cluster
+     */
+    public static ShardMap single() {
+        return new ShardMap(0, 1);
+    }
+
+    /**
+     * @return shard served by this application context
+     */
+    public int shard() {
+        return shard;
+    }
+
+    /**
+     * @return number of shards
+     */
+    public int shards() {
+        return shards;
+    }
+
+    public boolean isSharded() {
+        return shards > 1;
+    }
+
+    /**
+     * @return true if the lobby belongs to the shard of this application context
+     */
+    public boolean isLocal(String lobby) {
+        return shardOf(lobby, shards) == shard;
+    }
+
+    /**
+     * @return the lobby id pinned to this shard, unchanged without sharding
+     */
+    public String pin(String lobby) {
+        return shards > 1 ? lobby + "@" + shard : lobby;
+    }
+
+    /**
+     * Orders the members of this shard's group by their claim to lead it.
+     *
+     * @param memberIds logical ids of the members, sorted
+     * @param joined    id of the member that joined with this view, null if none did
+     * @return the members, the master of this shard first
+     */
+    public List<String> rank(List<String> memberIds, String joined) {
+        if (shards <= 1)
+            return memberIds;
+        List<String> ranked = new ArrayList<>(memberIds);
+        ranked.sort(Comparator.comparing((String id) -> id.equals(joined) && memberIds.size() > 1)
+                .thenComparing(Comparator.comparingInt((String id) -> weight(shard, id)).reversed())
+                .thenComparing(Comparator.naturalOrder()));
+        return ranked;
+    }
+
+    /**
+     * @return rendezvous weight of a node for a shard, the same on every node
+     */
+    private static int weight(int shard, String nodeId) {
+        return fmix(fmix(nodeId.hashCode()) + shard * 0x9E3779B9);
+    }
+
+    /**
+     * @param lobby  lobby id
+     * @param shards number of shards
+     * @return shard the lobby belongs to
+     */
+    public static int shardOf(String lobby, int shards) {
+        if (shards <= 1)
+            return 0;
+        int at = lobby.lastIndexOf('@');
+        if (at >= 0 && at < lobby.length() - 1) {
+            try {
+                int pinned = Integer.parseInt(lobby.substring(at + 1));
+                if (pinned >= 0 && pinned < shards)
+                    return pinned;
+            } catch (NumberFormatException ignored) {
+                // not a pin, hash the whole id
+            }
+        }
+        // Spread similar ids such as "lobby-1", "lobby-2" over all shards.
+        int h = lobby.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, shards);
+    }
+
+    /**
+     * Murmur3 finalizer: every input bit affects every output bit, so
+     * similar ids such as "node1" and "node2" get unrelated weights.
+     */
+    private static int fmix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @param path request path, e.g. "/lobbies/x/players/register"
+     * @return lobby the path operates on, or null for paths that are not lobby-scoped
+     */
+    public static String lobbyOf(String path) {
+        if (path.startsWith("/players/"))
+            return PlayerRegistry.DEFAULT_LOBBY;
+        if (!path.startsWith("/lobbies/"))
+            return null;
+        int end = path.indexOf('/', "/lobbies/".length());
+        String raw = path.substring("/lobbies/".length(), end < 0 ? path.length() : end);
+        // Like Spring's path variables: %xx is decoded, '+' stays.
+        return raw.isEmpty() ? null : UriUtils.decode(raw, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,75 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.spread.SpreadManager;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Adds the current master to every response:
+ *
+ * <pre>
+ * X-Master-Node: node1
+ * X-Master-Endpoint: http://10.0.0.1:8080
+ * X-Master-Epoch: 3
+ * X-Topology: 5f3a9c1e
+ * X-Shard: 1            (only with cluster.shards &gt; 1)
+ * </pre>
+ *
+ * A client caches the master from any answer and sends writes straight to
+ * it. It only has to refresh when a response carries a higher epoch or a
+ * different master than the cached one, see AlcatrazClient. A different
+ * X-Topology tells it that members joined or left, e.g. new read replicas.
+ *
+ * The headers are set before the request is handled, so they describe the
+ * topology the node saw when it accepted the request. Nothing is added
+ * while no master is known.
+ *
+ * In a sharded cluster the headers describe the shard whose port answered.
+ * An answer forwarded from another shard carries that shard's headers
+ * instead, see ShardForwardingFilter.
+ */
+@Component
+public class TopologyHeaderFilter extends OncePerRequestFilter {
+
+    /** Lower-case names of the headers set by this filter. */
+    static final Set<String> HEADERS = Set.of(
+            RoutingHeaders.MASTER_NODE.toLowerCase(),
+            RoutingHeaders.MASTER_ENDPOINT.toLowerCase(),
+            RoutingHeaders.MASTER_EPOCH.toLowerCase(),
+            RoutingHeaders.TOPOLOGY.toLowerCase(),
+            RoutingHeaders.SHARD.toLowerCase());
+
+    private final SpreadManager spread;
+    private final ShardMap shards;
+
+    public TopologyHeaderFilter(SpreadManager spread, ShardMap shards) {
+        this.spread = spread;
+        this.shards = shards;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        ElectionService.MasterState state = spread.masterState();
+        if (state.masterId() != null) {
+            response.setHeader(RoutingHeaders.MASTER_NODE, state.masterId());
+            String endpoint = spread.getEndpoint(state.masterId());
+            if (endpoint != null)
+                response.setHeader(RoutingHeaders.MASTER_ENDPOINT, endpoint);
+            response.setHeader(RoutingHeaders.MASTER_EPOCH, Long.toString(state.epoch()));
+            response.setHeader(RoutingHeaders.TOPOLOGY, spread.topologyTag());
+            if (shards.isSharded())
+                response.setHeader(RoutingHeaders.SHARD, Integer.toString(shards.shard()));
+        }
+        chain.doFilter(request, response);
+    }
+}
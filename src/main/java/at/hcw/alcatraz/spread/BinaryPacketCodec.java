@@ -0,0 +1,250 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary codec.
+ *
+ * Layout (all integers are unsigned LEB128 varints):
+ * <pre>
+ * frame  := header(1 byte = FORMAT_VERSION) count packet*
+ * packet := type(1 byte, SpreadMsgType ordinal) version epoch lobby data
+ * lobby  := string?              nullable string
+ * data   := (entries + 1) (string string)*   0 = null
+ * string? := (length + 1) utf8   0 = null
+ * string := length utf8
+ * </pre>
+ *
+ * Encoding reuses a per-thread scratch buffer and writes UTF-8 directly, so
+ * the only allocation per frame is the final message array. Decoding walks
+ * the array once and only allocates the resulting strings, packets and maps.
+ */
+public class BinaryPacketCodec implements PacketCodec {
+
+    /** Wire format version. Bump on any incompatible layout change. */
+    static final byte FORMAT_VERSION = 2;
+
+    /** Scratch buffers larger than this are not kept between calls. */
+    private static final int MAX_RETAINED = 1 << 20;
+
+    private static final SpreadMsgType[] TYPES = SpreadMsgType.values();
+
+    private final ThreadLocal<Writer> writers = ThreadLocal.withInitial(Writer::new);
+
+    @Override
+    public byte header() {
+        return FORMAT_VERSION;
+    }
+
+    @Override
+    public byte[] encode(List<SpreadPacket> frame) {
+        Writer w = writers.get();
+        w.pos = 0;
+        w.writeByte(FORMAT_VERSION);
+        w.writeVarint(frame.size());
+        for (SpreadPacket p : frame) {
+            w.writeByte(p.type().ordinal());
+            w.writeVarint(p.version());
+            w.writeVarint(p.epoch());
+            w.writeNullableString(p.lobby());
+
+            Map<String, String> data = p.data();
+            if (data == null) {
+                w.writeVarint(0);
+            } else {
+                w.writeVarint(data.size() + 1L);
+                for (Map.Entry<String, String> e : data.entrySet()) {
+                    w.writeString(e.getKey());
+                    w.writeString(e.getValue());
+                }
+            }
+        }
+        byte[] out = Arrays.copyOf(w.buf, w.pos);
+        if (w.buf.length > MAX_RETAINED)
+            writers.remove();
+        return out;
+    }
+
+    @Override
+    public List<SpreadPacket> decode(byte[] data) throws IOException {
+        Reader r = new Reader(data);
+        int version = r.readByte();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported binary format version " + version);
+
+        int count = r.readLength();
+        List<SpreadPacket> frame = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int ordinal = r.readByte();
+            if (ordinal >= TYPES.length)
+                throw new IOException("Unknown packet type ordinal " + ordinal);
+            long packetVersion = r.readVarint();
+            long epoch = r.readVarint();
+            String lobby = r.readNullableString();
+
+            Map<String, String> payload;
+            int entries = r.readLength();
+            if (entries == 0) {
+                payload = null;
+            } else if (entries == 1) {
+                payload = Map.of();
+            } else if (entries == 2) {
+                payload = Map.of(r.readString(), r.readString());
+            } else {
+                payload = new LinkedHashMap<>((entries - 1) * 2);
+                for (int e = 1; e < entries; e++)
+                    payload.put(r.readString(), r.readString());
+            }
+            frame.add(new SpreadPacket(TYPES[ordinal], packetVersion, lobby, payload, epoch));
+        }
+        if (r.pos != data.length)
+            throw new IOException("Trailing bytes after frame: " + (data.length - r.pos));
+        return frame;
+    }
+
+    // ================= WRITER =================
+
+    private static final class Writer {
+        byte[] buf = new byte[512];
+        int pos;
+
+        void ensure(int extra) {
+            if (pos + extra > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeNullableString(String s) {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(utf8Length(s) + 1L);
+            writeUtf8(s);
+        }
+
+        void writeString(String s) {
+            writeVarint(utf8Length(s));
+            writeUtf8(s);
+        }
+
+        void writeUtf8(String s) {
+            ensure(s.length() * 3);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buf[pos++] = '?';
+                } else {
+                    buf[pos++] = (byte) (0xE0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * Byte length of the UTF-8 form written by writeUtf8.
+         */
+        static int utf8Length(String s) {
+            int len = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    len++;
+                } else if (c < 0x800) {
+                    len += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    len += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    len++;
+                } else {
+                    len += 3;
+                }
+            }
+            return len;
+        }
+    }
+
+    // ================= READER =================
+
+    private static final class Reader {
+        final byte[] buf;
+        int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= buf.length)
+                throw new IOException("Truncated frame");
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        int readLength() throws IOException {
+            long v = readVarint();
+            if (v < 0 || v > buf.length - pos + 1)
+                throw new IOException("Length out of range: " + v);
+            return (int) v;
+        }
+
+        String readNullableString() throws IOException {
+            int len = readLength();
+            return len == 0 ? null : readUtf8(len - 1);
+        }
+
+        String readString() throws IOException {
+            return readUtf8(readLength());
+        }
+
+        String readUtf8(int len) throws IOException {
+            if (len > buf.length - pos)
+                throw new IOException("Truncated string");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
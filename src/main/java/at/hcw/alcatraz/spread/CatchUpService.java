@@ -0,0 +1,277 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dao.DeltaLog;
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistryListener;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import at.hcw.alcatraz.dto.SpreadPacket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers sync requests of joining or lagging nodes on the master.
+ *
+ * Responsibilities:
+ * - Keep the most recent changes in a DeltaLog.
+ * - Collect sync requests for a short window, so a burst of joins (rolling
+ *   restart) is answered with one computation instead of one per node.
+ * - Send each requesting node only what it lacks, addressed to the
+ *   requesting nodes instead of the whole group:
+ *   - up to date: a CATCH_UP marker only
+ *   - missing versions still in the log: those deltas, then CATCH_UP
+ *   - otherwise: one snapshot, split into chunks of chunk-size lobbies
+ *   - ahead of the master, or holding a different history at its version:
+ *     a snapshot marked as reset, which replaces the node's newer state
+ *
+ * A node ahead of the master wrote on the minority side of a partition or
+ * kept writes the restarted master lost; a node at the same version may
+ * still hold different writes. Histories are told apart by the origin of
+ * each change, the epoch and master it was applied under ("3@node1"): the
+ * log keeps it per change and sync requests carry the origin of the
+ * requester's newest change. The master id is part of it because both
+ * sides of a partition can reach the same epoch. Origins are not
+ * persisted, so after a restart the history of a node counts as unknown
+ * and only its version is compared.
+ *
+ * Nodes of one window that need deltas share one message stream starting at
+ * the oldest requested version; nodes that need a snapshot share one snapshot.
+ *
+ * Metrics:
+ * - alcatraz.replication.catchup.served: answered nodes, tagged mode=current|delta|snapshot
+ * - alcatraz.replication.catchup.frames: frames sent for catch-up, tagged mode
+ */
+@Component
+public class CatchUpService implements RegistryListener {
+
+    enum Mode {
+        CURRENT, DELTA, SNAPSHOT
+    }
+
+    /**
+     * @param version version a node has applied
+     * @param origin  origin of its change at that version, null if unknown
+     */
+    private record Position(long version, String origin) {
+    }
+
+    private final SpreadConnectionService spread;
+    private final ElectionService election;
+    private final PlayerRegistry registry;
+    private final DeltaLog log;
+    private final int chunkSize;
+    private final long coalesceMs;
+
+    private final ScheduledExecutorService responder;
+
+    /** Member name → oldest position requested in the current window. Guarded by itself. */
+    private final Map<String, Position> requests = new LinkedHashMap<>();
+
+    /** True while a flush of the current window is scheduled. Guarded by requests. */
+    private boolean scheduled = false;
+
+    private final Counter[] served = new Counter[Mode.values().length];
+    private final Counter[] frames = new Counter[Mode.values().length];
+
+    /**
+     * @param deltaLogSize number of recent changes kept for catch-up
+     * @param chunkSize    deltas per message, and lobbies per snapshot chunk
+     * @param coalesceMs   window in which sync requests are collected before answering
+     */
+    public CatchUpService(SpreadConnectionService spread,
+                          ElectionService election,
+                          PlayerRegistry registry,
+                          @Value("${replication.catchup.delta-log-size:10000}") int deltaLogSize,
+                          @Value("${replication.catchup.chunk-size:256}") int chunkSize,
+                          @Value("${replication.catchup.coalesce-ms:20}") long coalesceMs,
+                          MeterRegistry meters) {
+        this.spread = spread;
+        this.election = election;
+        this.registry = registry;
+        this.log = new DeltaLog(deltaLogSize);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.coalesceMs = Math.max(0, coalesceMs);
+        this.responder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catchup-responder");
+            t.setDaemon(true);
+            return t;
+        });
+        log.reset(registry.version(), null);
+        registry.addListener(this);
+
+        for (Mode mode : Mode.values()) {
+            String tag = mode.name().toLowerCase();
+            served[mode.ordinal()] = Counter.builder("alcatraz.replication.catchup.served")
+                    .description("Nodes answered after a sync request")
+                    .tag("mode", tag)
+                    .register(meters);
+            frames[mode.ordinal()] = Counter.builder("alcatraz.replication.catchup.frames")
+                    .description("Frames sent to answer sync requests")
+                    .tag("mode", tag)
+                    .register(meters);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        responder.shutdownNow();
+    }
+
+    // ================= DELTA LOG =================
+
+    @Override
+    public void onChange(RegistryChange change, boolean local) {
+        log.append(change, currentOrigin());
+    }
+
+    @Override
+    public void onSnapshot(RegistrySnapshot snapshot) {
+        log.reset(snapshot.version(), currentOrigin());
+    }
+
+    /**
+     * @return origin of the newest local change, null if unknown
+     */
+    public String origin() {
+        return log.originAt(log.lastVersion());
+    }
+
+    private String currentOrigin() {
+        ElectionService.MasterState state = election.state();
+        return state.masterId() != null ? state.epoch() + "@" + state.masterId() : null;
+    }
+
+    // ================= REQUESTS =================
+
+    /**
+     * Queues a sync request. The answer is sent once the coalescing window ends.
+     *
+     * @param member  raw member name of the requesting node
+     * @param version version the node has applied
+     * @param origin  origin of its change at that version, null if unknown
+     */
+    public void request(String member, long version, String origin) {
+        synchronized (requests) {
+            requests.merge(member, new Position(version, origin),
+                    (a, b) -> a.version() <= b.version() ? a : b);
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        responder.schedule(this::flush, coalesceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        Map<String, Position> batch;
+        synchronized (requests) {
+            batch = new LinkedHashMap<>(requests);
+            requests.clear();
+            scheduled = false;
+        }
+        try {
+            serve(batch);
+        } catch (RuntimeException e) {
+            System.err.println("[Spread] Catch-up for " + batch.keySet() + " failed: " + e);
+        }
+    }
+
+    private void serve(Map<String, Position> batch) {
+        long epoch = election.epoch();
+        long newest = log.lastVersion();
+        List<String> current = new ArrayList<>();
+        List<String> byDeltas = new ArrayList<>();
+        List<String> bySnapshot = new ArrayList<>();
+        List<String> byReset = new ArrayList<>();
+        long from = Long.MAX_VALUE;
+
+        for (Map.Entry<String, Position> request : batch.entrySet()) {
+            long version = request.getValue().version();
+            if (diverged(request.getValue(), newest)) {
+                byReset.add(request.getKey());
+            } else if (version == newest) {
+                current.add(request.getKey());
+            } else if (log.covers(version)) {
+                byDeltas.add(request.getKey());
+                from = Math.min(from, version);
+            } else {
+                bySnapshot.add(request.getKey());
+            }
+        }
+
+        if (!current.isEmpty()) {
+            spread.sendTo(current, List.of(marker(newest, epoch)));
+            count(Mode.CURRENT, current.size(), 1);
+        }
+
+        if (!byDeltas.isEmpty()) {
+            // The log may have moved on since the check above.
+            List<RegistryChange> deltas = log.since(from);
+            if (deltas == null)
+                bySnapshot.addAll(byDeltas);
+            else
+                sendDeltas(byDeltas, from, deltas, epoch);
+        }
+
+        if (!bySnapshot.isEmpty())
+            sendSnapshot(bySnapshot, epoch, false);
+        if (!byReset.isEmpty())
+            sendSnapshot(byReset, epoch, true);
+    }
+
+    /**
+     * @return true if the node is ahead of this master or applied a different
+     *         change at its version; it must drop its state for a snapshot
+     */
+    private boolean diverged(Position position, long newest) {
+        if (position.version() > newest)
+            return true;
+        String ours = log.originAt(position.version());
+        return position.origin() != null && ours != null && !position.origin().equals(ours);
+    }
+
+    private void sendDeltas(List<String> members, long from, List<RegistryChange> deltas, long epoch) {
+        long until = deltas.isEmpty() ? from : deltas.get(deltas.size() - 1).version();
+        System.out.println("[Spread] Catch-up for " + members + ": deltas " + (from + 1) + ".." + until);
+
+        int sent = 0;
+        List<SpreadPacket> frame = new ArrayList<>(Math.min(deltas.size(), chunkSize) + 1);
+        for (RegistryChange change : deltas) {
+            frame.add(ReplicationFrames.toPacket(change, epoch));
+            if (frame.size() == chunkSize) {
+                spread.sendTo(members, frame);
+                sent++;
+                frame = new ArrayList<>(chunkSize + 1);
+            }
+        }
+        frame.add(marker(until, epoch));
+        spread.sendTo(members, frame);
+        count(Mode.DELTA, members.size(), sent + 1);
+    }
+
+    private void sendSnapshot(List<String> members, long epoch, boolean reset) {
+        RegistrySnapshot snapshot = registry.snapshot();
+        List<List<SpreadPacket>> chunks = ReplicationFrames.toFrames(snapshot, chunkSize, epoch, reset);
+        System.out.println("[Spread] Catch-up for " + members + ": " + (reset ? "reset to " : "")
+                + "snapshot at version " + snapshot.version() + " in " + chunks.size() + " chunk(s)");
+        for (List<SpreadPacket> chunk : chunks)
+            spread.sendTo(members, chunk);
+        count(Mode.SNAPSHOT, members.size(), chunks.size());
+    }
+
+    private static SpreadPacket marker(long version, long epoch) {
+        return new SpreadPacket(SpreadMsgType.CATCH_UP, version, null, null, epoch);
+    }
+
+    private void count(Mode mode, int nodes, int sentFrames) {
+        served[mode.ordinal()].increment(nodes);
+        frames[mode.ordinal()].increment(sentFrames);
+    }
+}
@@ -1,69 +1,236 @@
 package at.hcw.alcatraz.spread;
 
+import at.hcw.alcatraz.flight.ElectionEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Maintains local master state.
  * <p>
  * Master selection rule:
- * - Smallest logical node id in the current membership becomes master.
+ * - The first node of the membership as ranked by ShardMap becomes master:
+ *   the smallest logical node id without sharding, the node with the
+ *   highest rendezvous weight for the shard with sharding.
  * - All nodes apply the same rule after each membership update.
  * <p>
+ * Epochs:
+ * - Every change of master increments the epoch on all nodes of the view,
+ *   so the new master and its backups agree on the new epoch.
+ * - The master stamps every replicated packet with its epoch. Backups accept
+ *   packets whose epoch is at least their own and reject older ones: those
+ *   come from a deposed master, e.g. still flushing after a failover.
+ * - A master that learns of a higher epoch (sync requests carry the
+ *   sender's epoch, e.g. after a partition merge) moves past it.
+ * <p>
  * Concurrency model:
- * - All read/write operations are protected by the same intrinsic lock.
- * - evaluate() and resetMaster() update both fields in one atomic step.
- * - isMaster() and getCurrentMasterId() read the pair under the same lock.
- * - This prevents stale reads and prevents mixed states when both fields
- * are updated by the Spread membership thread while HTTP threads read them (Very unlikely to happens).
+ * - Master id, self flag and epoch form one immutable MasterState that is
+ *   replaced atomically, so readers never see a mixed state and never lock.
+ * - HTTP threads only read. Updates come from the transport listener
+ *   thread and are applied with compare-and-set.
+ * - Threads waiting for a new master park on a separate monitor that is
+ *   only touched by them and by updates.
+ * <p>
+ * Metrics:
+ * - alcatraz.election.master.changes: elections that picked a different master
+ * - alcatraz.election.leaderless: periods in which no master was known, from
+ * startup or an empty membership until the next election
+ * - alcatraz.election.master: 1 while this node is master
+ * - alcatraz.election.epoch: current epoch
+ *
+ * Every election is also recorded as an ElectionEvent for the flight recorder.
  */
 @Component
 public class ElectionService {
 
-    private boolean masterFlag = false;
+    /**
+     * Master state as seen by this node.
+     *
+     * @param masterId logical id of the current master, null if unknown
+     * @param self     true if this node is master
+     * @param epoch    epoch of the current master
+     */
+    public record MasterState(String masterId, boolean self, long epoch) {
+
+        static final MasterState NONE = new MasterState(null, false, 0);
+    }
+
+    private final AtomicReference<MasterState> state = new AtomicReference<>(MasterState.NONE);
 
+    /** Monitor for awaitMasterChange(). */
+    private final Object changed = new Object();
 
     /**
-     * Logical id of the current master.
+     * System.nanoTime() since when no master is known, 0 while a master is known.
+     * Only touched by the listener thread.
      */
-    private String currentMasterId;
+    private long leaderlessSince = System.nanoTime();
+
+    private final Counter masterChanges;
+    private final Timer leaderless;
+
+    public ElectionService(MeterRegistry meters) {
+        this.masterChanges = Counter.builder("alcatraz.election.master.changes")
+                .description("Elections that picked a different master")
+                .register(meters);
+        this.leaderless = Timer.builder("alcatraz.election.leaderless")
+                .description("Time without a known master")
+                .register(meters);
+        Gauge.builder("alcatraz.election.master", this, e -> e.isMaster() ? 1 : 0)
+                .description("1 while this node is master")
+                .register(meters);
+        Gauge.builder("alcatraz.election.epoch", this, ElectionService::epoch)
+                .description("Epoch of the current master")
+                .register(meters);
+    }
 
     /**
      * Applies the membership update and sets the master accordingly.
      *
-     * @param sortedNodeIds ordered node ids
+     * @param sortedNodeIds node ids ranked by ShardMap, the master first
      * @param selfId        local node id
      */
-    public synchronized void evaluate(List<String> sortedNodeIds, String selfId) {
-        currentMasterId = sortedNodeIds.get(0);
-        masterFlag = selfId.equals(currentMasterId);
+    public void evaluate(List<String> sortedNodeIds, String selfId) {
+        String masterId = sortedNodeIds.get(0);
+        MasterState previous = state.getAndUpdate(s -> new MasterState(
+                masterId,
+                selfId.equals(masterId),
+                masterId.equals(s.masterId()) ? s.epoch() : s.epoch() + 1));
+        MasterState current = state.get();
+        signal();
+
+        if (!masterId.equals(previous.masterId()))
+            masterChanges.increment();
+        if (leaderlessSince != 0) {
+            leaderless.record(System.nanoTime() - leaderlessSince, TimeUnit.NANOSECONDS);
+            leaderlessSince = 0;
+        }
+
+        ElectionEvent event = new ElectionEvent();
+        if (event.shouldCommit()) {
+            event.node = selfId;
+            event.master = current.masterId();
+            event.self = current.self();
+            event.epoch = current.epoch();
+            event.members = String.join(",", sortedNodeIds);
+            event.commit();
+        }
 
         System.out.printf(
-                "[Election] members=%s, masterId=%s, self=%s, isMaster=%s%n",
-                sortedNodeIds, currentMasterId, selfId, masterFlag
+                "[Election] members=%s, masterId=%s, self=%s, isMaster=%s, epoch=%d%n",
+                sortedNodeIds, current.masterId(), selfId, current.self(), current.epoch()
         );
     }
 
     /**
      * Clears master information when the membership becomes empty.
+     * The epoch is kept, the next master continues after it.
+     */
+    public void resetMaster() {
+        state.updateAndGet(s -> new MasterState(null, false, s.epoch()));
+        if (leaderlessSince == 0)
+            leaderlessSince = System.nanoTime();
+        signal();
+    }
+
+    /**
+     * Checks the epoch of a packet received from the master.
+     *
+     * @param epoch epoch carried by the packet
+     * @return false if the packet comes from a deposed master and must be ignored
+     */
+    public boolean accept(long epoch) {
+        MasterState s = state.get();
+        while (epoch > s.epoch() && !s.self()) {
+            MasterState raised = new MasterState(s.masterId(), false, epoch);
+            if (state.compareAndSet(s, raised))
+                return true;
+            s = state.get();
+        }
+        return epoch >= s.epoch();
+    }
+
+    /**
+     * Records an epoch another node has seen. A master that is not ahead of
+     * it moves to the next epoch, so its packets are accepted by that node.
+     *
+     * @param epoch epoch reported by another node
+     * @return true if this node is master and changed its epoch
      */
-    public synchronized void resetMaster() {
-        currentMasterId = null;
-        masterFlag = false;
+    public boolean observe(long epoch) {
+        MasterState s = state.get();
+        while (s.self() && epoch >= s.epoch()) {
+            MasterState raised = new MasterState(s.masterId(), true, epoch + 1);
+            if (state.compareAndSet(s, raised)) {
+                System.out.println("[Election] Epoch raised to " + raised.epoch() + " after seeing epoch " + epoch);
+                return true;
+            }
+            s = state.get();
+        }
+        if (!s.self())
+            accept(epoch);
+        return false;
+    }
+
+    /**
+     * Blocks until a master other than {@code previous} is known.
+     *
+     * @param previous  master id that is considered gone, may be null
+     * @param timeoutMs maximum wait time
+     * @return the new master id, or null if none was elected in time
+     */
+    public String awaitMasterChange(String previous, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (changed) {
+            while (true) {
+                String current = state.get().masterId();
+                if (current != null && !current.equals(previous))
+                    return current;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return null;
+                changed.wait(remaining);
+            }
+        }
+    }
+
+    private void signal() {
+        synchronized (changed) {
+            changed.notifyAll();
+        }
+    }
+
+    /**
+     * @return consistent view of master id, self flag and epoch
+     */
+    public MasterState state() {
+        return state.get();
     }
 
     /**
      * @return true if this node is master
      */
-    public synchronized boolean isMaster() {
-        return masterFlag;
+    public boolean isMaster() {
+        return state.get().self();
     }
 
     /**
      * @return id of the current master
      */
-    public synchronized String getCurrentMasterId() {
-        return currentMasterId;
+    public String getCurrentMasterId() {
+        return state.get().masterId();
+    }
+
+    /**
+     * @return epoch of the current master
+     */
+    public long epoch() {
+        return state.get().epoch();
     }
 }
@@ -0,0 +1,36 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Human-readable codec: a frame is a JSON array of packets.
+ *
+ * Kept for debugging (e.g. with spuser) and for nodes that predate the
+ * binary codec. Its header byte is the opening bracket of the array.
+ */
+public class JsonPacketCodec implements PacketCodec {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JavaType frameType = mapper.getTypeFactory()
+            .constructCollectionType(List.class, SpreadPacket.class);
+
+    @Override
+    public byte header() {
+        return '[';
+    }
+
+    @Override
+    public byte[] encode(List<SpreadPacket> frame) throws IOException {
+        return mapper.writeValueAsBytes(frame);
+    }
+
+    @Override
+    public List<SpreadPacket> decode(byte[] data) throws IOException {
+        return mapper.readValue(data, frameType);
+    }
+}
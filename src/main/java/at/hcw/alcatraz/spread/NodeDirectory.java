@@ -0,0 +1,208 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HTTP endpoints of the cluster nodes.
+ *
+ * Every node announces its own endpoint and capacity to the group (an
+ * ANNOUNCE packet) whenever a node joins and after a partition merge, so a
+ * newcomer learns all members and all members learn the newcomer. The
+ * directory keeps the announcements of the current members only; entries
+ * of nodes that left are dropped with the next view.
+ *
+ * A node can therefore join with any id, host and port and is used for
+ * forwarding, redirects and /cluster/topology without any configuration
+ * change on the other nodes.
+ *
+ * cluster.nodes is optional. Its entries are a fallback for nodes that have
+ * not announced themselves (yet), e.g. nodes of an older version during a
+ * rolling upgrade.
+ *
+ * Announcements are written by the dispatcher thread and read by HTTP
+ * threads, so lookups never lock.
+ *
+ * Metrics:
+ * - alcatraz.cluster.directory.nodes: announced nodes currently in the directory
+ */
+@Component
+public class NodeDirectory {
+
+    /**
+     * One node as announced, or as configured if it did not announce.
+     *
+     * @param id       logical node id
+     * @param endpoint base URL of its HTTP API, e.g. "http://10.0.0.4:8080"
+     * @param capacity relative share of read and stream load the node should get, at least 1
+     */
+    public record NodeInfo(String id, String endpoint, int capacity) {
+    }
+
+    private final NodeInfo self;
+    private final Map<String, NodeInfo> configured;
+
+    /** Node id → latest announcement. Written by the dispatcher thread only. */
+    private final Map<String, NodeInfo> announced = new ConcurrentHashMap<>();
+
+    /**
+     * @param clusterNodes   static fallback, "node1:8081,node2:192.168.0.78:8082,...", may be empty
+     * @param advertisedHost host other nodes and clients reach this node at; empty: the
+     *                       cluster.nodes entry of this node if there is one, else localhost
+     * @param advertisedPort HTTP port other nodes and clients reach this node at
+     * @param capacity       announced capacity of this node
+     */
+    public NodeDirectory(@Value("${cluster.nodes:}") String clusterNodes,
+                         @Value("${spread.node-id}") String selfId,
+                         @Value("${cluster.advertised-host:}") String advertisedHost,
+                         @Value("${cluster.advertised-port:${server.port:8080}}") int advertisedPort,
+                         @Value("${cluster.capacity:1}") int capacity,
+                         MeterRegistry meters) {
+        this.configured = parse(clusterNodes);
+        String endpoint;
+        if (!advertisedHost.isBlank())
+            endpoint = "http://" + advertisedHost.trim() + ":" + advertisedPort;
+        else if (configured.containsKey(selfId))
+            endpoint = configured.get(selfId).endpoint();
+        else
+            endpoint = "http://localhost:" + advertisedPort;
+        this.self = new NodeInfo(selfId, endpoint, Math.max(1, capacity));
+        announced.put(selfId, self);
+
+        Gauge.builder("alcatraz.cluster.directory.nodes", announced, Map::size)
+                .description("Announced nodes in the directory")
+                .register(meters);
+    }
+
+    /**
+     * Parses "node1:8081,node2:192.168.0.78:8082,..." into a lookup table.
+     * Entries without host use localhost.
+     */
+    private static Map<String, NodeInfo> parse(String cfg) {
+        Map<String, NodeInfo> out = new HashMap<>();
+        for (String part : cfg.split(",")) {
+            if (part.isBlank())
+                continue;
+            String[] p = part.split(":");
+            String id = p[0].trim();
+            String host = p.length > 2 ? p[1].trim() : "localhost";
+            int port = Integer.parseInt(p[p.length - 1].trim());
+            out.put(id, new NodeInfo(id, "http://" + host + ":" + port, 1));
+        }
+        return Map.copyOf(out);
+    }
+
+    /**
+     * Moves every port of a cluster.nodes list by the same offset, e.g. to
+     * the ports of the nodes' contexts of another shard.
+     *
+     * @param cfg    "node1:8081,node2:192.168.0.78:8082,...", may be empty
+     * @param offset added to every port
+     * @return the list with the moved ports
+     */
+    public static String shiftPorts(String cfg, int offset) {
+        StringJoiner out = new StringJoiner(",");
+        for (String part : cfg.split(",")) {
+            if (part.isBlank())
+                continue;
+            int colon = part.lastIndexOf(':');
+            int port = Integer.parseInt(part.substring(colon + 1).trim());
+            out.add(part.substring(0, colon + 1).trim() + (port + offset));
+        }
+        return out.toString();
+    }
+
+    // ================= LOOKUP =================
+
+    /**
+     * @return this node as it announces itself
+     */
+    public NodeInfo self() {
+        return self;
+    }
+
+    /**
+     * @param nodeId logical node id
+     * @return announced entry, else the configured one, else null
+     */
+    public NodeInfo node(String nodeId) {
+        NodeInfo node = announced.get(nodeId);
+        return node != null ? node : configured.get(nodeId);
+    }
+
+    /**
+     * @param nodeId logical node id
+     * @return base URL of the node, or null if it neither announced nor is configured
+     */
+    public String endpoint(String nodeId) {
+        NodeInfo node = node(nodeId);
+        return node != null ? node.endpoint() : null;
+    }
+
+    /**
+     * @return every member of the group, as announced or, if it did not announce, as configured
+     */
+    public Collection<NodeInfo> nodes() {
+        Map<String, NodeInfo> all = new HashMap<>(configured);
+        all.putAll(announced);
+        return all.values();
+    }
+
+    // ================= UPDATES =================
+
+    /**
+     * Stores an announcement.
+     *
+     * @return true if the entry is new or changed
+     */
+    boolean announce(NodeInfo node) {
+        NodeInfo previous = announced.put(node.id(), node);
+        if (node.equals(previous))
+            return false;
+        System.out.println("[Directory] " + node.id() + " at " + node.endpoint() + ", capacity " + node.capacity());
+        return true;
+    }
+
+    /**
+     * Drops announcements of nodes that are no longer members. This node's own entry stays.
+     *
+     * @return true if an entry was dropped
+     */
+    boolean retain(Collection<String> members) {
+        return announced.keySet().removeIf(id -> !id.equals(self.id()) && !members.contains(id));
+    }
+
+    // ================= PACKETS =================
+
+    /**
+     * @return ANNOUNCE packet describing this node
+     */
+    SpreadPacket announcement() {
+        return new SpreadPacket(SpreadMsgType.ANNOUNCE, 0, null, Map.of(
+                "node", self.id(),
+                "endpoint", self.endpoint(),
+                "capacity", Integer.toString(self.capacity())));
+    }
+
+    /**
+     * @return the announced node, or null if the packet is incomplete
+     */
+    static NodeInfo fromPacket(SpreadPacket packet) {
+        Map<String, String> data = packet.data();
+        if (data == null || data.get("node") == null || data.get("endpoint") == null)
+            return null;
+        int capacity;
+        try {
+            capacity = Math.max(1, Integer.parseInt(data.getOrDefault("capacity", "1")));
+        } catch (NumberFormatException e) {
+            capacity = 1;
+        }
+        return new NodeInfo(data.get("node"), data.get("endpoint"), capacity);
+    }
+}
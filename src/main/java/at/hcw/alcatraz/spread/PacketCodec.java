@@ -0,0 +1,34 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Wire format of a frame of SpreadPackets.
+ *
+ * Every encoded message starts with the codec's header byte. Receivers pick
+ * the codec by that byte, so nodes using different codecs still understand
+ * each other, and a message from a newer, unknown format version is
+ * detected instead of being misread.
+ */
+public interface PacketCodec {
+
+    /**
+     * @return first byte of every message produced by this codec
+     */
+    byte header();
+
+    /**
+     * @param frame packets to encode
+     * @return message body
+     */
+    byte[] encode(List<SpreadPacket> frame) throws IOException;
+
+    /**
+     * @param data message body starting with {@link #header()}
+     * @return decoded packets
+     */
+    List<SpreadPacket> decode(byte[] data) throws IOException;
+}
@@ -0,0 +1,18 @@
+package at.hcw.alcatraz.spread;
+
+/**
+ * What the transport thread does when the receive queue is full.
+ * Membership views are never subject to it.
+ */
+public enum ReceiveOverflow {
+
+    /** Wait until the dispatcher made room. Backpressure reaches the daemon, nothing is lost. */
+    BLOCK,
+
+    /** Drop the incoming message. A dropped delta shows up as a gap and is recovered by catch-up. */
+    DROP;
+
+    public static ReceiveOverflow from(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,111 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.transport.MembershipView;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded FIFO between the transport thread and the dispatcher thread.
+ *
+ * Messages and membership views share one queue, so the dispatcher sees
+ * them in delivery order. Only messages count against the capacity: a view
+ * is always accepted, even if the queue is full, and never waits or gets
+ * dropped.
+ */
+final class ReceiveQueue {
+
+    /**
+     * One queued transport event: either a message (data set) or a view.
+     *
+     * @param enqueuedAt System.nanoTime() when the event was queued
+     */
+    record Event(String sender, byte[] data, MembershipView view, long enqueuedAt) {
+    }
+
+    private final int capacity;
+    private final ReceiveOverflow overflow;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /** Guarded by lock. */
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+
+    /** Queued messages, views excluded. Guarded by lock. */
+    private int messages;
+
+    ReceiveQueue(int capacity, ReceiveOverflow overflow) {
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Queues a message according to the overflow policy.
+     *
+     * @return nanoseconds spent waiting for room, or -1 if the message was dropped
+     */
+    long offerMessage(String sender, byte[] data) throws InterruptedException {
+        lock.lock();
+        try {
+            long waited = 0;
+            if (messages >= capacity) {
+                if (overflow == ReceiveOverflow.DROP)
+                    return -1;
+                long start = System.nanoTime();
+                while (messages >= capacity)
+                    notFull.await();
+                waited = System.nanoTime() - start;
+            }
+            events.add(new Event(sender, data, null, System.nanoTime()));
+            messages++;
+            notEmpty.signal();
+            return waited;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void putView(MembershipView view) {
+        lock.lock();
+        try {
+            events.add(new Event(null, null, view, System.nanoTime()));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return next event, or null if none arrived within the timeout
+     */
+    Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = unit.toNanos(timeout);
+            while (events.isEmpty()) {
+                if (remaining <= 0)
+                    return null;
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            Event event = events.poll();
+            if (event.view() == null && messages-- == capacity)
+                notFull.signal();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return events.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for outgoing replication deltas.
+ *
+ * Deltas are collected in an open batch. A single flusher thread waits until
+ * the batch is non-empty, keeps it open for the flush window (or until it
+ * reaches the maximum size) and then sends it as one Spread message.
+ * Batches larger than the maximum size are split into several messages,
+ * but never inside a group of deltas enqueued together with enqueueAll():
+ * such a group always travels in one message, even if it is larger than
+ * the maximum size.
+ *
+ * Writers wait with whenFlushed() until the batch holding their version has
+ * been handed to the daemon. If the send fails, their future fails and
+ * the versions of that batch are remembered as failed, so the write is
+ * answered with an error instead of success. Backups detect the gap with
+ * the next delta and catch up.
+ *
+ * Ordering:
+ * - enqueue() is called under the registry's delivery lock, so the open
+ *   batch is always sorted by version.
+ * - Only the flusher thread sends, so batches leave in version order and
+ *   no network I/O happens under the registry's lock.
+ *
+ * With batching disabled the flusher does not wait for a window and sends
+ * every delta (or group) as a message of its own. Before start() and after
+ * stop() deltas are sent directly on the calling thread.
+ */
+@Component
+public class ReplicationBatcher {
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    /** Failed version ranges remembered for late whenFlushed() calls. */
+    private static final int MAX_FAILED_RANGES = 1024;
+
+    private final SpreadConnectionService spread;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition filled = lock.newCondition();
+
+    /** Batch currently being filled. Guarded by lock. */
+    private List<SpreadPacket> open = new ArrayList<>();
+
+    /** Start and end index of each group in the open batch that must not be split. Guarded by lock. */
+    private List<int[]> openGroups = new ArrayList<>();
+    private CompletableFuture<Void> openFuture = new CompletableFuture<>();
+
+    /** Batch currently being sent by the flusher. Guarded by lock. */
+    private long inFlightVersion = 0;
+    private CompletableFuture<Void> inFlightFuture = DONE;
+
+    /** Highest version handed to the daemon. Guarded by lock. */
+    private long flushedVersion = 0;
+
+    /** First → last version of batches whose send failed. Guarded by lock. */
+    private final NavigableMap<Long, Long> failed = new TreeMap<>();
+
+    private volatile boolean running = false;
+    private Thread flusher;
+
+    public ReplicationBatcher(SpreadConnectionService spread,
+                              @Value("${replication.batch.enabled:true}") boolean enabled,
+                              @Value("${replication.batch.window-us:200}") long windowMicros,
+                              @Value("${replication.batch.max-size:256}") int maxBatchSize) {
+        this.spread = spread;
+        this.enabled = enabled;
+        this.windowNanos = enabled ? windowMicros * 1_000 : 0;
+        this.maxBatchSize = enabled ? Math.max(1, maxBatchSize) : 1;
+    }
+
+    /**
+     * Starts the flusher thread.
+     */
+    @PostConstruct
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        flusher = new Thread(this::flushLoop, "replication-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Flushes what is left and stops the flusher thread.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        lock.lock();
+        try {
+            filled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join(1_000);
+    }
+
+    /**
+     * Adds a delta to the open batch.
+     *
+     * @param packet delta in version order
+     */
+    public void enqueue(SpreadPacket packet) {
+        if (!running) {
+            sendNow(List.of(packet));
+            return;
+        }
+
+        lock.lock();
+        try {
+            open.add(packet);
+            if (open.size() == 1 || open.size() >= maxBatchSize)
+                filled.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds deltas that must reach the group in one message, e.g. a batch
+     * registration.
+     *
+     * @param packets deltas in version order
+     */
+    public void enqueueAll(List<SpreadPacket> packets) {
+        if (packets.isEmpty())
+            return;
+        if (!running) {
+            sendNow(packets);
+            return;
+        }
+
+        lock.lock();
+        try {
+            int start = open.size();
+            open.addAll(packets);
+            if (packets.size() > 1)
+                openGroups.add(new int[]{start, open.size()});
+            if (start == 0 || open.size() >= maxBatchSize)
+                filled.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param version registry version produced by a local write
+     * @return future completed once the delta with that version was handed to the daemon,
+     *         failed if sending it failed
+     */
+    public CompletableFuture<Void> whenFlushed(long version) {
+        lock.lock();
+        try {
+            Map.Entry<Long, Long> failure = failed.floorEntry(version);
+            if (failure != null && version <= failure.getValue())
+                return CompletableFuture.failedFuture(new IOException("Sending version " + version + " failed"));
+            if (version <= flushedVersion)
+                return DONE;
+            if (version <= inFlightVersion)
+                return inFlightFuture;
+            return openFuture;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (running || hasOpen()) {
+            List<SpreadPacket> batch;
+            List<int[]> groups;
+            CompletableFuture<Void> future;
+            long last;
+
+            lock.lock();
+            try {
+                while (running && open.isEmpty())
+                    filled.await();
+
+                long remaining = windowNanos;
+                while (running && open.size() < maxBatchSize && remaining > 0)
+                    remaining = filled.awaitNanos(remaining);
+
+                if (open.isEmpty())
+                    continue;
+
+                batch = open;
+                groups = openGroups.isEmpty() ? List.of() : openGroups;
+                future = openFuture;
+                last = batch.get(batch.size() - 1).version();
+                open = new ArrayList<>(Math.min(batch.size() * 2, maxBatchSize));
+                if (!groups.isEmpty())
+                    openGroups = new ArrayList<>();
+                openFuture = new CompletableFuture<>();
+                inFlightVersion = last;
+                inFlightFuture = future;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                for (List<SpreadPacket> frame : split(batch, groups, maxBatchSize))
+                    spread.send(frame);
+            } catch (RuntimeException e) {
+                failed(batch.get(0).version(), last);
+                future.completeExceptionally(e);
+                continue;
+            }
+
+            lock.lock();
+            try {
+                flushedVersion = last;
+            } finally {
+                lock.unlock();
+            }
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Sends on the calling thread, used while the flusher is not running.
+     */
+    private void sendNow(List<SpreadPacket> packets) {
+        long last = packets.get(packets.size() - 1).version();
+        try {
+            spread.send(packets);
+        } catch (RuntimeException e) {
+            failed(packets.get(0).version(), last);
+            return;
+        }
+        lock.lock();
+        try {
+            flushedVersion = Math.max(flushedVersion, last);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void failed(long first, long last) {
+        lock.lock();
+        try {
+            failed.put(first, last);
+            if (failed.size() > MAX_FAILED_RANGES)
+                failed.pollFirstEntry();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Splits a batch into frames of at most maxSize packets. A cut that would
+     * fall inside a group is moved before the group, or after it if the
+     * group starts the frame.
+     *
+     * @param groups start (inclusive) and end (exclusive) index of each group, ascending
+     */
+    static List<List<SpreadPacket>> split(List<SpreadPacket> batch, List<int[]> groups, int maxSize) {
+        if (batch.size() <= maxSize)
+            return List.of(batch);
+        List<List<SpreadPacket>> frames = new ArrayList<>(batch.size() / maxSize + 1);
+        int g = 0;
+        int from = 0;
+        while (from < batch.size()) {
+            int to = Math.min(batch.size(), from + maxSize);
+            while (g < groups.size() && groups.get(g)[1] <= to)
+                g++;
+            if (g < groups.size() && groups.get(g)[0] < to)
+                to = groups.get(g)[0] > from ? groups.get(g)[0] : groups.get(g)[1];
+            frames.add(batch.subList(from, to));
+            from = to;
+        }
+        return frames;
+    }
+
+    private boolean hasOpen() {
+        lock.lock();
+        try {
+            return !open.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import at.hcw.alcatraz.dto.SpreadPacket;
+
+import java.util.*;
+
+/**
+ * Converts registry changes and snapshots to Spread packets and back.
+ *
+ * Outgoing packets are stamped with the master epoch of the sender.
+ */
+final class ReplicationFrames {
+
+    private static final String CHUNK = "chunk";
+    private static final String CHUNKS = "chunks";
+    private static final String RESET = "reset";
+    private static final String ORIGIN = "origin";
+
+    private ReplicationFrames() {
+    }
+
+    static SpreadPacket toPacket(RegistryChange change) {
+        return toPacket(change, 0);
+    }
+
+    static SpreadPacket toPacket(RegistryChange change, long epoch) {
+        Map<String, String> data = change.player() != null
+                ? Map.of(change.player(), change.callback())
+                : null;
+        SpreadMsgType type = switch (change.kind()) {
+            case ADD -> SpreadMsgType.ADD;
+            case REMOVE -> SpreadMsgType.REMOVE;
+            case START -> SpreadMsgType.START;
+            case RESET -> SpreadMsgType.RESET;
+        };
+        return new SpreadPacket(type, change.version(), change.lobby(), data, epoch);
+    }
+
+    /**
+     * @return the change carried by a delta packet, or null if the packet is no delta
+     */
+    static RegistryChange toChange(SpreadPacket packet) {
+        RegistryChange.Kind kind = switch (packet.type()) {
+            case ADD -> RegistryChange.Kind.ADD;
+            case REMOVE -> RegistryChange.Kind.REMOVE;
+            case START -> RegistryChange.Kind.START;
+            case RESET -> RegistryChange.Kind.RESET;
+            default -> null;
+        };
+        if (kind == null)
+            return null;
+
+        String player = null;
+        String callback = null;
+        if (packet.data() != null && !packet.data().isEmpty()) {
+            Map.Entry<String, String> e = packet.data().entrySet().iterator().next();
+            player = e.getKey();
+            callback = e.getValue();
+        }
+        return new RegistryChange(kind, packet.version(), packet.lobby(), player, callback);
+    }
+
+    /**
+     * @param version version the requesting node has applied
+     * @param origin  origin of its change at that version, see CatchUpService; null if unknown
+     * @param epoch   current epoch of the requesting node
+     */
+    static SpreadPacket syncRequest(long version, String origin, long epoch) {
+        return new SpreadPacket(SpreadMsgType.SYNC_REQUEST, version, null,
+                origin != null ? Map.of(ORIGIN, origin) : null, epoch);
+    }
+
+    /**
+     * @return origin reported by a sync request, null if the sender did not know it
+     */
+    static String origin(SpreadPacket syncRequest) {
+        Map<String, String> data = syncRequest.data();
+        return data != null ? data.get(ORIGIN) : null;
+    }
+
+    static List<SpreadPacket> toFrame(RegistrySnapshot snapshot, long epoch) {
+        return toFrame(snapshot.version(), snapshot.lobbies(), null, epoch);
+    }
+
+    static List<List<SpreadPacket>> toFrames(RegistrySnapshot snapshot, int maxLobbies, long epoch) {
+        return toFrames(snapshot, maxLobbies, epoch, false);
+    }
+
+    /**
+     * Splits a snapshot into frames of at most maxLobbies lobbies each.
+     * A snapshot that fits into one frame is sent unchunked.
+     *
+     * @param reset true if receivers must install it even if their own version
+     *              is newer, because their history diverged from the sender's
+     * @return frames in chunk order
+     */
+    static List<List<SpreadPacket>> toFrames(RegistrySnapshot snapshot, int maxLobbies, long epoch, boolean reset) {
+        List<RegistrySnapshot.LobbyState> lobbies = snapshot.lobbies();
+        if (lobbies.size() <= maxLobbies)
+            return List.of(toFrame(snapshot.version(), lobbies, reset ? Map.of(RESET, "true") : null, epoch));
+
+        int chunks = (lobbies.size() + maxLobbies - 1) / maxLobbies;
+        List<List<SpreadPacket>> frames = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            Map<String, String> header = new HashMap<>();
+            header.put(CHUNK, Integer.toString(i));
+            header.put(CHUNKS, Integer.toString(chunks));
+            if (reset)
+                header.put(RESET, "true");
+            List<RegistrySnapshot.LobbyState> part =
+                    lobbies.subList(i * maxLobbies, Math.min(lobbies.size(), (i + 1) * maxLobbies));
+            frames.add(toFrame(snapshot.version(), part, header, epoch));
+        }
+        return frames;
+    }
+
+    private static List<SpreadPacket> toFrame(long version,
+                                              List<RegistrySnapshot.LobbyState> lobbies,
+                                              Map<String, String> header,
+                                              long epoch) {
+        List<SpreadPacket> frame = new ArrayList<>(lobbies.size() + 1);
+        frame.add(new SpreadPacket(SpreadMsgType.SNAPSHOT, version, null, header, epoch));
+        for (RegistrySnapshot.LobbyState lobby : lobbies) {
+            frame.add(new SpreadPacket(SpreadMsgType.SNAPSHOT, lobby.version(), lobby.id(), lobby.players(), epoch));
+            if (lobby.started())
+                frame.add(new SpreadPacket(SpreadMsgType.START, lobby.version(), lobby.id(), null, epoch));
+        }
+        return frame;
+    }
+
+    static boolean isSnapshot(List<SpreadPacket> frame) {
+        return !frame.isEmpty()
+                && frame.get(0).type() == SpreadMsgType.SNAPSHOT
+                && frame.get(0).lobby() == null;
+    }
+
+    /**
+     * @return index of the chunk carried by a snapshot frame, 0 if unchunked
+     */
+    static int chunkIndex(List<SpreadPacket> frame) {
+        return headerValue(frame, CHUNK, 0);
+    }
+
+    /**
+     * @return number of chunks the snapshot was split into, 1 if unchunked
+     */
+    static int chunkCount(List<SpreadPacket> frame) {
+        return headerValue(frame, CHUNKS, 1);
+    }
+
+    /**
+     * @return true if the snapshot replaces the receiver's state regardless of its version
+     */
+    static boolean isReset(List<SpreadPacket> frame) {
+        Map<String, String> header = frame.get(0).data();
+        return header != null && "true".equals(header.get(RESET));
+    }
+
+    private static int headerValue(List<SpreadPacket> frame, String key, int fallback) {
+        Map<String, String> header = frame.get(0).data();
+        if (header == null || !header.containsKey(key))
+            return fallback;
+        try {
+            return Integer.parseInt(header.get(key));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * @return the snapshot carried by the frame; for a chunk, only the lobbies of that chunk
+     */
+    static RegistrySnapshot toSnapshot(List<SpreadPacket> frame) {
+        Map<String, SpreadPacket> players = new LinkedHashMap<>();
+        Set<String> started = new HashSet<>();
+        for (SpreadPacket p : frame.subList(1, frame.size())) {
+            if (p.type() == SpreadMsgType.SNAPSHOT)
+                players.put(p.lobby(), p);
+            else if (p.type() == SpreadMsgType.START)
+                started.add(p.lobby());
+        }
+
+        List<RegistrySnapshot.LobbyState> lobbies = new ArrayList<>(players.size());
+        for (SpreadPacket p : players.values()) {
+            lobbies.add(new RegistrySnapshot.LobbyState(
+                    p.lobby(),
+                    p.version(),
+                    started.contains(p.lobby()),
+                    p.data() != null ? p.data() : Map.of()));
+        }
+        return new RegistrySnapshot(frame.get(0).version(), lobbies);
+    }
+}
@@ -1,119 +1,381 @@
 package at.hcw.alcatraz.spread;
 
 import at.hcw.alcatraz.dto.SpreadPacket;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import at.hcw.alcatraz.flight.ReplicationApplyEvent;
+import at.hcw.alcatraz.flight.ReplicationSendEvent;
+import at.hcw.alcatraz.transport.GroupTransport;
+import at.hcw.alcatraz.transport.MembershipView;
+import at.hcw.alcatraz.transport.TransportListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import spread.*;
 
-import java.net.InetAddress;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Manages the connection to a Spread daemon.
+ * Connects the application to the group communication layer.
  *
  * Responsibilities:
- * - Connect to the daemon using the configured host, port and node id.
- * - Join the application group.
+ * - Join the group through the configured GroupTransport.
  * - Forward incoming regular and membership messages to a handler.
  * - Serialize and send application packets.
  *
- * Spread events:
- * - regularMessageReceived → application payload
- * - membershipMessageReceived → group membership changes
+ * Receive pipeline:
+ * - receive (transport thread): the raw message is put into a bounded
+ *   ReceiveQueue, nothing else. If the queue is full, spread.receive.overflow
+ *   decides whether the transport thread waits (block) or the message is
+ *   dropped (drop); dropped deltas are recovered by catch-up.
+ * - decode and apply (dispatcher thread "spread-dispatcher"): events are
+ *   taken in delivery order, decoded and passed to the handler.
+ * - Membership views take priority: the handler's onMembershipReceived()
+ *   runs at once on the transport thread, so failover does not wait behind
+ *   a backlog of updates. The view is also queued (never blocked or
+ *   dropped) and reaches onMembership() in order with the messages.
+ *
+ * With spread.receive.queue-capacity=0 everything runs on the transport thread.
+ *
+ * Packets are sent in frames: one group message carries several packets.
+ * The transport delivers messages in agreed order, so every node sees the
+ * same order.
+ *
+ * Frames are encoded with the codec selected by spread.codec (binary by
+ * default, json for debugging). Incoming frames are decoded by the codec
+ * matching their first byte, so both formats can be mixed in one cluster.
+ *
+ * The transport is chosen by cluster.transport, see TransportConfig:
+ * a Spread daemon in production, an in-JVM loopback network in tests.
+ *
+ * Metrics:
+ * - alcatraz.spread.multicast: time to hand a frame to the transport
+ * - alcatraz.spread.multicast.size: encoded frame size in bytes
+ * - alcatraz.spread.multicast.failures: frames that could not be sent
+ * - alcatraz.spread.receive.queue: events waiting for the dispatcher
+ * - alcatraz.spread.receive.wait: time an event spent in the queue
+ * - alcatraz.spread.receive.blocked: time the transport thread waited for room (block)
+ * - alcatraz.spread.receive.dropped: messages dropped because the queue was full (drop)
+ *
+ * Flight recorder: every sent frame is a ReplicationSendEvent, every
+ * decoded and handled frame a ReplicationApplyEvent.
  */
 @Component
-public class SpreadConnectionService implements AdvancedMessageListener {
-
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final SpreadConnection connection = new SpreadConnection();
-
-    @Value("${spread.host}")
-    private String host;
-
-    @Value("${spread.port}")
-    private int port;
+public class SpreadConnectionService implements TransportListener {
 
-    @Value("${spread.group}")
-    private String groupName;
+    private final List<PacketCodec> codecs = List.of(new BinaryPacketCodec(), new JsonPacketCodec());
+    private final PacketCodec codec;
+    private final GroupTransport transport;
 
     @Getter
-    @Value("${spread.node-id}")
-    private String nodeId;
+    private final String nodeId;
 
     @Setter
     private SpreadMessageHandler handler;
 
+    private final Timer multicastTimer;
+    private final DistributionSummary multicastSize;
+    private final Counter multicastFailures;
+
+    /** Null if the pipeline is disabled and events are handled on the transport thread. */
+    private final ReceiveQueue queue;
+    private volatile boolean running = false;
+    private Thread dispatcher;
+
+    private final Timer receiveWait;
+    private final Timer receiveBlocked;
+    private final Counter receiveDropped;
+
+    /** True after a drop until the next accepted message, to log each overflow once. */
+    private boolean overflowing = false;
+
     /**
-     * Initializes the Spread connection.
-     *
-     * Steps:
-     * - Register listener.
-     * - Connect to daemon.
-     * - Join the configured group.
+     * @param transport     group communication used for all messages
+     * @param nodeId        logical id of this node
+     * @param codec         codec for outgoing frames, "binary" or "json"
+     * @param queueCapacity messages the receive queue holds, 0 disables the pipeline
+     * @param overflow      policy when the receive queue is full, "block" or "drop"
+     * @param meters        registry for send and receive metrics
+     */
+    public SpreadConnectionService(GroupTransport transport,
+                                   @Value("${spread.node-id}") String nodeId,
+                                   @Value("${spread.codec:binary}") String codec,
+                                   @Value("${spread.receive.queue-capacity:10000}") int queueCapacity,
+                                   @Value("${spread.receive.overflow:block}") String overflow,
+                                   MeterRegistry meters) {
+        this.transport = transport;
+        this.nodeId = nodeId;
+        this.codec = switch (codec) {
+            case "binary" -> codecs.get(0);
+            case "json" -> codecs.get(1);
+            default -> throw new IllegalArgumentException("Unknown spread.codec: " + codec);
+        };
+        this.multicastTimer = Timer.builder("alcatraz.spread.multicast")
+                .description("Time to hand a replication frame to the group transport")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(meters);
+        this.multicastSize = DistributionSummary.builder("alcatraz.spread.multicast.size")
+                .description("Encoded size of outgoing frames")
+                .baseUnit("bytes")
+                .register(meters);
+        this.multicastFailures = Counter.builder("alcatraz.spread.multicast.failures")
+                .description("Frames that could not be encoded or sent")
+                .register(meters);
+
+        this.queue = queueCapacity > 0 ? new ReceiveQueue(queueCapacity, ReceiveOverflow.from(overflow)) : null;
+        Gauge.builder("alcatraz.spread.receive.queue", this, s -> s.queue != null ? s.queue.size() : 0)
+                .description("Received events waiting for the dispatcher")
+                .register(meters);
+        this.receiveWait = Timer.builder("alcatraz.spread.receive.wait")
+                .description("Time a received event waited for the dispatcher")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meters);
+        this.receiveBlocked = Timer.builder("alcatraz.spread.receive.blocked")
+                .description("Time the transport thread waited for room in the receive queue")
+                .register(meters);
+        this.receiveDropped = Counter.builder("alcatraz.spread.receive.dropped")
+                .description("Messages dropped because the receive queue was full")
+                .register(meters);
+    }
+
+    /**
+     * Starts the dispatcher, joins the group and registers the handler for all events.
      *
      * @param handler callback for message and membership events
      */
     public void init(SpreadMessageHandler handler) throws Exception {
         this.handler = handler;
-        connection.add(this);
-        connection.connect(InetAddress.getByName(host), port, nodeId, false, true);
-        SpreadGroup group = new SpreadGroup();
-        group.join(connection, groupName);
-        System.out.println("[Spread] Joined group '" + groupName + "' as " + nodeId);
+        if (queue != null && !running) {
+            running = true;
+            dispatcher = new Thread(this::dispatchLoop, "spread-dispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+        transport.connect(this);
     }
 
     /**
-     * Sends a packet to the group.
-     *
-     * JSON encoding and multicast are handled here.
-     * Self-discard is enabled so the sender does not receive its own message.
+     * Stops the dispatcher. Events still queued are discarded.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        dispatcher.interrupt();
+        dispatcher.join(1_000);
+    }
+
+    /**
+     * Sends a single packet to the group.
      *
      * @param packet payload to broadcast
+     * @throws UncheckedIOException if the message could not be encoded or handed to the daemon
      */
     public void send(SpreadPacket packet) {
+        send(List.of(packet));
+    }
+
+    /**
+     * Sends a frame of packets to the group as one message.
+     *
+     * Encoding is handled here. The transport discards the message on the
+     * sender, so the sender does not receive its own message.
+     *
+     * @param frame packets to broadcast
+     * @throws UncheckedIOException if the message could not be encoded or handed to the daemon
+     */
+    public void send(List<SpreadPacket> frame) {
+        transmit(null, frame);
+    }
+
+    /**
+     * Sends a frame of packets only to the given members, e.g. a catch-up
+     * answer for joining nodes. The frame is ordered with group messages.
+     *
+     * @param members raw member names of the recipients
+     * @param frame   packets to send
+     * @throws UncheckedIOException if the message could not be encoded or handed to the daemon
+     */
+    public void sendTo(Collection<String> members, List<SpreadPacket> frame) {
+        transmit(members, frame);
+    }
+
+    private void transmit(Collection<String> members, List<SpreadPacket> frame) {
+        ReplicationSendEvent event = new ReplicationSendEvent();
         try {
-            byte[] json = mapper.writeValueAsBytes(packet);
-            SpreadMessage msg = new SpreadMessage();
-            msg.setReliable();
-            msg.addGroup(groupName);
-            msg.setData(json);
-            msg.setSelfDiscard(true);
-            connection.multicast(msg);
-        } catch (Exception e) {
+            byte[] data = encode(frame);
+            event.begin();
+            long start = System.nanoTime();
+            if (members == null)
+                transport.multicast(data);
+            else
+                transport.send(members, data);
+            multicastTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            multicastSize.record(data.length);
+
+            event.end();
+            if (event.shouldCommit()) {
+                SpreadPacket first = frame.get(0);
+                event.node = nodeId;
+                event.recipients = members == null ? "group" : String.join(",", members);
+                event.type = first.type().name();
+                event.packets = frame.size();
+                event.bytes = data.length;
+                event.firstVersion = first.version();
+                event.lastVersion = frame.get(frame.size() - 1).version();
+                event.epoch = first.epoch();
+                event.commit();
+            }
+        } catch (IOException e) {
+            multicastFailures.increment();
             System.err.println("[Spread] Send failed: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            multicastFailures.increment();
+            System.err.println("[Spread] Send failed: " + e);
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes a frame with the configured codec.
+     *
+     * @param frame packets to encode
+     * @return encoded message body
+     */
+    byte[] encode(List<SpreadPacket> frame) throws IOException {
+        return codec.encode(frame);
+    }
+
+    /**
+     * Decodes a frame with the codec identified by its first byte.
+     *
+     * @param data message body
+     * @return decoded packets
+     * @throws IOException if the body is malformed or was written by an unknown format version
+     */
+    List<SpreadPacket> decode(byte[] data) throws IOException {
+        if (data == null || data.length == 0)
+            throw new IOException("Empty message");
+        for (PacketCodec c : codecs) {
+            if (c.header() == data[0])
+                return c.decode(data);
         }
+        throw new IOException("Incompatible peer: unknown frame format 0x"
+                + Integer.toHexString(data[0] & 0xFF) + ", mixed-version cluster?");
     }
 
+    // ================= RECEIVE =================
+
     /**
-     * Handles incoming application messages.
-     * JSON is decoded and forwarded to the handler.
+     * Queues an incoming application message for the dispatcher.
      */
     @Override
-    public void regularMessageReceived(SpreadMessage msg) {
+    public void onMessage(String sender, byte[] data) {
         if (handler == null)
             return;
+        if (queue == null) {
+            dispatch(sender, data);
+            return;
+        }
 
         try {
-            SpreadPacket packet = mapper.readValue(msg.getData(), SpreadPacket.class);
-            handler.onRegularMessage(packet, msg.getSender());
-        } catch (Exception e) {
-            System.err.println("[Spread] JSON parse failed: " + e.getMessage());
-            e.printStackTrace();
+            long waited = queue.offerMessage(sender, data);
+            if (waited < 0) {
+                receiveDropped.increment();
+                if (!overflowing)
+                    System.err.println("[Spread] Receive queue full, dropping messages");
+                overflowing = true;
+                return;
+            }
+            overflowing = false;
+            if (waited > 0)
+                receiveBlocked.record(waited, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Handles incoming membership updates.
-     * The handler receives the raw MembershipInfo from Spread.
+     * Passes a membership update to the handler's fast path and queues it
+     * for in-order handling.
      */
     @Override
-    public void membershipMessageReceived(SpreadMessage msg) {
+    public void onMembership(MembershipView view) {
         if (handler == null)
             return;
 
-        handler.onMembership(msg.getMembershipInfo());
+        handler.onMembershipReceived(view);
+        if (queue == null)
+            handler.onMembership(view);
+        else
+            queue.putView(view);
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            ReceiveQueue.Event event;
+            try {
+                event = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == null)
+                continue;
+
+            receiveWait.record(System.nanoTime() - event.enqueuedAt(), TimeUnit.NANOSECONDS);
+            try {
+                if (event.view() != null)
+                    handler.onMembership(event.view());
+                else
+                    dispatch(event.sender(), event.data());
+            } catch (RuntimeException e) {
+                System.err.println("[Spread] Handler failed: " + e);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Decodes a frame and forwards it to the handler.
+     */
+    private void dispatch(String sender, byte[] data) {
+        ReplicationApplyEvent event = new ReplicationApplyEvent();
+        event.begin();
+        try {
+            List<SpreadPacket> frame = decode(data);
+            handler.onRegularMessage(frame, sender);
+
+            event.end();
+            if (event.shouldCommit() && !frame.isEmpty()) {
+                SpreadPacket first = frame.get(0);
+                event.node = nodeId;
+                event.sender = sender;
+                event.type = first.type().name();
+                event.packets = frame.size();
+                event.bytes = data.length;
+                event.firstVersion = first.version();
+                event.lastVersion = frame.get(frame.size() - 1).version();
+                event.epoch = first.epoch();
+                event.commit();
+            }
+        } catch (Exception e) {
+            System.err.println("[Spread] Decode failed from " + sender + ": " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 }
@@ -1,66 +1,201 @@
 package at.hcw.alcatraz.spread;
 
-import at.hcw.alcatraz.dto.SpreadPacket;
 import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistryListener;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import at.hcw.alcatraz.dto.SpreadPacket;
+import at.hcw.alcatraz.flight.MembershipEvent;
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.transport.MembershipView;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
-import spread.MembershipInfo;
-import spread.SpreadGroup;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Central handler for all Spread events.
+ * Central handler for all group communication events.
  *
  * Responsibilities:
- * - Process regular messages (UPDATE, RESET, START) and apply them to PlayerRegistry.
- * - Process membership updates and delegate master selection to ElectionService.
- * - Trigger replication of player state when this node is master.
- * - Resolve ports of cluster nodes for redirect logic.
+ * - Publish every local registry change as a versioned delta through ReplicationBatcher.
+ * - Apply incoming deltas (ADD, REMOVE, START, RESET) to PlayerRegistry in version order.
+ * - Catch up after joining, after a partition merge or after a gap: send a
+ *   SYNC_REQUEST with the local version and the origin of its newest change
+ *   and apply the master's private answer (missing deltas or a chunked
+ *   snapshot, see CatchUpService). A snapshot marked as reset replaces
+ *   the local state even if it is older: this node's history diverged.
+ * - Process membership updates, rank the members with ShardMap and
+ *   delegate master selection to ElectionService.
+ * - Stamp outgoing packets with the master epoch and drop incoming packets
+ *   of a deposed master (epoch older than the current one).
+ * - Announce this node's HTTP endpoint after every join or merge and keep
+ *   the announcements of the current members in NodeDirectory, which
+ *   resolves endpoints for forwarding, redirects and /cluster/topology.
+ *
+ * Messages and in-order membership callbacks arrive on the single
+ * dispatcher thread of SpreadConnectionService, so the recovery state below
+ * needs no synchronization. Elections run earlier, on the transport thread
+ * (onMembershipReceived), so failover does not wait for queued messages.
+ * Frames queued before a view are therefore fenced with the epoch that was
+ * current when they were delivered, not with the newest one.
+ *
+ * Metrics:
+ * - alcatraz.replication.lag: versions this node is behind the newest version
+ *   it has seen in a delta or snapshot (always 0 on the master)
+ * - alcatraz.replication.gaps: detected gaps in the delta stream
+ * - alcatraz.replication.fenced: frames rejected because they came from a deposed master
+ * - alcatraz.replication.catchup: time from a sync request until the node is complete
+ * - alcatraz.cluster.membership.changes: membership views, tagged by cause
+ *
+ * Depends on RegistryPersistence so a node recovers its registry from disk
+ * before it joins the group.
  */
 @Component
-public class SpreadManager implements SpreadMessageHandler {
+@DependsOn("registryPersistence")
+public class SpreadManager implements SpreadMessageHandler, RegistryListener {
+
+    /** Deltas kept while catching up. Beyond that a new snapshot is needed anyway. */
+    private static final int MAX_PENDING = 10_000;
+
+    /** A sync request or its answer may get lost; ask again after this long. */
+    private static final long SYNC_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
 
     private final SpreadConnectionService spread;
+    private final ReplicationBatcher batcher;
     private final ElectionService election;
+    private final CatchUpService catchUpService;
     private final PlayerRegistry registry;
-    private final Map<String, Integer> nodePorts;
+    private final NodeDirectory directory;
+    private final ShardMap shards;
+    private final long awaitTimeoutMs;
+
+    /** True from a sync request until the master's answer was applied. */
+    private boolean catchingUp = false;
+
+    /** System.nanoTime() of the last sync request. */
+    private long syncRequestedAt;
+
+    /** System.nanoTime() of the first sync request of the current catch-up. */
+    private long catchUpStartedAt;
+
+    /** Deltas that arrived ahead of the local version, ordered by version. */
+    private final PriorityQueue<RegistryChange> pending =
+            new PriorityQueue<>(Comparator.comparingLong(RegistryChange::version));
+
+    /** Chunks of the snapshot currently being received, null if none. */
+    private List<RegistrySnapshot.LobbyState> chunkedLobbies;
+    private long chunkedVersion;
+    private boolean chunkedReset;
+    private int nextChunk;
+
+    /** Master state right after each view, in view order. Filled by the transport thread, drained by the dispatcher. */
+    private final Queue<ElectionService.MasterState> viewStates = new ConcurrentLinkedQueue<>();
+
+    /** Oldest epoch accepted for frames at the current position of the stream. */
+    private long fenceEpoch = 0;
+
+    /** Master after the last view processed in order. */
+    private String viewMaster;
+
+    /** Logical ids of the current members, sorted. Written by the transport thread, read by HTTP threads. */
+    private volatile List<String> members = List.of();
+
+    /** Hash of master, members and their directory entries, see topologyTag(). */
+    private volatile String topologyTag = "0";
+
+    /** Newest version seen from another node. Written by the listener thread, read by the lag gauge. */
+    private volatile long newestSeenVersion = 0;
+
+    private final Counter gaps;
+    private final Counter fenced;
+    private final Timer catchUp;
+    private final Counter[] membershipChanges = new Counter[MembershipView.Cause.values().length];
 
     public SpreadManager(SpreadConnectionService spread,
+                         ReplicationBatcher batcher,
                          ElectionService election,
+                         CatchUpService catchUpService,
                          PlayerRegistry registry,
-                         @Value("${cluster.nodes}") String clusterNodes) {
+                         NodeDirectory directory,
+                         ShardMap shards,
+                         @Value("${replication.await-timeout-ms:5000}") long awaitTimeoutMs,
+                         MeterRegistry meters) {
         this.spread = spread;
+        this.batcher = batcher;
+        this.awaitTimeoutMs = awaitTimeoutMs;
         this.election = election;
+        this.catchUpService = catchUpService;
         this.registry = registry;
-        this.nodePorts = loadPorts(clusterNodes);
+        this.directory = directory;
+        this.shards = shards;
+        registry.addListener(this);
+
+        Gauge.builder("alcatraz.replication.lag", this, SpreadManager::replicationLag)
+                .description("Versions behind the newest version seen from the master")
+                .register(meters);
+        this.gaps = Counter.builder("alcatraz.replication.gaps")
+                .description("Gaps detected in the delta stream")
+                .register(meters);
+        this.fenced = Counter.builder("alcatraz.replication.fenced")
+                .description("Frames rejected because their epoch belongs to a deposed master")
+                .register(meters);
+        this.catchUp = Timer.builder("alcatraz.replication.catchup")
+                .description("Time from a sync request until the node was complete")
+                .register(meters);
+        for (MembershipView.Cause cause : MembershipView.Cause.values()) {
+            membershipChanges[cause.ordinal()] = Counter.builder("alcatraz.cluster.membership.changes")
+                    .description("Membership views received")
+                    .tag("cause", cause.name().toLowerCase())
+                    .register(meters);
+        }
     }
 
     /**
-     * Initializes Spread connection and registers this class as message handler.
+     * Joins the group and registers this class as message handler.
      */
     @PostConstruct
     public void setup() throws Exception {
         spread.init(this);
     }
 
+    // ================= OUTGOING REPLICATION =================
+
     /**
-     * Parses "node1:8081,node2:8082,..." into a lookup table.
+     * Queues every change made on this node for multicast, stamped with the
+     * current epoch.
      *
-     * @param cfg configuration string
-     * @return map nodeId → httpPort
+     * The registry delivers changes one at a time in version order, so
+     * deltas enter the batcher in version order.
      */
-    private Map<String, Integer> loadPorts(String cfg) {
-        Map<String, Integer> out = new HashMap<>();
-        for (String part : cfg.split(",")) {
-            String[] p = part.split(":");
-            out.put(p[0].trim(), Integer.parseInt(p[1].trim()));
-        }
-        return out;
+    @Override
+    public void onChange(RegistryChange change, boolean local) {
+        if (local)
+            batcher.enqueue(ReplicationFrames.toPacket(change, election.epoch()));
+    }
+
+    /**
+     * Queues a batch of local changes so they leave in one message.
+     */
+    @Override
+    public void onChanges(List<RegistryChange> changes, boolean local) {
+        if (!local)
+            return;
+        long epoch = election.epoch();
+        List<SpreadPacket> packets = new ArrayList<>(changes.size());
+        for (RegistryChange change : changes)
+            packets.add(ReplicationFrames.toPacket(change, epoch));
+        batcher.enqueueAll(packets);
     }
 
     // ================= REGULAR MESSAGES =================
@@ -68,74 +203,316 @@ public class SpreadManager implements SpreadMessageHandler {
     /**
      * Applies incoming application messages to local state.
      *
-     * UPDATE: replace PlayerRegistry
-     * RESET:  clear all players and reset started flag
-     * START:  set started flag
+     * SNAPSHOT frame: replace the registry if the snapshot is newer, once all chunks arrived
+     * ADD/REMOVE/START/RESET: apply the delta in version order
+     * SYNC_REQUEST: queue an answer for the sender if this node is master
+     * CATCH_UP: end of the master's delta answer to this node
+     * ANNOUNCE: store the sender's endpoint in the directory
+     *
+     * Everything except SYNC_REQUEST and ANNOUNCE comes from a master and is
+     * dropped if its epoch is older than the current one.
      *
-     * @param packet decoded Spread packet
-     * @param sender sender group
+     * @param frame  decoded packets
+     * @param sender raw member name of the sender
      */
     @Override
-    public void onRegularMessage(SpreadPacket packet, SpreadGroup sender) {
-        switch (packet.type()) {
-            case UPDATE -> {
-                registry.replaceAll(packet.data());
-                System.out.println("[Spread] Player registry updated from Master: " + sender);
+    public void onRegularMessage(List<SpreadPacket> frame, String sender) {
+        if (ReplicationFrames.isSnapshot(frame)) {
+            if (accept(frame.get(0), sender))
+                onSnapshotChunk(frame, sender);
+            return;
+        }
+
+        for (SpreadPacket packet : frame) {
+            if (packet.type() == SpreadMsgType.SYNC_REQUEST) {
+                if (election.isMaster()) {
+                    System.out.println("[Spread] Sync request from " + sender + " at version " + packet.version()
+                            + ", epoch " + packet.epoch());
+                    election.observe(packet.epoch());
+                    catchUpService.request(sender, packet.version(), ReplicationFrames.origin(packet));
+                }
+                continue;
             }
-            case RESET -> {
-                registry.reset();
-                System.out.println("[Spread] Lobby reset received from Master: " + sender);
+            if (packet.type() == SpreadMsgType.ANNOUNCE) {
+                NodeDirectory.NodeInfo node = NodeDirectory.fromPacket(packet);
+                if (node != null && members.contains(node.id()) && directory.announce(node))
+                    updateTopologyTag();
+                continue;
             }
-            case START -> {
-                registry.markStarted();
-                System.out.println("[Spread] Game start signal received from Master: " + sender);
+            if (!accept(packet, sender))
+                return;
+            if (packet.type() == SpreadMsgType.CATCH_UP) {
+                onCatchUpComplete(packet.version());
+                continue;
             }
-            default -> System.err.println("[Spread] Unknown packet type: " + packet.type());
+
+            RegistryChange change = ReplicationFrames.toChange(packet);
+            if (change == null) {
+                System.err.println("[Spread] Unknown packet type: " + packet.type());
+                continue;
+            }
+            onDelta(change);
+        }
+    }
+
+    /**
+     * Fences packets of a deposed master. The rejecting node asks for a
+     * catch-up, which also tells the current master about the newer epoch.
+     */
+    private boolean accept(SpreadPacket packet, String sender) {
+        if (packet.epoch() >= fenceEpoch) {
+            fenceEpoch = packet.epoch();
+            election.accept(packet.epoch());
+            return true;
+        }
+        fenced.increment();
+        System.out.println("[Spread] Rejected frame from deposed master " + sender
+                + ": epoch " + packet.epoch() + " < " + fenceEpoch);
+        if (!election.isMaster())
+            requestCatchUp();
+        return false;
+    }
+
+    private void onDelta(RegistryChange change) {
+        if (change.version() > newestSeenVersion)
+            newestSeenVersion = change.version();
+
+        if (registry.apply(change) != PlayerRegistry.ApplyResult.GAP) {
+            applyPending();
+            return;
+        }
+
+        buffer(change);
+        if (!catchingUp) {
+            System.out.println("[Spread] Gap detected: local version " + registry.version()
+                    + ", received " + change.version());
+            gaps.increment();
+        }
+        if (!election.isMaster())
+            requestCatchUp();
+    }
+
+    private void onCatchUpComplete(long version) {
+        if (version > newestSeenVersion)
+            newestSeenVersion = version;
+        applyPending();
+        if (!catchingUp)
+            return;
+        if (registry.version() >= version && pending.isEmpty())
+            finishCatchUp();
+        else
+            requestSync();
+    }
+
+    /**
+     * Collects the chunks of a snapshot. Chunks arrive in order; a missing
+     * chunk drops the snapshot and the next sync request fetches a new one.
+     */
+    private void onSnapshotChunk(List<SpreadPacket> frame, String sender) {
+        RegistrySnapshot part = ReplicationFrames.toSnapshot(frame);
+        int index = ReplicationFrames.chunkIndex(frame);
+        int count = ReplicationFrames.chunkCount(frame);
+        boolean reset = ReplicationFrames.isReset(frame);
+        if (count <= 1) {
+            onSnapshot(part, reset, sender);
+            return;
+        }
+
+        if (index == 0) {
+            chunkedLobbies = new ArrayList<>(part.lobbies());
+            chunkedVersion = part.version();
+            chunkedReset = reset;
+        } else if (chunkedLobbies != null && chunkedVersion == part.version() && index == nextChunk) {
+            chunkedLobbies.addAll(part.lobbies());
+        } else {
+            System.err.println("[Spread] Dropped incomplete snapshot at version " + part.version()
+                    + " from " + sender);
+            chunkedLobbies = null;
+            return;
+        }
+        nextChunk = index + 1;
+
+        if (nextChunk == count) {
+            RegistrySnapshot snapshot = new RegistrySnapshot(chunkedVersion, chunkedLobbies);
+            chunkedLobbies = null;
+            onSnapshot(snapshot, chunkedReset, sender);
+        }
+    }
+
+    /**
+     * @param reset true if the master found this node's history diverged from its own
+     */
+    private void onSnapshot(RegistrySnapshot snapshot, boolean reset, String sender) {
+        if (reset) {
+            // Versions of the diverged history mean nothing on the master's side.
+            newestSeenVersion = snapshot.version();
+            pending.clear();
+        } else if (snapshot.version() > newestSeenVersion) {
+            newestSeenVersion = snapshot.version();
+        }
+
+        if (!reset && (snapshot.version() < registry.version()
+                || (!catchingUp && snapshot.version() == registry.version()))) {
+            return;
+        }
+
+        if (reset)
+            System.out.println("[Spread] Dropping diverged state at version " + registry.version());
+        registry.install(snapshot);
+        System.out.println("[Spread] Snapshot at version " + snapshot.version()
+                + " installed from Master: " + sender);
+
+        // Replay deltas that arrived meanwhile. Older ones are reported as duplicates.
+        applyPending();
+        if (!pending.isEmpty())
+            requestSync();
+        else if (catchingUp)
+            finishCatchUp();
+    }
+
+    /**
+     * Applies buffered deltas as long as they continue the local version.
+     */
+    private void applyPending() {
+        while (!pending.isEmpty() && pending.peek().version() <= registry.version() + 1)
+            registry.apply(pending.poll());
+    }
+
+    private long replicationLag() {
+        return Math.max(0, newestSeenVersion - registry.version());
+    }
+
+    private void buffer(RegistryChange change) {
+        if (pending.size() >= MAX_PENDING)
+            pending.clear();
+        pending.add(change);
+    }
+
+    /**
+     * Starts a catch-up, or repeats the sync request of a running one if the
+     * answer is overdue.
+     */
+    private void requestCatchUp() {
+        if (!catchingUp)
+            startCatchUp();
+        else if (System.nanoTime() - syncRequestedAt > SYNC_RETRY_NANOS)
+            requestSync();
+    }
+
+    private void startCatchUp() {
+        catchingUp = true;
+        catchUpStartedAt = System.nanoTime();
+        requestSync();
+    }
+
+    private void finishCatchUp() {
+        catchingUp = false;
+        catchUp.record(System.nanoTime() - catchUpStartedAt, TimeUnit.NANOSECONDS);
+        System.out.println("[Spread] Caught up at version " + registry.version());
+    }
+
+    private void requestSync() {
+        syncRequestedAt = System.nanoTime();
+        try {
+            spread.send(ReplicationFrames.syncRequest(registry.version(), catchUpService.origin(), election.epoch()));
+        } catch (UncheckedIOException e) {
+            // Logged by the connection; the next view or gap asks again.
+        }
+    }
+
+    private void announce() {
+        try {
+            spread.send(directory.announcement());
+        } catch (UncheckedIOException e) {
+            // Logged by the connection; cluster.nodes stays the fallback until the next view.
         }
     }
 
     // ================= MEMBERSHIP =================
 
     /**
-     * Processes membership changes and updates master selection.
+     * Updates master selection as soon as a view arrives, on the transport thread.
      *
      * Steps:
-     * - Extract logical node ids from SpreadGroup strings.
-     * - Sort ids to enforce deterministic master selection.
-     * - If this node is master and a join event occurs, send state snapshot.
-     * - Forward sorted membership list to ElectionService.
+     * - Extract logical node ids from raw member names.
+     * - Rank the ids for this shard, so every node selects the same master
+     *   (see ShardMap.rank(): by id without sharding).
+     * - Forward the ranked membership list to ElectionService.
+     * - Remember the resulting epoch for the in-order part.
      *
-     * @param info Spread membership information
+     * @param view membership after the change
      */
     @Override
-    public void onMembership(MembershipInfo info) {
+    public void onMembershipReceived(MembershipView view) {
+        membershipChanges[view.cause().ordinal()].increment();
 
-        var arr = info.getMembers();
-        if (arr == null || arr.length == 0) {
-            election.resetMaster();
-            return;
+        MembershipEvent event = new MembershipEvent();
+        if (event.shouldCommit()) {
+            event.node = spread.getNodeId();
+            event.cause = view.cause().name();
+            event.changed = view.changed() != null ? extractId(view.changed()) : null;
+            event.members = String.join(",", memberIds(view));
+            event.memberCount = view.members().size();
+            event.commit();
         }
 
-        // Map to logical ids: node1, node2, ...
-        List<String> ids = Arrays.stream(arr)
-                .map(SpreadGroup::toString)  // "#node1#localhost"
-                .map(this::extractId)        // -> "node1"
-                .sorted()
-                .toList();
+        List<String> ids = memberIds(view);
+        members = ids;
+        if (ids.isEmpty())
+            election.resetMaster();
+        else
+            election.evaluate(shards.rank(ids, view.isCausedByJoin() && view.changed() != null
+                    ? extractId(view.changed()) : null), spread.getNodeId());
+        viewStates.add(election.state());
+        updateTopologyTag();
+    }
 
-        String selfId = spread.getNodeId();
+    /**
+     * Processes a membership change in order with the messages around it.
+     *
+     * Steps:
+     * - Frames after this view must carry at least the view's epoch.
+     * - Drop directory entries of nodes that left. After a join or merge,
+     *   announce this node, so new members learn its endpoint.
+     * - A backup that just joined, whose partition merged with others or
+     *   that got a new master asks the master for what it missed, or whether
+     *   it holds writes the new master lacks. The master does not push state
+     *   to the group; it only answers these requests.
+     * - If a catch-up is still outstanding, ask the (possibly new) master again.
+     *
+     * @param view membership after the change
+     */
+    @Override
+    public void onMembership(MembershipView view) {
+        ElectionService.MasterState state = viewStates.poll();
+        boolean newMaster = false;
+        if (state != null) {
+            if (state.epoch() > fenceEpoch)
+                fenceEpoch = state.epoch();
+            newMaster = state.masterId() != null && viewMaster != null && !state.masterId().equals(viewMaster);
+            viewMaster = state.masterId();
+        }
 
-        if (election.isMaster() && info.isCausedByJoin()) {
-            System.out.println("[Spread] snapshot handover to new joining node. Name: " + info.getJoined().toString());
+        if (directory.retain(memberIds(view)))
+            updateTopologyTag();
+        if (!view.members().isEmpty()
+                && (view.isCausedByJoin() || view.cause() == MembershipView.Cause.NETWORK))
+            announce();
 
-            replicate();
+        if (view.members().isEmpty() || election.isMaster())
+            return;
 
-            if (registry.isStarted()) {
-                broadcastStart();
-            }
-        }
+        String selfId = spread.getNodeId();
 
-        election.evaluate(ids, selfId);
+        boolean joined = view.isCausedByJoin() && view.changed() != null
+                && selfId.equals(extractId(view.changed()));
+        if (joined || newMaster || view.cause() == MembershipView.Cause.NETWORK) {
+            System.out.println("[Spread] Requesting catch-up at version " + registry.version()
+                    + " after " + (newMaster ? "master change" : view.cause().name().toLowerCase()));
+            startCatchUp();
+        } else if (catchingUp) {
+            requestSync();
+        }
     }
 
     // ================= PUBLIC API =================
@@ -147,6 +524,13 @@ public class SpreadManager implements SpreadMessageHandler {
         return election.isMaster();
     }
 
+    /**
+     * @return logical id of this node.
+     */
+    public String getNodeId() {
+        return spread.getNodeId();
+    }
+
     /**
      * @return current master node id.
      */
@@ -155,40 +539,118 @@ public class SpreadManager implements SpreadMessageHandler {
     }
 
     /**
-     * @return port of the node that currently holds master role.
+     * @return consistent view of master id, self flag and epoch
      */
-    public int getMasterPort() {
-        return nodePorts.get(election.getCurrentMasterId());
+    public ElectionService.MasterState masterState() {
+        return election.state();
     }
 
     /**
-     * Broadcasts local PlayerRegistry snapshot to all nodes.
+     * @return logical ids of the nodes in the current membership view, sorted
      */
-    public void replicate() {
-        spread.send(new SpreadPacket(SpreadMsgType.UPDATE, registry.snapshot()));
+    public List<String> members() {
+        return members;
     }
 
     /**
-     * Broadcasts game start flag to all nodes.
+     * Blocks until all local changes made so far were handed to the daemon.
+     *
+     * @return false if replication did not complete within the configured timeout
      */
-    public void broadcastStart() {
-        spread.send(new SpreadPacket(SpreadMsgType.START, null));
+    public boolean awaitReplication() {
+        try {
+            batcher.whenFlushed(registry.version()).get(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("[Spread] Replication not confirmed: " + e);
+            return false;
+        }
     }
 
     /**
-     * Broadcasts a lobby reset to all nodes.
+     * @return base URL of the node that currently holds master role, or null if unknown
      */
-    public void broadcastReset() {
-        spread.send(new SpreadPacket(SpreadMsgType.RESET, Map.of()));
+    public String getMasterEndpoint() {
+        String master = election.getCurrentMasterId();
+        return master != null ? directory.endpoint(master) : null;
+    }
+
+    /**
+     * @param nodeId logical node id
+     * @return base URL of the node, or null if it neither announced itself nor is configured
+     */
+    public String getEndpoint(String nodeId) {
+        return directory.endpoint(nodeId);
+    }
+
+    /**
+     * @param nodeId logical node id
+     * @return directory entry of the node, or null if unknown
+     */
+    public NodeDirectory.NodeInfo getNode(String nodeId) {
+        return directory.node(nodeId);
+    }
+
+    /**
+     * Changes with the master, the membership, and the endpoint or capacity
+     * of any member, but not with the epoch alone. Nodes that have seen the
+     * same views and announcements report the same tag.
+     *
+     * @return short tag of the current topology
+     */
+    public String topologyTag() {
+        return topologyTag;
+    }
+
+    /**
+     * Called by the transport thread after views and by the dispatcher after announcements.
+     */
+    private synchronized void updateTopologyTag() {
+        StringBuilder topology = new StringBuilder().append(election.getCurrentMasterId());
+        for (String id : members) {
+            NodeDirectory.NodeInfo node = directory.node(id);
+            topology.append('|').append(id);
+            if (node != null)
+                topology.append('=').append(node.endpoint()).append('*').append(node.capacity());
+        }
+        // String.hashCode is specified, so every node computes the same tag.
+        topologyTag = Integer.toHexString(topology.toString().hashCode());
+    }
+
+    /**
+     * Waits until a master other than the given one is elected.
+     *
+     * @param previous  master id that is considered gone, may be null
+     * @param timeoutMs maximum wait time
+     * @return the new master id, or null if none was elected in time
+     */
+    public String awaitMasterChange(String previous, long timeoutMs) throws InterruptedException {
+        return election.awaitMasterChange(previous, timeoutMs);
+    }
+
+    /**
+     * Maps raw member names to sorted logical ids: node1, node2, ...
+     *
+     * @param view membership view
+     * @return sorted node ids
+     */
+    static List<String> memberIds(MembershipView view) {
+        return view.members().stream()        // "#node1#localhost"
+                .map(SpreadManager::extractId) // -> "node1"
+                .sorted()
+                .toList();
     }
 
     /**
-     * Extracts the logical node id from a Spread group string.
+     * Extracts the logical node id from a raw member name.
      *
-     * @param raw raw SpreadGroup string
+     * @param raw raw member name, e.g. "#node1#localhost"
      * @return extracted node id
      */
-    private String extractId(String raw) {
+    private static String extractId(String raw) {
         String[] parts = raw.split("#");
         for (String p : parts) {
             if (p.startsWith("node")) {
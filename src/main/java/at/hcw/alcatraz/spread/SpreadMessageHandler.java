@@ -2,10 +2,21 @@ package at.hcw.alcatraz.spread;
 
 
 import at.hcw.alcatraz.dto.SpreadPacket;
-import spread.MembershipInfo;
-import spread.SpreadGroup;
+import at.hcw.alcatraz.transport.MembershipView;
+
+import java.util.List;
 
 public interface SpreadMessageHandler {
-    void onRegularMessage(SpreadPacket payload, SpreadGroup sender);
-    void onMembership(MembershipInfo info);
+    void onRegularMessage(List<SpreadPacket> frame, String sender);
+    void onMembership(MembershipView view);
+
+    /**
+     * Called on the transport thread as soon as a view arrives, possibly
+     * before earlier messages were handled. onMembership() follows later in
+     * order with the messages. Must be short and must not block.
+     *
+     * @param view membership after the change
+     */
+    default void onMembershipReceived(MembershipView view) {
+    }
 }
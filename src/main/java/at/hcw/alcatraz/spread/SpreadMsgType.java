@@ -1,9 +1,46 @@
 package at.hcw.alcatraz.spread;
 
+/**
+ * Application message types exchanged over Spread.
+ *
+ * Deltas (ADD, REMOVE, START, RESET) carry the registry version they
+ * produce and are applied by backups strictly in version order.
+ *
+ * A SNAPSHOT frame starts with a SNAPSHOT packet without lobby that carries
+ * the snapshot version. It is followed by one SNAPSHOT packet per lobby
+ * (players in data, lobby version in version) and a START packet for every
+ * started lobby.
+ *
+ * A snapshot too large for one message is split into chunks. Each chunk is
+ * a SNAPSHOT frame of its own whose header carries "chunk" (index from 0)
+ * and "chunks" (total) in data; the receiver installs it once all chunks
+ * arrived.
+ *
+ * SYNC_REQUEST is sent by a node that joined, merged after a partition or
+ * detected a gap. It carries the node's current version. The master answers
+ * only to the requesting nodes: with the missing deltas followed by
+ * CATCH_UP, or with a (chunked) snapshot if it no longer holds all of them.
+ *
+ * CATCH_UP closes a delta answer. Its version is the last version sent, the
+ * receiver is complete once it has applied that version.
+ *
+ * ANNOUNCE carries a node's HTTP endpoint and capacity in data ("node",
+ * "endpoint", "capacity"). Every node sends it after a join or merge, see
+ * NodeDirectory. It is not part of the replicated registry and carries
+ * neither version nor epoch.
+ *
+ * The binary codec transmits the ordinal: append new types at the end and
+ * never reorder existing ones.
+ */
 public enum SpreadMsgType {
-    UPDATE,
+    ADD,
+    REMOVE,
     RESET,
-    START;
+    START,
+    SNAPSHOT,
+    SYNC_REQUEST,
+    CATCH_UP,
+    ANNOUNCE;
 
     public static SpreadMsgType from(String raw) {
         try {
@@ -0,0 +1,134 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.transport.GroupTransport;
+import at.hcw.alcatraz.transport.MembershipView;
+import at.hcw.alcatraz.transport.TransportListener;
+import spread.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * GroupTransport backed by a Spread daemon.
+ *
+ * Responsibilities:
+ * - Connect to the daemon using the configured host, port and node id.
+ * - Join the application group.
+ * - Multicast with agreed ordering and self-discard.
+ * - Send to selected members through their private groups, also agreed,
+ *   so these messages are ordered with the group traffic.
+ *
+ * Spread events:
+ * - regularMessageReceived → TransportListener.onMessage
+ * - membershipMessageReceived → TransportListener.onMembership
+ */
+public class SpreadTransport implements GroupTransport, AdvancedMessageListener {
+
+    private final SpreadConnection connection = new SpreadConnection();
+    private final String host;
+    private final int port;
+    private final String groupName;
+    private final String nodeId;
+
+    private SpreadGroup group;
+    private TransportListener listener;
+
+    public SpreadTransport(String host, int port, String groupName, String nodeId) {
+        this.host = host;
+        this.port = port;
+        this.groupName = groupName;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Steps:
+     * - Register listener.
+     * - Connect to daemon.
+     * - Join the configured group.
+     */
+    @Override
+    public void connect(TransportListener listener) throws Exception {
+        this.listener = listener;
+        connection.add(this);
+        connection.connect(InetAddress.getByName(host), port, nodeId, false, true);
+        group = new SpreadGroup();
+        group.join(connection, groupName);
+        System.out.println("[Spread] Joined group '" + groupName + "' as " + nodeId);
+    }
+
+    @Override
+    public void multicast(byte[] data) throws IOException {
+        SpreadMessage msg = new SpreadMessage();
+        msg.setAgreed();
+        msg.addGroup(groupName);
+        msg.setData(data);
+        msg.setSelfDiscard(true);
+        try {
+            connection.multicast(msg);
+        } catch (SpreadException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void send(Collection<String> members, byte[] data) throws IOException {
+        if (members.isEmpty())
+            return;
+        SpreadMessage msg = new SpreadMessage();
+        msg.setAgreed();
+        for (String member : members)
+            msg.addGroup(member);
+        msg.setData(data);
+        try {
+            connection.multicast(msg);
+        } catch (SpreadException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (group != null)
+                group.leave();
+            connection.disconnect();
+        } catch (SpreadException e) {
+            System.err.println("[Spread] Disconnect failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void regularMessageReceived(SpreadMessage msg) {
+        if (listener != null)
+            listener.onMessage(msg.getSender().toString(), msg.getData());
+    }
+
+    @Override
+    public void membershipMessageReceived(SpreadMessage msg) {
+        if (listener != null)
+            listener.onMembership(toView(msg.getMembershipInfo()));
+    }
+
+    private static MembershipView toView(MembershipInfo info) {
+        SpreadGroup[] members = info.getMembers();
+        List<String> names = members == null
+                ? List.of()
+                : Arrays.stream(members).map(SpreadGroup::toString).toList();
+
+        if (info.isCausedByJoin())
+            return new MembershipView(names, MembershipView.Cause.JOIN, String.valueOf(info.getJoined()));
+        if (info.isCausedByLeave())
+            return new MembershipView(names, MembershipView.Cause.LEAVE, String.valueOf(info.getLeft()));
+        if (info.isCausedByDisconnect())
+            return new MembershipView(names, MembershipView.Cause.DISCONNECT, String.valueOf(info.getDisconnected()));
+        return new MembershipView(names, MembershipView.Cause.NETWORK, null);
+    }
+}
@@ -0,0 +1,470 @@
+package at.hcw.alcatraz.stream;
+
+import at.hcw.alcatraz.dao.DeltaLog;
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistryListener;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import at.hcw.alcatraz.dto.LobbyChanges;
+import at.hcw.alcatraz.dto.LobbyEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes lobby changes to subscribers, on every node.
+ *
+ * Responsibilities:
+ * - Keep the most recent changes in a DeltaLog, fed by every change this
+ *   node applies: local writes on the master, replicated deltas on backups.
+ * - Deliver new changes of a lobby to its subscribers, either as
+ *   Server-Sent Events or by completing a waiting long poll.
+ * - Let a client resume from the registry version of the last event it
+ *   saw. Versions are the same on all nodes, so a client may reconnect to
+ *   any node. If the version is older than the log, or after a snapshot was
+ *   installed, the client gets one SNAPSHOT event with the full lobby state.
+ *
+ * Subscribers hold no thread while idle: SSE connections and long polls are
+ * servlet async requests. One publisher thread ("lobby-stream") fans changes
+ * out, so the registry's delivery lock is held only for a log append and a
+ * queue offer, and only for lobbies somebody subscribed to.
+ *
+ * Events are set operations on the lobby (ADD/REMOVE a player, START, RESET
+ * the lobby) and may repeat around a SNAPSHOT; applying one twice is harmless.
+ *
+ * Metrics:
+ * - alcatraz.stream.subscribers: open subscriptions, tagged type=sse|poll
+ * - alcatraz.stream.events: events sent to subscribers
+ * - alcatraz.stream.resumes: subscriptions with a cursor, tagged mode=delta|snapshot
+ */
+@Component
+public class LobbyStream implements RegistryListener {
+
+    enum Mode {
+        DELTA, SNAPSHOT
+    }
+
+    /** Sent while idle, so proxies keep the connection and dead clients are noticed. */
+    private static final String HEARTBEAT = "heartbeat";
+
+    /**
+     * A change or an installed snapshot, on its way to the publisher.
+     */
+    private record Notice(RegistryChange change, RegistrySnapshot snapshot) {
+    }
+
+    private final PlayerRegistry registry;
+    private final DeltaLog history;
+    private final long sseTimeoutMs;
+    private final long heartbeatMs;
+    private final long maxPollMs;
+
+    /** Lobby id → its subscribers. A lobby is only present while it has subscribers. */
+    private final ConcurrentHashMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    private final LinkedBlockingQueue<Notice> notices = new LinkedBlockingQueue<>();
+
+    private volatile boolean running = false;
+    private Thread publisher;
+    private ScheduledExecutorService heartbeat;
+
+    private final AtomicInteger sseCount = new AtomicInteger();
+    private final AtomicInteger pollCount = new AtomicInteger();
+    private final Counter sent;
+    private final Counter[] resumes = new Counter[Mode.values().length];
+
+    /**
+     * @param historySize  changes kept for resuming subscribers
+     * @param sseTimeoutMs lifetime of one SSE connection, the client reconnects with Last-Event-ID
+     * @param heartbeatMs  interval of heartbeat comments on idle SSE connections
+     * @param maxPollMs    upper bound for the wait of one long poll
+     */
+    public LobbyStream(PlayerRegistry registry,
+                       @Value("${stream.history-size:10000}") int historySize,
+                       @Value("${stream.sse-timeout-ms:1800000}") long sseTimeoutMs,
+                       @Value("${stream.heartbeat-ms:15000}") long heartbeatMs,
+                       @Value("${stream.poll.max-wait-ms:30000}") long maxPollMs,
+                       MeterRegistry meters) {
+        this.registry = registry;
+        this.history = new DeltaLog(historySize);
+        this.sseTimeoutMs = sseTimeoutMs;
+        this.heartbeatMs = Math.max(1, heartbeatMs);
+        this.maxPollMs = Math.max(0, maxPollMs);
+
+        Gauge.builder("alcatraz.stream.subscribers", sseCount, AtomicInteger::get)
+                .description("Open change stream subscriptions")
+                .tag("type", "sse")
+                .register(meters);
+        Gauge.builder("alcatraz.stream.subscribers", pollCount, AtomicInteger::get)
+                .description("Open change stream subscriptions")
+                .tag("type", "poll")
+                .register(meters);
+        this.sent = Counter.builder("alcatraz.stream.events")
+                .description("Lobby events sent to subscribers")
+                .register(meters);
+        for (Mode mode : Mode.values()) {
+            resumes[mode.ordinal()] = Counter.builder("alcatraz.stream.resumes")
+                    .description("Subscriptions that resumed from a version")
+                    .tag("mode", mode.name().toLowerCase())
+                    .register(meters);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        history.reset(registry.version());
+        registry.addListener(this);
+        running = true;
+        publisher = new Thread(this::publishLoop, "lobby-stream");
+        publisher.setDaemon(true);
+        publisher.start();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lobby-stream-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running)
+            return;
+        running = false;
+        heartbeat.shutdownNow();
+        publisher.interrupt();
+        publisher.join(1_000);
+        for (Set<Subscriber> set : subscribers.values())
+            set.forEach(Subscriber::close);
+    }
+
+    // ================= REGISTRY =================
+
+    /**
+     * Runs under the registry's delivery lock: log the change and hand it to
+     * the publisher if the lobby has subscribers.
+     */
+    @Override
+    public void onChange(RegistryChange change, boolean local) {
+        history.append(change);
+        if (subscribers.containsKey(change.lobby()))
+            notices.add(new Notice(change, null));
+    }
+
+    @Override
+    public void onSnapshot(RegistrySnapshot snapshot) {
+        history.reset(snapshot.version());
+        if (!subscribers.isEmpty())
+            notices.add(new Notice(null, snapshot));
+    }
+
+    // ================= SUBSCRIBE =================
+
+    /**
+     * Opens an SSE subscription. Each event carries its version as SSE id.
+     *
+     * @param lobby lobby to follow
+     * @param since version of the last event the client saw, null to start with a SNAPSHOT
+     */
+    public SseEmitter subscribe(String lobby, Long since) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        SseSubscriber subscriber = new SseSubscriber(lobby, emitter);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> remove(subscriber));
+
+        synchronized (subscriber) {
+            add(subscriber);
+            LobbyChanges backlog = changes(lobby, since, true);
+            subscriber.cursor = since != null ? since : 0;
+            if (!subscriber.deliver(backlog.getEvents()))
+                remove(subscriber);
+        }
+        return emitter;
+    }
+
+    /**
+     * Answers a long poll: at once if there are events after {@code since},
+     * otherwise with the next event of the lobby or, after the wait, with no events.
+     *
+     * @param lobby  lobby to follow
+     * @param since  cursor returned by the previous poll, null to get a SNAPSHOT
+     * @param waitMs how long to wait for an event, capped at stream.poll.max-wait-ms
+     */
+    public DeferredResult<LobbyChanges> poll(String lobby, Long since, long waitMs) {
+        long timeout = Math.min(Math.max(0, waitMs), maxPollMs);
+        DeferredResult<LobbyChanges> result = new DeferredResult<>(timeout);
+
+        LobbyChanges ready = changes(lobby, since, true);
+        if (!ready.getEvents().isEmpty() || timeout == 0) {
+            result.setResult(ready);
+            return result;
+        }
+
+        PollSubscriber subscriber = new PollSubscriber(lobby, since, result);
+        result.onTimeout(() -> result.setResult(changes(lobby, since, false)));
+        result.onCompletion(() -> remove(subscriber));
+        add(subscriber);
+        // A change may have been logged before the subscriber became visible.
+        subscriber.deliver(List.of());
+        return result;
+    }
+
+    /**
+     * Events of a lobby after a version, from the log or as a SNAPSHOT.
+     *
+     * @param count true to count the request in alcatraz.stream.resumes
+     */
+    private LobbyChanges changes(String lobby, Long since, boolean count) {
+        if (since != null) {
+            List<RegistryChange> logged = history.since(since);
+            if (logged != null) {
+                if (count)
+                    resumes[Mode.DELTA.ordinal()].increment();
+                List<LobbyEvent> events = new ArrayList<>();
+                for (RegistryChange change : logged) {
+                    if (change.lobby().equals(lobby))
+                        events.add(event(change));
+                }
+                long cursor = logged.isEmpty() ? since : logged.get(logged.size() - 1).version();
+                return new LobbyChanges(cursor, events);
+            }
+            if (count)
+                resumes[Mode.SNAPSHOT.ordinal()].increment();
+        }
+        LobbyEvent snapshot = snapshotEvent(lobby);
+        return new LobbyChanges(snapshot.getVersion(), List.of(snapshot));
+    }
+
+    private LobbyEvent snapshotEvent(String lobby) {
+        // Version first: changes after it may already be contained, never the reverse.
+        // The log is ahead of registry.version(), it is fed before the version moves on.
+        long version = history.lastVersion();
+        return new LobbyEvent(version, lobby, "SNAPSHOT", null,
+                new TreeSet<>(registry.list(lobby)), registry.isStarted(lobby));
+    }
+
+    private static LobbyEvent snapshotEvent(String lobby, RegistrySnapshot snapshot) {
+        for (RegistrySnapshot.LobbyState state : snapshot.lobbies()) {
+            if (state.id().equals(lobby))
+                return new LobbyEvent(snapshot.version(), lobby, "SNAPSHOT", null,
+                        new TreeSet<>(state.players().keySet()), state.started());
+        }
+        return new LobbyEvent(snapshot.version(), lobby, "SNAPSHOT", null, Set.of(), false);
+    }
+
+    private static LobbyEvent event(RegistryChange change) {
+        return new LobbyEvent(change.version(), change.lobby(), change.kind().name(), change.player(), null, null);
+    }
+
+    private void add(Subscriber subscriber) {
+        subscribers.compute(subscriber.lobby, (lobby, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(subscriber);
+            return set;
+        });
+        subscriber.counter().incrementAndGet();
+    }
+
+    private void remove(Subscriber subscriber) {
+        boolean[] removed = {false};
+        subscribers.computeIfPresent(subscriber.lobby, (lobby, set) -> {
+            removed[0] = set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+        if (removed[0])
+            subscriber.counter().decrementAndGet();
+    }
+
+    // ================= PUBLISH =================
+
+    private void publishLoop() {
+        List<Notice> batch = new ArrayList<>();
+        while (running) {
+            try {
+                batch.add(notices.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            notices.drainTo(batch, 4_096);
+            try {
+                publish(batch);
+            } catch (RuntimeException e) {
+                System.err.println("[Stream] Publishing failed: " + e);
+                e.printStackTrace();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Groups the notices by lobby and hands each subscriber its events in one go.
+     */
+    private void publish(List<Notice> batch) {
+        Map<String, List<LobbyEvent>> byLobby = new LinkedHashMap<>();
+        for (Notice notice : batch) {
+            if (notice.change() != null) {
+                byLobby.computeIfAbsent(notice.change().lobby(), l -> new ArrayList<>()).add(event(notice.change()));
+                continue;
+            }
+            // Everything before the snapshot is superseded by it.
+            for (String lobby : subscribers.keySet()) {
+                List<LobbyEvent> events = byLobby.computeIfAbsent(lobby, l -> new ArrayList<>());
+                events.clear();
+                events.add(snapshotEvent(lobby, notice.snapshot()));
+            }
+        }
+
+        for (Map.Entry<String, List<LobbyEvent>> entry : byLobby.entrySet()) {
+            Set<Subscriber> set = subscribers.get(entry.getKey());
+            if (set == null)
+                continue;
+            for (Subscriber subscriber : set) {
+                synchronized (subscriber) {
+                    if (!subscriber.deliver(entry.getValue()))
+                        remove(subscriber);
+                }
+            }
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Set<Subscriber> set : subscribers.values()) {
+            for (Subscriber subscriber : set) {
+                synchronized (subscriber) {
+                    if (!subscriber.heartbeat())
+                        remove(subscriber);
+                }
+            }
+        }
+    }
+
+    // ================= SUBSCRIBERS =================
+
+    private abstract static class Subscriber {
+        final String lobby;
+
+        Subscriber(String lobby) {
+            this.lobby = lobby;
+        }
+
+        /**
+         * Called while holding the subscriber's monitor.
+         *
+         * @return false if the subscriber is done and must be removed
+         */
+        abstract boolean deliver(List<LobbyEvent> events);
+
+        boolean heartbeat() {
+            return true;
+        }
+
+        abstract void close();
+
+        abstract AtomicInteger counter();
+    }
+
+    private final class SseSubscriber extends Subscriber {
+        final SseEmitter emitter;
+
+        /** Version of the last event sent. Guarded by this. */
+        long cursor;
+
+        SseSubscriber(String lobby, SseEmitter emitter) {
+            super(lobby);
+            this.emitter = emitter;
+        }
+
+        @Override
+        boolean deliver(List<LobbyEvent> events) {
+            try {
+                for (LobbyEvent event : events) {
+                    // SNAPSHOTs always pass: they replace what the client has.
+                    if (event.getVersion() <= cursor && !event.getType().equals("SNAPSHOT"))
+                        continue;
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(event.getVersion()))
+                            .name(event.getType())
+                            .data(event, MediaType.APPLICATION_JSON));
+                    cursor = Math.max(cursor, event.getVersion());
+                    sent.increment();
+                }
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+
+        @Override
+        boolean heartbeat() {
+            try {
+                emitter.send(SseEmitter.event().comment(HEARTBEAT));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+
+        @Override
+        void close() {
+            emitter.complete();
+        }
+
+        @Override
+        AtomicInteger counter() {
+            return sseCount;
+        }
+    }
+
+    private final class PollSubscriber extends Subscriber {
+        final Long since;
+        final DeferredResult<LobbyChanges> result;
+
+        PollSubscriber(String lobby, Long since, DeferredResult<LobbyChanges> result) {
+            super(lobby);
+            this.since = since;
+            this.result = result;
+        }
+
+        /**
+         * Answers from the log rather than from the given events, so the
+         * answer also holds events logged before this subscriber was added.
+         */
+        @Override
+        boolean deliver(List<LobbyEvent> events) {
+            if (result.isSetOrExpired())
+                return false;
+            LobbyChanges ready = changes(lobby, since, false);
+            if (ready.getEvents().isEmpty())
+                return true;
+            if (result.setResult(ready))
+                sent.increment(ready.getEvents().size());
+            return false;
+        }
+
+        @Override
+        void close() {
+            result.setResult(changes(lobby, since, false));
+        }
+
+        @Override
+        AtomicInteger counter() {
+            return pollCount;
+        }
+    }
+}
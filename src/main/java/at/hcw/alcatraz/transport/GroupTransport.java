@@ -0,0 +1,52 @@
+package at.hcw.alcatraz.transport;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Group communication used for replication and membership.
+ *
+ * Guarantees expected from every implementation:
+ * - Agreed ordering: all members deliver multicasts in the same order.
+ * - Self-discard: the sender does not receive its own multicasts.
+ * - Membership changes are delivered in the same order relative to
+ *   messages on every member (virtual synchrony).
+ * - All callbacks of one member arrive on a single thread.
+ * - Messages sent to selected members are ordered together with multicasts.
+ */
+public interface GroupTransport {
+
+    /**
+     * Connects and joins the group. From now on the listener receives
+     * messages and membership changes.
+     *
+     * @param listener receiver of all events
+     */
+    void connect(TransportListener listener) throws Exception;
+
+    /**
+     * Sends a message to every other member of the group.
+     *
+     * @param data message body
+     */
+    void multicast(byte[] data) throws IOException;
+
+    /**
+     * Sends a message only to the given members. Members that are not
+     * reachable from this node are skipped.
+     *
+     * @param members raw member names as reported in membership views and as message senders
+     * @param data    message body
+     */
+    void send(Collection<String> members, byte[] data) throws IOException;
+
+    /**
+     * Leaves the group and releases the connection.
+     */
+    void close();
+
+    /**
+     * @return logical id of this node
+     */
+    String nodeId();
+}
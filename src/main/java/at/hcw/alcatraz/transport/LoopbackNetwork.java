@@ -0,0 +1,263 @@
+package at.hcw.alcatraz.transport;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-JVM stand-in for a Spread daemon and its group.
+ *
+ * Every member gets an inbox and its own delivery thread. Messages and
+ * membership changes are put into the inboxes under one network-wide lock,
+ * so every member sees them in the same order (agreed ordering). The sender
+ * never receives its own messages (self-discard). Messages addressed to
+ * selected members take the same path and keep the order.
+ *
+ * Fault injection:
+ * - setDelay(): random delivery delay per message and receiver. Delivery
+ *   order per receiver is kept, a slow message also delays later ones.
+ * - setLossRate(): drops a message for a single receiver. This breaks the
+ *   reliability Spread would guarantee and is meant to exercise gap
+ *   detection and snapshot recovery.
+ * - partition(): splits the members into components. Each component gets a
+ *   NETWORK membership change and only sees messages from inside.
+ * - heal(): merges all components again.
+ *
+ * Members are named "#nodeId#loopback" to match the Spread naming scheme.
+ */
+public class LoopbackNetwork {
+
+    /** Group name → network, like the groups of one Spread daemon. */
+    private static final Map<String, LoopbackNetwork> SHARED = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    /** Connected members in join order. Guarded by lock. */
+    private final LinkedHashMap<String, Member> members = new LinkedHashMap<>();
+
+    /** nodeId → component index, absent means component 0. Guarded by lock. */
+    private final Map<String, Integer> components = new HashMap<>();
+
+    private volatile long minDelayMs = 0;
+    private volatile long maxDelayMs = 0;
+    private volatile double lossRate = 0;
+
+    /**
+     * @param group group name, e.g. one per shard
+     * @return network of that group shared by all nodes of this JVM, used by cluster.transport=loopback
+     */
+    public static LoopbackNetwork shared(String group) {
+        return SHARED.computeIfAbsent(group, g -> new LoopbackNetwork());
+    }
+
+    /**
+     * Sets the delivery delay. Each delivery waits a random time in [minMs, maxMs].
+     */
+    public void setDelay(long minMs, long maxMs) {
+        if (minMs < 0 || maxMs < minMs)
+            throw new IllegalArgumentException("Invalid delay range: " + minMs + ".." + maxMs);
+        this.minDelayMs = minMs;
+        this.maxDelayMs = maxMs;
+    }
+
+    /**
+     * @param rate probability in [0, 1] that a message is lost for a receiver
+     */
+    public void setLossRate(double rate) {
+        if (rate < 0 || rate > 1)
+            throw new IllegalArgumentException("Invalid loss rate: " + rate);
+        this.lossRate = rate;
+    }
+
+    /**
+     * Splits the group. Each set of node ids becomes one component, nodes not
+     * listed stay together in a further component.
+     *
+     * @param groups node ids per component
+     */
+    @SafeVarargs
+    public final void partition(Set<String>... groups) {
+        synchronized (lock) {
+            components.clear();
+            for (int i = 0; i < groups.length; i++) {
+                for (String nodeId : groups[i])
+                    components.put(nodeId, i + 1);
+            }
+            announceAll(MembershipView.Cause.NETWORK);
+        }
+    }
+
+    /**
+     * Merges all components into one group again.
+     */
+    public void heal() {
+        synchronized (lock) {
+            components.clear();
+            announceAll(MembershipView.Cause.NETWORK);
+        }
+    }
+
+    /**
+     * @return node ids of all connected members
+     */
+    public List<String> memberIds() {
+        synchronized (lock) {
+            return List.copyOf(members.keySet());
+        }
+    }
+
+    // ================= MEMBER API (used by LoopbackTransport) =================
+
+    Member join(String nodeId, TransportListener listener) {
+        synchronized (lock) {
+            if (members.containsKey(nodeId))
+                throw new IllegalStateException("Node already connected: " + nodeId);
+            Member member = new Member(nodeId, listener);
+            members.put(nodeId, member);
+            announce(componentOf(nodeId), MembershipView.Cause.JOIN, member.name);
+            return member;
+        }
+    }
+
+    void leave(Member member) {
+        synchronized (lock) {
+            if (members.remove(member.nodeId) == null)
+                return;
+            int component = componentOf(member.nodeId);
+            components.remove(member.nodeId);
+            member.stop();
+            announce(component, MembershipView.Cause.LEAVE, member.name);
+        }
+    }
+
+    void multicast(Member sender, byte[] data) {
+        deliver(sender, null, data);
+    }
+
+    void send(Member sender, Collection<String> recipients, byte[] data) {
+        deliver(sender, recipients, data);
+    }
+
+    // ================= INTERNALS =================
+
+    /**
+     * @param recipients member names to deliver to, null for all members
+     */
+    private void deliver(Member sender, Collection<String> recipients, byte[] data) {
+        synchronized (lock) {
+            if (!members.containsKey(sender.nodeId))
+                throw new IllegalStateException("Not connected: " + sender.nodeId);
+            int component = componentOf(sender.nodeId);
+            double loss = lossRate;
+            for (Member m : members.values()) {
+                if (m == sender || componentOf(m.nodeId) != component)
+                    continue;
+                if (recipients != null && !recipients.contains(m.name))
+                    continue;
+                if (loss > 0 && ThreadLocalRandom.current().nextDouble() < loss)
+                    continue;
+                m.enqueue(() -> m.listener.onMessage(sender.name, data));
+            }
+        }
+    }
+
+    private int componentOf(String nodeId) {
+        return components.getOrDefault(nodeId, 0);
+    }
+
+    private void announceAll(MembershipView.Cause cause) {
+        Set<Integer> seen = new HashSet<>();
+        for (Member m : members.values()) {
+            int component = componentOf(m.nodeId);
+            if (seen.add(component))
+                announce(component, cause, null);
+        }
+    }
+
+    private void announce(int component, MembershipView.Cause cause, String changed) {
+        List<Member> inside = members.values().stream()
+                .filter(m -> componentOf(m.nodeId) == component)
+                .toList();
+        MembershipView view = new MembershipView(
+                inside.stream().map(m -> m.name).toList(), cause, changed);
+        for (Member m : inside)
+            m.enqueue(() -> m.listener.onMembership(view));
+    }
+
+    private long nextDelayNanos() {
+        long min = minDelayMs;
+        long max = maxDelayMs;
+        long ms = max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min;
+        return TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    /**
+     * One connected node with its inbox and delivery thread.
+     */
+    final class Member {
+
+        private record Event(long deliverAt, Runnable action) {
+        }
+
+        private static final Event STOP = new Event(0, () -> {
+        });
+
+        final String nodeId;
+        final String name;
+        final TransportListener listener;
+        private final LinkedBlockingQueue<Event> inbox = new LinkedBlockingQueue<>();
+        private final Thread thread;
+
+        /** Delivery time of the last queued event. Guarded by the network lock. */
+        private long lastDeliverAt = Long.MIN_VALUE;
+
+        private Member(String nodeId, TransportListener listener) {
+            this.nodeId = nodeId;
+            this.name = "#" + nodeId + "#loopback";
+            this.listener = listener;
+            this.thread = new Thread(this::deliverLoop, "loopback-" + nodeId);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Starts delivery. Called by the transport once it can send, so
+         * listeners may answer the first membership view right away.
+         */
+        void start() {
+            thread.start();
+        }
+
+        private void enqueue(Runnable action) {
+            long at = Math.max(lastDeliverAt, System.nanoTime() + nextDelayNanos());
+            lastDeliverAt = at;
+            inbox.add(new Event(at, action));
+        }
+
+        private void stop() {
+            inbox.clear();
+            inbox.add(STOP);
+        }
+
+        private void deliverLoop() {
+            try {
+                while (true) {
+                    Event event = inbox.take();
+                    if (event == STOP)
+                        return;
+                    long wait = event.deliverAt - System.nanoTime();
+                    if (wait > 0)
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    try {
+                        event.action.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("[Loopback] Listener of " + nodeId + " failed: " + e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
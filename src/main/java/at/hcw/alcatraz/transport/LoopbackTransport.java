@@ -0,0 +1,66 @@
+package at.hcw.alcatraz.transport;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * GroupTransport that connects to a LoopbackNetwork inside the same JVM.
+ *
+ * Used for tests and local experiments without a Spread daemon
+ * (cluster.transport=loopback).
+ */
+public class LoopbackTransport implements GroupTransport {
+
+    private final LoopbackNetwork network;
+    private final String nodeId;
+    private volatile LoopbackNetwork.Member member;
+
+    public LoopbackTransport(LoopbackNetwork network, String nodeId) {
+        this.network = network;
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public void connect(TransportListener listener) {
+        member = network.join(nodeId, listener);
+        member.start();
+        System.out.println("[Loopback] Joined group as " + nodeId);
+    }
+
+    @Override
+    public void multicast(byte[] data) throws IOException {
+        LoopbackNetwork.Member m = member;
+        if (m == null)
+            throw new IOException("Not connected: " + nodeId);
+        try {
+            network.multicast(m, data);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void send(Collection<String> members, byte[] data) throws IOException {
+        LoopbackNetwork.Member m = member;
+        if (m == null)
+            throw new IOException("Not connected: " + nodeId);
+        try {
+            network.send(m, members, data);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        LoopbackNetwork.Member m = member;
+        member = null;
+        if (m != null)
+            network.leave(m);
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+}
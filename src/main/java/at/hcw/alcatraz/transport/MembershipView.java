@@ -0,0 +1,24 @@
+package at.hcw.alcatraz.transport;
+
+import java.util.List;
+
+/**
+ * Membership of the group after a change.
+ *
+ * @param members raw member names, e.g. "#node1#localhost"; empty if this node left
+ * @param cause   what triggered the change
+ * @param changed raw name of the member that joined or left, null for network changes
+ */
+public record MembershipView(List<String> members, Cause cause, String changed) {
+
+    public enum Cause {
+        JOIN,
+        LEAVE,
+        DISCONNECT,
+        NETWORK
+    }
+
+    public boolean isCausedByJoin() {
+        return cause == Cause.JOIN;
+    }
+}
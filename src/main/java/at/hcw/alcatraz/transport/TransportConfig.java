@@ -0,0 +1,46 @@
+package at.hcw.alcatraz.transport;
+
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.spread.SpreadTransport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Selects the group communication used by this node.
+ *
+ * cluster.transport:
+ * - spread (default): connect to the Spread daemon at spread.host:spread.port
+ * - loopback: join the in-JVM LoopbackNetwork, no daemon needed
+ *
+ * With cluster.shards &gt; 1 a node runs one context per shard, see
+ * AlcatrazApplication.start. The context of shard s joins the group
+ * "{spread.group}-{s}", so every node is a member of every shard's group
+ * and each shard elects its own master among all nodes.
+ */
+@Configuration
+public class TransportConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "cluster.transport", havingValue = "spread", matchIfMissing = true)
+    public GroupTransport spreadTransport(@Value("${spread.host}") String host,
+                                          @Value("${spread.port}") int port,
+                                          @Value("${spread.group}") String groupName,
+                                          @Value("${spread.node-id}") String nodeId,
+                                          ShardMap shards) {
+        return new SpreadTransport(host, port, group(groupName, shards), nodeId);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "cluster.transport", havingValue = "loopback")
+    public GroupTransport loopbackTransport(@Value("${spread.group:alcatraz}") String groupName,
+                                            @Value("${spread.node-id}") String nodeId,
+                                            ShardMap shards) {
+        return new LoopbackTransport(LoopbackNetwork.shared(group(groupName, shards)), nodeId);
+    }
+
+    private static String group(String groupName, ShardMap shards) {
+        return shards.isSharded() ? groupName + "-" + shards.shard() : groupName;
+    }
+}
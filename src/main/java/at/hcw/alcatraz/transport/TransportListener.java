@@ -0,0 +1,18 @@
+package at.hcw.alcatraz.transport;
+
+/**
+ * Receives events from a GroupTransport.
+ */
+public interface TransportListener {
+
+    /**
+     * @param sender raw member name of the sender, e.g. "#node1#localhost"
+     * @param data   message body
+     */
+    void onMessage(String sender, byte[] data);
+
+    /**
+     * @param view new membership of the group
+     */
+    void onMembership(MembershipView view);
+}
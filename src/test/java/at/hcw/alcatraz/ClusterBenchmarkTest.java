@@ -0,0 +1,290 @@
+package at.hcw.alcatraz;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load and failover of a whole cluster in one JVM.
+ *
+ * Boots an InProcessCluster and lets one worker per lobby play games over
+ * HTTP, each request sent to a random live node: register 4 players, list
+ * the lobby a few times, start, finish. A local HTTP server plays the
+ * player callbacks. Halfway through, the master is killed; workers keep
+ * going and count what fails while the cluster recovers.
+ *
+ * Reported, on stdout and as JSON in target/cluster-benchmark.json:
+ * - latency percentiles, throughput and errors per operation
+ * - replication convergence: time until every node has applied the
+ *   master's version, sampled while the cluster is healthy
+ * - time from the kill until the survivors agree on a new master, and until
+ *   they have also applied the same version
+ *
+ * Run with: mvn test -Dtest=ClusterBenchmarkTest -Dbenchmark=true
+ * Options: -Dcluster.nodes=3 -Dcluster.lobbies=32 -Dcluster.duration-ms=10000
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ClusterBenchmarkTest {
+
+	private static final int NODES = Integer.getInteger("cluster.nodes", 3);
+	private static final int LOBBIES = Integer.getInteger("cluster.lobbies", 32);
+	private static final long DURATION_MILLIS = Long.getLong("cluster.duration-ms", 10_000);
+	private static final int LISTS_PER_GAME = 3;
+	private static final Path REPORT = Path.of("target", "cluster-benchmark.json");
+
+	enum Op {
+		REGISTER, LIST, START, FINISH, UNREGISTER
+	}
+
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private final Map<Op, Timer> latency = new EnumMap<>(Op.class);
+	private final Map<Op, AtomicLong> errors = new EnumMap<>(Op.class);
+	private final HttpClient http = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(1))
+			.build();
+
+	private volatile boolean running = true;
+	private volatile InProcessCluster cluster;
+
+	@Test
+	void loadAndMasterFailover() throws Exception {
+		meters.config().meterFilter(new MeterFilter() {
+			@Override
+			public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+				return DistributionStatisticConfig.builder()
+						.percentiles(0.5, 0.9, 0.99, 0.999)
+						.build()
+						.merge(config);
+			}
+		});
+		for (Op op : Op.values()) {
+			latency.put(op, meters.timer("cluster.request", "op", op.name().toLowerCase()));
+			errors.put(op, new AtomicLong());
+		}
+		Timer convergence = meters.timer("cluster.convergence");
+
+		HttpServer clients = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		clients.setExecutor(Executors.newFixedThreadPool(16));
+		clients.createContext("/", exchange -> {
+			exchange.getRequestBody().readAllBytes();
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		clients.start();
+		String callbackBase = "http://127.0.0.1:" + clients.getAddress().getPort();
+
+		Map<String, Object> failover = new LinkedHashMap<>();
+		try (InProcessCluster started = InProcessCluster.start(NODES, "routing.forward.failover-wait-ms=5000")) {
+			cluster = started;
+			String firstMaster = started.master();
+
+			ExecutorService pool = Executors.newFixedThreadPool(LOBBIES + 1);
+			List<Future<?>> workers = new ArrayList<>();
+			for (int l = 0; l < LOBBIES; l++) {
+				String lobby = "bench-" + l;
+				workers.add(pool.submit(() -> play(lobby, callbackBase)));
+			}
+			Future<?> sampler = pool.submit(() -> sampleConvergence(convergence));
+
+			long begin = System.nanoTime();
+			Thread.sleep(DURATION_MILLIS / 2);
+
+			long killedAt = System.nanoTime();
+			started.kill(firstMaster);
+			started.awaitNewMaster(firstMaster);
+			long elected = System.nanoTime();
+			started.await(started::converged, "convergence after failover");
+			long converged = System.nanoTime();
+			failover.put("killed", firstMaster);
+			failover.put("newMaster", started.master());
+			failover.put("timeToNewMasterMs", millis(elected - killedAt));
+			failover.put("timeToConvergenceMs", millis(converged - killedAt));
+
+			Thread.sleep(Math.max(0, DURATION_MILLIS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)));
+			running = false;
+			for (Future<?> worker : workers)
+				worker.get(30, TimeUnit.SECONDS);
+			sampler.get(30, TimeUnit.SECONDS);
+			double seconds = (System.nanoTime() - begin) / 1e9;
+			pool.shutdown();
+
+			started.await(started::converged, "final convergence");
+			report(seconds, convergence, failover);
+		} finally {
+			clients.stop(0);
+		}
+
+		assertTrue(latency.get(Op.REGISTER).count() > 0);
+		assertNotEquals(failover.get("killed"), failover.get("newMaster"));
+	}
+
+	// ================= TRAFFIC =================
+
+	/**
+	 * Plays games in one lobby until the run ends. After a failed step the
+	 * lobby is cleaned up and the next game starts with new player names.
+	 */
+	private void play(String lobby, String callbackBase) {
+		String path = "/lobbies/" + lobby + "/players";
+		long game = 0;
+		while (running) {
+			game++;
+			List<String> players = new ArrayList<>(4);
+			boolean ok = true;
+			for (int p = 0; p < 4 && ok; p++) {
+				String name = "g" + game + "p" + p;
+				String body = "{\"playerName\":\"" + name + "\",\"callbackUrl\":\""
+						+ callbackBase + "/" + lobby + "/" + name + "\"}";
+				ok = call(Op.REGISTER, "POST", path + "/register", body);
+				if (ok)
+					players.add(name);
+			}
+			for (int i = 0; i < LISTS_PER_GAME && ok; i++)
+				ok = call(Op.LIST, "GET", path + "/all", null);
+			ok = ok && call(Op.START, "POST", path + "/game/start", null);
+			ok = ok && call(Op.FINISH, "POST", path + "/game/finish", null);
+			if (!ok) {
+				call(Op.FINISH, "POST", path + "/game/finish", null);
+				for (String name : players)
+					call(Op.UNREGISTER, "DELETE", path + "/unregister/" + name, null);
+			}
+		}
+	}
+
+	/**
+	 * Sends one request to a random live node.
+	 *
+	 * @return true for a 2xx answer
+	 */
+	private boolean call(Op op, String method, String path, String body) {
+		List<InProcessCluster.Node> live = cluster.nodes();
+		InProcessCluster.Node node = live.get(ThreadLocalRandom.current().nextInt(live.size()));
+		HttpRequest request = HttpRequest.newBuilder(URI.create(node.url() + path))
+				.timeout(Duration.ofSeconds(10))
+				.header("Content-Type", "application/json")
+				.method(method, body != null ? HttpRequest.BodyPublishers.ofString(body) : HttpRequest.BodyPublishers.noBody())
+				.build();
+		long started = System.nanoTime();
+		try {
+			int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+			latency.get(op).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+			if (status / 100 == 2)
+				return true;
+		} catch (IOException e) {
+			// node went away mid-request
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		errors.get(op).incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Measures how long the nodes take to apply the master's current
+	 * version. Samples taken while no master is agreed on are skipped.
+	 */
+	private void sampleConvergence(Timer convergence) {
+		while (running) {
+			try {
+				Thread.sleep(20);
+				InProcessCluster current = cluster;
+				String master = current.master();
+				if (master == null || current.node(master) == null)
+					continue;
+				long target = current.node(master).registry().version();
+				long started = System.nanoTime();
+				long deadline = started + TimeUnit.SECONDS.toNanos(5);
+				while (!caughtUp(current, target) && System.nanoTime() < deadline)
+					Thread.onSpinWait();
+				if (System.nanoTime() < deadline && master.equals(current.master()))
+					convergence.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				// node closed while sampling
+			}
+		}
+	}
+
+	private static boolean caughtUp(InProcessCluster cluster, long version) {
+		for (InProcessCluster.Node node : cluster.nodes()) {
+			if (node.registry().version() < version)
+				return false;
+		}
+		return true;
+	}
+
+	// ================= REPORT =================
+
+	private void report(double seconds, Timer convergence, Map<String, Object> failover) throws IOException {
+		Map<String, Object> operations = new LinkedHashMap<>();
+		for (Op op : Op.values()) {
+			Timer timer = latency.get(op);
+			Map<String, Object> entry = percentiles(timer);
+			entry.put("errors", errors.get(op).get());
+			entry.put("perSecond", Math.round(timer.count() / seconds));
+			operations.put(op.name().toLowerCase(), entry);
+		}
+
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("nodes", NODES);
+		report.put("lobbies", LOBBIES);
+		report.put("durationMs", Math.round(seconds * 1_000));
+		report.put("operations", operations);
+		report.put("replicationConvergence", percentiles(convergence));
+		report.put("failover", failover);
+
+		ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+		Files.createDirectories(REPORT.getParent());
+		mapper.writeValue(REPORT.toFile(), report);
+
+		for (Map.Entry<String, Object> op : operations.entrySet())
+			System.out.printf("[Benchmark] cluster %s: %s%n", op.getKey(), op.getValue());
+		System.out.printf("[Benchmark] cluster convergence: %s%n", report.get("replicationConvergence"));
+		System.out.printf("[Benchmark] cluster failover: %s%n", failover);
+		System.out.println("[Benchmark] cluster report written to " + REPORT.toAbsolutePath());
+	}
+
+	private static Map<String, Object> percentiles(Timer timer) {
+		HistogramSnapshot snapshot = timer.takeSnapshot();
+		Map<String, Object> out = new LinkedHashMap<>();
+		out.put("count", snapshot.count());
+		for (ValueAtPercentile p : snapshot.percentileValues())
+			out.put("p" + String.valueOf(p.percentile() * 100).replace(".0", "") + "Ms", round(p.value(TimeUnit.MILLISECONDS)));
+		out.put("maxMs", round(snapshot.max(TimeUnit.MILLISECONDS)));
+		return out;
+	}
+
+	private static double round(double millis) {
+		return Math.round(millis * 1_000) / 1_000.0;
+	}
+
+	private static double millis(long nanos) {
+		return round(nanos / 1e6);
+	}
+}
@@ -0,0 +1,215 @@
+package at.hcw.alcatraz;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.transport.GroupTransport;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Several complete Alcatraz nodes in one JVM.
+ *
+ * Every node is its own Spring Boot context with its own HTTP port. The
+ * nodes form a group over the shared LoopbackNetwork
+ * (cluster.transport=loopback), so no Spread daemon is needed. Ports are
+ * picked at random before the start because every node needs the full
+ * cluster.nodes list for forwarding and redirects.
+ *
+ * With cluster.shards=N among the properties every node runs one context
+ * per shard on N consecutive ports, as AlcatrazApplication.start does.
+ *
+ * kill() takes a node out of its groups at once and then closes its
+ * contexts, so its ports stop answering, as for a crashed process.
+ */
+final class InProcessCluster implements AutoCloseable {
+
+	/**
+	 * @param contexts one per shard, index = shard
+	 */
+	record Node(String id, int port, List<ConfigurableApplicationContext> contexts) {
+
+		String url() {
+			return "http://localhost:" + port;
+		}
+
+		/**
+		 * @return context of shard 0, the only one without sharding
+		 */
+		ConfigurableApplicationContext context() {
+			return contexts.get(0);
+		}
+
+		PlayerRegistry registry() {
+			return context().getBean(PlayerRegistry.class);
+		}
+
+		ElectionService election() {
+			return context().getBean(ElectionService.class);
+		}
+
+		ElectionService election(int shard) {
+			return contexts.get(shard).getBean(ElectionService.class);
+		}
+	}
+
+	/** Node id → running node, in id order. Read by load threads while nodes are killed. */
+	private final Map<String, Node> nodes = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Starts the nodes one after the other, node1 first, so node1 becomes master.
+	 *
+	 * @param count      number of nodes
+	 * @param properties extra properties for every node, e.g. "routing.forward.timeout-ms=2000"
+	 */
+	static InProcessCluster start(int count, String... properties) throws Exception {
+		int shards = 1;
+		for (String property : properties) {
+			if (property.startsWith("cluster.shards="))
+				shards = Integer.parseInt(property.substring("cluster.shards=".length()));
+		}
+		List<String> ids = new ArrayList<>();
+		List<Integer> ports = new ArrayList<>();
+		StringJoiner clusterNodes = new StringJoiner(",");
+		for (int i = 1; i <= count; i++) {
+			int port = freePorts(shards);
+			ids.add("node" + i);
+			ports.add(port);
+			clusterNodes.add("node" + i + ":" + port);
+		}
+
+		InProcessCluster cluster = new InProcessCluster();
+		try {
+			for (int i = 0; i < count; i++)
+				cluster.boot(ids.get(i), ports.get(i), clusterNodes.toString(), properties);
+			cluster.await(() -> cluster.master() != null, "master election");
+		} catch (Exception | Error e) {
+			cluster.close();
+			throw e;
+		}
+		return cluster;
+	}
+
+	private void boot(String id, int port, String clusterNodes, String... properties) {
+		List<String> props = new ArrayList<>(List.of(
+				"server.port=" + port,
+				"spread.node-id=" + id,
+				"cluster.transport=loopback",
+				"cluster.nodes=" + clusterNodes,
+				"spring.main.banner-mode=off",
+				"logging.level.root=WARN"));
+		props.addAll(List.of(properties));
+		// As command line arguments, so they override application.properties.
+		List<ConfigurableApplicationContext> contexts =
+				AlcatrazApplication.start(props.stream().map(p -> "--" + p).toArray(String[]::new));
+		nodes.put(id, new Node(id, port, contexts));
+	}
+
+	/**
+	 * @return running nodes in id order
+	 */
+	List<Node> nodes() {
+		return List.copyOf(nodes.values());
+	}
+
+	Node node(String id) {
+		return nodes.get(id);
+	}
+
+	/**
+	 * @return id of the master all running nodes agree on, or null
+	 */
+	String master() {
+		String master = null;
+		for (Node node : nodes.values()) {
+			String seen = node.election().getCurrentMasterId();
+			if (seen == null || (master != null && !master.equals(seen)))
+				return null;
+			master = seen;
+		}
+		return master;
+	}
+
+	/**
+	 * Blocks until every running node has elected a master other than {@code previous}.
+	 *
+	 * @return the new master as seen by the last node
+	 */
+	String awaitNewMaster(String previous) throws InterruptedException {
+		String master = null;
+		for (Node node : nodes.values()) {
+			master = node.election().awaitMasterChange(previous, 30_000);
+			if (master == null)
+				throw new IllegalStateException("No new master on " + node.id());
+		}
+		return master;
+	}
+
+	/**
+	 * @return true if all running nodes have applied the same registry version
+	 */
+	boolean converged() {
+		long version = -1;
+		for (Node node : nodes.values()) {
+			long v = node.registry().version();
+			if (version >= 0 && v != version)
+				return false;
+			version = v;
+		}
+		return true;
+	}
+
+	/**
+	 * Stops a node. It leaves its groups first, as a crashed process would,
+	 * and only then shuts down its HTTP servers and beans.
+	 */
+	void kill(String id) {
+		Node node = nodes.remove(id);
+		if (node == null)
+			return;
+		for (ConfigurableApplicationContext context : node.contexts())
+			context.getBean(GroupTransport.class).close();
+		node.contexts().forEach(ConfigurableApplicationContext::close);
+	}
+
+	void await(BooleanSupplier condition, String what) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30_000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException("Timed out waiting for " + what);
+			Thread.sleep(1);
+		}
+	}
+
+	@Override
+	public void close() {
+		for (String id : List.copyOf(nodes.keySet()))
+			kill(id);
+	}
+
+	/**
+	 * @return first of {@code count} consecutive ports that are free
+	 */
+	private static int freePorts(int count) throws IOException {
+		while (true) {
+			int first;
+			try (ServerSocket socket = new ServerSocket(0)) {
+				first = socket.getLocalPort();
+			}
+			boolean free = true;
+			for (int port = first + 1; port < first + count && free; port++) {
+				try (ServerSocket ignored = new ServerSocket(port)) {
+					// free
+				} catch (IOException e) {
+					free = false;
+				}
+			}
+			if (free)
+				return first;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package at.hcw.alcatraz;
+
+import at.hcw.alcatraz.routing.ShardMap;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Nodes started through AlcatrazApplication.start with cluster.shards=2:
+ * every node hosts both shards, so the shards of a node that dies are led
+ * by a survivor and their lobbies stay available.
+ */
+class ShardedClusterTest {
+
+	private static final int SHARDS = 2;
+
+	private final HttpClient http = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(1))
+			.build();
+
+	@Test
+	void shardsOfAKilledNodeAreLedByTheSurvivor() throws Exception {
+		try (InProcessCluster cluster = InProcessCluster.start(2, "cluster.shards=" + SHARDS)) {
+			InProcessCluster.Node node1 = cluster.node("node1");
+			InProcessCluster.Node node2 = cluster.node("node2");
+			assertEquals(SHARDS, node1.contexts().size());
+			assertEquals(SHARDS, node2.contexts().size());
+			for (int shard = 0; shard < SHARDS; shard++) {
+				int s = shard;
+				cluster.await(() -> "node1".equals(node1.election(s).getCurrentMasterId())
+						&& "node1".equals(node2.election(s).getCurrentMasterId()), "master of shard " + s);
+			}
+
+			// One lobby per shard, both registered through node1's shard 0 port.
+			List<String> lobbies = List.of(lobbyOf(0), lobbyOf(1));
+			for (String lobby : lobbies) {
+				HttpResponse<String> registered = send(node1, "POST", lobby, "/register",
+						"{\"playerName\":\"alice\",\"callbackUrl\":\"http://localhost:1/alice\"}");
+				assertEquals(201, registered.statusCode(), registered.body());
+			}
+
+			cluster.kill("node1");
+			for (int shard = 0; shard < SHARDS; shard++) {
+				int s = shard;
+				cluster.await(() -> "node2".equals(node2.election(s).getCurrentMasterId()),
+						"node2 to lead shard " + s);
+			}
+			for (String lobby : lobbies) {
+				HttpResponse<String> listed = send(node2, "GET", lobby, "/all", null);
+				assertEquals(200, listed.statusCode(), listed.body());
+				assertTrue(listed.body().contains("alice"), listed.body());
+			}
+		}
+	}
+
+	private HttpResponse<String> send(InProcessCluster.Node node, String method, String lobby, String path,
+			String body) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(node.url() + "/lobbies/" + lobby + "/players" + path))
+				.timeout(Duration.ofSeconds(10))
+				.header("Content-Type", "application/json")
+				.method(method, body != null ? HttpRequest.BodyPublishers.ofString(body) : HttpRequest.BodyPublishers.noBody())
+				.build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private static String lobbyOf(int shard) {
+		for (int i = 0; ; i++) {
+			if (ShardMap.shardOf("lobby-" + i, SHARDS) == shard)
+				return "lobby-" + i;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package at.hcw.alcatraz.admission;
+
+import at.hcw.alcatraz.routing.RoutingHeaders;
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.spread.NodeDirectory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionFilterTest {
+
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private final ElectionService election = new ElectionService(meters);
+	private final NodeDirectory directory =
+			new NodeDirectory("node1:10.0.0.8:8080,node2:10.0.0.9:8080", "node1", "", 8080, 1, meters);
+
+	@Test
+	void writesBeyondTheLimitFailFastWhileReadsPass() throws Exception {
+		election.evaluate(List.of("node1"), "node1");
+		AdmissionFilter filter = filter(1, 1, 50, 0);
+
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		FilterChain blocking = (req, res) -> {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		Thread holder = new Thread(() -> {
+			try {
+				filter.doFilter(write("10.0.0.1"), new MockHttpServletResponse(), blocking);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		holder.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		// Waits for the queue-time budget, then gives up.
+		long started = System.nanoTime();
+		MockHttpServletResponse waited = new MockHttpServletResponse();
+		filter.doFilter(write("10.0.0.2"), waited, new MockFilterChain());
+		assertEquals(503, waited.getStatus());
+		assertEquals("1", waited.getHeader("Retry-After"));
+		assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(50));
+
+		// Reads are never held back.
+		MockHttpServletRequest read = new MockHttpServletRequest("GET", "/lobbies/x/players/all");
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(read, new MockHttpServletResponse(), chain);
+		assertSame(read, chain.getRequest());
+
+		release.countDown();
+		holder.join();
+		MockHttpServletRequest after = write("10.0.0.2");
+		chain = new MockFilterChain();
+		filter.doFilter(after, new MockHttpServletResponse(), chain);
+		assertSame(after, chain.getRequest());
+		assertEquals(1.0, meters.get("alcatraz.admission.rejected").tag("reason", "queue-time").counter().count());
+	}
+
+	@Test
+	void rejectsAtOnceWhenTheQueueIsFull() throws Exception {
+		election.evaluate(List.of("node1"), "node1");
+		AdmissionFilter filter = filter(1, 0, 5_000, 0);
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread holder = new Thread(() -> {
+			try {
+				filter.doFilter(write("10.0.0.1"), new MockHttpServletResponse(), (req, res) -> {
+					entered.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		holder.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		long started = System.nanoTime();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(write("10.0.0.2"), response, new MockFilterChain());
+		assertEquals(503, response.getStatus());
+		assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+
+		release.countDown();
+		holder.join();
+	}
+
+	@Test
+	void limitsEachClientToItsRate() throws Exception {
+		election.evaluate(List.of("node1"), "node1");
+		AdmissionFilter filter = filter(8, 8, 50, 1);
+
+		for (int i = 0; i < 2; i++)
+			assertEquals(200, send(filter, write("10.0.0.1")).getStatus());
+		MockHttpServletResponse limited = send(filter, write("10.0.0.1"));
+		assertEquals(429, limited.getStatus());
+		assertEquals("1", limited.getHeader("Retry-After"));
+
+		// Other clients have buckets of their own, also behind a forwarding backup.
+		assertEquals(200, send(filter, write("10.0.0.2")).getStatus());
+		MockHttpServletRequest forwarded = write("10.0.0.9");
+		forwarded.addHeader(RoutingHeaders.FORWARDED_BY, "node2");
+		forwarded.addHeader("X-Forwarded-For", "10.0.0.1, 10.0.0.3");
+		assertEquals(200, send(filter, forwarded).getStatus());
+	}
+
+	@Test
+	void forwardingHeadersOfOtherSendersAreIgnored() throws Exception {
+		election.evaluate(List.of("node1"), "node1");
+		AdmissionFilter filter = filter(8, 8, 50, 1);
+
+		// A client cannot get a fresh bucket by making up addresses.
+		for (int i = 0; i < 3; i++) {
+			MockHttpServletRequest spoofed = write("10.0.0.5");
+			spoofed.addHeader(RoutingHeaders.FORWARDED_BY, "node2");
+			spoofed.addHeader("X-Forwarded-For", "10.0.1." + i);
+			assertEquals(i < 2 ? 200 : 429, send(filter, spoofed).getStatus());
+		}
+
+		// The nodes of other shards are trusted once configured.
+		AdmissionFilter trusting = new AdmissionFilter(election, directory, true, 8, 8, 50, 1, 2, 100, 1,
+				"10.0.0.5", meters);
+		for (int i = 0; i < 3; i++) {
+			MockHttpServletRequest forwarded = write("10.0.0.5");
+			forwarded.addHeader(RoutingHeaders.FORWARDED_BY, "node7");
+			forwarded.addHeader("X-Forwarded-For", "10.0.1." + i);
+			assertEquals(200, send(trusting, forwarded).getStatus());
+		}
+	}
+
+	@Test
+	void backupsLeaveAdmissionToTheMaster() throws Exception {
+		election.evaluate(List.of("node1", "node2"), "node2");
+		AdmissionFilter filter = filter(1, 0, 0, 1);
+		for (int i = 0; i < 5; i++)
+			assertEquals(200, send(filter, write("10.0.0.1")).getStatus());
+	}
+
+	@Test
+	void bucketsRefillAndStayBounded() {
+		AtomicLong now = new AtomicLong();
+		TokenBuckets buckets = new TokenBuckets(2, 1, 2, now::get);
+		assertEquals(0, buckets.take("a"));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), buckets.take("a"));
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+		assertEquals(0, buckets.take("a"));
+
+		assertEquals(0, buckets.take("b"));
+		assertEquals(0, buckets.take("c"));
+		assertTrue(buckets.take("d") > 0, "c and d share the overflow bucket");
+		assertEquals(3, buckets.size());
+	}
+
+	private static MockHttpServletRequest write(String client) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/lobbies/x/players/register");
+		request.setRemoteAddr(client);
+		return request;
+	}
+
+	private static MockHttpServletResponse send(AdmissionFilter filter, MockHttpServletRequest request) throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+
+	private AdmissionFilter filter(int maxConcurrent, int maxQueue, long budgetMs, double clientRate) {
+		return new AdmissionFilter(election, directory, true, maxConcurrent, maxQueue, budgetMs, clientRate, 2, 100, 1,
+				"", meters);
+	}
+}
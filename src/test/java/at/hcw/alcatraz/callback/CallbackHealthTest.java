@@ -0,0 +1,116 @@
+package at.hcw.alcatraz.callback;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CallbackHealthTest {
+
+	private HttpServer server;
+	private final Map<String, AtomicInteger> probes = new ConcurrentHashMap<>();
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private final PlayerRegistry registry = new PlayerRegistry();
+	private CallbackHealth health;
+	private String base;
+
+	@BeforeEach
+	void startClients() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", exchange -> {
+			probes.computeIfAbsent(exchange.getRequestURI().getPath(), p -> new AtomicInteger()).incrementAndGet();
+			exchange.sendResponseHeaders(exchange.getRequestMethod().equals("HEAD") ? 404 : 405, -1);
+			exchange.close();
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+		health = new CallbackHealth(registry, new CallbackClientConfig().callbackHttpClient(500),
+				true, 20, 500, 2, 2, "reject", meters);
+		health.start();
+	}
+
+	@AfterEach
+	void stopClients() {
+		health.stop();
+		server.stop(0);
+	}
+
+	@Test
+	void anyAnswerIsUpAndRepeatedFailuresAreDown() throws Exception {
+		String dead = "http://127.0.0.1:" + freePort() + "/dead";
+		registry.add("lobby", "alive", base + "alive");
+		registry.add("lobby", "dead", dead);
+
+		await(() -> health.health(base + "alive").status() == CallbackHealth.Status.UP, "alive UP");
+		await(() -> health.health(dead).status() == CallbackHealth.Status.DOWN, "dead DOWN");
+		assertTrue(health.health(base + "alive").latencyMs() >= 0);
+		assertTrue(health.health(dead).failures() >= 2);
+		assertEquals("dead", health.firstDown(Map.of("alive", base + "alive", "dead", dead)));
+		assertEquals(1.0, meters.get("alcatraz.callback.health.down").gauge().value());
+	}
+
+	@Test
+	void probingStopsWhenThePlayerLeaves() throws Exception {
+		registry.add("lobby", "alice", base + "alice");
+		registry.add("lobby", "bob", base + "bob");
+		await(() -> probes.containsKey("/alice"), "first probe");
+
+		registry.remove("lobby", "alice");
+		assertEquals(1.0, meters.get("alcatraz.callback.health.tracked").gauge().value());
+		assertEquals(CallbackHealth.Status.UNKNOWN, health.health(base + "alice").status());
+
+		Thread.sleep(60); // let a probe that was in flight finish
+		int count = probes.get("/alice").get();
+		int other = probes.get("/bob").get();
+		await(() -> probes.get("/bob").get() > other + 2, "further rounds");
+		assertEquals(count, probes.get("/alice").get());
+	}
+
+	@Test
+	void resetAndSnapshotsReplaceTrackedCallbacks() throws Exception {
+		registry.add("a", "alice", base + "alice");
+		registry.add("a", "bob", base + "bob");
+		registry.add("b", "carol", base + "carol");
+		await(() -> health.health(base + "carol").status() == CallbackHealth.Status.UP, "carol UP");
+
+		registry.reset("a");
+		assertEquals(1.0, meters.get("alcatraz.callback.health.tracked").gauge().value());
+
+		registry.install(new RegistrySnapshot(10, List.of(
+				new RegistrySnapshot.LobbyState("b", 3, false, Map.of("carol", base + "carol")),
+				new RegistrySnapshot.LobbyState("c", 9, false, Map.of("dave", base + "dave")))));
+		assertEquals(2.0, meters.get("alcatraz.callback.health.tracked").gauge().value());
+		assertEquals(CallbackHealth.Status.UP, health.health(base + "carol").status());
+	}
+
+	private static int freePort() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline)
+				fail("Timed out waiting for " + what);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package at.hcw.alcatraz.callback;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StartDispatcherTest {
+
+	private HttpServer server;
+	private final Map<String, Integer> delays = new ConcurrentHashMap<>();
+	private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+	private final Queue<String> cancelled = new ConcurrentLinkedQueue<>();
+	private final Queue<String> started = new ConcurrentLinkedQueue<>();
+	private final Queue<String> answered = new ConcurrentLinkedQueue<>();
+	private final PlayerRegistry registry = new PlayerRegistry();
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private String base;
+
+	@BeforeEach
+	void startClients() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", exchange -> {
+			String[] path = exchange.getRequestURI().getPath().split("/"); // "", player, action
+			String player = path[1];
+			exchange.getRequestBody().readAllBytes();
+			if (path[2].equals("cancel")) {
+				cancelled.add(player);
+			} else {
+				started.add(player);
+				try {
+					Thread.sleep(delays.getOrDefault(player, 0));
+				} catch (InterruptedException ignored) {
+				}
+				answered.add(player);
+			}
+			exchange.sendResponseHeaders(statuses.getOrDefault(player, 200), -1);
+			exchange.close();
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	@AfterEach
+	void stopClients() {
+		server.stop(0);
+	}
+
+	@Test
+	void notifiesAllPlayersConcurrently() {
+		for (String p : List.of("a", "b", "c", "d"))
+			delays.put(p, 300);
+
+		long start = System.nanoTime();
+		StartDispatcher.Outcome outcome = dispatcher(3_000).notifyStart(players("a", "b", "c", "d"));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(outcome.success());
+		assertTrue(millis < 900, "took " + millis + " ms, sequential would be 1200 ms");
+		assertTrue(cancelled.isEmpty());
+	}
+
+	@Test
+	void cancelsNotifiedPlayersWhenOneFails() throws Exception {
+		statuses.put("c", 500);
+
+		StartDispatcher.Outcome outcome = dispatcher(3_000).notifyStart(players("a", "b", "c"));
+
+		assertFalse(outcome.success());
+		assertEquals("c", outcome.failedPlayer());
+		awaitCancelled(Set.of("a", "b", "c"));
+	}
+
+	@Test
+	void failsAtTheDeadlineWhenAPlayerHangs() throws Exception {
+		delays.put("b", 5_000);
+
+		long start = System.nanoTime();
+		StartDispatcher.Outcome outcome = dispatcher(400).notifyStart(players("a", "b"));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertFalse(outcome.success());
+		assertEquals("b", outcome.failedPlayer());
+		assertTrue(millis < 1_500, "took " + millis + " ms");
+		awaitCancelled(Set.of("a", "b"));
+	}
+
+	@Test
+	void cancelsAPlayerWhoseStartArrivesAfterTheDeadline() throws Exception {
+		delays.put("b", 2_500);
+
+		StartDispatcher.Outcome outcome = dispatcher(1_500).notifyStart(players("a", "b"));
+
+		assertFalse(outcome.success());
+		assertEquals("b", outcome.failedPlayer());
+		long end = System.currentTimeMillis() + 5_000;
+		while (!answered.contains("b") && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertTrue(answered.contains("b"), "slow client never handled its /start");
+		awaitCancelled(Set.of("a", "b"));
+	}
+
+	@Test
+	void recordsLatencyAndFailuresPerCall() throws Exception {
+		statuses.put("c", 500);
+
+		dispatcher(3_000).notifyStart(players("a", "b", "c"));
+
+		long end = System.currentTimeMillis() + 2_000;
+		while (meters.get("alcatraz.callback.start").tag("outcome", "success").timer().count() < 2
+				&& System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertEquals(2, meters.get("alcatraz.callback.start").tag("outcome", "success").timer().count());
+		assertEquals(1, meters.get("alcatraz.callback.start").tag("outcome", "failure").timer().count());
+		assertEquals(1.0, meters.get("alcatraz.callback.start.failures").tag("reason", "http").counter().count());
+	}
+
+	@Test
+	void failsAtOnceWhenACallbackIsKnownToBeDown() {
+		Map<String, String> players = players("a", "b");
+		CallbackHealth health = health("reject");
+		players.forEach((name, url) -> registry.add("lobby", name, url));
+		health.record(base + "b", false, 0);
+		health.record(base + "b", false, 0);
+
+		StartDispatcher.Outcome outcome = dispatcher(3_000, health).notifyStart(players);
+
+		assertFalse(outcome.success());
+		assertEquals("b", outcome.failedPlayer());
+		assertTrue(started.isEmpty());
+		assertEquals(1.0, meters.get("alcatraz.callback.start.failures").tag("reason", "down").counter().count());
+	}
+
+	@Test
+	void warnPolicyStartsAnywayAndLearnsFromTheCalls() {
+		Map<String, String> players = players("a", "b");
+		CallbackHealth health = health("warn");
+		players.forEach((name, url) -> registry.add("lobby", name, url));
+		health.record(base + "b", false, 0);
+		health.record(base + "b", false, 0);
+
+		assertTrue(dispatcher(3_000, health).notifyStart(players).success());
+		assertEquals(CallbackHealth.Status.UP, health.health(base + "b").status());
+	}
+
+	private void awaitCancelled(Set<String> expected) throws InterruptedException {
+		long end = System.currentTimeMillis() + 2_000;
+		while (!new HashSet<>(cancelled).equals(expected) && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertEquals(expected, new HashSet<>(cancelled));
+	}
+
+	private StartDispatcher dispatcher(long deadlineMs) {
+		return dispatcher(deadlineMs, health("reject"));
+	}
+
+	private StartDispatcher dispatcher(long deadlineMs, CallbackHealth health) {
+		return new StartDispatcher(new CallbackClientConfig().callbackHttpClient(1_000), new ObjectMapper(), health,
+				deadlineMs, meters);
+	}
+
+	/**
+	 * Tracker without background probing, fed only by the dispatcher and the test.
+	 */
+	private CallbackHealth health(String startPolicy) {
+		CallbackHealth health = new CallbackHealth(registry, new CallbackClientConfig().callbackHttpClient(1_000),
+				false, 1_000, 1_000, 4, 2, startPolicy, new SimpleMeterRegistry());
+		health.start();
+		return health;
+	}
+
+	private Map<String, String> players(String... names) {
+		Map<String, String> players = new LinkedHashMap<>();
+		for (String name : names)
+			players.put(name, base + name);
+		return players;
+	}
+
+}
@@ -0,0 +1,258 @@
+package at.hcw.alcatraz.client;
+
+import at.hcw.alcatraz.dto.ClusterMember;
+import at.hcw.alcatraz.dto.ClusterTopology;
+import at.hcw.alcatraz.routing.RoutingHeaders;
+import at.hcw.alcatraz.routing.ShardMap;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlcatrazClientTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * A node that answers writes as master or with a 307 as deposed master,
+	 * and serves /cluster/topology from the fields below. With shards &gt; 1,
+	 * requests for lobbies of the other shard are answered as if forwarded
+	 * to the master of that shard.
+	 */
+	private static final class FakeNode {
+		final String id;
+		final HttpServer server;
+		final Queue<String> requests = new ConcurrentLinkedQueue<>();
+		volatile boolean master;
+		volatile FakeNode knownMaster;
+		volatile long epoch;
+		volatile List<FakeNode> members = List.of();
+		volatile String topology = "t1";
+		volatile String version = "7";
+		volatile int shard;
+		volatile int shards = 1;
+		volatile FakeNode otherShard;
+
+		FakeNode(String id) throws IOException {
+			this.id = id;
+			this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+			server.createContext("/", this::handle);
+			server.start();
+		}
+
+		String url() {
+			return "http://127.0.0.1:" + server.getAddress().getPort();
+		}
+
+		void handle(HttpExchange exchange) throws IOException {
+			exchange.getRequestBody().readAllBytes();
+			String path = exchange.getRequestURI().getPath();
+			String lobby = ShardMap.lobbyOf(path);
+			FakeNode self = lobby != null && ShardMap.shardOf(lobby, shards) != shard ? otherShard : this;
+			FakeNode m = self.knownMaster;
+			if (m != null) {
+				exchange.getResponseHeaders().add(RoutingHeaders.MASTER_NODE, m.id);
+				exchange.getResponseHeaders().add(RoutingHeaders.MASTER_ENDPOINT, m.url());
+				exchange.getResponseHeaders().add(RoutingHeaders.MASTER_EPOCH, Long.toString(self.epoch));
+				exchange.getResponseHeaders().add(RoutingHeaders.TOPOLOGY, self.topology);
+				if (shards > 1)
+					exchange.getResponseHeaders().add(RoutingHeaders.SHARD, Integer.toString(self.shard));
+			}
+			if (path.equals("/cluster/topology")) {
+				List<ClusterMember> view = members.stream()
+						.map(n -> new ClusterMember(n.id, n.url(), n == m, 1))
+						.toList();
+				byte[] body = MAPPER.writeValueAsBytes(new ClusterTopology(id, m != null ? m.id : null,
+						m != null ? m.url() : null, epoch, view, shard, shards));
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+				exchange.close();
+				return;
+			}
+
+			requests.add(exchange.getRequestMethod() + " " + path + " "
+					+ exchange.getRequestHeaders().getFirst(RoutingHeaders.MIN_VERSION));
+			if (exchange.getRequestMethod().equals("GET")) {
+				byte[] body = "[{\"playerName\":\"Alice\",\"callbackUrl\":\"http://alice\"}]"
+						.getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			} else if (self.master) {
+				exchange.getResponseHeaders().add(RoutingHeaders.REGISTRY_VERSION, self.version);
+				exchange.sendResponseHeaders(201, -1);
+			} else {
+				exchange.getResponseHeaders().add("Location", m.url() + path);
+				exchange.sendResponseHeaders(307, -1);
+			}
+			exchange.close();
+		}
+	}
+
+	private FakeNode node1;
+	private FakeNode node2;
+
+	@AfterEach
+	void stop() {
+		if (node1 != null)
+			node1.server.stop(0);
+		if (node2 != null)
+			node2.server.stop(0);
+	}
+
+	@Test
+	void fetchesTheTopologyOnceAndWritesStraightToTheMaster() throws Exception {
+		cluster();
+		AlcatrazClient client = new AlcatrazClient(List.of(node2.url()), Duration.ofSeconds(2));
+
+		for (int i = 0; i < 3; i++)
+			assertEquals(201, client.register("x", "p" + i, "http://p" + i).statusCode());
+
+		assertEquals(1, client.refreshes());
+		assertEquals(0, client.redirects());
+		assertEquals(3, node1.requests.size());
+		assertTrue(node2.requests.isEmpty());
+
+		// Reads are spread over the members and carry the version of the last write.
+		assertEquals("Alice", client.players("x").get(0).getPlayerName());
+		assertEquals("Alice", client.players("x").get(0).getPlayerName());
+		assertEquals("GET /lobbies/x/players/all 7", node1.requests.stream().reduce((a, b) -> b).orElseThrow());
+		assertEquals("GET /lobbies/x/players/all 7", node2.requests.peek());
+	}
+
+	@Test
+	void followsTheHeadersOfARedirectToTheNewMaster() throws Exception {
+		cluster();
+		AlcatrazClient client = new AlcatrazClient(List.of(node1.url()), Duration.ofSeconds(2));
+		assertEquals("node1", client.master().id());
+
+		failover();
+		assertEquals(201, client.start("x").statusCode());
+		assertEquals(201, client.finish("x").statusCode());
+
+		assertEquals("node2", client.master().id());
+		assertEquals(1, client.redirects());
+		assertEquals(1, client.refreshes());
+		assertEquals(List.of("POST /lobbies/x/players/game/start null"), List.copyOf(node1.requests));
+		assertEquals(2, node2.requests.size());
+	}
+
+	@Test
+	void ignoresOlderEpochsAndRefreshesWhenTheMasterIsGone() throws Exception {
+		cluster();
+		AlcatrazClient client = new AlcatrazClient(List.of(node2.url()), Duration.ofSeconds(2));
+		client.master();
+
+		// A node that reports a master of an older epoch does not move the client.
+		node2.knownMaster = node2;
+		node2.epoch = 0;
+		client.read("/lobbies/x/players/all");
+		client.read("/lobbies/x/players/all");
+		assertEquals("node1", client.master().id());
+
+		// The cached master is unreachable: the next write refreshes and goes to the new one.
+		node2.master = true;
+		node2.members = List.of(node2);
+		node2.epoch = 2;
+		node1.server.stop(0);
+		node1 = null;
+		assertEquals(201, client.unregister("x", "Bob Smith").statusCode());
+		assertEquals("node2", client.master().id());
+		assertEquals(2, client.refreshes());
+		assertTrue(node2.requests.contains("DELETE /lobbies/x/players/unregister/Bob Smith null"));
+	}
+
+	@Test
+	void readsReachNewMembersAfterTheTopologyTagChanged() throws Exception {
+		cluster();
+		node1.members = List.of(node1);
+		AlcatrazClient client = new AlcatrazClient(List.of(node1.url()), Duration.ofSeconds(2));
+		for (int i = 0; i < 3; i++)
+			client.read("/lobbies/x/players/all");
+		assertTrue(node2.requests.isEmpty());
+
+		// node2 joins: same master and epoch, only the tag changes.
+		node1.members = List.of(node1, node2);
+		node1.topology = "t2";
+		node2.topology = "t2";
+		for (int i = 0; i < 4; i++)
+			client.read("/lobbies/x/players/all");
+
+		assertEquals(2, client.refreshes());
+		assertEquals(0, client.redirects());
+		assertFalse(node2.requests.isEmpty());
+	}
+
+	@Test
+	void learnsTheMastersOfOtherShardsFromForwardedAnswers() throws Exception {
+		node1 = new FakeNode("node1");
+		node2 = new FakeNode("node2");
+		for (FakeNode n : List.of(node1, node2)) {
+			n.shards = 2;
+			n.master = true;
+			n.knownMaster = n;
+			n.members = List.of(n);
+			n.epoch = 1;
+		}
+		node2.shard = 1;
+		node2.version = "3";
+		node1.otherShard = node2;
+		node2.otherShard = node1;
+		String local = lobbyOfShard(0);
+		String remote = lobbyOfShard(1);
+		AlcatrazClient client = new AlcatrazClient(List.of(node1.url()), Duration.ofSeconds(2));
+
+		// The home master forwards the first write; the answer names the other shard's master.
+		assertEquals(201, client.register(remote, "a", "http://a").statusCode());
+		assertEquals("node2", client.master(1).id());
+		assertEquals(201, client.register(remote, "b", "http://b").statusCode());
+		assertEquals(201, client.register(local, "c", "http://c").statusCode());
+		assertEquals(2, node1.requests.size());
+		assertEquals(1, node2.requests.size());
+		assertEquals("node1", client.master().id());
+
+		// Reads go to the lobby's shard and carry that shard's version.
+		client.players(remote);
+		client.players(local);
+		assertEquals("GET /lobbies/" + remote + "/players/all 3", node2.requests.stream().reduce((a, b) -> b).orElseThrow());
+		assertEquals("GET /lobbies/" + local + "/players/all 7", node1.requests.stream().reduce((a, b) -> b).orElseThrow());
+		assertEquals(1, client.refreshes());
+	}
+
+	private static String lobbyOfShard(int shard) {
+		for (int i = 0; ; i++) {
+			if (ShardMap.shardOf("lobby-" + i, 2) == shard)
+				return "lobby-" + i;
+		}
+	}
+
+	private void cluster() throws IOException {
+		node1 = new FakeNode("node1");
+		node2 = new FakeNode("node2");
+		for (FakeNode n : List.of(node1, node2)) {
+			n.members = List.of(node1, node2);
+			n.knownMaster = node1;
+			n.epoch = 1;
+		}
+		node1.master = true;
+	}
+
+	private void failover() {
+		node1.master = false;
+		node2.master = true;
+		for (FakeNode n : List.of(node1, node2)) {
+			n.knownMaster = node2;
+			n.epoch = 2;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package at.hcw.alcatraz.controller;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dto.BatchEntry;
+import at.hcw.alcatraz.persistence.RegistryPersistence;
+import at.hcw.alcatraz.routing.MasterRedirect;
+import at.hcw.alcatraz.routing.RoutingMetrics;
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.spread.CatchUpService;
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.spread.NodeDirectory;
+import at.hcw.alcatraz.spread.ReplicationBatcher;
+import at.hcw.alcatraz.spread.SpreadConnectionService;
+import at.hcw.alcatraz.spread.SpreadManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerControllerBatchTest {
+
+	private final PlayerRegistry registry = new PlayerRegistry();
+
+	@Test
+	void rejectsBatchesNamingLobbiesOfAnotherShard() {
+		PlayerController controller = controller(new ShardMap(0, 2));
+		List<BatchEntry> batch = List.of(
+				new BatchEntry("alice", "http://alice", "x@0"),
+				new BatchEntry("bob", "http://bob", "y@1"));
+
+		ResponseEntity<?> registered = controller.registerBatch(null, batch, new MockHttpServletRequest());
+		assertEquals(421, registered.getStatusCode().value());
+		assertTrue(String.valueOf(registered.getBody()).contains("y@1"));
+		assertEquals(0, registry.version());
+
+		registry.add("x@0", "alice", "http://alice");
+		ResponseEntity<?> removed = controller.unregisterBatch(null, batch, new MockHttpServletRequest());
+		assertEquals(421, removed.getStatusCode().value());
+		assertTrue(registry.list("x@0").contains("alice"));
+	}
+
+	@Test
+	void acceptsEveryLobbyWithoutSharding() {
+		PlayerController controller = controller(ShardMap.single());
+
+		ResponseEntity<?> registered = controller.registerBatch(null,
+				List.of(new BatchEntry("alice", "http://alice", "x@0"), new BatchEntry("bob", "http://bob", "y@1")),
+				new MockHttpServletRequest());
+
+		assertNotEquals(421, registered.getStatusCode().value());
+		assertEquals(2, registry.version());
+	}
+
+	private PlayerController controller(ShardMap shards) {
+		SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		ElectionService election = new ElectionService(meters);
+		election.evaluate(List.of("node1"), "node1");
+		SpreadConnectionService connection = new SpreadConnectionService(null, "node1", "binary", 0, "block", meters);
+		SpreadManager spread = new SpreadManager(connection, new ReplicationBatcher(connection, false, 0, 1),
+				election, new CatchUpService(connection, election, registry, 100, 16, 0, meters),
+				registry, new NodeDirectory("node1:127.0.0.1:1", "node1", "", 1, 1, meters), shards, 100, meters);
+		RegistryPersistence persistence = new RegistryPersistence(registry, false, "unused", "none", 100,
+				DataSize.ofMegabytes(1), 1_000, 1_000, meters);
+		return new PlayerController(registry, spread, persistence, null, null,
+				new MasterRedirect(spread, new RoutingMetrics(meters)), shards, 1_000);
+	}
+}
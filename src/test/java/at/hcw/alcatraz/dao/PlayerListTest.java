@@ -0,0 +1,79 @@
+package at.hcw.alcatraz.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pre-encoded player lists and their versions.
+ */
+class PlayerListTest {
+
+	private final PlayerRegistry registry = new PlayerRegistry();
+
+	@Test
+	void encodesNamesInRegistrationOrder() {
+		registry.add("a", "bob", "http://bob");
+		registry.add("a", "al\"iceé", "http://alice");
+
+		PlayerList list = registry.playerList("a");
+		assertEquals("[\"bob\",\"al\\\"iceé\"]", new String(list.json(), StandardCharsets.UTF_8));
+		assertEquals(2, list.version());
+		assertEquals("\"2\"", list.etag());
+	}
+
+	@Test
+	void readsShareOneListUntilTheLobbyChanges() {
+		registry.add("a", "alice", "http://alice");
+		registry.add("b", "bob", "http://bob");
+		PlayerList first = registry.playerList("a");
+		assertSame(first, registry.playerList("a"));
+
+		registry.add("a", "carol", "http://carol");
+		PlayerList second = registry.playerList("a");
+		assertNotSame(first, second);
+		assertEquals(3, second.version());
+		assertSame(second, registry.playerList("a"));
+	}
+
+	@Test
+	void startKeepsTheListAndResetEmptiesIt() {
+		registry.add("a", "alice", "http://alice");
+		registry.add("a", "bob", "http://bob");
+		PlayerList before = registry.playerList("a");
+
+		assertTrue(registry.tryStart("a"));
+		registry.markStarted("a");
+		assertSame(before, registry.playerList("a"));
+
+		registry.reset("a");
+		assertEquals("[]", new String(registry.playerList("a").json(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void unknownAndEmptiedLobbiesAreEmpty() {
+		assertEquals("[]", new String(registry.playerList("none").json(), StandardCharsets.UTF_8));
+		assertEquals(0, registry.playerList("none").version());
+
+		registry.add("a", "alice", "http://alice");
+		registry.playerList("a");
+		registry.remove("a", "alice");
+		assertEquals(0, registry.playerList("a").size());
+	}
+
+	@Test
+	void replicatedChangesAndSnapshotsRebuildTheList() {
+		registry.apply(new RegistryChange(RegistryChange.Kind.ADD, 1, "a", "alice", "http://alice"));
+		assertEquals(1, registry.playerList("a").version());
+
+		registry.install(new RegistrySnapshot(9, List.of(
+				new RegistrySnapshot.LobbyState("a", 7, false, Map.of("bob", "http://bob")))));
+		PlayerList list = registry.playerList("a");
+		assertEquals(7, list.version());
+		assertEquals("[\"bob\"]", new String(list.json(), StandardCharsets.UTF_8));
+	}
+}
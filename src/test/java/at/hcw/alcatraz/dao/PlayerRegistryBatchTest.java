@@ -0,0 +1,156 @@
+package at.hcw.alcatraz.dao;
+
+import at.hcw.alcatraz.dao.PlayerRegistry.BatchOp;
+import at.hcw.alcatraz.dao.PlayerRegistry.BatchStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerRegistryBatchTest {
+
+	@Test
+	void batchSpanningLobbiesIsPublishedOnceWithContiguousVersions() {
+		PlayerRegistry registry = new PlayerRegistry();
+		registry.add("a", "alice", "http://alice");
+		List<List<RegistryChange>> batches = new ArrayList<>();
+		registry.addListener(new RegistryListener() {
+			@Override
+			public void onChange(RegistryChange change, boolean local) {
+				batches.add(List.of(change));
+			}
+
+			@Override
+			public void onChanges(List<RegistryChange> changes, boolean local) {
+				batches.add(changes);
+			}
+		});
+
+		List<BatchStatus> results = registry.addAll(List.of(
+				entry("a", "bob"), entry("b", "carol"), entry("b", "dave")));
+
+		assertEquals(List.of(BatchStatus.OK, BatchStatus.OK, BatchStatus.OK), results);
+		assertEquals(1, batches.size());
+		assertEquals(List.of(2L, 3L, 4L), batches.get(0).stream().map(RegistryChange::version).toList());
+		assertEquals(4, registry.version());
+		assertEquals(Set.of("alice", "bob"), registry.list("a"));
+		assertEquals(Set.of("carol", "dave"), registry.list("b"));
+	}
+
+	@Test
+	void oneInvalidEntryRejectsTheWholeBatch() {
+		PlayerRegistry registry = new PlayerRegistry();
+		registry.add("a", "alice", "http://alice");
+		registry.add("s", "sam", "http://sam");
+		registry.add("s", "sue", "http://sue");
+		registry.markStarted("s");
+		long version = registry.version();
+
+		List<BatchStatus> results = registry.addAll(List.of(
+				entry("a", "bob"),
+				entry("a", "alice"),
+				new BatchOp("a", "carl", "http://bob"),
+				entry("s", "tom"),
+				entry("a", "dan"),
+				entry("a", "eve"),
+				entry("a", "fay")));
+
+		assertEquals(List.of(BatchStatus.OK, BatchStatus.DUPLICATE_NAME, BatchStatus.DUPLICATE_CALLBACK,
+				BatchStatus.GAME_STARTED, BatchStatus.OK, BatchStatus.OK, BatchStatus.LOBBY_FULL), results);
+		assertEquals(version, registry.version());
+		assertEquals(Set.of("alice"), registry.list("a"));
+		assertFalse(registry.lobbyIds().contains("b"));
+	}
+
+	@Test
+	void removalIsAllOrNothing() {
+		PlayerRegistry registry = new PlayerRegistry();
+		registry.addAll(List.of(entry("a", "alice"), entry("a", "bob"), entry("b", "carol")));
+
+		assertEquals(List.of(BatchStatus.OK, BatchStatus.NOT_FOUND),
+				registry.removeAll(List.of(entry("a", "alice"), entry("b", "nobody"))));
+		assertEquals(Set.of("alice", "bob"), registry.list("a"));
+		assertTrue(registry.addAll(List.of(entry("a", "x"))).contains(BatchStatus.OK));
+		registry.removeAll(List.of(entry("a", "x")));
+
+		assertEquals(List.of(BatchStatus.OK, BatchStatus.OK, BatchStatus.OK),
+				registry.removeAll(List.of(entry("a", "alice"), entry("b", "carol"), entry("a", "bob"))));
+		assertEquals(Set.of(), registry.lobbyIds());
+	}
+
+	@Test
+	void moveIsAllOrNothingAndPublishedAsOneBatch() {
+		PlayerRegistry registry = new PlayerRegistry();
+		registry.addAll(List.of(entry("q", "alice"), entry("q", "bob"), entry("m", "carol")));
+		List<List<RegistryChange>> batches = new ArrayList<>();
+		registry.addListener(new RegistryListener() {
+			@Override
+			public void onChange(RegistryChange change, boolean local) {
+				batches.add(List.of(change));
+			}
+
+			@Override
+			public void onChanges(List<RegistryChange> changes, boolean local) {
+				batches.add(changes);
+			}
+		});
+
+		assertEquals(List.of(BatchStatus.OK, BatchStatus.NOT_FOUND), registry.moveAll("q", "m", List.of("alice", "nobody")));
+		assertEquals(Set.of("alice", "bob"), registry.list("q"));
+		assertTrue(batches.isEmpty());
+
+		assertEquals(List.of(BatchStatus.OK, BatchStatus.OK), registry.moveAll("q", "m", List.of("alice", "bob")));
+		assertEquals(Set.of("alice", "bob", "carol"), registry.list("m"));
+		assertFalse(registry.lobbyIds().contains("q"));
+		assertEquals(1, batches.size());
+		assertEquals(List.of(RegistryChange.Kind.REMOVE, RegistryChange.Kind.REMOVE, RegistryChange.Kind.ADD, RegistryChange.Kind.ADD),
+				batches.get(0).stream().map(RegistryChange::kind).toList());
+	}
+
+	@Test
+	void replicatedBatchRebuildsTheSameState() {
+		PlayerRegistry master = new PlayerRegistry();
+		PlayerRegistry backup = new PlayerRegistry();
+		master.addListener((change, local) -> assertEquals(PlayerRegistry.ApplyResult.APPLIED, backup.apply(change)));
+
+		master.addAll(List.of(entry("a", "alice"), entry("b", "bob")));
+		master.removeAll(List.of(entry("a", "alice")));
+
+		assertEquals(master.version(), backup.version());
+		assertEquals(master.lobbyIds(), backup.lobbyIds());
+		assertEquals(master.snapshot("b"), backup.snapshot("b"));
+	}
+
+	@Test
+	void overlappingBatchesInOppositeOrderDoNotDeadlock() throws Exception {
+		PlayerRegistry registry = new PlayerRegistry();
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		List<Future<?>> writers = new ArrayList<>();
+		for (int t = 0; t < 2; t++) {
+			boolean reversed = t == 1;
+			writers.add(pool.submit(() -> {
+				for (int i = 0; i < 2_000; i++) {
+					String p = (reversed ? "r" : "f") + i;
+					List<BatchOp> batch = reversed
+							? List.of(entry("y", p), entry("x", p))
+							: List.of(entry("x", p), entry("y", p));
+					registry.addAll(batch);
+					registry.removeAll(batch);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> writer : writers)
+			writer.get(30, TimeUnit.SECONDS);
+		pool.shutdown();
+		assertEquals(Set.of(), registry.lobbyIds());
+	}
+
+	private static BatchOp entry(String lobby, String player) {
+		return new BatchOp(lobby, player, "http://" + player);
+	}
+}
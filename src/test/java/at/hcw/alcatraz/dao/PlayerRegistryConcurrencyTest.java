@@ -0,0 +1,151 @@
+package at.hcw.alcatraz.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerRegistryConcurrencyTest {
+
+	private static final int LOBBIES = 20_000;
+	private static final int THREADS = 16;
+
+	@Test
+	void registersStartsAndResetsManyLobbiesConcurrently() throws Exception {
+		PlayerRegistry registry = new PlayerRegistry();
+
+		// Five register attempts per lobby, interleaved across lobbies; exactly four may win.
+		List<Callable<Boolean>> registrations = new ArrayList<>();
+		for (int l = 0; l < LOBBIES; l++) {
+			String lobby = "lobby-" + l;
+			for (int p = 0; p < 5; p++) {
+				String name = "player-" + p;
+				String callback = "http://" + lobby + "/" + p;
+				registrations.add(() -> registry.add(lobby, name, callback));
+			}
+		}
+		Collections.shuffle(registrations, ThreadLocalRandom.current());
+		assertEquals(LOBBIES * 4L, runAll(registrations).stream().filter(b -> b).count());
+
+		assertEquals(LOBBIES, registry.lobbyCount());
+		for (int l = 0; l < LOBBIES; l++) {
+			assertEquals(4, registry.list("lobby-" + l).size());
+			assertTrue(registry.tryStart("lobby-" + l));
+		}
+
+		List<Callable<Boolean>> starts = new ArrayList<>();
+		for (int l = 0; l < LOBBIES; l++) {
+			String lobby = "lobby-" + l;
+			starts.add(() -> {
+				registry.markStarted(lobby);
+				return registry.isStarted(lobby) && !registry.add(lobby, "late", "http://late/" + lobby);
+			});
+		}
+		assertTrue(runAll(starts).stream().allMatch(b -> b));
+
+		List<Callable<Boolean>> resets = new ArrayList<>();
+		for (int l = 0; l < LOBBIES; l++) {
+			String lobby = "lobby-" + l;
+			resets.add(() -> {
+				registry.reset(lobby);
+				return !registry.isStarted(lobby);
+			});
+		}
+		assertTrue(runAll(resets).stream().allMatch(b -> b));
+		assertEquals(0, registry.lobbyCount());
+	}
+
+	@Test
+	void writesAreNeverLostWhileLobbiesAreRetired() throws Exception {
+		PlayerRegistry registry = new PlayerRegistry();
+		AtomicInteger lost = new AtomicInteger();
+
+		// Every thread repeatedly joins and leaves a handful of shared lobbies, so lobbies
+		// are constantly retired and recreated underneath concurrent writers.
+		List<Callable<Boolean>> churn = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			String name = "player-" + t;
+			churn.add(() -> {
+				for (int i = 0; i < 20_000; i++) {
+					String lobby = "lobby-" + (i % 8);
+					if (registry.add(lobby, name, "http://" + name)) {
+						if (!registry.list(lobby).contains(name))
+							lost.incrementAndGet();
+						if (!registry.remove(lobby, name))
+							lost.incrementAndGet();
+					}
+				}
+				return true;
+			});
+		}
+		runAll(churn);
+
+		assertEquals(0, lost.get());
+		assertEquals(0, registry.lobbyCount());
+	}
+
+	@Test
+	void slowListenerDoesNotHoldBackOtherLobbies() throws Exception {
+		PlayerRegistry registry = new PlayerRegistry();
+		CountDownLatch inListener = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Long> seen = Collections.synchronizedList(new ArrayList<>());
+		registry.addListener((change, local) -> {
+			seen.add(change.version());
+			if (change.lobby().equals("a")) {
+				inListener.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			Future<Boolean> slow = pool.submit(() -> registry.add("a", "alice", "http://alice"));
+			assertTrue(inListener.await(5, TimeUnit.SECONDS));
+
+			// Lobby b is written and readable while a's listener still runs ...
+			Future<Boolean> other = pool.submit(() -> registry.add("b", "bob", "http://bob"));
+			Future<Set<String>> read = pool.submit(() -> {
+				while (registry.size("b") == 0)
+					Thread.sleep(5);
+				return registry.list("b");
+			});
+			assertEquals(Set.of("bob"), read.get(5, TimeUnit.SECONDS));
+			// ... but neither write is reported as done before its change was delivered.
+			assertEquals(0, registry.version());
+			assertFalse(other.isDone());
+
+			release.countDown();
+			assertTrue(slow.get(5, TimeUnit.SECONDS));
+			assertTrue(other.get(5, TimeUnit.SECONDS));
+			assertEquals(2, registry.version());
+			assertEquals(List.of(1L, 2L), seen);
+		} finally {
+			release.countDown();
+			pool.shutdownNow();
+		}
+	}
+
+	private static List<Boolean> runAll(List<Callable<Boolean>> tasks) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Boolean> results = new ArrayList<>(tasks.size());
+			for (Future<Boolean> f : pool.invokeAll(tasks))
+				results.add(f.get());
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+}
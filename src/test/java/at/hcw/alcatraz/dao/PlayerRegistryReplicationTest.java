@@ -0,0 +1,95 @@
+package at.hcw.alcatraz.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerRegistryReplicationTest {
+
+	@Test
+	void backupFollowsMasterThroughDeltas() {
+		PlayerRegistry master = new PlayerRegistry();
+		List<RegistryChange> log = record(master);
+
+		master.add("a", "alice", "http://alice");
+		master.add("a", "bob", "http://bob");
+		master.add("b", "carol", "http://carol");
+		master.remove("a", "bob");
+		master.add("a", "dave", "http://dave");
+		master.markStarted("a");
+		master.reset("b");
+
+		assertEquals(7, master.version());
+		assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), log.stream().map(RegistryChange::version).toList());
+
+		PlayerRegistry backup = new PlayerRegistry();
+		for (RegistryChange change : log)
+			assertEquals(PlayerRegistry.ApplyResult.APPLIED, backup.apply(change));
+
+		assertSameState(master, backup);
+	}
+
+	@Test
+	void duplicatesAreIgnoredAndGapsAreReported() {
+		PlayerRegistry master = new PlayerRegistry();
+		List<RegistryChange> log = record(master);
+		master.add("a", "alice", "http://alice");
+		master.add("a", "bob", "http://bob");
+		master.add("a", "carol", "http://carol");
+
+		PlayerRegistry backup = new PlayerRegistry();
+		assertEquals(PlayerRegistry.ApplyResult.APPLIED, backup.apply(log.get(0)));
+		assertEquals(PlayerRegistry.ApplyResult.DUPLICATE, backup.apply(log.get(0)));
+		assertEquals(PlayerRegistry.ApplyResult.GAP, backup.apply(log.get(2)));
+		assertEquals(1, backup.version());
+		assertEquals(1, backup.list("a").size());
+	}
+
+	@Test
+	void snapshotPlusLaterDeltasConverges() {
+		PlayerRegistry master = new PlayerRegistry();
+		List<RegistryChange> log = record(master);
+		master.add("a", "alice", "http://alice");
+		master.add("b", "bob", "http://bob");
+		master.add("b", "carol", "http://carol");
+
+		// Changes racing with the copy: the snapshot reports version 3 but lobby "b" already holds version 4.
+		RegistrySnapshot fuzzy = master.snapshot();
+		master.remove("b", "bob");
+		master.markStarted("a");
+		RegistrySnapshot.LobbyState b = new RegistrySnapshot.LobbyState(
+				"b", 4, false, master.snapshot("b"));
+		RegistrySnapshot racing = new RegistrySnapshot(fuzzy.version(), List.of(fuzzy.lobbies().stream()
+				.filter(l -> l.id().equals("a")).findFirst().orElseThrow(), b));
+
+		PlayerRegistry backup = new PlayerRegistry();
+		backup.install(racing);
+		assertEquals(3, backup.version());
+		for (RegistryChange change : log.subList(3, log.size()))
+			assertEquals(PlayerRegistry.ApplyResult.APPLIED, backup.apply(change));
+
+		assertSameState(master, backup);
+	}
+
+	private static List<RegistryChange> record(PlayerRegistry registry) {
+		List<RegistryChange> log = new ArrayList<>();
+		registry.addListener((change, local) -> {
+			assertTrue(local);
+			log.add(change);
+		});
+		return log;
+	}
+
+	private static void assertSameState(PlayerRegistry expected, PlayerRegistry actual) {
+		assertEquals(expected.version(), actual.version());
+		assertEquals(expected.lobbyIds(), actual.lobbyIds());
+		for (String lobby : expected.lobbyIds()) {
+			assertEquals(expected.snapshot(lobby), actual.snapshot(lobby));
+			assertEquals(expected.isStarted(lobby), actual.isStarted(lobby));
+		}
+	}
+
+}
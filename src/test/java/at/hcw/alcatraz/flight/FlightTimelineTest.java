@@ -0,0 +1,57 @@
+package at.hcw.alcatraz.flight;
+
+import at.hcw.alcatraz.spread.ElectionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightTimelineTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void mergesRecordingsOfSeveralNodesInTimeOrder() throws Exception {
+		Path node1 = record("node1", () ->
+				new ElectionService(new SimpleMeterRegistry()).evaluate(List.of("node1", "node2"), "node1"));
+		Path node2 = record("node2", () -> {
+			new ElectionService(new SimpleMeterRegistry()).evaluate(List.of("node1", "node2"), "node2");
+			CallbackEvent callback = new CallbackEvent();
+			callback.begin();
+			callback.player = "alice";
+			callback.url = "http://localhost:9000";
+			callback.outcome = "success";
+			callback.commit();
+		});
+
+		List<FlightTimeline.Entry> timeline = FlightTimeline.merge(List.of(node2, node1));
+
+		assertEquals(List.of("node1", "node2", "node2"), timeline.stream().map(FlightTimeline.Entry::node).toList());
+		assertEquals(List.of("Election", "Election", "Callback"),
+				timeline.stream().map(FlightTimeline.Entry::event).toList());
+		assertTrue(timeline.get(0).fields().contains("master=node1"));
+		assertTrue(timeline.get(0).fields().contains("self=true"));
+		assertTrue(timeline.get(1).fields().contains("self=false"));
+		assertTrue(timeline.get(2).fields().contains("player=alice"));
+	}
+
+	private Path record(String node, Runnable activity) throws Exception {
+		Path file = dir.resolve(node + ".jfr");
+		try (Recording recording = new Recording()) {
+			for (Class<? extends Event> event : ClusterFlightRecorder.EVENTS)
+				recording.enable(event);
+			recording.start();
+			activity.run();
+			recording.stop();
+			recording.dump(file);
+		}
+		return file;
+	}
+}
@@ -0,0 +1,255 @@
+package at.hcw.alcatraz.matchmaking;
+
+import at.hcw.alcatraz.callback.CallbackClientConfig;
+import at.hcw.alcatraz.callback.StartDispatcher;
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistryListener;
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.spread.ElectionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchmakerTest {
+
+	private static final String QUEUE = PlayerRegistry.MATCHMAKING_QUEUE;
+
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private final PlayerRegistry registry = new PlayerRegistry();
+	private final ElectionService election = new ElectionService(meters);
+	private final FakeDispatcher dispatcher = new FakeDispatcher();
+	private Matchmaker matchmaker;
+
+	@AfterEach
+	void stop() throws InterruptedException {
+		matchmaker.stop();
+	}
+
+	@Test
+	void fullGroupsFormWithoutWaiting() throws Exception {
+		start(60_000, true);
+		for (String p : List.of("a", "b", "c", "d", "e", "f", "g", "h", "i"))
+			assertTrue(matchmaker.enqueue(p, "http://" + p));
+
+		// Both games start in parallel, in either order.
+		Set<Set<String>> games = Set.of(dispatcher.awaitStart().keySet(), dispatcher.awaitStart().keySet());
+		assertEquals(Set.of(Set.of("a", "b", "c", "d"), Set.of("e", "f", "g", "h")), games);
+		awaitQueued(1);
+		assertEquals(Set.of("i"), registry.list(QUEUE));
+		assertEquals(2, meters.get("alcatraz.matchmaking.games").tag("trigger", "full").counter().count());
+	}
+
+	@Test
+	void smallerGroupStartsAfterTheMaximumWait() throws Exception {
+		start(200, true);
+		long begin = System.nanoTime();
+		matchmaker.enqueue("a", "http://a");
+		matchmaker.enqueue("b", "http://b");
+		matchmaker.enqueue("c", "http://c");
+
+		assertEquals(Set.of("a", "b", "c"), dispatcher.awaitStart().keySet());
+		assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(200));
+		assertEquals(1, meters.get("alcatraz.matchmaking.games").tag("trigger", "timeout").counter().count());
+	}
+
+	@Test
+	void singlePlayerKeepsWaiting() throws Exception {
+		start(50, true);
+		matchmaker.enqueue("a", "http://a");
+
+		assertNull(dispatcher.starts.poll(300, TimeUnit.MILLISECONDS));
+		assertEquals(1, matchmaker.queued());
+	}
+
+	@Test
+	void startedGameIsMarkedAndQueueRejectsDuplicates() throws Exception {
+		start(60_000, true);
+		for (String p : List.of("a", "b", "c"))
+			matchmaker.enqueue(p, "http://" + p);
+		// Checked before the fourth player completes the group and empties the queue.
+		assertFalse(matchmaker.enqueue("a", "http://other"));
+		assertFalse(matchmaker.enqueue("z", "http://b"));
+		matchmaker.enqueue("d", "http://d");
+
+		dispatcher.awaitStart();
+		String lobby = awaitStartedLobby();
+		assertTrue(lobby.startsWith("match-"));
+		assertEquals(Set.of("a", "b", "c", "d"), registry.list(lobby));
+	}
+
+	@Test
+	void failedStartQueuesTheOtherPlayersAgain() throws Exception {
+		dispatcher.failing = "c";
+		start(60_000, true);
+		for (String p : List.of("a", "b", "c", "d"))
+			matchmaker.enqueue(p, "http://" + p);
+
+		dispatcher.awaitStart();
+		awaitQueued(3);
+		assertEquals(Set.of("a", "b", "d"), registry.list(QUEUE));
+		assertEquals(1, meters.get("alcatraz.matchmaking.starts").tag("outcome", "failure").counter().count());
+	}
+
+	@Test
+	void backupMatchesTheReplicatedQueueAfterFailover() throws Exception {
+		PlayerRegistry master = new PlayerRegistry();
+		master.addListener((change, local) -> registry.apply(change));
+		start(100, false);
+
+		master.add(QUEUE, "a", "http://a");
+		master.add(QUEUE, "b", "http://b");
+		assertEquals(2, matchmaker.queued());
+		assertNull(dispatcher.starts.poll(300, TimeUnit.MILLISECONDS));
+
+		election.evaluate(List.of("node2"), "node2");
+		assertEquals(Set.of("a", "b"), dispatcher.awaitStart().keySet());
+		assertEquals(0, registry.size(QUEUE));
+	}
+
+	@Test
+	void playersMoveToTheMatchLobbyInOneBatch() throws Exception {
+		List<List<RegistryChange>> batches = new CopyOnWriteArrayList<>();
+		registry.addListener(new RegistryListener() {
+			@Override
+			public void onChange(RegistryChange change, boolean local) {
+			}
+
+			@Override
+			public void onChanges(List<RegistryChange> changes, boolean local) {
+				batches.add(changes);
+			}
+		});
+		start(60_000, true);
+		for (String p : List.of("a", "b", "c", "d"))
+			matchmaker.enqueue(p, "http://" + p);
+
+		dispatcher.awaitStart();
+		assertEquals(1, batches.size());
+		List<RegistryChange> move = batches.get(0);
+		assertEquals(8, move.size());
+		assertTrue(move.subList(0, 4).stream()
+				.allMatch(c -> c.kind() == RegistryChange.Kind.REMOVE && c.lobby().equals(QUEUE)));
+		assertTrue(move.subList(4, 8).stream()
+				.allMatch(c -> c.kind() == RegistryChange.Kind.ADD && c.lobby().startsWith("match-")));
+	}
+
+	@Test
+	void newMasterStartsAMatchItsPredecessorFormed() throws Exception {
+		PlayerRegistry master = new PlayerRegistry();
+		master.addListener((change, local) -> registry.apply(change));
+		start(60_000, false);
+
+		for (String p : List.of("a", "b", "c"))
+			master.add(QUEUE, p, "http://" + p);
+		master.moveAll(QUEUE, "match-4", List.of("a", "b", "c"));
+		assertNull(dispatcher.starts.poll(300, TimeUnit.MILLISECONDS));
+
+		election.evaluate(List.of("node2"), "node2");
+		assertEquals(Set.of("a", "b", "c"), dispatcher.awaitStart().keySet());
+		assertEquals("match-4", awaitStartedLobby());
+	}
+
+	@Test
+	void newMasterQueuesThePlayersOfATooSmallMatchAgain() throws Exception {
+		PlayerRegistry master = new PlayerRegistry();
+		master.addListener((change, local) -> registry.apply(change));
+		start(60_000, false);
+
+		master.add(QUEUE, "a", "http://a");
+		master.add(QUEUE, "b", "http://b");
+		master.moveAll(QUEUE, "match-3", List.of("a", "b"));
+		master.remove("match-3", "b");
+
+		election.evaluate(List.of("node2"), "node2");
+		awaitQueued(1);
+		assertEquals(Set.of("a"), registry.list(QUEUE));
+		assertFalse(registry.lobbyIds().contains("match-3"));
+	}
+
+	@Test
+	void refusedPlayerGoesToTheBackAndTheMatcherBacksOff() throws Exception {
+		AtomicInteger refusals = new AtomicInteger();
+		PlayerRegistry refusing = new PlayerRegistry() {
+			@Override
+			public List<BatchStatus> moveAll(String from, String to, List<String> players) {
+				if (!players.contains("b"))
+					return super.moveAll(from, to, players);
+				refusals.incrementAndGet();
+				return players.stream().map(p -> p.equals("b") ? BatchStatus.DUPLICATE_NAME : BatchStatus.OK).toList();
+			}
+		};
+		election.evaluate(List.of("node1"), "node1");
+		matchmaker = new Matchmaker(refusing, election, dispatcher, ShardMap.single(), 60_000, 4, meters);
+		matchmaker.start();
+		for (String p : List.of("a", "b", "c", "d", "e"))
+			refusing.add(QUEUE, p, "http://" + p);
+
+		assertEquals(Set.of("a", "c", "d", "e"), dispatcher.awaitStart().keySet());
+		Thread.sleep(300);
+		assertEquals(1, refusals.get(), "retried a refused move without backing off");
+		assertEquals(Set.of("b"), refusing.list(QUEUE));
+	}
+
+	private void start(long maxWaitMs, boolean master) {
+		election.evaluate(master ? List.of("node1") : List.of("node1", "node2"), master ? "node1" : "node2");
+		matchmaker = new Matchmaker(registry, election, dispatcher, ShardMap.single(), maxWaitMs, 4, meters);
+		matchmaker.start();
+	}
+
+	private void awaitQueued(int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (registry.size(QUEUE) != expected && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(expected, registry.size(QUEUE));
+	}
+
+	private String awaitStartedLobby() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (System.currentTimeMillis() < deadline) {
+			for (String lobby : registry.lobbyIds()) {
+				if (registry.isStarted(lobby))
+					return lobby;
+			}
+			Thread.sleep(10);
+		}
+		return fail("no lobby was started");
+	}
+
+	/**
+	 * Answers every start at once, failing the configured player.
+	 */
+	static final class FakeDispatcher extends StartDispatcher {
+		final BlockingQueue<Map<String, String>> starts = new LinkedBlockingQueue<>();
+		volatile String failing;
+
+		FakeDispatcher() {
+			super(new CallbackClientConfig().callbackHttpClient(1_000), new ObjectMapper(), null, 1_000,
+					new SimpleMeterRegistry());
+		}
+
+		@Override
+		public Outcome notifyStart(Map<String, String> players) {
+			starts.add(players);
+			if (failing != null && players.containsKey(failing))
+				return new Outcome(false, failing, "unreachable");
+			return new Outcome(true, null, null);
+		}
+
+		Map<String, String> awaitStart() throws InterruptedException {
+			Map<String, String> players = starts.poll(5, TimeUnit.SECONDS);
+			assertNotNull(players, "no game was started");
+			return players;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package at.hcw.alcatraz.matchmaking;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.spread.ElectionService;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Enqueue throughput of the matchmaking queue and the resulting queue wait.
+ *
+ * Producers enqueue players at a fixed rate on a single master; starts are
+ * answered at once, so the numbers show the queue and the matcher, not the
+ * callbacks. A rate the matcher cannot keep up with shows as a growing wait.
+ *
+ * Run with: mvn test -Dtest=MatchmakingBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class MatchmakingBenchmarkTest {
+
+	private static final int THREADS = 8;
+	private static final long DURATION_MILLIS = 3_000;
+	private static final long MAX_WAIT_MS = 50;
+
+	@Test
+	void enqueueRateAndQueueWait() throws Exception {
+		for (int rate : new int[]{10_000, 20_000, 50_000, 100_000})
+			run(rate);
+	}
+
+	private static void run(int targetRate) throws Exception {
+		SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		meters.config().meterFilter(new MeterFilter() {
+			@Override
+			public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+				return DistributionStatisticConfig.builder()
+						.percentiles(0.5, 0.9, 0.99, 0.999)
+						.build()
+						.merge(config);
+			}
+		});
+		PlayerRegistry registry = new PlayerRegistry();
+		ElectionService election = new ElectionService(meters);
+		election.evaluate(List.of("node1"), "node1");
+		MatchmakerTest.FakeDispatcher dispatcher = new MatchmakerTest.FakeDispatcher();
+		Matchmaker matchmaker = new Matchmaker(registry, election, dispatcher, ShardMap.single(), MAX_WAIT_MS, 32, meters);
+		matchmaker.start();
+
+		int perThread = (int) ((long) targetRate * DURATION_MILLIS / 1_000 / THREADS);
+		long intervalNanos = TimeUnit.SECONDS.toNanos(THREADS) / targetRate;
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> producers = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int t = 0; t < THREADS; t++) {
+			int thread = t;
+			producers.add(pool.submit(() -> {
+				for (int i = 0; i < perThread; i++) {
+					long due = start + i * intervalNanos;
+					long ahead = due - System.nanoTime();
+					if (ahead > 0)
+						LockSupport.parkNanos(ahead);
+					String name = "p" + thread + "-" + i;
+					assertTrue(matchmaker.enqueue(name, "http://" + name));
+				}
+			}));
+		}
+		for (Future<?> producer : producers)
+			producer.get();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		Timer wait = meters.get("alcatraz.matchmaking.wait").timer();
+		long players = (long) THREADS * perThread;
+		long deadline = System.currentTimeMillis() + 30_000;
+		while (wait.count() < players - Matchmaker.MIN_GROUP && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		matchmaker.stop();
+
+		StringBuilder percentiles = new StringBuilder();
+		for (ValueAtPercentile p : wait.takeSnapshot().percentileValues())
+			percentiles.append(String.format(" p%s=%.2fms", p.percentile() * 100, p.value(TimeUnit.MILLISECONDS)));
+		System.out.printf("[Benchmark] matchmaking target=%d/s: %d players, %.0f enqueues/sec, matched=%d, wait%s%n",
+				targetRate, players, players / seconds, wait.count(), percentiles);
+		assertTrue(wait.count() >= players - Matchmaker.MIN_GROUP);
+	}
+}
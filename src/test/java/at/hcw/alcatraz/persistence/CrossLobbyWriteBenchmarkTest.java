@@ -0,0 +1,89 @@
+package at.hcw.alcatraz.persistence;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Write throughput with persistence enabled, with 1 to 16 writers that each
+ * use lobbies of their own. Writes to different lobbies only share the
+ * version assignment, so throughput should grow with the writers until the
+ * listeners (WAL append, replication enqueue) are the bottleneck. With
+ * fsync=always every writer waits until its write is on disk; group commit
+ * lets one fsync cover the writes of all writers waiting at that moment.
+ *
+ * Run with: mvn test -Dtest=CrossLobbyWriteBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CrossLobbyWriteBenchmarkTest {
+
+	private static final int WRITES = 400_000;
+	private static final int DURABLE_WRITES = 20_000;
+	private static final int LOBBIES_PER_WRITER = 64;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void crossLobbyWriteThroughput() throws Exception {
+		for (String fsync : List.of("interval", "always")) {
+			int writes = fsync.equals("always") ? DURABLE_WRITES : WRITES;
+			for (int writers : new int[]{1, 4, 16}) {
+				Path run = dir.resolve(fsync + "-" + writers);
+				PlayerRegistry registry = new PlayerRegistry();
+				SimpleMeterRegistry meters = new SimpleMeterRegistry();
+				RegistryPersistence persistence = new RegistryPersistence(registry, true, run.toString(), fsync, 100,
+						DataSize.ofMegabytes(64), Long.MAX_VALUE, 5_000, meters);
+				persistence.start();
+				long nanos = write(registry, persistence, writers, writes);
+				persistence.stop();
+				System.out.printf("[Benchmark] fsync=%s writers=%d: %,d writes/s, %d fsyncs%n",
+						fsync, writers, writes * 1_000_000_000L / nanos,
+						meters.get("alcatraz.persistence.fsync").timer().count());
+			}
+		}
+	}
+
+	private static long write(PlayerRegistry registry, RegistryPersistence persistence, int writers, int writes)
+			throws Exception {
+		int perWriter = writes / writers;
+		List<Callable<Void>> tasks = new ArrayList<>(writers);
+		for (int w = 0; w < writers; w++) {
+			String prefix = "w" + w + "-";
+			tasks.add(() -> {
+				for (int i = 0; i < perWriter; i++) {
+					String lobby = prefix + (i % LOBBIES_PER_WRITER);
+					String player = "player-" + ((i / LOBBIES_PER_WRITER) % 2);
+					if (!registry.add(lobby, player, "http://" + lobby + "/" + player))
+						registry.remove(lobby, player);
+					assertTrue(persistence.awaitDurable(registry.version()));
+				}
+				return null;
+			});
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(writers);
+		try {
+			long start = System.nanoTime();
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+			long nanos = System.nanoTime() - start;
+			assertEquals((long) perWriter * writers, registry.version());
+			return nanos;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
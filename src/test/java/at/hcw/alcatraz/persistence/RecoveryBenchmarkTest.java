@@ -0,0 +1,75 @@
+package at.hcw.alcatraz.persistence;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Recovery time for a realistic log: 20 000 lobbies and 500 000 changes,
+ * once from the WAL alone and once from a snapshot plus a short WAL tail.
+ *
+ * Run with: mvn test -Dtest=RecoveryBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RecoveryBenchmarkTest {
+
+	private static final int CHANGES = 500_000;
+	private static final int LOBBIES = 20_000;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void recoveryTime() throws Exception {
+		PlayerRegistry before = new PlayerRegistry();
+		RegistryPersistence persistence = persistence(before);
+		persistence.start();
+		write(before, CHANGES);
+		persistence.stop();
+
+		RegistryPersistence fromWal = persistence(new PlayerRegistry());
+		long walMillis = recover(fromWal);
+
+		PlayerRegistry withSnapshot = new PlayerRegistry();
+		RegistryPersistence writer = persistence(withSnapshot);
+		writer.start();
+		writer.snapshot();
+		write(withSnapshot, 10_000);
+		writer.stop();
+		long snapshotMillis = recover(persistence(new PlayerRegistry()));
+
+		System.out.printf("[Benchmark] recovery of %d changes: wal-only=%d ms, snapshot+10k tail=%d ms%n",
+				CHANGES, walMillis, snapshotMillis);
+	}
+
+	private static long recover(RegistryPersistence persistence) throws Exception {
+		long start = System.nanoTime();
+		persistence.start();
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		persistence.stop();
+		return millis;
+	}
+
+	private static void write(PlayerRegistry registry, int changes) {
+		long base = registry.version();
+		for (int i = 0; i < changes; i++) {
+			String lobby = "lobby-" + (i % LOBBIES);
+			String player = "player-" + ((i / LOBBIES) % 2);
+			if (!registry.add(lobby, player, "http://" + lobby + "/" + player))
+				registry.remove(lobby, player);
+		}
+		assertEquals(base + changes, registry.version());
+	}
+
+	private RegistryPersistence persistence(PlayerRegistry registry) {
+		return new RegistryPersistence(registry, true, dir.toString(), "none", 100,
+				DataSize.ofMegabytes(64), Long.MAX_VALUE, 5_000, new SimpleMeterRegistry());
+	}
+}
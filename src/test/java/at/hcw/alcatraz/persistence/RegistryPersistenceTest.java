@@ -0,0 +1,186 @@
+package at.hcw.alcatraz.persistence;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegistryPersistenceTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void restartRebuildsRegistryFromWal() throws Exception {
+		PlayerRegistry before = new PlayerRegistry();
+		RegistryPersistence persistence = start(before, 1_000_000);
+		before.add("a", "alice", "http://alice");
+		before.add("a", "bob", "http://bob");
+		before.add("b", "carol", "http://carol");
+		before.remove("a", "bob");
+		before.add("a", "dave", "http://dave");
+		before.markStarted("a");
+		before.add("c", "erin", "http://erin");
+		before.reset("c");
+		persistence.stop();
+
+		PlayerRegistry after = new PlayerRegistry();
+		start(after, 1_000_000).stop();
+
+		assertEquals(8, after.version());
+		assertSameState(before, after);
+		assertTrue(after.isStarted("a"));
+	}
+
+	@Test
+	void snapshotsCompactTheWal() throws Exception {
+		PlayerRegistry before = new PlayerRegistry();
+		RegistryPersistence persistence = start(before, 1_000_000);
+		for (int i = 0; i < 2_000; i++)
+			before.add("lobby-" + (i / 4), "player-" + i, "http://player-" + i);
+		int segments = WriteAheadLog.segments(dir).size();
+		assertTrue(segments > 3, "expected several segments, got " + segments);
+
+		persistence.snapshot();
+		for (int i = 0; i < 10; i++)
+			before.remove("lobby-" + i, "player-" + (i * 4));
+		persistence.stop();
+		assertTrue(WriteAheadLog.segments(dir).size() < segments);
+
+		PlayerRegistry after = new PlayerRegistry();
+		start(after, 1_000_000).stop();
+		assertEquals(2_010, after.version());
+		assertSameState(before, after);
+	}
+
+	@Test
+	void tornRecordEndsRecovery() throws Exception {
+		PlayerRegistry before = new PlayerRegistry();
+		RegistryPersistence persistence = start(before, 1_000_000);
+		before.add("a", "alice", "http://alice");
+		before.add("a", "bob", "http://bob");
+		persistence.stop();
+
+		// Flip the last byte of bob's callback URL, as if the write had been cut short.
+		Path segment = WriteAheadLog.segments(dir).get(0).path();
+		try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			var buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+			int pos = 0;
+			pos += 8 + buf.getInt(pos);
+			int end = pos + 8 + buf.getInt(pos);
+			buf.put(end - 1, (byte) (buf.get(end - 1) ^ 0x7F));
+			buf.force();
+		}
+
+		PlayerRegistry after = new PlayerRegistry();
+		start(after, 1_000_000).stop();
+		assertEquals(1, after.version());
+		assertEquals(Set.of("alice"), after.list("a"));
+	}
+
+	@Test
+	void installedSnapshotIsStoredAcrossTheVersionJump() throws Exception {
+		PlayerRegistry before = new PlayerRegistry();
+		RegistryPersistence persistence = start(before, 1_000_000);
+		before.add("a", "alice", "http://alice");
+		before.install(new RegistrySnapshot(500, List.of(
+				new RegistrySnapshot.LobbyState("x", 500, false, Map.of("zoe", "http://zoe")))));
+		before.add("x", "yann", "http://yann");
+		persistence.stop();
+
+		PlayerRegistry after = new PlayerRegistry();
+		start(after, 1_000_000).stop();
+		assertEquals(501, after.version());
+		assertEquals(Set.of("zoe", "yann"), after.list("x"));
+		assertEquals(Set.of(), after.list("a"));
+	}
+
+	@Test
+	void recoveredSnapshotKeepsRegistrationOrder() throws Exception {
+		PlayerRegistry before = new PlayerRegistry();
+		RegistryPersistence persistence = start(before, 1_000_000);
+		for (String name : List.of("zoe", "yann", "walt", "alice"))
+			before.add("a", name, "http://" + name);
+		persistence.snapshot();
+		persistence.stop();
+
+		PlayerRegistry after = new PlayerRegistry();
+		start(after, 1_000_000).stop();
+		assertEquals(before.playerList("a").etag(), after.playerList("a").etag());
+		assertArrayEquals(before.playerList("a").json(), after.playerList("a").json());
+	}
+
+	@Test
+	void alwaysGroupsConcurrentWritesIntoSharedForces() throws Exception {
+		PlayerRegistry registry = new PlayerRegistry();
+		SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		RegistryPersistence persistence = new RegistryPersistence(registry, true, dir.toString(), "always", 50,
+				DataSize.ofMegabytes(1), 1_000_000, 5_000, meters);
+		persistence.start();
+
+		int writers = 8;
+		int writes = 200;
+		ExecutorService pool = Executors.newFixedThreadPool(writers);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int w = 0; w < writers; w++) {
+				String lobby = "lobby-" + w;
+				results.add(pool.submit(() -> {
+					for (int i = 0; i < writes; i++) {
+						String player = "player-" + (i % 2);
+						if (!registry.add(lobby, player, "http://" + lobby + "/" + player))
+							registry.remove(lobby, player);
+						if (!persistence.awaitDurable(registry.version()))
+							return false;
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> result : results)
+				assertTrue(result.get(30, TimeUnit.SECONDS));
+		} finally {
+			pool.shutdownNow();
+		}
+		persistence.stop();
+
+		long forces = meters.get("alcatraz.persistence.fsync").timer().count();
+		assertTrue(forces > 0 && forces < writers * writes, "forces=" + forces);
+		PlayerRegistry after = new PlayerRegistry();
+		start(after, 1_000_000).stop();
+		assertSameState(registry, after);
+	}
+
+	private RegistryPersistence start(PlayerRegistry registry, long snapshotEvery) throws Exception {
+		RegistryPersistence persistence = new RegistryPersistence(registry, true, dir.toString(), "none", 50,
+				DataSize.ofKilobytes(16), snapshotEvery, 5_000, new SimpleMeterRegistry());
+		persistence.start();
+		return persistence;
+	}
+
+	static void assertSameState(PlayerRegistry expected, PlayerRegistry actual) {
+		assertEquals(expected.version(), actual.version());
+		assertEquals(sorted(expected.snapshot()), sorted(actual.snapshot()));
+	}
+
+	private static List<RegistrySnapshot.LobbyState> sorted(RegistrySnapshot s) {
+		return s.lobbies().stream()
+				.sorted((x, y) -> x.id().compareTo(y.id()))
+				.toList();
+	}
+}
@@ -0,0 +1,254 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.spread.CatchUpService;
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.spread.NodeDirectory;
+import at.hcw.alcatraz.spread.ReplicationBatcher;
+import at.hcw.alcatraz.spread.SpreadConnectionService;
+import at.hcw.alcatraz.spread.SpreadManager;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MasterForwardingFilterTest {
+
+	private HttpServer master;
+
+	@AfterEach
+	void stop() {
+		if (master != null)
+			master.stop(0);
+	}
+
+	@Test
+	void forwardsWritesToTheMasterAndStreamsTheAnswerBack() throws Exception {
+		int port = startMaster();
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node2");
+		MasterForwardingFilter filter = filter(election, "node1:127.0.0.1:" + port + ",node2:127.0.0.1:1");
+
+		MockHttpServletResponse response = post(filter);
+
+		assertEquals(201, response.getStatus());
+		assertEquals("node2|/lobbies/x/players/register|{\"playerName\":\"Alice\"}", response.getContentAsString());
+		assertEquals("yes", response.getHeader("X-Master"));
+	}
+
+	@Test
+	void forwardedAnswersCarryTheMastersTopologyHeaders() throws Exception {
+		int port = startMaster();
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node2");
+		MasterForwardingFilter filter = filter(election, "node1:127.0.0.1:" + port + ",node2:127.0.0.1:1");
+
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/lobbies/x/players/register");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		response.setHeader(RoutingHeaders.MASTER_EPOCH, "1");
+		filter.doFilter(request, response, new MockFilterChain());
+
+		assertEquals(List.of("5"), response.getHeaders(RoutingHeaders.MASTER_EPOCH));
+	}
+
+	@Test
+	void retriesOnceWhenTheMasterChanges() throws Exception {
+		int port = startMaster();
+		int dead;
+		try (ServerSocket s = new ServerSocket(0)) {
+			dead = s.getLocalPort();
+		}
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2", "node3"), "node3");
+		MasterForwardingFilter filter = filter(election,
+				"node1:127.0.0.1:" + dead + ",node2:127.0.0.1:" + port + ",node3:127.0.0.1:1");
+
+		Thread failover = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException ignored) {
+			}
+			election.evaluate(List.of("node2", "node3"), "node3");
+		});
+		failover.start();
+
+		MockHttpServletResponse response = post(filter);
+		failover.join();
+
+		assertEquals(201, response.getStatus());
+	}
+
+	@Test
+	void doesNotResendAWriteTheMasterMayHaveApplied() throws Exception {
+		AtomicInteger received = new AtomicInteger();
+		master = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		master.createContext("/", exchange -> {
+			received.incrementAndGet();
+			try {
+				Thread.sleep(1_000);
+			} catch (InterruptedException ignored) {
+			}
+			exchange.sendResponseHeaders(201, -1);
+			exchange.close();
+		});
+		master.setExecutor(Executors.newCachedThreadPool());
+		master.start();
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node2");
+		MasterForwardingFilter filter = filter(election,
+				"node1:127.0.0.1:" + master.getAddress().getPort() + ",node2:127.0.0.1:1", new PlayerRegistry(), 300);
+
+		long start = System.nanoTime();
+		MockHttpServletResponse response = post(filter);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(504, response.getStatus());
+		assertEquals(1, received.get());
+		assertTrue(millis < 1_500, "waited " + millis + " ms for a master change before giving up");
+	}
+
+	@Test
+	void replacesTheForwardedForHeaderSentByTheClient() throws Exception {
+		List<List<String>> seen = new CopyOnWriteArrayList<>();
+		master = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		master.createContext("/", exchange -> {
+			seen.add(exchange.getRequestHeaders().get("X-Forwarded-For"));
+			seen.add(exchange.getRequestHeaders().get(RoutingHeaders.FORWARDED_BY));
+			exchange.sendResponseHeaders(201, -1);
+			exchange.close();
+		});
+		master.start();
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node2");
+		MasterForwardingFilter filter = filter(election,
+				"node1:127.0.0.1:" + master.getAddress().getPort() + ",node2:127.0.0.1:1");
+
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/lobbies/x/players/register");
+		request.setRemoteAddr("10.0.0.7");
+		request.addHeader("X-Forwarded-For", "10.9.9.9");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, new MockFilterChain());
+
+		assertEquals(201, response.getStatus());
+		assertEquals(List.of(List.of("10.0.0.7"), List.of("node2")), seen);
+	}
+
+	@Test
+	void leavesReadsAndMasterRequestsAlone() throws Exception {
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node2");
+		MasterForwardingFilter filter = filter(election, "node1:127.0.0.1:1,node2:127.0.0.1:1");
+
+		MockHttpServletRequest get = new MockHttpServletRequest("GET", "/players/all");
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(get, new MockHttpServletResponse(), chain);
+		assertSame(get, chain.getRequest());
+
+		election.evaluate(List.of("node1", "node2"), "node1");
+		MockHttpServletRequest write = new MockHttpServletRequest("POST", "/players/register");
+		chain = new MockFilterChain();
+		filter.doFilter(write, new MockHttpServletResponse(), chain);
+		assertSame(write, chain.getRequest());
+	}
+
+	@Test
+	void servesReadsLocallyUnlessTheBackupIsBehind() throws Exception {
+		int port = startMaster();
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node2");
+		PlayerRegistry registry = new PlayerRegistry();
+		registry.apply(new RegistryChange(RegistryChange.Kind.ADD, 1, "x", "alice", "http://alice"));
+		MasterForwardingFilter filter = filter(election, "node1:127.0.0.1:" + port + ",node2:127.0.0.1:1", registry);
+
+		// Caught up: served locally.
+		MockHttpServletRequest current = new MockHttpServletRequest("GET", "/lobbies/x/players/all");
+		current.addHeader(RoutingHeaders.MIN_VERSION, "1");
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(current, new MockHttpServletResponse(), chain);
+		assertSame(current, chain.getRequest());
+
+		// Behind, catches up while waiting: served locally.
+		MockHttpServletRequest soon = new MockHttpServletRequest("GET", "/lobbies/x/players/all");
+		soon.addHeader(RoutingHeaders.MIN_VERSION, "2");
+		Thread apply = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ignored) {
+			}
+			registry.apply(new RegistryChange(RegistryChange.Kind.ADD, 2, "x", "bob", "http://bob"));
+		});
+		apply.start();
+		chain = new MockFilterChain();
+		filter.doFilter(soon, new MockHttpServletResponse(), chain);
+		apply.join();
+		assertSame(soon, chain.getRequest());
+
+		// Still behind after waiting: forwarded to the master.
+		MockHttpServletRequest behind = new MockHttpServletRequest("GET", "/lobbies/x/players/all");
+		behind.addHeader(RoutingHeaders.MIN_VERSION, "9");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		chain = new MockFilterChain();
+		filter.doFilter(behind, response, chain);
+		assertNull(chain.getRequest());
+		assertEquals(201, response.getStatus());
+		assertEquals("yes", response.getHeader("X-Master"));
+	}
+
+	private int startMaster() throws Exception {
+		master = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		master.createContext("/", exchange -> {
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			byte[] answer = (exchange.getRequestHeaders().getFirst(RoutingHeaders.FORWARDED_BY)
+					+ "|" + exchange.getRequestURI().getPath() + "|" + body).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("X-Master", "yes");
+			exchange.getResponseHeaders().add(RoutingHeaders.MASTER_EPOCH, "5");
+			exchange.sendResponseHeaders(201, answer.length);
+			exchange.getResponseBody().write(answer);
+			exchange.close();
+		});
+		master.start();
+		return master.getAddress().getPort();
+	}
+
+	private static MockHttpServletResponse post(MasterForwardingFilter filter) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/lobbies/x/players/register");
+		request.setContentType("application/json");
+		request.setContent("{\"playerName\":\"Alice\"}".getBytes(StandardCharsets.UTF_8));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+
+	private static MasterForwardingFilter filter(ElectionService election, String nodes) {
+		return filter(election, nodes, new PlayerRegistry());
+	}
+
+	private static MasterForwardingFilter filter(ElectionService election, String nodes, PlayerRegistry registry) {
+		return filter(election, nodes, registry, 2_000);
+	}
+
+	private static MasterForwardingFilter filter(ElectionService election, String nodes, PlayerRegistry registry,
+	                                             long timeoutMs) {
+		SpreadConnectionService connection = new SpreadConnectionService(null, "node2", "binary", 0, "block", new SimpleMeterRegistry());
+		SpreadManager spread = new SpreadManager(connection, new ReplicationBatcher(connection, false, 0, 1),
+				election, new CatchUpService(connection, election, registry, 100, 16, 0, new SimpleMeterRegistry()),
+				registry, new NodeDirectory(nodes, "node2", "", 1, 1, new SimpleMeterRegistry()), ShardMap.single(), 1_000, new SimpleMeterRegistry());
+		return new MasterForwardingFilter(spread, registry, new RoutingMetrics(new SimpleMeterRegistry()), true, timeoutMs, 2_000, 200, "node2");
+	}
+
+}
@@ -0,0 +1,123 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.dto.ClusterMember;
+import at.hcw.alcatraz.dto.ClusterTopology;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardForwardingFilterTest {
+
+	private HttpServer other;
+	private final AtomicInteger topologies = new AtomicInteger();
+
+	@AfterEach
+	void stop() {
+		if (other != null)
+			other.stop(0);
+	}
+
+	@Test
+	void forwardsRequestsForLobbiesOfAnotherShardToItsMaster() throws Exception {
+		String url = startOtherShard();
+		// Shard 1 of this node listens on the port after shard 0's.
+		ShardForwardingFilter filter = filter(other.getAddress().getPort() - 1);
+		String remote = lobbyOfShard(1);
+
+		for (int i = 0; i < 2; i++) {
+			MockHttpServletRequest request = new MockHttpServletRequest("POST", "/lobbies/" + remote + "/players/register");
+			request.setContent("{\"playerName\":\"Alice\"}".getBytes(StandardCharsets.UTF_8));
+			MockHttpServletResponse response = new MockHttpServletResponse();
+			MockFilterChain chain = new MockFilterChain();
+			filter.doFilter(request, response, chain);
+
+			assertNull(chain.getRequest());
+			assertEquals(201, response.getStatus());
+			assertEquals("node0|{\"playerName\":\"Alice\"}", response.getContentAsString());
+			assertEquals("1", response.getHeader(RoutingHeaders.SHARD));
+		}
+		// The master is looked up once and then taken from the answers.
+		assertEquals(1, topologies.get());
+
+		// Streams are redirected instead.
+		MockHttpServletResponse stream = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("GET", "/lobbies/" + remote + "/players/events"), stream, new MockFilterChain());
+		assertEquals(307, stream.getStatus());
+		assertEquals(url + "/lobbies/" + remote + "/players/events", stream.getHeader("Location"));
+	}
+
+	@Test
+	void leavesLocalLobbiesAloneAndRejectsMisroutedForwards() throws Exception {
+		ShardForwardingFilter filter = filter(0);
+
+		MockHttpServletRequest local = new MockHttpServletRequest("POST", "/lobbies/" + lobbyOfShard(0) + "/players/register");
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(local, new MockHttpServletResponse(), chain);
+		assertSame(local, chain.getRequest());
+
+		MockHttpServletRequest queue = new MockHttpServletRequest("POST", "/matchmaking/queue");
+		chain = new MockFilterChain();
+		filter.doFilter(queue, new MockHttpServletResponse(), chain);
+		assertSame(queue, chain.getRequest());
+
+		MockHttpServletRequest forwarded = new MockHttpServletRequest("POST", "/lobbies/" + lobbyOfShard(1) + "/players/register");
+		forwarded.addHeader(RoutingHeaders.FORWARDED_BY, "node9");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(forwarded, response, new MockFilterChain());
+		assertEquals(421, response.getStatus());
+	}
+
+	private String startOtherShard() throws Exception {
+		other = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		String url = "http://localhost:" + other.getAddress().getPort();
+		ObjectMapper mapper = new ObjectMapper();
+		other.createContext("/", exchange -> {
+			byte[] answer;
+			int status;
+			if (exchange.getRequestURI().getPath().equals("/cluster/topology")) {
+				topologies.incrementAndGet();
+				answer = mapper.writeValueAsBytes(new ClusterTopology("node5", "node5", url, 1,
+						List.of(new ClusterMember("node5", url, true, 1)), 1, 2));
+				status = 200;
+			} else {
+				String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+				answer = (exchange.getRequestHeaders().getFirst(RoutingHeaders.FORWARDED_BY) + "|" + body)
+						.getBytes(StandardCharsets.UTF_8);
+				status = 201;
+			}
+			exchange.getResponseHeaders().add(RoutingHeaders.MASTER_NODE, "node5");
+			exchange.getResponseHeaders().add(RoutingHeaders.MASTER_ENDPOINT, url);
+			exchange.getResponseHeaders().add(RoutingHeaders.MASTER_EPOCH, "1");
+			exchange.getResponseHeaders().add(RoutingHeaders.SHARD, "1");
+			exchange.sendResponseHeaders(status, answer.length);
+			exchange.getResponseBody().write(answer);
+			exchange.close();
+		});
+		other.start();
+		return url;
+	}
+
+	private static String lobbyOfShard(int shard) {
+		for (int i = 0; ; i++) {
+			if (ShardMap.shardOf("lobby-" + i, 2) == shard)
+				return "lobby-" + i;
+		}
+	}
+
+	private static ShardForwardingFilter filter(int port) {
+		return new ShardForwardingFilter(new ShardMap(0, 2), new RoutingMetrics(new SimpleMeterRegistry()),
+				port, 2_000, "node0");
+	}
+}
@@ -0,0 +1,78 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMapTest {
+
+	@Test
+	void spreadsLobbiesOverAllShardsAndHonoursPins() {
+		Set<Integer> used = new HashSet<>();
+		for (int i = 0; i < 64; i++) {
+			int shard = ShardMap.shardOf("lobby-" + i, 4);
+			assertTrue(shard >= 0 && shard < 4);
+			assertEquals(shard, ShardMap.shardOf("lobby-" + i, 4));
+			used.add(shard);
+		}
+		assertEquals(4, used.size());
+
+		assertEquals(3, ShardMap.shardOf("match-17@3", 4));
+		assertEquals(ShardMap.shardOf("match-17@9", 4), ShardMap.shardOf("match-17@9", 4));
+		assertEquals(0, ShardMap.shardOf("anything", 1));
+
+		ShardMap map = new ShardMap(2, 4);
+		assertEquals("match-17@2", map.pin("match-17"));
+		assertTrue(map.isLocal(map.pin("match-17")));
+		assertEquals("match-17", ShardMap.single().pin("match-17"));
+		assertThrows(IllegalArgumentException.class, () -> new ShardMap(4, 4));
+	}
+
+	@Test
+	void ranksMembersPerShardAndMovesOnlyTheShardsOfANodeThatLeft() {
+		List<String> members = List.of("node1", "node2", "node3");
+		assertEquals(members, ShardMap.single().rank(members, "node1"));
+
+		Map<Integer, String> leaders = new HashMap<>();
+		for (int shard = 0; shard < 12; shard++) {
+			ShardMap map = new ShardMap(shard, 12);
+			List<String> ranked = map.rank(members, null);
+			assertEquals(Set.copyOf(members), Set.copyOf(ranked));
+			assertEquals(ranked, map.rank(members, null));
+			leaders.put(shard, ranked.get(0));
+		}
+		assertEquals(Set.copyOf(members), Set.copyOf(leaders.values()));
+
+		List<String> survivors = List.of("node1", "node3");
+		for (int shard = 0; shard < 12; shard++) {
+			String leader = new ShardMap(shard, 12).rank(survivors, null).get(0);
+			if (!leaders.get(shard).equals("node2"))
+				assertEquals(leaders.get(shard), leader);
+		}
+
+		// A newcomer does not lead in the view it joined with, unless it is alone.
+		for (int shard = 0; shard < 12; shard++) {
+			ShardMap map = new ShardMap(shard, 12);
+			List<String> ranked = map.rank(members, "node2");
+			assertEquals("node2", ranked.get(2));
+			assertEquals(map.rank(survivors, null), ranked.subList(0, 2));
+		}
+		assertEquals(List.of("node4"), new ShardMap(3, 12).rank(List.of("node4"), "node4"));
+	}
+
+	@Test
+	void findsTheLobbyOfARequestPath() {
+		assertEquals("a b", ShardMap.lobbyOf("/lobbies/a%20b/players/register"));
+		assertEquals("a+b", ShardMap.lobbyOf("/lobbies/a+b/players/all"));
+		assertEquals(PlayerRegistry.DEFAULT_LOBBY, ShardMap.lobbyOf("/players/game/start"));
+		assertNull(ShardMap.lobbyOf("/matchmaking/queue"));
+		assertNull(ShardMap.lobbyOf("/cluster/topology"));
+	}
+}
@@ -0,0 +1,79 @@
+package at.hcw.alcatraz.routing;
+
+import at.hcw.alcatraz.controller.ClusterController;
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dto.ClusterTopology;
+import at.hcw.alcatraz.spread.CatchUpService;
+import at.hcw.alcatraz.spread.ElectionService;
+import at.hcw.alcatraz.spread.NodeDirectory;
+import at.hcw.alcatraz.spread.ReplicationBatcher;
+import at.hcw.alcatraz.spread.SpreadConnectionService;
+import at.hcw.alcatraz.spread.SpreadManager;
+import at.hcw.alcatraz.transport.MembershipView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopologyHeaderFilterTest {
+
+	private final ElectionService election = new ElectionService(new SimpleMeterRegistry());
+	private final SpreadManager spread = spreadManager(election);
+
+	@Test
+	void addsTheMasterToEveryResponse() throws Exception {
+		TopologyHeaderFilter filter = new TopologyHeaderFilter(spread, ShardMap.single());
+
+		MockHttpServletResponse none = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("GET", "/players/all"), none, new MockFilterChain());
+		assertNull(none.getHeader(RoutingHeaders.MASTER_NODE));
+
+		spread.onMembershipReceived(view("node1", "node2"));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(new MockHttpServletRequest("GET", "/players/all"), response, new MockFilterChain());
+		assertEquals("node1", response.getHeader(RoutingHeaders.MASTER_NODE));
+		assertEquals("http://10.0.0.1:8080", response.getHeader(RoutingHeaders.MASTER_ENDPOINT));
+		assertEquals("1", response.getHeader(RoutingHeaders.MASTER_EPOCH));
+	}
+
+	@Test
+	void topologyFollowsMembershipAndKeepsItsTagWhileUnchanged() {
+		ClusterController controller = new ClusterController(spread, ShardMap.single());
+		spread.onMembershipReceived(view("node1", "node2"));
+
+		ResponseEntity<ClusterTopology> first = controller.topology();
+		ClusterTopology topology = first.getBody();
+		assertEquals("node2", topology.getSelf());
+		assertEquals("node1", topology.getMaster());
+		assertEquals("http://10.0.0.1:8080", topology.getMasterEndpoint());
+		assertEquals(2, topology.getMembers().size());
+		assertTrue(topology.getMembers().get(0).isMaster());
+		assertEquals(first.getHeaders().getETag(), controller.topology().getHeaders().getETag());
+
+		spread.onMembershipReceived(view("node2"));
+		ResponseEntity<ClusterTopology> after = controller.topology();
+		assertEquals("node2", after.getBody().getMaster());
+		assertEquals(2, after.getBody().getEpoch());
+		assertNotEquals(first.getHeaders().getETag(), after.getHeaders().getETag());
+	}
+
+	private static MembershipView view(String... ids) {
+		return new MembershipView(List.of(ids).stream().map(id -> "#" + id + "#localhost").toList(),
+				MembershipView.Cause.JOIN, null);
+	}
+
+	private static SpreadManager spreadManager(ElectionService election) {
+		PlayerRegistry registry = new PlayerRegistry();
+		SpreadConnectionService connection = new SpreadConnectionService(null, "node2", "binary", 0, "block", new SimpleMeterRegistry());
+		return new SpreadManager(connection, new ReplicationBatcher(connection, false, 0, 1),
+				election, new CatchUpService(connection, election, registry, 100, 16, 0, new SimpleMeterRegistry()),
+				registry, new NodeDirectory("node1:10.0.0.1:8080,node2:10.0.0.2:8081", "node2", "", 8081, 1, new SimpleMeterRegistry()),
+				ShardMap.single(), 1_000, new SimpleMeterRegistry());
+	}
+}
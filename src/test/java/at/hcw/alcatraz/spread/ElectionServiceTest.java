@@ -0,0 +1,75 @@
+package at.hcw.alcatraz.spread;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElectionServiceTest {
+
+	@Test
+	void epochAdvancesOnlyWhenTheMasterChanges() {
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2", "node3"), "node2");
+		assertEquals(new ElectionService.MasterState("node1", false, 1), election.state());
+
+		election.evaluate(List.of("node1", "node2"), "node2");
+		assertEquals(1, election.epoch());
+
+		election.evaluate(List.of("node2"), "node2");
+		assertEquals(new ElectionService.MasterState("node2", true, 2), election.state());
+
+		election.resetMaster();
+		assertEquals(new ElectionService.MasterState(null, false, 2), election.state());
+	}
+
+	@Test
+	void backupRejectsOlderEpochsAndFollowsNewerOnes() {
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node2");
+		election.evaluate(List.of("node2"), "node2");
+		election.evaluate(List.of("node1", "node2"), "node2");
+		assertEquals(3, election.epoch());
+
+		assertFalse(election.accept(1));
+		assertTrue(election.accept(3));
+		assertTrue(election.accept(5));
+		assertEquals(5, election.epoch());
+		assertFalse(election.accept(4));
+	}
+
+	@Test
+	void masterMovesPastEpochsItLearnsAbout() {
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2"), "node1");
+		assertEquals(1, election.epoch());
+
+		assertFalse(election.observe(0));
+		assertTrue(election.observe(4));
+		assertEquals(5, election.epoch());
+		assertTrue(election.isMaster());
+		assertFalse(election.accept(4));
+	}
+
+	@Test
+	void waitersSeeTheNextMaster() throws Exception {
+		ElectionService election = new ElectionService(new SimpleMeterRegistry());
+		election.evaluate(List.of("node1", "node2", "node3"), "node3");
+
+		CompletableFuture<String> next = CompletableFuture.supplyAsync(() -> {
+			try {
+				return election.awaitMasterChange("node1", 5_000);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(50);
+		election.evaluate(List.of("node2", "node3"), "node3");
+
+		assertEquals("node2", next.get());
+		assertNull(election.awaitMasterChange("node2", 10));
+	}
+}
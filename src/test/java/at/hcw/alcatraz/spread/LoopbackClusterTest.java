@@ -0,0 +1,446 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import at.hcw.alcatraz.dto.SpreadPacket;
+import at.hcw.alcatraz.routing.ShardMap;
+import at.hcw.alcatraz.transport.LoopbackNetwork;
+import at.hcw.alcatraz.transport.LoopbackTransport;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replication and failover of a three node cluster on the in-JVM loopback transport.
+ */
+class LoopbackClusterTest {
+
+	private static final String NODES = "node1:9001,node2:9002,node3:9003";
+
+	private final LoopbackNetwork network = new LoopbackNetwork();
+	private final List<Node> nodes = new ArrayList<>();
+
+	@AfterEach
+	void shutdown() {
+		nodes.forEach(Node::close);
+	}
+
+	@Test
+	void backupsFollowTheMasterUnderDelay() throws Exception {
+		network.setDelay(0, 3);
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+
+		for (int i = 0; i < 100; i++)
+			assertTrue(node1.registry.add("lobby-" + (i / 4), "player-" + i, "http://player-" + i));
+		node1.registry.markStarted("lobby-0");
+
+		awaitConverged(node1, node2, node3);
+		assertTrue(node3.registry.isStarted("lobby-0"));
+	}
+
+	@Test
+	void backupTakesOverWhenMasterLeaves() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+		node1.registry.add("a", "alice", "http://alice");
+		awaitConverged(node1, node2, node3);
+
+		node1.close();
+		awaitMaster("node2", node2, node3);
+		assertTrue(node2.manager.isMaster());
+		assertFalse(node3.manager.isMaster());
+
+		node2.registry.add("a", "bob", "http://bob");
+		awaitConverged(node2, node3);
+		assertEquals(Set.of("alice", "bob"), node3.registry.list("a"));
+	}
+
+	@Test
+	void backupsRejectDeltasOfADeposedMaster() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+		node1.registry.add("a", "alice", "http://alice");
+		awaitConverged(node1, node2, node3);
+		long deposedEpoch = node1.election.epoch();
+
+		node1.close();
+		awaitMaster("node2", node2, node3);
+		assertTrue(node3.election.epoch() > deposedEpoch);
+		node2.registry.add("a", "bob", "http://bob");
+		awaitConverged(node2, node3);
+
+		// A delta node1 still had in flight when it lost the master role.
+		long next = node3.registry.version() + 1;
+		node3.manager.onRegularMessage(List.of(new SpreadPacket(SpreadMsgType.ADD, next, "a",
+				Map.of("mallory", "http://mallory"), deposedEpoch)), "#node1#loopback");
+		assertEquals(next - 1, node3.registry.version());
+		assertEquals(1, node3.meters.get("alcatraz.replication.fenced").counter().count());
+
+		node2.registry.add("a", "carol", "http://carol");
+		awaitConverged(node2, node3);
+		assertEquals(Set.of("alice", "bob", "carol"), node3.registry.list("a"));
+	}
+
+	@Test
+	void membersLearnEndpointsFromAnnouncementsAndForgetNodesThatLeft() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node4 = start("node4");
+		awaitMaster("node1", node1, node2, node4);
+
+		// node4 is not in cluster.nodes; node1 and node2 are, but their announcements win.
+		await(() -> "http://localhost:9104".equals(node1.manager.getEndpoint("node4"))
+				&& "http://localhost:9104".equals(node2.manager.getEndpoint("node4"))
+				&& "http://localhost:9101".equals(node4.manager.getMasterEndpoint())
+				&& "http://localhost:9102".equals(node4.manager.getEndpoint("node2")), "announcements");
+		await(() -> node1.manager.topologyTag().equals(node4.manager.topologyTag())
+				&& node2.manager.topologyTag().equals(node4.manager.topologyTag()), "same topology tag");
+
+		String before = node1.manager.topologyTag();
+		node4.close();
+		await(() -> node1.manager.getEndpoint("node4") == null && node2.manager.getEndpoint("node4") == null,
+				"node4 dropped");
+		assertNotEquals(before, node1.manager.topologyTag());
+		assertEquals("http://localhost:9101", node2.manager.getMasterEndpoint());
+	}
+
+	@Test
+	void lostDeltasAreRecoveredThroughSnapshots() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+
+		network.setLossRate(0.2);
+		for (int i = 0; i < 200; i++)
+			assertTrue(node1.registry.add("lobby-" + (i / 4), "player-" + i, "http://player-" + i));
+		network.setLossRate(0);
+
+		// Gaps are only noticed when a later delta arrives, so keep writing until all caught up.
+		long deadline = System.currentTimeMillis() + 10_000;
+		int extra = 0;
+		while (!converged(node1, node2, node3) && System.currentTimeMillis() < deadline) {
+			assertTrue(node1.registry.add("tail-" + extra, "player", "http://tail-" + extra++));
+			Thread.sleep(20);
+		}
+		assertConverged(node1, node2, node3);
+	}
+
+	@Test
+	void isolatedNodeCatchesUpAfterHeal() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+
+		network.partition(Set.of("node1", "node2"), Set.of("node3"));
+		awaitMaster("node3", node3);
+
+		node1.registry.add("a", "alice", "http://alice");
+		node1.registry.add("a", "bob", "http://bob");
+		awaitConverged(node1, node2);
+		assertEquals(0, node3.registry.version());
+
+		network.heal();
+		awaitMaster("node1", node1, node2, node3);
+		awaitConverged(node1, node2, node3);
+		assertEquals(Set.of("alice", "bob"), node3.registry.list("a"));
+	}
+
+	@Test
+	void minorityAheadOfTheMasterIsResetAfterHeal() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+
+		network.partition(Set.of("node1", "node2"), Set.of("node3"));
+		awaitMaster("node3", node3);
+
+		node1.registry.add("a", "alice", "http://alice");
+		node3.registry.add("a", "mallory", "http://mallory");
+		node3.registry.add("b", "trent", "http://trent");
+		node3.registry.add("b", "peggy", "http://peggy");
+		awaitConverged(node1, node2);
+
+		network.heal();
+		awaitMaster("node1", node1, node2, node3);
+		awaitConverged(node1, node2, node3);
+		assertEquals(Set.of("alice"), node3.registry.list("a"));
+		assertTrue(node3.registry.list("b").isEmpty());
+
+		// Deltas of the master apply again instead of counting as duplicates.
+		node1.registry.add("a", "bob", "http://bob");
+		awaitConverged(node1, node2, node3);
+		assertEquals(Set.of("alice", "bob"), node3.registry.list("a"));
+	}
+
+	@Test
+	void minorityAtTheSameVersionWithOtherWritesIsResetAfterHeal() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+		node1.registry.add("a", "alice", "http://alice");
+		awaitConverged(node1, node2, node3);
+
+		network.partition(Set.of("node1", "node2"), Set.of("node3"));
+		awaitMaster("node3", node3);
+
+		node1.registry.add("a", "bob", "http://bob");
+		node3.registry.add("a", "mallory", "http://mallory");
+		awaitConverged(node1, node2);
+		assertEquals(node1.registry.version(), node3.registry.version());
+
+		network.heal();
+		awaitMaster("node1", node1, node2, node3);
+		awaitConverged(node1, node2, node3);
+		assertEquals(Set.of("alice", "bob"), node3.registry.list("a"));
+	}
+
+	@Test
+	void restartedNodeReceivesOnlyMissingDeltas() throws Exception {
+		Node node1 = start("node1");
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitMaster("node1", node1, node2, node3);
+		for (int i = 0; i < 40; i++)
+			assertTrue(node1.registry.add("lobby-" + (i / 4), "player-" + i, "http://player-" + i));
+		awaitConverged(node1, node2, node3);
+		// Live deltas can converge the backups before their join catch-up was answered.
+		await(() -> node2.catchUps() > 0 && node3.catchUps() > 0, "join catch-up");
+
+		node3.close();
+		for (int i = 40; i < 60; i++)
+			assertTrue(node1.registry.add("lobby-" + (i / 4), "player-" + i, "http://player-" + i));
+		double served = node1.catchUpServed("delta");
+
+		Node restarted = start(new Node(network, "node3", node3.registry, 10_000, 256, 0));
+		awaitConverged(node1, node2, restarted);
+		await(() -> node1.catchUpServed("delta") > served, "catch-up answer");
+		assertEquals(served + 1, node1.catchUpServed("delta"));
+		assertEquals(0, node1.catchUpFrames("snapshot"));
+	}
+
+	@Test
+	void nodeBeyondTheDeltaLogGetsAChunkedSnapshot() throws Exception {
+		Node node1 = start(new Node(network, "node1", new PlayerRegistry(), 16, 8, 0));
+		awaitMaster("node1", node1);
+		for (int i = 0; i < 100; i++)
+			assertTrue(node1.registry.add("lobby-" + (i / 4), "player-" + i, "http://player-" + i));
+
+		Node node2 = start("node2");
+		awaitConverged(node1, node2);
+		assertEquals(1, node1.catchUpServed("snapshot"));
+		assertEquals(4, node1.catchUpFrames("snapshot")); // 25 lobbies in chunks of 8
+	}
+
+	@Test
+	void joinBurstIsAnsweredWithOneSnapshot() throws Exception {
+		Node node1 = start(new Node(network, "node1", new PlayerRegistry(), 16, 8, 300));
+		awaitMaster("node1", node1);
+		for (int i = 0; i < 100; i++)
+			assertTrue(node1.registry.add("lobby-" + (i / 4), "player-" + i, "http://player-" + i));
+
+		Node node2 = start("node2");
+		Node node3 = start("node3");
+		awaitConverged(node1, node2, node3);
+		assertEquals(2, node1.catchUpServed("snapshot"));
+		assertEquals(4, node1.catchUpFrames("snapshot"));
+	}
+
+	@Test
+	void shardsOfANodeThatLeftAreLedByTheSurvivors() throws Exception {
+		int shards = 8;
+		List<LoopbackNetwork> groups = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++)
+			groups.add(new LoopbackNetwork());
+		Map<String, List<Node>> hosts = new LinkedHashMap<>();
+		for (String id : List.of("node1", "node2", "node3"))
+			hosts.put(id, startShards(groups, id));
+
+		// node3 joined last and leads nothing yet; node1 and node2 share the shards.
+		Set<String> leaders = new HashSet<>();
+		for (int shard = 0; shard < shards; shard++) {
+			String leader = new ShardMap(shard, shards).rank(List.of("node1", "node2"), null).get(0);
+			awaitMaster(leader, shardOf(hosts, shard));
+			leaders.add(leader);
+		}
+		assertEquals(Set.of("node1", "node2"), leaders);
+
+		int shard = 0;
+		while (!"node2".equals(hosts.get("node1").get(shard).manager.getCurrentMasterId()))
+			shard++;
+		hosts.get("node2").get(shard).registry.add("a", "alice", "http://alice");
+		awaitConverged(shardOf(hosts, shard));
+
+		hosts.remove("node2").forEach(Node::close);
+		List<String> survivors = List.of("node1", "node3");
+		for (int s = 0; s < shards; s++)
+			awaitMaster(new ShardMap(s, shards).rank(survivors, null).get(0), shardOf(hosts, s));
+
+		Node leader = hosts.get(hosts.get("node1").get(shard).manager.getCurrentMasterId()).get(shard);
+		assertTrue(leader.manager.isMaster());
+		assertEquals(Set.of("alice"), leader.registry.list("a"));
+		leader.registry.add("a", "bob", "http://bob");
+		awaitConverged(shardOf(hosts, shard));
+
+		// Back with an empty registry, node2 catches up instead of taking its shards back.
+		hosts.put("node2", startShards(groups, "node2"));
+		awaitConverged(shardOf(hosts, shard));
+		assertEquals(Set.of("alice", "bob"), hosts.get("node2").get(shard).registry.list("a"));
+		assertEquals(leader.id, hosts.get("node2").get(shard).manager.getCurrentMasterId());
+	}
+
+	// ================= HELPERS =================
+
+	private Node start(String id) throws Exception {
+		return start(new Node(network, id, new PlayerRegistry(), 10_000, 256, 0));
+	}
+
+	/**
+	 * Starts one node per shard for the same node id, each joining the group of its shard.
+	 */
+	private List<Node> startShards(List<LoopbackNetwork> groups, String id) throws Exception {
+		List<Node> shards = new ArrayList<>();
+		for (int shard = 0; shard < groups.size(); shard++) {
+			shards.add(start(new Node(groups.get(shard), id, new PlayerRegistry(), 10_000, 256, 0,
+					new ShardMap(shard, groups.size()))));
+		}
+		return shards;
+	}
+
+	private static Node[] shardOf(Map<String, List<Node>> hosts, int shard) {
+		return hosts.values().stream().map(shards -> shards.get(shard)).toArray(Node[]::new);
+	}
+
+	private Node start(Node node) {
+		nodes.add(node);
+		return node;
+	}
+
+	private static void awaitMaster(String master, Node... nodes) throws InterruptedException {
+		await(() -> {
+			for (Node n : nodes) {
+				if (!master.equals(n.manager.getCurrentMasterId()))
+					return false;
+			}
+			return true;
+		}, "master " + master);
+	}
+
+	private static void awaitConverged(Node... nodes) throws InterruptedException {
+		await(() -> converged(nodes), "convergence");
+		assertConverged(nodes);
+	}
+
+	private static boolean converged(Node... nodes) {
+		RegistrySnapshot reference = nodes[0].registry.snapshot();
+		for (Node n : nodes) {
+			if (!sameState(reference, n.registry.snapshot()))
+				return false;
+		}
+		return true;
+	}
+
+	private static void assertConverged(Node... nodes) {
+		RegistrySnapshot reference = nodes[0].registry.snapshot();
+		for (Node n : nodes) {
+			RegistrySnapshot actual = n.registry.snapshot();
+			assertEquals(reference.version(), actual.version(), n.id + " version");
+			assertTrue(sameState(reference, actual), n.id + " state");
+		}
+	}
+
+	private static boolean sameState(RegistrySnapshot a, RegistrySnapshot b) {
+		return a.version() == b.version() && sorted(a).equals(sorted(b));
+	}
+
+	private static List<RegistrySnapshot.LobbyState> sorted(RegistrySnapshot s) {
+		return s.lobbies().stream()
+				.sorted((x, y) -> x.id().compareTo(y.id()))
+				.toList();
+	}
+
+	private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline)
+				fail("Timed out waiting for " + what);
+			Thread.sleep(10);
+		}
+	}
+
+	static final class Node {
+		final String id;
+		final PlayerRegistry registry;
+		final LoopbackTransport transport;
+		final SpreadConnectionService connection;
+		final SpreadManager manager;
+		final ElectionService election;
+		final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+		Node(LoopbackNetwork network, String id, PlayerRegistry registry,
+			 int deltaLogSize, int chunkSize, long coalesceMs) throws Exception {
+			this(network, id, registry, deltaLogSize, chunkSize, coalesceMs, ShardMap.single());
+		}
+
+		Node(LoopbackNetwork network, String id, PlayerRegistry registry,
+			 int deltaLogSize, int chunkSize, long coalesceMs, ShardMap shards) throws Exception {
+			this.id = id;
+			this.registry = registry;
+			this.transport = new LoopbackTransport(network, id);
+			this.connection = new SpreadConnectionService(transport, id, "binary", 10_000, "block", meters);
+			this.election = new ElectionService(meters);
+			CatchUpService catchUp = new CatchUpService(connection, election, registry, deltaLogSize, chunkSize, coalesceMs, meters);
+			this.manager = new SpreadManager(connection, new ReplicationBatcher(connection, false, 0, 1),
+					election, catchUp, registry, directory(id), shards, 1_000, meters);
+			manager.setup();
+		}
+
+		/**
+		 * Announces "http://localhost:91xx", so announced endpoints differ from the configured 90xx.
+		 */
+		private NodeDirectory directory(String id) {
+			return new NodeDirectory(NODES, id, "localhost", 9100 + Integer.parseInt(id.substring(4)), 1, meters);
+		}
+
+		double catchUpServed(String mode) {
+			return meters.get("alcatraz.replication.catchup.served").tag("mode", mode).counter().count();
+		}
+
+		long catchUps() {
+			return meters.get("alcatraz.replication.catchup").timer().count();
+		}
+
+		double catchUpFrames(String mode) {
+			return meters.get("alcatraz.replication.catchup.frames").tag("mode", mode).counter().count();
+		}
+
+		void close() {
+			transport.close();
+			try {
+				connection.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
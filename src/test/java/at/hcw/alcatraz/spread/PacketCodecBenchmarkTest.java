@@ -0,0 +1,61 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares message size and encode/decode throughput of the JSON and binary codecs.
+ *
+ * Run with: mvn test -Dtest=PacketCodecBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PacketCodecBenchmarkTest {
+
+	private static final long DURATION_NANOS = 1_000_000_000L;
+
+	@Test
+	void compareCodecs() throws Exception {
+		List<SpreadPacket> single = List.of(new SpreadPacket(SpreadMsgType.ADD, 1_234_567, "lobby-4711",
+				Map.of("Alice", "http://192.168.0.76:9001")));
+		List<SpreadPacket> batch = new ArrayList<>();
+		for (int i = 0; i < 256; i++)
+			batch.add(new SpreadPacket(SpreadMsgType.ADD, 1_234_567 + i, "lobby-" + i,
+					Map.of("player-" + i, "http://192.168.0." + (i % 250) + ":9001")));
+
+		for (PacketCodec codec : List.of(new JsonPacketCodec(), new BinaryPacketCodec())) {
+			report(codec, "single", single);
+			report(codec, "batch256", batch);
+		}
+	}
+
+	private static void report(PacketCodec codec, String name, List<SpreadPacket> frame) throws Exception {
+		byte[] data = codec.encode(frame);
+
+		// Warm-up
+		for (int i = 0; i < 20_000; i++)
+			codec.decode(codec.encode(frame));
+
+		long encodes = 0;
+		long end = System.nanoTime() + DURATION_NANOS;
+		while (System.nanoTime() < end) {
+			codec.encode(frame);
+			encodes++;
+		}
+
+		long decodes = 0;
+		end = System.nanoTime() + DURATION_NANOS;
+		while (System.nanoTime() < end) {
+			codec.decode(data);
+			decodes++;
+		}
+
+		System.out.printf("[Benchmark] codec=%s frame=%s bytes=%d encode/s=%d decode/s=%d%n",
+				codec.getClass().getSimpleName(), name, data.length, encodes, decodes);
+	}
+
+}
@@ -0,0 +1,131 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dto.SpreadPacket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketCodecTest {
+
+	private static final SpreadMsgType[] TYPES = SpreadMsgType.values();
+
+	@Test
+	void binaryRoundTripsRandomFrames() throws Exception {
+		roundTrip(new BinaryPacketCodec());
+	}
+
+	@Test
+	void jsonRoundTripsRandomFrames() throws Exception {
+		roundTrip(new JsonPacketCodec());
+	}
+
+	@Test
+	void connectionDecodesBothFormats() throws Exception {
+		SpreadConnectionService spread = new SpreadConnectionService(null, "node1", "binary", 0, "block", new SimpleMeterRegistry());
+		List<SpreadPacket> frame = List.of(new SpreadPacket(SpreadMsgType.ADD, 7, "lobby", Map.of("alice", "http://alice")));
+
+		assertEquals(frame, spread.decode(new BinaryPacketCodec().encode(frame)));
+		assertEquals(frame, spread.decode(new JsonPacketCodec().encode(frame)));
+	}
+
+	@Test
+	void rejectsUnknownFormatVersion() throws Exception {
+		SpreadConnectionService spread = new SpreadConnectionService(null, "node1", "binary", 0, "block", new SimpleMeterRegistry());
+		byte[] data = new BinaryPacketCodec().encode(List.of(new SpreadPacket(SpreadMsgType.START, 1, "x", null)));
+		data[0] = BinaryPacketCodec.FORMAT_VERSION + 1;
+
+		IOException e = assertThrows(IOException.class, () -> spread.decode(data));
+		assertTrue(e.getMessage().contains("0x" + (BinaryPacketCodec.FORMAT_VERSION + 1)));
+	}
+
+	@Test
+	void rejectsTruncatedFrames() throws Exception {
+		BinaryPacketCodec codec = new BinaryPacketCodec();
+		byte[] data = codec.encode(List.of(new SpreadPacket(SpreadMsgType.ADD, 300, "lobby", Map.of("alice", "http://alice"))));
+		for (int len = 1; len < data.length; len++) {
+			byte[] cut = Arrays.copyOf(data, len);
+			assertThrows(IOException.class, () -> codec.decode(cut), "length " + len);
+		}
+	}
+
+	@Test
+	void snapshotFramesKeepRegistrationOrder() throws Exception {
+		PlayerRegistry master = new PlayerRegistry();
+		for (String name : List.of("zoe", "yann", "walt", "alice"))
+			master.add("a", name, "http://" + name);
+		List<SpreadPacket> frame = ReplicationFrames.toFrames(master.snapshot(), 16, 1, false).get(0);
+
+		for (PacketCodec codec : List.of(new BinaryPacketCodec(), new JsonPacketCodec())) {
+			PlayerRegistry backup = new PlayerRegistry();
+			backup.install(ReplicationFrames.toSnapshot(codec.decode(codec.encode(frame))));
+			assertEquals(master.playerList("a").etag(), backup.playerList("a").etag());
+			assertArrayEquals(master.playerList("a").json(), backup.playerList("a").json(), codec.getClass().getSimpleName());
+		}
+	}
+
+	@Test
+	void binaryIsSmallerThanJson() throws Exception {
+		List<SpreadPacket> frame = List.of(new SpreadPacket(SpreadMsgType.ADD, 123_456, "default", Map.of("Alice", "http://localhost:9001")));
+		int binary = new BinaryPacketCodec().encode(frame).length;
+		int json = new JsonPacketCodec().encode(frame).length;
+		assertTrue(binary * 2 < json, "binary=" + binary + " json=" + json);
+	}
+
+	private static void roundTrip(PacketCodec codec) throws Exception {
+		Random random = new Random(42);
+		for (int i = 0; i < 2_000; i++) {
+			List<SpreadPacket> frame = randomFrame(random);
+			byte[] data = codec.encode(frame);
+			assertEquals(codec.header(), data[0]);
+			assertEquals(frame, codec.decode(data), "seed iteration " + i);
+		}
+	}
+
+	static List<SpreadPacket> randomFrame(Random random) {
+		int size = random.nextInt(8);
+		List<SpreadPacket> frame = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			SpreadMsgType type = TYPES[random.nextInt(TYPES.length)];
+			long version = switch (random.nextInt(3)) {
+				case 0 -> random.nextInt(200);
+				case 1 -> random.nextLong() & Long.MAX_VALUE;
+				default -> Long.MAX_VALUE;
+			};
+			String lobby = random.nextInt(5) == 0 ? null : randomString(random);
+			Map<String, String> data = switch (random.nextInt(4)) {
+				case 0 -> null;
+				case 1 -> Map.of();
+				default -> {
+					Map<String, String> m = new HashMap<>();
+					int entries = 1 + random.nextInt(5);
+					for (int e = 0; e < entries; e++)
+						m.put(randomString(random), randomString(random));
+					yield m;
+				}
+			};
+			long epoch = random.nextInt(3) == 0 ? 0 : random.nextInt(1_000);
+			frame.add(new SpreadPacket(type, version, lobby, data, epoch));
+		}
+		return frame;
+	}
+
+	private static String randomString(Random random) {
+		int len = random.nextInt(20);
+		StringBuilder sb = new StringBuilder(len);
+		for (int i = 0; i < len; i++) {
+			switch (random.nextInt(4)) {
+				case 0 -> sb.append((char) ('a' + random.nextInt(26)));
+				case 1 -> sb.append((char) (0x80 + random.nextInt(0x780)));       // 2-byte UTF-8
+				case 2 -> sb.append((char) (0x800 + random.nextInt(0xD000 - 0x800))); // 3-byte UTF-8
+				default -> sb.appendCodePoint(0x10000 + random.nextInt(0xFFFF));   // surrogate pair
+			}
+		}
+		return sb.toString();
+	}
+
+}
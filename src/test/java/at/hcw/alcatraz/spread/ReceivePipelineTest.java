@@ -0,0 +1,160 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+import at.hcw.alcatraz.transport.GroupTransport;
+import at.hcw.alcatraz.transport.MembershipView;
+import at.hcw.alcatraz.transport.TransportListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Receive queue between transport thread and dispatcher.
+ */
+class ReceivePipelineTest {
+
+	private static final MembershipView VIEW =
+			new MembershipView(List.of("#node1#x", "#node2#x"), MembershipView.Cause.LEAVE, "#node3#x");
+
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private final StubTransport transport = new StubTransport();
+	private final RecordingHandler handler = new RecordingHandler();
+	private SpreadConnectionService connection;
+
+	@AfterEach
+	void stop() throws InterruptedException {
+		handler.release.countDown();
+		connection.stop();
+	}
+
+	@Test
+	void membershipOvertakesABacklog() throws Exception {
+		start(16, "block");
+		for (int v = 1; v <= 4; v++)
+			transport.listener.onMessage("#node1#x", frame(v));
+		assertTrue(handler.busy.await(5, TimeUnit.SECONDS));
+
+		transport.listener.onMembership(VIEW);
+		assertEquals(List.of("received"), List.copyOf(handler.fastPath));
+
+		handler.release.countDown();
+		assertEquals(List.of("1", "2", "3", "4", "view"), handler.awaitEvents(5));
+	}
+
+	@Test
+	void dropPolicyDiscardsMessagesButKeepsViews() throws Exception {
+		start(2, "drop");
+		transport.listener.onMessage("#node1#x", frame(1));
+		assertTrue(handler.busy.await(5, TimeUnit.SECONDS));
+		for (int v = 2; v <= 6; v++)
+			transport.listener.onMessage("#node1#x", frame(v));
+		transport.listener.onMembership(VIEW);
+
+		assertEquals(3, meters.get("alcatraz.spread.receive.dropped").counter().count());
+		assertEquals(3, meters.get("alcatraz.spread.receive.queue").gauge().value());
+
+		handler.release.countDown();
+		assertEquals(List.of("1", "2", "3", "view"), handler.awaitEvents(4));
+	}
+
+	@Test
+	void blockPolicyHoldsTheTransportThread() throws Exception {
+		start(1, "block");
+		transport.listener.onMessage("#node1#x", frame(1));
+		assertTrue(handler.busy.await(5, TimeUnit.SECONDS));
+		transport.listener.onMessage("#node1#x", frame(2));
+
+		CompletableFuture<Void> third = CompletableFuture.runAsync(
+				() -> transport.listener.onMessage("#node1#x", frame(3)));
+		Thread.sleep(100);
+		assertFalse(third.isDone());
+
+		handler.release.countDown();
+		third.get(5, TimeUnit.SECONDS);
+		assertEquals(List.of("1", "2", "3"), handler.awaitEvents(3));
+		assertEquals(1, meters.get("alcatraz.spread.receive.blocked").timer().count());
+		assertEquals(0, meters.get("alcatraz.spread.receive.dropped").counter().count());
+	}
+
+	private void start(int capacity, String overflow) throws Exception {
+		connection = new SpreadConnectionService(transport, "node2", "binary", capacity, overflow, meters);
+		connection.init(handler);
+	}
+
+	private static byte[] frame(long version) {
+		return new BinaryPacketCodec().encode(List.of(new SpreadPacket(SpreadMsgType.START, version, "a", null)));
+	}
+
+	static final class StubTransport implements GroupTransport {
+		volatile TransportListener listener;
+
+		@Override
+		public void connect(TransportListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void multicast(byte[] data) {
+		}
+
+		@Override
+		public void send(Collection<String> members, byte[] data) {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public String nodeId() {
+			return "node2";
+		}
+	}
+
+	/**
+	 * Blocks in the first message until released.
+	 */
+	static final class RecordingHandler implements SpreadMessageHandler {
+		final CountDownLatch busy = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		final Queue<String> fastPath = new ConcurrentLinkedQueue<>();
+
+		@Override
+		public void onRegularMessage(List<SpreadPacket> frame, String sender) {
+			busy.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			events.add(Long.toString(frame.get(0).version()));
+		}
+
+		@Override
+		public void onMembership(MembershipView view) {
+			events.add("view");
+		}
+
+		@Override
+		public void onMembershipReceived(MembershipView view) {
+			fastPath.add("received");
+		}
+
+		List<String> awaitEvents(int count) throws InterruptedException {
+			List<String> out = new ArrayList<>();
+			while (out.size() < count) {
+				String e = events.poll(5, TimeUnit.SECONDS);
+				if (e == null)
+					break;
+				out.add(e);
+			}
+			return out;
+		}
+	}
+}
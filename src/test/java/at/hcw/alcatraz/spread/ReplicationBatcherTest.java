@@ -0,0 +1,165 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dto.SpreadPacket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationBatcherTest {
+
+	@Test
+	void coalescesConcurrentDeltasInVersionOrder() throws Exception {
+		RecordingSpread spread = new RecordingSpread();
+		ReplicationBatcher batcher = new ReplicationBatcher(spread, true, 5_000, 64);
+		batcher.start();
+
+		// Versions are handed out under a shared lock, just like the registry's ordering lock.
+		Object ordering = new Object();
+		long[] version = {0};
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<?>> writers = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			writers.add(pool.submit(() -> {
+				for (int i = 0; i < 250; i++) {
+					long v;
+					synchronized (ordering) {
+						v = ++version[0];
+						batcher.enqueue(new SpreadPacket(SpreadMsgType.ADD, v, "lobby", null));
+					}
+					batcher.whenFlushed(v).get(5, TimeUnit.SECONDS);
+					assertTrue(spread.sentUpTo() >= v);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> f : writers)
+			f.get();
+		pool.shutdown();
+		batcher.stop();
+
+		List<Long> sent = spread.frames.stream().flatMap(List::stream).map(SpreadPacket::version).toList();
+		assertEquals(2_000, sent.size());
+		for (int i = 0; i < sent.size(); i++)
+			assertEquals(i + 1, sent.get(i));
+		assertTrue(spread.frames.size() < 2_000, "expected deltas to be coalesced");
+		assertTrue(spread.frames.stream().allMatch(f -> f.size() <= 64));
+	}
+
+	@Test
+	void sendsEveryDeltaOnItsOwnWhenDisabled() throws Exception {
+		RecordingSpread spread = new RecordingSpread();
+		ReplicationBatcher batcher = new ReplicationBatcher(spread, false, 5_000, 64);
+		batcher.start();
+
+		// Sent by the flusher, not by the thread that holds the ordering lock.
+		Thread caller = Thread.currentThread();
+		spread.onSend = frame -> assertNotSame(caller, Thread.currentThread());
+		synchronized (this) {
+			batcher.enqueue(new SpreadPacket(SpreadMsgType.ADD, 1, "lobby", null));
+			batcher.enqueue(new SpreadPacket(SpreadMsgType.ADD, 2, "lobby", null));
+		}
+		batcher.whenFlushed(2).get(5, TimeUnit.SECONDS);
+		batcher.stop();
+		assertEquals(List.of(List.of(1L), List.of(2L)), spread.frames.stream()
+				.map(f -> f.stream().map(SpreadPacket::version).toList())
+				.toList());
+	}
+
+	@Test
+	void failedSendFailsTheWritersOfThatBatchOnly() throws Exception {
+		RecordingSpread spread = new RecordingSpread();
+		ReplicationBatcher batcher = new ReplicationBatcher(spread, true, 0, 64);
+		batcher.start();
+
+		spread.onSend = frame -> {
+			throw new UncheckedIOException(new IOException("daemon gone"));
+		};
+		batcher.enqueue(new SpreadPacket(SpreadMsgType.ADD, 1, "lobby", null));
+		assertThrows(ExecutionException.class, () -> batcher.whenFlushed(1).get(5, TimeUnit.SECONDS));
+
+		spread.onSend = frame -> {
+		};
+		batcher.enqueue(new SpreadPacket(SpreadMsgType.ADD, 2, "lobby", null));
+		batcher.whenFlushed(2).get(5, TimeUnit.SECONDS);
+		// Asked late, version 1 still reports its failure.
+		assertTrue(batcher.whenFlushed(1).isCompletedExceptionally());
+		batcher.stop();
+
+		// Without the flusher the send happens on the caller, with the same outcome.
+		spread.onSend = frame -> {
+			throw new UncheckedIOException(new IOException("daemon gone"));
+		};
+		batcher.enqueue(new SpreadPacket(SpreadMsgType.ADD, 3, "lobby", null));
+		assertTrue(batcher.whenFlushed(3).isCompletedExceptionally());
+	}
+
+	@Test
+	void groupEnqueuedTogetherIsNeverSplit() throws Exception {
+		RecordingSpread spread = new RecordingSpread();
+		ReplicationBatcher batcher = new ReplicationBatcher(spread, true, 50_000, 4);
+		batcher.start();
+
+		// 3 singles, a group of 6 (larger than the maximum) and a group of 3.
+		long v = 0;
+		for (int i = 0; i < 3; i++)
+			batcher.enqueue(new SpreadPacket(SpreadMsgType.ADD, ++v, "lobby", null));
+		batcher.enqueueAll(packets(v + 1, 6));
+		v += 6;
+		batcher.enqueueAll(packets(v + 1, 3));
+		v += 3;
+		batcher.whenFlushed(v).get(5, TimeUnit.SECONDS);
+		batcher.stop();
+
+		List<List<Long>> frames = spread.frames.stream()
+				.map(f -> f.stream().map(SpreadPacket::version).toList())
+				.toList();
+		assertEquals(List.of(List.of(1L, 2L, 3L), List.of(4L, 5L, 6L, 7L, 8L, 9L), List.of(10L, 11L, 12L)), frames);
+	}
+
+	@Test
+	void splitMovesCutsOutOfGroups() {
+		List<SpreadPacket> batch = packets(1, 10);
+		List<int[]> groups = List.of(new int[]{2, 5}, new int[]{5, 7});
+
+		List<List<Long>> frames = ReplicationBatcher.split(batch, groups, 4).stream()
+				.map(f -> f.stream().map(SpreadPacket::version).toList())
+				.toList();
+		assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L, 5L), List.of(6L, 7L, 8L, 9L), List.of(10L)), frames);
+	}
+
+	private static List<SpreadPacket> packets(long first, int count) {
+		List<SpreadPacket> out = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			out.add(new SpreadPacket(SpreadMsgType.ADD, first + i, "lobby", null));
+		return out;
+	}
+
+	static class RecordingSpread extends SpreadConnectionService {
+		final List<List<SpreadPacket>> frames = new CopyOnWriteArrayList<>();
+		volatile Consumer<List<SpreadPacket>> onSend = frame -> {
+		};
+
+		RecordingSpread() {
+			super(null, "node1", "binary", 0, "block", new SimpleMeterRegistry());
+		}
+
+		@Override
+		public void send(List<SpreadPacket> frame) {
+			onSend.accept(frame);
+			frames.add(List.copyOf(frame));
+		}
+
+		long sentUpTo() {
+			return frames.isEmpty() ? 0 : frames.get(frames.size() - 1).get(frames.get(frames.size() - 1).size() - 1).version();
+		}
+	}
+
+}
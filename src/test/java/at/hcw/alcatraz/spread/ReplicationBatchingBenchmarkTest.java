@@ -0,0 +1,105 @@
+package at.hcw.alcatraz.spread;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.transport.GroupTransport;
+import at.hcw.alcatraz.transport.TransportListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares master write throughput with and without replication batching.
+ *
+ * Each write registers a player in its own lobby and waits until its delta
+ * was handed to the daemon, like PlayerController does. The daemon hand-off
+ * is simulated with a fixed cost per multicast; encoding is real.
+ *
+ * Run with: mvn test -Dtest=ReplicationBatchingBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ReplicationBatchingBenchmarkTest {
+
+	private static final int THREADS = 32;
+	private static final long MULTICAST_COST_NANOS = 50_000;
+	private static final long DURATION_MILLIS = 3_000;
+
+	@Test
+	void writesPerSecondWithAndWithoutBatching() throws Exception {
+		double unbatched = run(false);
+		double batched = run(true);
+		System.out.printf("[Benchmark] replication writes/sec: unbatched=%.0f batched=%.0f speedup=%.1fx%n",
+				unbatched, batched, batched / unbatched);
+	}
+
+	private static double run(boolean batching) throws Exception {
+		SimulatedDaemon daemon = new SimulatedDaemon();
+		SpreadConnectionService spread = new SpreadConnectionService(daemon, "node1", "binary", 0, "block", new SimpleMeterRegistry());
+		ReplicationBatcher batcher = new ReplicationBatcher(spread, batching, 200, 256);
+		batcher.start();
+		PlayerRegistry registry = new PlayerRegistry();
+		registry.addListener((change, local) -> batcher.enqueue(ReplicationFrames.toPacket(change)));
+
+		AtomicLong writes = new AtomicLong();
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> workers = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			int thread = t;
+			workers.add(pool.submit(() -> {
+				long i = 0;
+				while (System.nanoTime() < end) {
+					String lobby = "lobby-" + thread + "-" + (i++);
+					registry.add(lobby, "player", "http://" + lobby);
+					batcher.whenFlushed(registry.version()).get(5, TimeUnit.SECONDS);
+					writes.incrementAndGet();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> f : workers)
+			f.get();
+		pool.shutdown();
+		batcher.stop();
+
+		double perSecond = writes.get() * 1000.0 / DURATION_MILLIS;
+		System.out.printf("[Benchmark] batching=%s writes=%d multicasts=%d%n",
+				batching, writes.get(), daemon.multicasts.get());
+		return perSecond;
+	}
+
+	static class SimulatedDaemon implements GroupTransport {
+		final AtomicLong multicasts = new AtomicLong();
+
+		@Override
+		public void connect(TransportListener listener) {
+		}
+
+		@Override
+		public synchronized void multicast(byte[] data) {
+			multicasts.incrementAndGet();
+			LockSupport.parkNanos(MULTICAST_COST_NANOS);
+		}
+
+		@Override
+		public void send(Collection<String> members, byte[] data) {
+			multicast(data);
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public String nodeId() {
+			return "node1";
+		}
+	}
+
+}
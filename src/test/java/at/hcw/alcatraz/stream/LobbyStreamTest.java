@@ -0,0 +1,137 @@
+package at.hcw.alcatraz.stream;
+
+import at.hcw.alcatraz.dao.PlayerRegistry;
+import at.hcw.alcatraz.dao.RegistryChange;
+import at.hcw.alcatraz.dao.RegistrySnapshot;
+import at.hcw.alcatraz.dto.LobbyChanges;
+import at.hcw.alcatraz.dto.LobbyEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LobbyStreamTest {
+
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private final PlayerRegistry registry = new PlayerRegistry();
+	private LobbyStream stream;
+
+	@AfterEach
+	void stop() throws InterruptedException {
+		stream.stop();
+	}
+
+	@Test
+	void pollWithoutVersionStartsWithASnapshot() {
+		start(100);
+		registry.add("a", "alice", "http://alice");
+		registry.add("a", "bob", "http://bob");
+
+		LobbyChanges changes = poll("a", null);
+		assertEquals(2, changes.getVersion());
+		assertEquals(List.of(new LobbyEvent(2, "a", "SNAPSHOT", null, Set.of("alice", "bob"), false)),
+				changes.getEvents());
+	}
+
+	@Test
+	void pollResumesWithTheChangesOfItsLobby() {
+		start(100);
+		registry.add("a", "alice", "http://alice");
+		registry.add("b", "bob", "http://bob");
+		registry.add("a", "carol", "http://carol");
+		registry.remove("a", "alice");
+
+		LobbyChanges changes = poll("a", 1L);
+		assertEquals(4, changes.getVersion());
+		assertEquals(List.of("ADD carol", "REMOVE alice"), describe(changes));
+		assertEquals(1, meters.get("alcatraz.stream.resumes").tag("mode", "delta").counter().count());
+	}
+
+	@Test
+	void waitingPollIsAnsweredByTheNextChangeOfItsLobby() throws Exception {
+		start(100);
+		registry.add("a", "alice", "http://alice");
+
+		DeferredResult<LobbyChanges> waiting = stream.poll("a", 1L, 10_000);
+		assertFalse(waiting.hasResult());
+		assertEquals(1, gauge("poll"));
+
+		registry.add("b", "bob", "http://bob");
+		registry.add("a", "carol", "http://carol");
+		LobbyChanges changes = await(waiting);
+		assertEquals(3, changes.getVersion());
+		assertEquals(List.of("ADD carol"), describe(changes));
+	}
+
+	@Test
+	void versionOlderThanTheHistoryGetsASnapshot() {
+		start(2);
+		for (String p : List.of("a1", "a2", "a3", "a4"))
+			registry.add("a", p, "http://" + p);
+
+		LobbyChanges changes = poll("a", 1L);
+		assertEquals(List.of("SNAPSHOT"), describe(changes));
+		assertEquals(Set.of("a1", "a2", "a3", "a4"), changes.getEvents().get(0).getPlayers());
+		assertEquals(1, meters.get("alcatraz.stream.resumes").tag("mode", "snapshot").counter().count());
+	}
+
+	@Test
+	void installedSnapshotAnswersWaitingPolls() throws Exception {
+		start(100);
+		registry.apply(new RegistryChange(RegistryChange.Kind.ADD, 1, "a", "alice", "http://alice"));
+
+		DeferredResult<LobbyChanges> waiting = stream.poll("a", 1L, 10_000);
+		registry.install(new RegistrySnapshot(7, List.of(
+				new RegistrySnapshot.LobbyState("a", 7, true, Map.of("bob", "http://bob")))));
+
+		LobbyChanges changes = await(waiting);
+		assertEquals(List.of(new LobbyEvent(7, "a", "SNAPSHOT", null, Set.of("bob"), true)), changes.getEvents());
+	}
+
+	@Test
+	void gameStartAndResetAreStreamed() {
+		start(100);
+		registry.add("a", "alice", "http://alice");
+		registry.add("a", "bob", "http://bob");
+		assertTrue(registry.tryStart("a"));
+		registry.markStarted("a");
+		registry.reset("a");
+
+		assertEquals(List.of("START", "RESET"), describe(poll("a", 2L)));
+	}
+
+	private void start(int historySize) {
+		stream = new LobbyStream(registry, historySize, 60_000, 60_000, 30_000, meters);
+		stream.start();
+	}
+
+	private LobbyChanges poll(String lobby, Long since) {
+		DeferredResult<LobbyChanges> result = stream.poll(lobby, since, 0);
+		assertTrue(result.hasResult());
+		return (LobbyChanges) result.getResult();
+	}
+
+	private static LobbyChanges await(DeferredResult<LobbyChanges> result) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (!result.hasResult() && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		assertTrue(result.hasResult());
+		return (LobbyChanges) result.getResult();
+	}
+
+	private double gauge(String type) {
+		return meters.get("alcatraz.stream.subscribers").tag("type", type).gauge().value();
+	}
+
+	private static List<String> describe(LobbyChanges changes) {
+		return changes.getEvents().stream()
+				.map(e -> e.getPlayerName() != null ? e.getType() + " " + e.getPlayerName() : e.getType())
+				.toList();
+	}
+}